@@ -0,0 +1,120 @@
+package com.tools.fsclient;
+
+import com.tools.fsclient.rest.FSRestClient;
+import com.tools.fsclient.sync.DirectorySynchronizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to --sync a directory of fresh files through a ThrottlingProxy (latency per chunk, shared
+ * upload bandwidth), with a fixed number of parallel uploads ("1-1", "16-16") against the adaptive
+ * limit ("1-16"). Needs a running server at -Dfsserver.api.rootUrl (default
+ * http://127.0.0.1:8080). With the server's per-client rate limit on
+ * (fsserver.admission.clientBytesPerSecond), too many parallel uploads are also turned away with
+ * 429s. The synced files are deleted from the server again outside the measured time. Results are
+ * in milliseconds per sync
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AdaptiveSyncBenchmark {
+
+  private static final int FILES_PER_SYNC = 64;
+
+  @Param({"1-1", "16-16", "1-16"})
+  public String parallelism;
+
+  @Param({"256"})
+  public int fileSizeKb;
+
+  @Param({"8"})
+  public int proxyMegabytesPerSecond;
+
+  @Param({"10"})
+  public int proxyLatencyMillis;
+
+  private ThrottlingProxy proxy;
+  private FSRestClient restClient;
+  private byte[] content;
+  private Path workDir;
+  private Path directory;
+  private int invocation;
+
+  @Setup(Level.Trial)
+  public void setUpProxy() throws IOException {
+    URI server = URI.create(System.getProperty("fsserver.api.rootUrl", "http://127.0.0.1:8080"));
+    proxy =
+        new ThrottlingProxy(
+            server.getHost(),
+            server.getPort(),
+            proxyMegabytesPerSecond * 1024L * 1024L,
+            proxyLatencyMillis);
+    String rootUrl = "http://127.0.0.1:" + proxy.getPort();
+    restClient = new FSRestClient(rootUrl + "/v1/files", rootUrl + "/v1/stats");
+    content = new byte[fileSizeKb * 1024];
+    new Random(42).nextBytes(content);
+    workDir = Files.createTempDirectory("fsclient-sync-bench");
+  }
+
+  @Setup(Level.Invocation)
+  public void writeFreshFiles() throws IOException {
+    invocation++;
+    directory = Files.createDirectory(workDir.resolve("dir-" + invocation));
+    for (int i = 0; i < FILES_PER_SYNC; i++) {
+      Files.write(directory.resolve("sync-bench-" + invocation + "-" + i + ".bin"), content);
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void removeFiles() throws IOException, InterruptedException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    synchronizer(true).syncOnce();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownProxy() throws IOException {
+    proxy.close();
+    try (Stream<Path> leftovers = Files.walk(workDir)) {
+      for (Path path : (Iterable<Path>) leftovers.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public void sync() throws IOException, InterruptedException {
+    synchronizer(false).syncOnce();
+  }
+
+  private DirectorySynchronizer synchronizer(boolean propagateDeletes) {
+    String[] bounds = parallelism.split("-");
+    return new DirectorySynchronizer(
+        restClient,
+        directory,
+        workDir.resolve("state"),
+        Integer.parseInt(bounds[0]),
+        Integer.parseInt(bounds[1]),
+        propagateDeletes);
+  }
+}
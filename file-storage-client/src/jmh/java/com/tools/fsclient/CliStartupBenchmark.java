@@ -0,0 +1,78 @@
+package com.tools.fsclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock time of one whole CLI run (--list-files) as a fat jar on a fresh JVM against the
+ * native executable. Build both first (./gradlew :file-storage-client:jar
+ * :file-storage-client:nativeCompile); their locations can be changed with -Dfsclient.jar and
+ * -Dfsclient.native. The runs contact the server at -Dfsserver.api.rootUrl (default
+ * http://127.0.0.1:8080), with no server running they only measure startup and a refused
+ * connection. Results are in milliseconds per run
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CliStartupBenchmark {
+
+  @Param({"jar", "native"})
+  public String launcher;
+
+  private List<String> command;
+
+  @Setup
+  public void setUpCommand() {
+    boolean jar = "jar".equals(launcher);
+    Path executable =
+        Paths.get(
+            jar
+                ? System.getProperty(
+                    "fsclient.jar", "build/libs/file-storage-client-1.0.0-SNAPSHOT.jar")
+                : System.getProperty(
+                    "fsclient.native", "build/native/nativeCompile/file-storage-client"));
+    if (!Files.exists(executable)) {
+      throw new IllegalStateException(executable.toAbsolutePath() + " has not been built");
+    }
+    // a native executable takes system properties as its own arguments, the JVM before -jar
+    List<String> systemProperties = new ArrayList<>();
+    String rootUrl = System.getProperty("fsserver.api.rootUrl");
+    if (rootUrl != null) {
+      systemProperties.add("-Dfsserver.api.rootUrl=" + rootUrl);
+    }
+    command = new ArrayList<>();
+    if (jar) {
+      command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+      command.addAll(systemProperties);
+      command.add("-jar");
+      command.add(executable.toAbsolutePath().toString());
+    } else {
+      command.add(executable.toAbsolutePath().toString());
+      command.addAll(systemProperties);
+    }
+    command.add("--list-files");
+  }
+
+  @Benchmark
+  public int runCli() throws IOException, InterruptedException {
+    return new ProcessBuilder(command)
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start()
+        .waitFor();
+  }
+}
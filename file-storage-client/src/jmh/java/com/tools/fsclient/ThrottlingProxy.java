@@ -0,0 +1,93 @@
+package com.tools.fsclient;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Local TCP proxy standing in for a slow WAN link in benchmarks. Every chunk it forwards is held
+ * back by a fixed latency, which caps the throughput of a single connection the way a round trip
+ * caps a TCP window, and uploads of all connections share one bandwidth limit
+ */
+final class ThrottlingProxy implements AutoCloseable {
+
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  private final ServerSocket serverSocket;
+  private final String targetHost;
+  private final int targetPort;
+  private final RateLimiter uploadBandwidth;
+  private final long latencyMillis;
+
+  ThrottlingProxy(String targetHost, int targetPort, long uploadBytesPerSecond, long latencyMillis)
+      throws IOException {
+    this.serverSocket = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+    this.targetHost = targetHost;
+    this.targetPort = targetPort;
+    this.uploadBandwidth = RateLimiter.create(uploadBytesPerSecond);
+    this.latencyMillis = latencyMillis;
+    startDaemon(this::acceptConnections);
+  }
+
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void acceptConnections() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket client = serverSocket.accept();
+        Socket server = new Socket(targetHost, targetPort);
+        startDaemon(() -> pump(client, server, uploadBandwidth));
+        startDaemon(() -> pump(server, client, null));
+      } catch (IOException e) {
+        // closed
+      }
+    }
+  }
+
+  private void pump(Socket from, Socket to, RateLimiter bandwidth) {
+    byte[] buffer = new byte[CHUNK_SIZE];
+    try (InputStream in = from.getInputStream();
+        OutputStream out = to.getOutputStream()) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        if (bandwidth != null) {
+          bandwidth.acquire(read);
+        }
+        Thread.sleep(latencyMillis);
+        out.write(buffer, 0, read);
+        out.flush();
+      }
+    } catch (IOException | InterruptedException e) {
+      // either side went away
+    } finally {
+      closeQuietly(from);
+      closeQuietly(to);
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing left to do
+    }
+  }
+
+  private static void startDaemon(Runnable task) {
+    Thread thread = new Thread(task, "throttling-proxy");
+    thread.setDaemon(true);
+    thread.start();
+  }
+}
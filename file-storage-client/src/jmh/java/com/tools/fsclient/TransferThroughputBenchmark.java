@@ -0,0 +1,111 @@
+package com.tools.fsclient;
+
+import com.tools.fsclient.grpc.FSGrpcClient;
+import com.tools.fsclient.rest.FSRestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Upload throughput of the REST API (one multipart request per file) against the gRPC API (one
+ * client-streaming call per file, and one Batch call for all files). Needs a running server; its
+ * location is taken from -Dfsserver.api.rootUrl (default http://127.0.0.1:8080) and
+ * -Dfsserver.grpc.target (default 127.0.0.1:9000). Every invocation uploads freshly named files,
+ * which are removed again outside the measured time. Results are in files per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransferThroughputBenchmark {
+
+  private static final int FILES_PER_INVOCATION = 32;
+
+  @Param({"16", "1024"})
+  public int fileSizeKb;
+
+  private FSRestClient restClient;
+  private FSGrpcClient grpcClient;
+  private byte[] content;
+  private Path workDir;
+  private List<Path> files;
+  private int invocation;
+
+  @Setup(Level.Trial)
+  public void setUpClients() throws IOException {
+    String rootUrl = System.getProperty("fsserver.api.rootUrl", "http://127.0.0.1:8080");
+    restClient = new FSRestClient(rootUrl + "/v1/files", rootUrl + "/v1/stats");
+    grpcClient = new FSGrpcClient(System.getProperty("fsserver.grpc.target", "127.0.0.1:9000"));
+    content = new byte[fileSizeKb * 1024];
+    new Random(42).nextBytes(content);
+    workDir = Files.createTempDirectory("fsclient-bench");
+  }
+
+  @Setup(Level.Invocation)
+  public void writeFreshFiles() throws IOException {
+    invocation++;
+    files = new ArrayList<>();
+    for (int i = 0; i < FILES_PER_INVOCATION; i++) {
+      files.add(Files.write(workDir.resolve("bench-" + invocation + "-" + i + ".bin"), content));
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void removeFiles() throws IOException {
+    List<String> names = new ArrayList<>();
+    for (Path file : files) {
+      names.add(file.getFileName().toString());
+      Files.delete(file);
+    }
+    grpcClient.deleteFiles(names);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownClients() throws IOException {
+    grpcClient.close();
+    try (Stream<Path> leftovers = Files.walk(workDir)) {
+      for (Path path : (Iterable<Path>) leftovers.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES_PER_INVOCATION)
+  public void restUploadPerFile() {
+    for (Path file : files) {
+      restClient.uploadFile(file.toString());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES_PER_INVOCATION)
+  public void grpcUploadPerFile() {
+    for (Path file : files) {
+      grpcClient.uploadFile(file.toString());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES_PER_INVOCATION)
+  public void grpcBatchUpload() {
+    grpcClient.uploadFiles(files);
+  }
+}
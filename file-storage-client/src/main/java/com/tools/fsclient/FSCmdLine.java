@@ -1,7 +1,12 @@
 package com.tools.fsclient;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.tools.fsclient.rest.BackoffPolicy;
 import com.tools.fsclient.rest.FSRestClient;
+import com.tools.fsclient.rest.ServerSettingsCache;
+import com.tools.fsclient.sdk.FSAsyncClient;
+import com.tools.fsclient.sdk.FileOperationResult;
+import com.tools.fsclient.sync.DirectorySynchronizer;
 import org.apache.commons.cli.*;
 import org.apache.commons.configuration2.PropertiesConfiguration;
 import org.apache.commons.configuration2.builder.fluent.Configurations;
@@ -11,10 +16,15 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 public class FSCmdLine {
 
@@ -27,19 +37,42 @@ public class FSCmdLine {
       "Provide an option above in either the short '-' or long'--' version";
   private static final String OPTION_LIST_FILES = "list-files";
   private static final String OPTION_UPLOAD_FILE = "upload-file";
+  private static final String OPTION_UPLOAD_DIR = "upload-dir";
   private static final String OPTION_DELETE_FILE = "delete-file";
+  private static final String OPTION_SHELL = "shell";
+  private static final String OPTION_SYNC = "sync";
+  private static final String OPTION_SYNC_DELETE = "sync-delete";
+  private static final String OPTION_SYNC_WATCH = "sync-watch";
+  private static final String SHELL_EXIT = "exit";
   private static final String FSSERVER_ROOT_URL_PROP = "fsserver.api.rootUrl";
   private static final String FSSERVER_API_VERSION_PROP = "fsserver.api.version";
   private static final String FSSERVER_API_FILES = "fsserver.api.filesApi";
   private static final String FSSERVER_API_STATS = "fsserver.api.statsApi";
+  private static final String FSCLIENT_CACHE_PATH_PROP = "fsclient.cache.path";
+  private static final String FSCLIENT_CACHE_TTL_PROP = "fsclient.cache.ttlSeconds";
+  private static final String FSCLIENT_SYNC_STATE_PATH_PROP = "fsclient.sync.statePath";
+  private static final String FSCLIENT_SYNC_MIN_PARALLELISM_PROP = "fsclient.sync.minParallelism";
+  private static final String FSCLIENT_SYNC_MAX_PARALLELISM_PROP = "fsclient.sync.maxParallelism";
+  private static final int DEFAULT_SYNC_MIN_PARALLELISM = 1;
+  private static final int DEFAULT_SYNC_MAX_PARALLELISM = 8;
   private static final HelpFormatter HELP_FORMATTER = new HelpFormatter();
   private static final CommandLineParser CMD_LINE_PARSER = new DefaultParser();
 
   private FSRestClient fsRestClient;
+  private FSAsyncClient fsAsyncClient;
+  private Path syncStatePath = defaultSyncStatePath();
+  private int syncMinParallelism = DEFAULT_SYNC_MIN_PARALLELISM;
+  private int syncMaxParallelism = DEFAULT_SYNC_MAX_PARALLELISM;
 
   public static void main(String[] args) {
     FSCmdLine fsCmdLine = new FSCmdLine();
-    fsCmdLine.processInputAndRun(args);
+    try {
+      fsCmdLine.processInputAndRun(args);
+    } finally {
+      if (fsCmdLine.fsAsyncClient != null) {
+        fsCmdLine.fsAsyncClient.close();
+      }
+    }
   }
 
   public FSCmdLine() {
@@ -47,8 +80,9 @@ public class FSCmdLine {
   }
 
   @VisibleForTesting
-  FSCmdLine(FSRestClient fsRestClient) {
+  FSCmdLine(FSRestClient fsRestClient, FSAsyncClient fsAsyncClient) {
     this.fsRestClient = fsRestClient;
+    this.fsAsyncClient = fsAsyncClient;
   }
 
   @VisibleForTesting
@@ -65,15 +99,44 @@ public class FSCmdLine {
       String serverApiVersion = config.getString(FSSERVER_API_VERSION_PROP);
       String serverFilesApi = config.getString(FSSERVER_API_FILES);
       String serverStatsApi = config.getString(FSSERVER_API_STATS);
+      String serverFilesApiUrl =
+          String.join("/", serverApiRootUrl, serverApiVersion, serverFilesApi);
       this.fsRestClient =
           new FSRestClient(
-              String.join("/", serverApiRootUrl, serverApiVersion, serverFilesApi),
-              String.join("/", serverApiRootUrl, serverApiVersion, serverStatsApi));
+              serverFilesApiUrl,
+              String.join("/", serverApiRootUrl, serverApiVersion, serverStatsApi),
+              BackoffPolicy.defaultPolicy(),
+              buildServerSettingsCache(config));
+      this.fsAsyncClient = new FSAsyncClient(serverFilesApiUrl);
+      if (!StringUtils.isEmpty(config.getString(FSCLIENT_SYNC_STATE_PATH_PROP))) {
+        this.syncStatePath = Paths.get(config.getString(FSCLIENT_SYNC_STATE_PATH_PROP));
+      }
+      int configuredSyncMinParallelism = config.getInt(FSCLIENT_SYNC_MIN_PARALLELISM_PROP, 0);
+      if (configuredSyncMinParallelism > 0) {
+        this.syncMinParallelism = configuredSyncMinParallelism;
+      }
+      int configuredSyncMaxParallelism = config.getInt(FSCLIENT_SYNC_MAX_PARALLELISM_PROP, 0);
+      if (configuredSyncMaxParallelism > 0) {
+        this.syncMaxParallelism = configuredSyncMaxParallelism;
+      }
     } catch (ConfigurationException ex) {
       LOG.error("Startup failure - unable to process configuration", ex);
     }
   }
 
+  private static ServerSettingsCache buildServerSettingsCache(PropertiesConfiguration config) {
+    String cachePath = config.getString(FSCLIENT_CACHE_PATH_PROP);
+    if (StringUtils.isEmpty(cachePath)) {
+      return ServerSettingsCache.disabled();
+    }
+    return new ServerSettingsCache(
+        Paths.get(cachePath), config.getLong(FSCLIENT_CACHE_TTL_PROP, 0));
+  }
+
+  private static Path defaultSyncStatePath() {
+    return Paths.get(System.getProperty("user.home"), ".fsclient", "sync");
+  }
+
   /**
    * Main CLI processing logic: args are being parsed, based on which an HTTP call to the server is
    * made for upload/deletion/listing. If any errors occur, the CLI usage guide is logged to console
@@ -83,58 +146,202 @@ public class FSCmdLine {
    */
   @VisibleForTesting
   void processInputAndRun(String[] args) {
-    Options options = buildOptions();
+    // only a limit known without asking the server: commands which never print the usage guide
+    // should not wait for the server's stats
+    Options options = buildOptions(this.fsRestClient.getKnownFileUploadSizeLimit());
     CommandLine parsedCmdLine;
     try { // parse(...) below will fail if unknown options/args are passed
       parsedCmdLine = CMD_LINE_PARSER.parse(options, args);
     } catch (ParseException e) {
       LOG.error("Error parsing command line input. Please consult the usage guide and try again");
-      HELP_FORMATTER.printHelp(
-          FSCLIENT_EXECUTABLE, FSCLIENT_HELP_HEADER, options, FSCLIENT_HELP_FOOTER);
+      printUsageGuide();
       return;
     }
     // At this point, either no options have been passed or one of the allowed ones
     if (ArrayUtils.isEmpty(parsedCmdLine.getOptions())) {
-      handleNoCommandsGiven(options);
+      handleNoCommandsGiven();
     } else if (parsedCmdLine.hasOption(OPTION_LIST_FILES)) {
       handleListFilesCommand();
     } else if (parsedCmdLine.hasOption(OPTION_UPLOAD_FILE)) {
-      handleFileUploadCommand(parsedCmdLine, options);
+      handleFileUploadCommand(parsedCmdLine);
+    } else if (parsedCmdLine.hasOption(OPTION_UPLOAD_DIR)) {
+      handleDirectoryUploadCommand(parsedCmdLine);
     } else if (parsedCmdLine.hasOption(OPTION_DELETE_FILE)) {
       handleFileDeleteCommand(parsedCmdLine);
+    } else if (parsedCmdLine.hasOption(OPTION_SHELL)) {
+      handleShellCommand();
+    } else if (parsedCmdLine.hasOption(OPTION_SYNC)) {
+      handleSyncCommand(parsedCmdLine);
     } else {
       LOG.error("Unsupported option specified. Please consult the usage guide and try again");
-      HELP_FORMATTER.printHelp(
-          FSCLIENT_EXECUTABLE, FSCLIENT_HELP_HEADER, options, FSCLIENT_HELP_FOOTER);
+      printUsageGuide();
     }
   }
 
-  private void handleNoCommandsGiven(Options options) {
+  private void handleNoCommandsGiven() {
     LOG.error("No options specified. Please consult the usage guide and try again");
-    HELP_FORMATTER.printHelp(
-        FSCLIENT_EXECUTABLE, FSCLIENT_HELP_HEADER, options, FSCLIENT_HELP_FOOTER);
+    printUsageGuide();
   }
 
   private void handleListFilesCommand() {
     LOG.debug("Received command to list all uploaded files");
-    this.fsRestClient.listUploadedFiles();
+    FileOperationResult<List<String>> result = this.fsAsyncClient.listUploadedFiles().join();
+    switch (result.getStatus()) {
+      case SUCCESS -> {
+        if (result.getValue().isEmpty()) {
+          LOG.warn("No files have been uploaded yet");
+        } else {
+          LOG.info("Currently uploaded files: {}", String.join(",", result.getValue()));
+        }
+      }
+      case SERVER_BUSY -> LOG.error(
+          "Server is busy, gave up listing uploaded files after {} attempts. Please try again later",
+          result.getAttempts());
+      case SERVER_ERROR -> LOG.error(
+          "Unexpected server error when listing uploaded files. Please try again");
+      case IO_ERROR -> LOG.error("Error fetching list of all uploaded files. Please try again");
+      default -> LOG.error("Unexpected error when listing uploaded files. Please try again");
+    }
   }
 
-  private void handleFileUploadCommand(CommandLine parsedCmdLine, Options options) {
+  private void handleFileUploadCommand(CommandLine parsedCmdLine) {
     LOG.debug("Received command to upload a file");
     String pathToFileToUpload = parsedCmdLine.getOptionValue(OPTION_UPLOAD_FILE);
     if (!checkIfFileToUploadExists(pathToFileToUpload)) {
       LOG.error("File {} doesn't exist. Please select a file which exists", pathToFileToUpload);
-      HELP_FORMATTER.printHelp(
-          FSCLIENT_EXECUTABLE, FSCLIENT_HELP_HEADER, options, FSCLIENT_HELP_FOOTER);
+      printUsageGuide();
       return;
     }
-    this.fsRestClient.uploadFile(pathToFileToUpload);
+    FileOperationResult<Void> result =
+        this.fsAsyncClient.uploadFile(Paths.get(pathToFileToUpload)).join();
+    switch (result.getStatus()) {
+      case SUCCESS -> LOG.info("Successfully uploaded file {}", pathToFileToUpload);
+      case BAD_REQUEST -> LOG.error("Upload error. Missing 'payload' from multipart body");
+      case CONFLICT -> LOG.error(
+          "Upload error. {} already exists on server", pathToFileToUpload);
+      case TOO_LARGE -> LOG.error(
+          "{} is larger than size limit of {}. Please try again with smaller files",
+          pathToFileToUpload,
+          this.fsRestClient.getFileUploadSizeLimit());
+      case SERVER_BUSY -> LOG.error(
+          "Server is busy, gave up uploading file {} after {} attempts. Please try again later",
+          pathToFileToUpload,
+          result.getAttempts());
+      case SERVER_ERROR -> LOG.error(
+          "Unexpected server error when uploading file {}. Please try again", pathToFileToUpload);
+      case IO_ERROR -> LOG.error("Error uploading file. Please try again");
+      default -> LOG.error(
+          "Unexpected error when uploading file {}. Please try again", pathToFileToUpload);
+    }
+  }
+
+  private void handleDirectoryUploadCommand(CommandLine parsedCmdLine) {
+    LOG.debug("Received command to upload a directory");
+    String pathToDirectoryToUpload = parsedCmdLine.getOptionValue(OPTION_UPLOAD_DIR);
+    if (!checkIfDirectoryToUploadExists(pathToDirectoryToUpload)) {
+      LOG.error(
+          "Directory {} doesn't exist. Please select a directory which exists",
+          pathToDirectoryToUpload);
+      printUsageGuide();
+      return;
+    }
+    this.fsRestClient.uploadDirectory(pathToDirectoryToUpload);
   }
 
   private void handleFileDeleteCommand(CommandLine parsedCmdLine) {
     LOG.debug("Received command to delete a file");
-    this.fsRestClient.deleteFile(parsedCmdLine.getOptionValue(OPTION_DELETE_FILE));
+    String fileNameToDelete = parsedCmdLine.getOptionValue(OPTION_DELETE_FILE);
+    FileOperationResult<Void> result = this.fsAsyncClient.deleteFile(fileNameToDelete).join();
+    switch (result.getStatus()) {
+      case SUCCESS -> LOG.info("Successfully deleted file {}", fileNameToDelete);
+      case NOT_FOUND -> LOG.error(
+          "Did not delete anything. File {} is not present on server", fileNameToDelete);
+      case SERVER_BUSY -> LOG.error(
+          "Server is busy, gave up deleting file {} after {} attempts. Please try again later",
+          fileNameToDelete,
+          result.getAttempts());
+      case SERVER_ERROR -> LOG.error(
+          "Unexpected server error when deleting file {}. Please try again", fileNameToDelete);
+      case IO_ERROR -> LOG.error("Error deleting file. Please try again");
+      default -> LOG.error(
+          "Unexpected error when deleting file {}. Please try again", fileNameToDelete);
+    }
+  }
+
+  private void handleSyncCommand(CommandLine parsedCmdLine) {
+    LOG.debug("Received command to sync a directory");
+    String pathToDirectoryToSync = parsedCmdLine.getOptionValue(OPTION_SYNC);
+    if (!checkIfDirectoryToUploadExists(pathToDirectoryToSync)) {
+      LOG.error(
+          "Directory {} doesn't exist. Please select a directory which exists",
+          pathToDirectoryToSync);
+      printUsageGuide();
+      return;
+    }
+    DirectorySynchronizer synchronizer =
+        createDirectorySynchronizer(
+            Paths.get(pathToDirectoryToSync), parsedCmdLine.hasOption(OPTION_SYNC_DELETE));
+    try {
+      if (parsedCmdLine.hasOption(OPTION_SYNC_WATCH)) {
+        synchronizer.watch();
+      } else {
+        LOG.info("Synced directory {}: {}", pathToDirectoryToSync, synchronizer.syncOnce());
+      }
+    } catch (IOException e) {
+      LOG.error("Error syncing directory {}. Please try again", pathToDirectoryToSync);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Stopped syncing directory {}", pathToDirectoryToSync);
+    }
+  }
+
+  @VisibleForTesting
+  DirectorySynchronizer createDirectorySynchronizer(Path directory, boolean propagateDeletes) {
+    return new DirectorySynchronizer(
+        this.fsRestClient,
+        directory,
+        this.syncStatePath,
+        this.syncMinParallelism,
+        this.syncMaxParallelism,
+        propagateDeletes);
+  }
+
+  private void handleShellCommand() {
+    LOG.info(
+        "Reading commands from standard input, one per line e.g. '-u <file>'. Type '{}' to stop",
+        SHELL_EXIT);
+    runShell(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Runs each line read as if it had been passed as arguments to the CLI, until 'exit' or the end
+   * of input. The option is separated from its argument by the first whitespace, so file names with
+   * spaces need no quoting. All commands go through the same clients, hence reuse their pooled
+   * keep-alive connections to the server and what they already learnt from the server (upload size
+   * limit, last listing)
+   */
+  @VisibleForTesting
+  void runShell(BufferedReader commands) {
+    try {
+      String line;
+      while ((line = commands.readLine()) != null) {
+        String command = line.strip();
+        if (command.isEmpty() || command.startsWith("#")) {
+          continue;
+        }
+        if (SHELL_EXIT.equals(command)) {
+          return;
+        }
+        String[] args = command.split("\\s+", 2);
+        if (args[0].equals("-s") || args[0].equals("--" + OPTION_SHELL)) {
+          LOG.warn("Already reading commands from standard input");
+          continue;
+        }
+        processInputAndRun(args);
+      }
+    } catch (IOException e) {
+      LOG.error("Error reading commands from standard input");
+    }
   }
 
   @VisibleForTesting
@@ -143,15 +350,31 @@ public class FSCmdLine {
     return Files.exists(pathToUploadFile);
   }
 
+  @VisibleForTesting
+  boolean checkIfDirectoryToUploadExists(String pathToDirectoryToUpload) {
+    return Files.isDirectory(Paths.get(pathToDirectoryToUpload));
+  }
+
   @VisibleForTesting
   FSRestClient getFsRestClient() {
     return this.fsRestClient;
   }
 
-  private Options buildOptions() {
-    String fileUploadSizeLimit = this.fsRestClient.getFileUploadSizeLimit();
+  @VisibleForTesting
+  FSAsyncClient getFsAsyncClient() {
+    return this.fsAsyncClient;
+  }
+
+  /** Prints the usage guide, worth asking the server for its upload size limit if not known yet */
+  private void printUsageGuide() {
+    Options options = buildOptions(this.fsRestClient.getFileUploadSizeLimit());
+    HELP_FORMATTER.printHelp(
+        FSCLIENT_EXECUTABLE, FSCLIENT_HELP_HEADER, options, FSCLIENT_HELP_FOOTER);
+  }
+
+  private Options buildOptions(String fileUploadSizeLimit) {
     String fileSizeInstructions =
-        fileUploadSizeLimit.isEmpty()
+        StringUtils.isEmpty(fileUploadSizeLimit)
             ? "within bounds allowed by the server"
             : "<= " + fileUploadSizeLimit;
     Options options = new Options();
@@ -172,6 +395,15 @@ public class FSCmdLine {
                     + fileSizeInstructions
                     + " or else an error will be thrown")
             .build());
+    options.addOption(
+        Option.builder()
+            .option("ud")
+            .longOpt(OPTION_UPLOAD_DIR)
+            .hasArg(true)
+            .desc(
+                "Uploads all files directly inside the directory provided as argument, in a single request. Each file must have the size "
+                    + fileSizeInstructions)
+            .build());
     options.addOption(
         Option.builder()
             .option("d")
@@ -180,6 +412,37 @@ public class FSCmdLine {
             .desc(
                 "Deletes from the server the file provided as argument. The file must exist on the server or else an error will be thrown")
             .build());
+    options.addOption(
+        Option.builder()
+            .option("sy")
+            .longOpt(OPTION_SYNC)
+            .hasArg(true)
+            .desc(
+                "Uploads the files directly inside the directory provided as argument which are new or changed since its last sync. Changed files replace their previous upload. Each file must have the size "
+                    + fileSizeInstructions)
+            .build());
+    options.addOption(
+        Option.builder()
+            .longOpt(OPTION_SYNC_DELETE)
+            .hasArg(false)
+            .desc(
+                "With --sync, also deletes from the server the files synced before which have been deleted locally")
+            .build());
+    options.addOption(
+        Option.builder()
+            .longOpt(OPTION_SYNC_WATCH)
+            .hasArg(false)
+            .desc(
+                "With --sync, keeps watching the directory and syncs it again whenever it changes, until stopped")
+            .build());
+    options.addOption(
+        Option.builder()
+            .option("s")
+            .longOpt(OPTION_SHELL)
+            .hasArg(false)
+            .desc(
+                "Reads one of the other options per line from standard input, e.g. '-u <file>', until 'exit'. Commands share warm connections to the server, which makes scripted bulk work cheaper")
+            .build());
     return options;
   }
 }
@@ -0,0 +1,456 @@
+package com.tools.fsclient.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.UnsafeByteOperations;
+import com.tools.fsgrpc.v1.BatchRequest;
+import com.tools.fsgrpc.v1.BatchResponse;
+import com.tools.fsgrpc.v1.DeleteRequest;
+import com.tools.fsgrpc.v1.DownloadRequest;
+import com.tools.fsgrpc.v1.DownloadResponse;
+import com.tools.fsgrpc.v1.FileTransferGrpc;
+import com.tools.fsgrpc.v1.TransferResult;
+import com.tools.fsgrpc.v1.TransferStatus;
+import com.tools.fsgrpc.v1.UploadEnd;
+import com.tools.fsgrpc.v1.UploadRequest;
+import com.tools.fsgrpc.v1.UploadStart;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sibling of FSRestClient speaking the server's gRPC file transfer API. All calls share one HTTP/2
+ * connection, content is sent as raw bytes without multipart encoding, and uploads only read the
+ * next chunk from disk once gRPC flow control says the server can take it, so memory use is one
+ * chunk per call whatever the file size. Batch operations carry many files over a single call.
+ * Like FSRestClient, outcomes are logged in a user-friendly way; they are also returned for
+ * programmatic use
+ */
+public class FSGrpcClient implements AutoCloseable {
+
+  static final int CHUNK_SIZE = 64 * 1024;
+  private static final Logger LOG = LoggerFactory.getLogger(FSGrpcClient.class);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+  private final ManagedChannel channel;
+  private final FileTransferGrpc.FileTransferStub asyncStub;
+  private final FileTransferGrpc.FileTransferBlockingStub blockingStub;
+
+  /** @param target - host:port of the server's gRPC port */
+  public FSGrpcClient(String target) {
+    this(ManagedChannelBuilder.forTarget(target).usePlaintext().build());
+  }
+
+  @VisibleForTesting
+  FSGrpcClient(ManagedChannel channel) {
+    this.channel = channel;
+    this.asyncStub = FileTransferGrpc.newStub(channel);
+    this.blockingStub = FileTransferGrpc.newBlockingStub(channel);
+  }
+
+  /**
+   * Uploads a local file in one client-streaming call. The server answers as soon as it rejects
+   * the upload (too large, already present, busy), in which case the rest is never sent
+   *
+   * @param fileNameToUpload - path of the local file to upload, stored under its file name
+   * @return the outcome reported by the server, ERROR if the call itself failed
+   */
+  public TransferStatus uploadFile(String fileNameToUpload) {
+    LOG.debug("Requesting to upload the file {} over gRPC", fileNameToUpload);
+    Path fileToUpload = Path.of(fileNameToUpload);
+    CompletableFuture<TransferResult> outcome = new CompletableFuture<>();
+    try (FileChunks chunks = FileChunks.open(fileToUpload)) {
+      UploadRequest start =
+          UploadRequest.newBuilder()
+              .setStart(uploadStartFor(fileToUpload, chunks.size()))
+              .build();
+      asyncStub.upload(
+          new ClientResponseObserver<UploadRequest, TransferResult>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<UploadRequest> requests) {
+              requests.setOnReadyHandler(
+                  new FlowControlledSender<>(
+                      requests,
+                      outcome,
+                      new MessageSource<>() {
+                        private boolean started;
+
+                        @Override
+                        public UploadRequest next() throws IOException {
+                          if (!started) {
+                            started = true;
+                            return start;
+                          }
+                          byte[] chunk = chunks.next();
+                          return chunk == null
+                              ? null
+                              : UploadRequest.newBuilder()
+                                  .setChunk(UnsafeByteOperations.unsafeWrap(chunk))
+                                  .build();
+                        }
+                      }));
+            }
+
+            @Override
+            public void onNext(TransferResult result) {
+              outcome.complete(result);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+              outcome.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+              outcome.completeExceptionally(new IOException("Upload ended without a result"));
+            }
+          });
+      return logResult("upload", awaitResult(outcome));
+    } catch (IOException e) {
+      LOG.error("Error uploading file {}. Please try again", fileNameToUpload);
+      return TransferStatus.ERROR;
+    }
+  }
+
+  /**
+   * Uploads many local files over one Batch call. Files are sent one after the other while their
+   * results come back asynchronously, so the connection never idles between files
+   *
+   * @return the outcome of every file, in the order given
+   */
+  public Map<Path, TransferStatus> uploadFiles(List<Path> filesToUpload) {
+    LOG.debug("Requesting to upload {} files over gRPC", filesToUpload.size());
+    List<Long> transferIds = new ArrayList<>();
+    for (long transferId = 1; transferId <= filesToUpload.size(); transferId++) {
+      transferIds.add(transferId);
+    }
+    BatchUploadSource source = new BatchUploadSource(filesToUpload);
+    Map<Long, TransferResult> results = runBatch(transferIds, source);
+    Map<Path, TransferStatus> statuses = new LinkedHashMap<>();
+    for (int i = 0; i < filesToUpload.size(); i++) {
+      TransferResult result = results.get(transferIds.get(i));
+      statuses.put(
+          filesToUpload.get(i),
+          result == null ? TransferStatus.ERROR : logResult("upload", result));
+    }
+    return statuses;
+  }
+
+  /**
+   * Deletes many previously uploaded files over one Batch call
+   *
+   * @return the outcome of every deletion, in the order given
+   */
+  public Map<String, TransferStatus> deleteFiles(List<String> fileNamesToDelete) {
+    List<Long> transferIds = new ArrayList<>();
+    List<BatchRequest> requests = new ArrayList<>();
+    for (int i = 0; i < fileNamesToDelete.size(); i++) {
+      long transferId = i + 1;
+      transferIds.add(transferId);
+      requests.add(
+          BatchRequest.newBuilder()
+              .setTransferId(transferId)
+              .setDelete(DeleteRequest.newBuilder().setFileName(fileNamesToDelete.get(i)))
+              .build());
+    }
+    Iterator<BatchRequest> remaining = requests.iterator();
+    Map<Long, TransferResult> results =
+        runBatch(transferIds, () -> remaining.hasNext() ? remaining.next() : null);
+    Map<String, TransferStatus> statuses = new LinkedHashMap<>();
+    for (int i = 0; i < fileNamesToDelete.size(); i++) {
+      TransferResult result = results.get(transferIds.get(i));
+      statuses.put(
+          fileNamesToDelete.get(i),
+          result == null ? TransferStatus.ERROR : logResult("delete", result));
+    }
+    return statuses;
+  }
+
+  /**
+   * Downloads a file in one server-streaming call, writing it to the destination as chunks arrive.
+   * A partially written destination is removed if the download fails
+   *
+   * @param fileName - name of the file on the server
+   * @param destination - local file to create, must not exist yet
+   */
+  public TransferStatus downloadFile(String fileName, Path destination) {
+    LOG.debug("Requesting to download the file {} over gRPC", fileName);
+    boolean complete = false;
+    try (OutputStream out = Files.newOutputStream(destination, StandardOpenOption.CREATE_NEW)) {
+      Iterator<DownloadResponse> chunks =
+          blockingStub.download(DownloadRequest.newBuilder().setFileName(fileName).build());
+      while (chunks.hasNext()) {
+        chunks.next().getChunk().writeTo(out);
+      }
+      complete = true;
+      LOG.info("Successfully downloaded file {} to {}", fileName, destination);
+      return TransferStatus.OK;
+    } catch (StatusRuntimeException e) {
+      if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+        LOG.error("File {} is not present on server", fileName);
+        return TransferStatus.NOT_FOUND;
+      }
+      LOG.error("Unexpected server error when downloading file {}. Please try again", fileName);
+      return TransferStatus.ERROR;
+    } catch (IOException e) {
+      LOG.error("Error downloading file {}. Please try again", fileName);
+      return TransferStatus.ERROR;
+    } finally {
+      if (!complete) {
+        deleteQuietly(destination);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    channel.shutdown();
+    try {
+      if (!channel.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        channel.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      channel.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs a Batch call to completion, sending the requests of the source under flow control
+   *
+   * @return the result received for each transfer id; ids without a result are absent
+   */
+  private Map<Long, TransferResult> runBatch(
+      List<Long> transferIds, MessageSource<BatchRequest> source) {
+    Map<Long, TransferResult> results = new LinkedHashMap<>();
+    CompletableFuture<Map<Long, TransferResult>> outcome = new CompletableFuture<>();
+    asyncStub.batch(
+        new ClientResponseObserver<BatchRequest, BatchResponse>() {
+          @Override
+          public void beforeStart(ClientCallStreamObserver<BatchRequest> requests) {
+            requests.setOnReadyHandler(new FlowControlledSender<>(requests, outcome, source));
+          }
+
+          @Override
+          public void onNext(BatchResponse response) {
+            if (response.hasResult()) {
+              synchronized (results) {
+                results.put(response.getTransferId(), response.getResult());
+              }
+            }
+          }
+
+          @Override
+          public void onError(Throwable throwable) {
+            outcome.completeExceptionally(throwable);
+          }
+
+          @Override
+          public void onCompleted() {
+            outcome.complete(results);
+          }
+        });
+    try {
+      awaitResult(outcome);
+    } catch (IOException e) {
+      LOG.error(
+          "Batch call to the server failed after {} of {} results. Please try again",
+          results.size(),
+          transferIds.size());
+    } finally {
+      source.close();
+    }
+    synchronized (results) {
+      return new LinkedHashMap<>(results);
+    }
+  }
+
+  private static <T> T awaitResult(CompletableFuture<T> outcome) throws IOException {
+    try {
+      return outcome.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the server", e);
+    } catch (ExecutionException e) {
+      throw new IOException("gRPC call failed", e.getCause());
+    }
+  }
+
+  private static UploadStart uploadStartFor(Path file, long size) {
+    return UploadStart.newBuilder()
+        .setFileName(file.getFileName().toString())
+        .setSize(size)
+        .build();
+  }
+
+  private static TransferStatus logResult(String action, TransferResult result) {
+    String fileName = result.getFileName();
+    switch (result.getStatus()) {
+      case OK -> LOG.info("Successful {} of file {}", action, fileName);
+      case BUSY -> LOG.error(
+          "Server is busy, {} of file {} refused. Please try again in {}s",
+          action,
+          fileName,
+          result.getRetryAfterSeconds());
+      default -> LOG.error("Failed {} of file {}: {}", action, fileName, result.getMessage());
+    }
+    return result.getStatus();
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.debug("Could not remove partial download {}", path);
+    }
+  }
+
+  /** Supplies the requests of a call one at a time, null once all have been sent */
+  @FunctionalInterface
+  interface MessageSource<T> {
+    T next() throws IOException;
+
+    default void close() {}
+  }
+
+  /**
+   * Sends messages only while the call's transport buffer has room. gRPC invokes it again every
+   * time the call becomes ready, so a slow server throttles how fast the source is read. Sending
+   * stops as soon as the outcome of the call is known
+   */
+  static final class FlowControlledSender<T> implements Runnable {
+    private final ClientCallStreamObserver<T> requests;
+    private final CompletableFuture<?> outcome;
+    private final MessageSource<T> source;
+    private boolean done;
+
+    FlowControlledSender(
+        ClientCallStreamObserver<T> requests,
+        CompletableFuture<?> outcome,
+        MessageSource<T> source) {
+      this.requests = requests;
+      this.outcome = outcome;
+      this.source = source;
+    }
+
+    @Override
+    public synchronized void run() {
+      try {
+        while (!done && !outcome.isDone() && requests.isReady()) {
+          T message = source.next();
+          if (message == null) {
+            done = true;
+            requests.onCompleted();
+          } else {
+            requests.onNext(message);
+          }
+        }
+      } catch (IOException e) {
+        done = true;
+        outcome.completeExceptionally(e);
+        requests.onError(Status.CANCELLED.withCause(e).asRuntimeException());
+      }
+    }
+  }
+
+  /** Walks through the files of a batch upload: start, content chunks and end of each in turn */
+  private static final class BatchUploadSource implements MessageSource<BatchRequest> {
+    private final List<Path> files;
+    private int fileIndex = -1;
+    private FileChunks current;
+
+    private BatchUploadSource(List<Path> files) {
+      this.files = files;
+    }
+
+    @Override
+    public BatchRequest next() throws IOException {
+      if (current != null) {
+        long transferId = fileIndex + 1;
+        byte[] chunk = current.next();
+        if (chunk != null) {
+          return BatchRequest.newBuilder()
+              .setTransferId(transferId)
+              .setUploadChunk(UnsafeByteOperations.unsafeWrap(chunk))
+              .build();
+        }
+        current.close();
+        current = null;
+        return BatchRequest.newBuilder()
+            .setTransferId(transferId)
+            .setUploadEnd(UploadEnd.getDefaultInstance())
+            .build();
+      }
+      if (++fileIndex >= files.size()) {
+        return null;
+      }
+      Path file = files.get(fileIndex);
+      current = FileChunks.open(file);
+      return BatchRequest.newBuilder()
+          .setTransferId(fileIndex + 1)
+          .setUploadStart(uploadStartFor(file, current.size()))
+          .build();
+    }
+
+    @Override
+    public void close() {
+      if (current != null) {
+        current.close();
+      }
+    }
+  }
+
+  /** A local file read one chunk at a time */
+  private static final class FileChunks implements AutoCloseable {
+    private final InputStream in;
+    private final long size;
+
+    private FileChunks(InputStream in, long size) {
+      this.in = in;
+      this.size = size;
+    }
+
+    static FileChunks open(Path file) throws IOException {
+      return new FileChunks(Files.newInputStream(file), Files.size(file));
+    }
+
+    long size() {
+      return size;
+    }
+
+    /** @return the next chunk, or null at the end of the file */
+    byte[] next() throws IOException {
+      byte[] chunk = in.readNBytes(CHUNK_SIZE);
+      return chunk.length == 0 ? null : chunk;
+    }
+
+    @Override
+    public void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        LOG.debug("Ignoring failure to close upload source");
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.tools.fsclient.rest;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter for retrying requests the server turned away because it was
+ * overloaded (503) or because this client exceeded its rate limit (429). Each retry waits a random
+ * time between zero and an exponentially growing ceiling so that many clients rejected at the same
+ * moment do not come back in lockstep. A Retry-After hint from the server is treated as a lower
+ * bound on the wait
+ */
+public class BackoffPolicy {
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 5;
+  private static final long DEFAULT_BASE_DELAY_MILLIS = 200;
+  private static final long DEFAULT_MAX_DELAY_MILLIS = 10_000;
+
+  private final int maxAttempts;
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+  private final Random random;
+
+  /**
+   * @param maxAttempts - total number of attempts including the first one
+   * @param baseDelayMillis - ceiling of the random wait before the first retry
+   * @param maxDelayMillis - the ceiling stops doubling once it reaches this value
+   * @param random - source of jitter
+   */
+  public BackoffPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+    if (maxAttempts < 1 || baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis) {
+      throw new IllegalArgumentException("Invalid backoff settings");
+    }
+    this.maxAttempts = maxAttempts;
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.random = random;
+  }
+
+  public static BackoffPolicy defaultPolicy() {
+    return new BackoffPolicy(
+        DEFAULT_MAX_ATTEMPTS,
+        DEFAULT_BASE_DELAY_MILLIS,
+        DEFAULT_MAX_DELAY_MILLIS,
+        new Random());
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param retryNumber - 1 for the first retry, 2 for the second and so on
+   * @param retryAfterSeconds - the server's Retry-After hint, or a negative value if absent
+   * @return how long to wait before the given retry
+   */
+  public long delayMillisBeforeRetry(int retryNumber, long retryAfterSeconds) {
+    int doublings = Math.min(retryNumber - 1, 30);
+    long ceiling = Math.min(maxDelayMillis, baseDelayMillis << doublings);
+    long jittered = (long) (random.nextDouble() * (ceiling + 1));
+    return Math.max(jittered, retryAfterSeconds * 1000);
+  }
+}
@@ -4,41 +4,75 @@ import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.ParseException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FSRestClient {
 
   private static final Logger LOG = LoggerFactory.getLogger(FSRestClient.class);
   private static final String MULTIPART_UPLOAD_PAYLOAD_NAME = "payload";
   private static final String FILE_UPLOAD_SIZE_LIMIT_ENDPOINT = "fileUploadSizeLimit";
+  private static final String ARCHIVE_UPLOAD_SUFFIX = ":archive";
+  private static final String COPY_SUFFIX = ":copy";
+  private static final String RENAME_SUFFIX = ":rename";
+  private static final String CONTENT_SHA256_HEADER = "X-Content-SHA256";
+  // the stats only serve informative messages, never hold up the actual command for long
+  private static final Timeout SERVER_STATS_TIMEOUT = Timeout.ofSeconds(2);
   private final String serverFilesApi;
   private final String serverStatsApi;
+  private final BackoffPolicy backoffPolicy;
+  private final ServerSettingsCache serverSettingsCache;
   private String cachedFileUploadSizeLimit = "";
+  private String cachedListingETag;
+  private String cachedListing;
 
   public FSRestClient(String serverFilesApi, String serverStatsApi) {
+    this(serverFilesApi, serverStatsApi, BackoffPolicy.defaultPolicy());
+  }
+
+  public FSRestClient(String serverFilesApi, String serverStatsApi, BackoffPolicy backoffPolicy) {
+    this(serverFilesApi, serverStatsApi, backoffPolicy, ServerSettingsCache.disabled());
+  }
+
+  public FSRestClient(String serverFilesApi, String serverStatsApi, BackoffPolicy backoffPolicy,
+                      ServerSettingsCache serverSettingsCache) {
     this.serverFilesApi = serverFilesApi;
     this.serverStatsApi = serverStatsApi;
+    this.backoffPolicy = backoffPolicy;
+    this.serverSettingsCache = serverSettingsCache;
   }
 
   /**
    * Makes an HTTP GET request to the storage server to fetch a list of all uploaded files.
    * Based on the response's HTTP status code, it translates the outcome into a user-friendly log message.
+   * The last listing is kept together with its ETag, so that repeated calls only revalidate it and the
+   * server sends the full listing again only when something changed.
    * Expected server codes:
    * 200 OK - list of uploaded files returned successfully
+   * 304 Not Modified - the cached listing is still current
    * 404 Not found - no uploaded files found on server
+   * 429 Too Many Requests / 503 Service Unavailable - server busy, retried with backoff
    * 500 Internal Server Error - something went wrong server-side when fetching uploaded files
    */
   public void listUploadedFiles() {
@@ -46,11 +80,16 @@ public class FSRestClient {
     BasicClassicHttpResponse httpResponse = null;
     HttpEntity entity = null;
     try {
-      httpResponse = serverCallToListUploadedFiles();
+      httpResponse = callWithBackoff(this::serverCallToListUploadedFiles);
       entity = httpResponse.getEntity();
       switch (httpResponse.getCode()) {
-        case HttpStatus.SC_OK -> LOG.info("Currently uploaded files: {}", convertHttpEntityToString(entity));
-        case HttpStatus.SC_NOT_FOUND -> LOG.warn("No files have been uploaded yet");
+        case HttpStatus.SC_OK -> LOG.info("Currently uploaded files: {}", cacheListing(httpResponse, convertHttpEntityToString(entity)));
+        case HttpStatus.SC_NOT_MODIFIED -> LOG.info("Currently uploaded files: {}", this.cachedListing);
+        case HttpStatus.SC_NOT_FOUND -> {
+          cacheListing(httpResponse, null);
+          LOG.warn("No files have been uploaded yet");
+        }
+        case HttpStatus.SC_TOO_MANY_REQUESTS, HttpStatus.SC_SERVICE_UNAVAILABLE -> LOG.error("Server is busy, gave up listing uploaded files after {} attempts. Please try again later", this.backoffPolicy.getMaxAttempts());
         case HttpStatus.SC_INTERNAL_SERVER_ERROR -> LOG.error("Unexpected server error when listing uploaded files. Please try again");
         default -> LOG.error("Unexpected error when listing uploaded files. Please try again");
       }
@@ -73,27 +112,67 @@ public class FSRestClient {
    * 400 Bad Request - Mandatory 'payload' multipart body missing from the request
    * 413 Request Entity Too Large - file size exceeds the server-set boundary
    * 409 Conflict - duplicate upload detected
+   * 429 Too Many Requests / 503 Service Unavailable - server busy, retried with backoff
    * 500 Internal Server Error - something went wrong server-side during upload
    *
    * @param fileNameToUpload - The file we want to upload - this must exist locally and be within the
    *                         size limit mandated by the server
+   * @return true if the server stored the file
+   */
+  public boolean uploadFile(String fileNameToUpload) {
+    return uploadFileWithStats(fileNameToUpload).isSuccessful();
+  }
+
+  /**
+   * Same as uploadFile, also measuring the upload so that callers running many of them can adapt to
+   * how fast the server and network take them
+   *
+   * @param fileNameToUpload - The file we want to upload, see uploadFile
+   * @return whether the server stored the file, how many attempts it took and how long the last one took
    */
-  public void uploadFile(String fileNameToUpload) {
+  public TransferStats uploadFileWithStats(String fileNameToUpload) {
+    return uploadFileWithStats(fileNameToUpload, null);
+  }
+
+  /**
+   * Same as uploadFileWithStats, storing the file on the server under another name than its local one, e.g. to
+   * upload a new version next to the stored one before renaming it over it
+   *
+   * @param fileNameToUpload - The file we want to upload, see uploadFile
+   * @param targetFileName - The name to store it under, null for its local name
+   * @return whether the server stored the file, how many attempts it took and how long the last one took
+   */
+  public TransferStats uploadFileWithStats(String fileNameToUpload, String targetFileName) {
     LOG.debug("Requesting to upload the file {}", fileNameToUpload);
     Path fileToUpload = resolvePathToUploadFile(fileNameToUpload);
     BasicClassicHttpResponse httpResponse = null;
+    AtomicInteger attempts = new AtomicInteger();
+    AtomicLong attemptStartNanos = new AtomicLong(System.nanoTime());
     try {
-      httpResponse = serverCallToUploadFile(fileToUpload);
+      httpResponse = callWithBackoff(() -> {
+        attempts.incrementAndGet();
+        attemptStartNanos.set(System.nanoTime());
+        return targetFileName == null
+                ? serverCallToUploadFile(fileToUpload)
+                : serverCallToUploadFile(fileToUpload, targetFileName);
+      });
+      long elapsedNanos = System.nanoTime() - attemptStartNanos.get();
       switch (httpResponse.getCode()) {
         case HttpStatus.SC_OK -> LOG.info("Successfully uploaded file {}", fileNameToUpload);
         case HttpStatus.SC_BAD_REQUEST -> LOG.error("Upload error. Missing 'payload' from multipart body");
         case HttpStatus.SC_CONFLICT -> LOG.error("Upload error. {} already exists on server", fileNameToUpload);
         case HttpStatus.SC_REQUEST_TOO_LONG -> LOG.error("{} is larger than size limit of {}. Please try again with smaller files", fileNameToUpload, getFileUploadSizeLimit());
+        case HttpStatus.SC_TOO_MANY_REQUESTS, HttpStatus.SC_SERVICE_UNAVAILABLE -> LOG.error("Server is busy, gave up uploading file {} after {} attempts. Please try again later", fileNameToUpload, this.backoffPolicy.getMaxAttempts());
         case HttpStatus.SC_INTERNAL_SERVER_ERROR -> LOG.error("Unexpected server error when uploading file {}. Please try again", fileNameToUpload);
         default -> LOG.error("Unexpected error when uploading file {}. Please try again", fileNameToUpload);
       }
+      TransferStats stats =
+              new TransferStats(httpResponse.getCode() == HttpStatus.SC_OK, attempts.get(), elapsedNanos);
+      LOG.debug("Upload of {}: {}", fileNameToUpload, stats);
+      return stats;
     } catch (IOException e) {
       LOG.error("Error uploading file. Please try again");
+      return new TransferStats(false, attempts.get(), System.nanoTime() - attemptStartNanos.get());
     } finally {
       try {
         cleanUpHttpResourcesIfNecessary(null, httpResponse);
@@ -103,30 +182,116 @@ public class FSRestClient {
     }
   }
 
+  /**
+   * Makes a single HTTP POST request to the storage server's archive endpoint to upload every regular file of a
+   * local directory (sub-directories are not descended into). The files are sent as a tar stream built while the
+   * request is being written, see TarDirectoryEntity, and the server reports the outcome of each file on its own line.
+   * Expected server codes:
+   * 200 OK - archive received completely, the outcome of each file is listed
+   * 400 Bad Request - the server could not read the archive, files listed before the error were stored
+   * 429 Too Many Requests / 503 Service Unavailable - server busy, retried with backoff
+   * 500 Internal Server Error - something went wrong server-side during upload
+   *
+   * @param directoryToUpload - The local directory whose files we want to upload, each under its own file name
+   */
+  public void uploadDirectory(String directoryToUpload) {
+    LOG.debug("Requesting to upload the files of directory {}", directoryToUpload);
+    List<Path> filesToUpload;
+    try {
+      filesToUpload = listFilesToUpload(resolvePathToUploadFile(directoryToUpload));
+    } catch (IOException e) {
+      LOG.error("Error reading directory {}. Please try again", directoryToUpload);
+      return;
+    }
+    if (filesToUpload.isEmpty()) {
+      LOG.warn("Directory {} contains no files to upload", directoryToUpload);
+      return;
+    }
+    BasicClassicHttpResponse httpResponse = null;
+    HttpEntity entity = null;
+    try {
+      httpResponse = callWithBackoff(() -> serverCallToUploadArchive(filesToUpload));
+      entity = httpResponse.getEntity();
+      switch (httpResponse.getCode()) {
+        case HttpStatus.SC_OK -> logArchiveReport(directoryToUpload, filesToUpload.size(), convertHttpEntityToString(entity));
+        case HttpStatus.SC_BAD_REQUEST -> {
+          logArchiveReport(directoryToUpload, filesToUpload.size(), convertHttpEntityToString(entity));
+          LOG.error("Upload of directory {} stopped early as the server could not read it. Please try again", directoryToUpload);
+        }
+        case HttpStatus.SC_TOO_MANY_REQUESTS, HttpStatus.SC_SERVICE_UNAVAILABLE -> LOG.error("Server is busy, gave up uploading directory {} after {} attempts. Please try again later", directoryToUpload, this.backoffPolicy.getMaxAttempts());
+        case HttpStatus.SC_INTERNAL_SERVER_ERROR -> LOG.error("Unexpected server error when uploading directory {}. Please try again", directoryToUpload);
+        default -> LOG.error("Unexpected error when uploading directory {}. Please try again", directoryToUpload);
+      }
+    } catch (IOException | ParseException e) {
+      LOG.error("Error uploading directory. Please try again");
+    } finally {
+      try {
+        cleanUpHttpResourcesIfNecessary(entity, httpResponse);
+      } catch (IOException e) {
+        LOG.error("Error uploading directory. Please try again");
+      }
+    }
+  }
+
+  /**
+   * Translates the server's per-file report, one line of status, tab and file name per archive entry, into the same
+   * messages as single file uploads. Lines without a status carry an error message from the server
+   */
+  private void logArchiveReport(String directoryToUpload, int filesSent, String report) {
+    int uploaded = 0;
+    for (String line : report.split("\n")) {
+      String[] statusAndFileName = line.split("\t", 2);
+      if (statusAndFileName.length < 2) {
+        if (!line.isBlank()) {
+          LOG.error(line);
+        }
+        continue;
+      }
+      String fileName = statusAndFileName[1];
+      switch (statusAndFileName[0]) {
+        case "STORED" -> {
+          uploaded++;
+          LOG.debug("Successfully uploaded file {}", fileName);
+        }
+        case "ALREADY_EXISTS" -> LOG.error("Upload error. {} already exists on server", fileName);
+        case "TOO_LARGE" -> LOG.error("{} is larger than size limit of {}. Please try again with smaller files", fileName, getFileUploadSizeLimit());
+        case "INVALID_NAME" -> LOG.error("Upload error. {} is not a valid file name on server", fileName);
+        case "SKIPPED" -> LOG.debug("Server skipped {} as it is not a regular file", fileName);
+        default -> LOG.error("Unexpected server error when uploading file {}. Please try again", fileName);
+      }
+    }
+    LOG.info("Successfully uploaded {} of {} files from directory {}", uploaded, filesSent, directoryToUpload);
+  }
+
   /**
    * Makes an HTTP DELETE request to the storage server to delete a previously-uploaded file
    * Based on the response's HTTP status code, it translates the outcome into a user-friendly log message.
    * Expected server codes:
    * 200 OK - file deleted successfully
    * 404 Not found - provided file for deletion was not found on server
+   * 429 Too Many Requests / 503 Service Unavailable - server busy, retried with backoff
    * 500 Internal Server Error - something went wrong server-side during deletion
    *
    * @param fileNameToDelete - The name of the previously-uploaded file we want to delete. (This file doesn't need to be
    *                         physically present locally)
+   * @return true if the server deleted the file
    */
-  public void deleteFile(String fileNameToDelete) {
+  public boolean deleteFile(String fileNameToDelete) {
     LOG.debug("Requesting for deletion {}", fileNameToDelete);
     BasicClassicHttpResponse httpResponse = null;
     try {
-      httpResponse = serverCallToDeleteFile(fileNameToDelete);
+      httpResponse = callWithBackoff(() -> serverCallToDeleteFile(fileNameToDelete));
       switch (httpResponse.getCode()) {
         case HttpStatus.SC_OK -> LOG.info("Successfully deleted file {}", fileNameToDelete);
         case HttpStatus.SC_NOT_FOUND -> LOG.error("Did not delete anything. File {} is not present on server", fileNameToDelete);
+        case HttpStatus.SC_TOO_MANY_REQUESTS, HttpStatus.SC_SERVICE_UNAVAILABLE -> LOG.error("Server is busy, gave up deleting file {} after {} attempts. Please try again later", fileNameToDelete, this.backoffPolicy.getMaxAttempts());
         case HttpStatus.SC_INTERNAL_SERVER_ERROR -> LOG.error("Unexpected server error when deleting file {}. Please try again", fileNameToDelete);
         default -> LOG.error("Unexpected error when deleting file {}. Please try again", fileNameToDelete);
       }
+      return httpResponse.getCode() == HttpStatus.SC_OK;
     } catch (IOException e) {
       LOG.error("Error deleting file. Please try again");
+      return false;
     } finally {
       try {
         cleanUpHttpResourcesIfNecessary(null, httpResponse);
@@ -136,18 +301,125 @@ public class FSRestClient {
     }
   }
 
+  /**
+   * Makes an HTTP HEAD request to the storage server to find the SHA-256 of a previously-uploaded file, which the
+   * server computes while storing it, e.g. to tell whether a file already on the server is the same as a local one
+   * without downloading it.
+   * Expected server codes:
+   * 200 OK - the file is on the server, its SHA-256 is in the X-Content-SHA256 header
+   * 404 Not found - the file is not present on server
+   * 429 Too Many Requests / 503 Service Unavailable - server busy, retried with backoff
+   *
+   * @param fileName - The name of the previously-uploaded file
+   * @return the file's SHA-256 in lower-case hex, null if the server did not report one
+   */
+  public String getFileSha256(String fileName) {
+    LOG.debug("Requesting the SHA-256 of {}", fileName);
+    BasicClassicHttpResponse httpResponse = null;
+    try {
+      httpResponse = callWithBackoff(() -> serverCallToDescribeFile(fileName));
+      Header sha256 = httpResponse.getFirstHeader(CONTENT_SHA256_HEADER);
+      if (httpResponse.getCode() != HttpStatus.SC_OK || Objects.isNull(sha256)) {
+        LOG.debug("No SHA-256 for {}, the server answered {}", fileName, httpResponse.getCode());
+        return null;
+      }
+      return sha256.getValue();
+    } catch (IOException e) {
+      LOG.error("Error describing file {}", fileName);
+      return null;
+    } finally {
+      try {
+        cleanUpHttpResourcesIfNecessary(null, httpResponse);
+      } catch (IOException e) {
+        LOG.error("Error describing file {}", fileName);
+      }
+    }
+  }
+
+  /**
+   * Makes an HTTP POST request to the storage server to copy a previously-uploaded file to another name, e.g. to
+   * promote a build to a release. The server copies it in place, so nothing is downloaded or uploaded again.
+   * Based on the response's HTTP status code, it translates the outcome into a user-friendly log message.
+   * Expected server codes:
+   * 200 OK - file copied successfully
+   * 404 Not found - provided file to copy was not found on server
+   * 409 Conflict - a file of the target name already exists on server
+   * 429 Too Many Requests / 503 Service Unavailable - server busy, retried with backoff
+   * 500 Internal Server Error - something went wrong server-side during the copy
+   *
+   * @param sourceFileName - The name of the previously-uploaded file to copy
+   * @param targetFileName - The name of the copy
+   * @return true if the server copied the file
+   */
+  public boolean copyFile(String sourceFileName, String targetFileName) {
+    return relocateFile(sourceFileName, targetFileName, COPY_SUFFIX, "copy", "copied");
+  }
+
+  /**
+   * Makes an HTTP POST request to the storage server to rename a previously-uploaded file, in place on the server.
+   * Expected server codes are those of {@link #copyFile(String, String)}
+   *
+   * @param sourceFileName - The name of the previously-uploaded file to rename
+   * @param targetFileName - The new name of the file
+   * @return true if the server renamed the file
+   */
+  public boolean renameFile(String sourceFileName, String targetFileName) {
+    return relocateFile(sourceFileName, targetFileName, RENAME_SUFFIX, "rename", "renamed");
+  }
+
+  private boolean relocateFile(String sourceFileName, String targetFileName, String action, String verb,
+                               String pastVerb) {
+    LOG.debug("Requesting to {} {} to {}", verb, sourceFileName, targetFileName);
+    BasicClassicHttpResponse httpResponse = null;
+    try {
+      httpResponse = callWithBackoff(() -> serverCallToRelocateFile(sourceFileName, action, targetFileName));
+      switch (httpResponse.getCode()) {
+        case HttpStatus.SC_OK -> LOG.info("Successfully {} file {} to {}", pastVerb, sourceFileName, targetFileName);
+        case HttpStatus.SC_NOT_FOUND -> LOG.error("Did not {} anything. File {} is not present on server", verb, sourceFileName);
+        case HttpStatus.SC_CONFLICT -> LOG.error("Did not {} anything. {} already exists on server", verb, targetFileName);
+        case HttpStatus.SC_TOO_MANY_REQUESTS, HttpStatus.SC_SERVICE_UNAVAILABLE -> LOG.error("Server is busy, gave up trying to {} file {} after {} attempts. Please try again later", verb, sourceFileName, this.backoffPolicy.getMaxAttempts());
+        case HttpStatus.SC_INTERNAL_SERVER_ERROR -> LOG.error("Unexpected server error when trying to {} file {}. Please try again", verb, sourceFileName);
+        default -> LOG.error("Unexpected error when trying to {} file {}. Please try again", verb, sourceFileName);
+      }
+      return httpResponse.getCode() == HttpStatus.SC_OK;
+    } catch (IOException e) {
+      LOG.error("Error trying to {} file. Please try again", verb);
+      return false;
+    } finally {
+      try {
+        cleanUpHttpResourcesIfNecessary(null, httpResponse);
+      } catch (IOException e) {
+        LOG.error("Error trying to {} file. Please try again", verb);
+      }
+    }
+  }
+
+  /**
+   * Returns the upload size limit for a file if it is known without contacting the server, i.e. it was fetched
+   * earlier by this client or is still cached on disk from a recent run. Meant for informative messages which are
+   * not worth a round trip to the server
+   * @return The file size limit that can be uploaded to the server, or an empty string if not known
+   */
+  public String getKnownFileUploadSizeLimit() {
+    if (StringUtils.isEmpty(this.cachedFileUploadSizeLimit)) {
+      String cachedOnDisk = this.serverSettingsCache.get(this.serverStatsApi, FILE_UPLOAD_SIZE_LIMIT_ENDPOINT);
+      this.cachedFileUploadSizeLimit = StringUtils.defaultString(cachedOnDisk);
+    }
+    return this.cachedFileUploadSizeLimit;
+  }
+
   /**
    * Makes an HTTP GET to the server's /stats/fileUploadSizeLimit API to fetch and cache the upload size limit
-   * for a file
-   * @return The file size limit that can be uploaded to the server
+   * for a file, unless it is already known (see getKnownFileUploadSizeLimit). A fetched limit is also cached on
+   * disk, so that later runs of the CLI do not need to ask again until the cache expires
+   * @return The file size limit that can be uploaded to the server, or an empty string if the server can't tell
    */
   public String getFileUploadSizeLimit(){
-    if (StringUtils.isEmpty(this.cachedFileUploadSizeLimit)) { //only fetch if not cached already
+    if (StringUtils.isEmpty(getKnownFileUploadSizeLimit())) { //only fetch if not cached already
       try {
-        this.cachedFileUploadSizeLimit = Request.get(this.serverStatsApi + "/" + FILE_UPLOAD_SIZE_LIMIT_ENDPOINT)
-                .execute()
-                .returnContent()
-                .asString();
+        this.cachedFileUploadSizeLimit = serverCallToGetFileUploadSizeLimit();
+        this.serverSettingsCache.put(
+                this.serverStatsApi, FILE_UPLOAD_SIZE_LIMIT_ENDPOINT, this.cachedFileUploadSizeLimit);
       } catch (IOException e) {
         LOG.debug("Error contacting the server to get the file upload size limit. " +
                 "This is fine for now as the server will still restrict uploading of files above the configured limit");
@@ -156,13 +428,75 @@ public class FSRestClient {
     return this.cachedFileUploadSizeLimit;
   }
 
+  @VisibleForTesting
+  String serverCallToGetFileUploadSizeLimit() throws IOException {
+    return Request.get(this.serverStatsApi + "/" + FILE_UPLOAD_SIZE_LIMIT_ENDPOINT)
+            .connectTimeout(SERVER_STATS_TIMEOUT)
+            .responseTimeout(SERVER_STATS_TIMEOUT)
+            .execute()
+            .returnContent()
+            .asString();
+  }
+
+  /**
+   * Performs the server call, repeating it while the server answers 429 Too Many Requests or 503
+   * Service Unavailable, waiting between attempts as dictated by the backoff policy and the
+   * server's Retry-After header. The last response is returned once attempts are exhausted
+   */
+  @VisibleForTesting
+  BasicClassicHttpResponse callWithBackoff(ServerCall serverCall) throws IOException {
+    BasicClassicHttpResponse httpResponse = serverCall.execute();
+    int maxAttempts = this.backoffPolicy.getMaxAttempts();
+    for (int retry = 1; retry < maxAttempts && isServerBusy(httpResponse); retry++) {
+      long delayMillis =
+          this.backoffPolicy.delayMillisBeforeRetry(retry, retryAfterSeconds(httpResponse));
+      LOG.debug("Server busy (HTTP {}), retrying in {} ms", httpResponse.getCode(), delayMillis);
+      cleanUpHttpResourcesIfNecessary(httpResponse.getEntity(), httpResponse);
+      sleep(delayMillis);
+      httpResponse = serverCall.execute();
+    }
+    return httpResponse;
+  }
+
+  @VisibleForTesting
+  void sleep(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while backing off", e);
+    }
+  }
+
+  private static boolean isServerBusy(BasicClassicHttpResponse httpResponse) {
+    int code = httpResponse.getCode();
+    return code == HttpStatus.SC_TOO_MANY_REQUESTS || code == HttpStatus.SC_SERVICE_UNAVAILABLE;
+  }
+
+  private static long retryAfterSeconds(BasicClassicHttpResponse httpResponse) {
+    Header retryAfter = httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER);
+    if (Objects.isNull(retryAfter)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(retryAfter.getValue().trim());
+    } catch (NumberFormatException e) {
+      return -1; // HTTP-date form, fall back to our own backoff
+    }
+  }
+
   @VisibleForTesting
   BasicClassicHttpResponse serverCallToUploadFile(Path fileToUpload) throws IOException {
+    return serverCallToUploadFile(fileToUpload, fileToUpload.getFileName().toString());
+  }
+
+  @VisibleForTesting
+  BasicClassicHttpResponse serverCallToUploadFile(Path fileToUpload, String targetFileName) throws IOException {
     HttpEntity multiPartEntity = MultipartEntityBuilder.create()
             .addBinaryBody(MULTIPART_UPLOAD_PAYLOAD_NAME, fileToUpload.toAbsolutePath().toFile())
             .build();
     //This encoding ensures we deal with file names which may contain spaces
-    String encodedFileName = URLEncoder.encode(fileToUpload.getFileName().toString(), Charset.defaultCharset());
+    String encodedFileName = URLEncoder.encode(targetFileName, Charset.defaultCharset());
     return  (BasicClassicHttpResponse) Request.post(this.serverFilesApi + "/" + encodedFileName)
                             .body(multiPartEntity)
                             .useExpectContinue()
@@ -170,15 +504,63 @@ public class FSRestClient {
                             .returnResponse();
   }
 
+  @VisibleForTesting
+  BasicClassicHttpResponse serverCallToUploadArchive(List<Path> filesToUpload) throws IOException {
+    return (BasicClassicHttpResponse) Request.post(this.serverFilesApi + ARCHIVE_UPLOAD_SUFFIX)
+                            .body(new TarDirectoryEntity(filesToUpload))
+                            .useExpectContinue()
+                            .execute()
+                            .returnResponse();
+  }
+
+  /**
+   * @return the regular files directly inside the directory, in name order so that uploads are reproducible
+   */
+  @VisibleForTesting
+  List<Path> listFilesToUpload(Path directory) throws IOException {
+    try (Stream<Path> entries = Files.list(directory)) {
+      return entries.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+  }
+
   @VisibleForTesting
   BasicClassicHttpResponse serverCallToDeleteFile(String file) throws IOException {
     return (BasicClassicHttpResponse)
             Request.delete(this.serverFilesApi + "/" + file).execute().returnResponse();
   }
 
+  @VisibleForTesting
+  BasicClassicHttpResponse serverCallToDescribeFile(String file) throws IOException {
+    String encodedFileName = URLEncoder.encode(file, Charset.defaultCharset());
+    return (BasicClassicHttpResponse)
+            Request.head(this.serverFilesApi + "/" + encodedFileName).execute().returnResponse();
+  }
+
+  @VisibleForTesting
+  BasicClassicHttpResponse serverCallToRelocateFile(String sourceFile, String action, String targetFile)
+          throws IOException {
+    String encodedTargetFileName = URLEncoder.encode(targetFile, Charset.defaultCharset());
+    return (BasicClassicHttpResponse)
+            Request.post(this.serverFilesApi + "/" + sourceFile + action + "?to=" + encodedTargetFileName)
+                    .execute()
+                    .returnResponse();
+  }
+
   @VisibleForTesting
   BasicClassicHttpResponse serverCallToListUploadedFiles() throws IOException {
-    return (BasicClassicHttpResponse) Request.get(this.serverFilesApi).execute().returnResponse();
+    Request request = Request.get(this.serverFilesApi);
+    if (!Objects.isNull(this.cachedListingETag)) {
+      request.addHeader(HttpHeaders.IF_NONE_MATCH, this.cachedListingETag);
+    }
+    return (BasicClassicHttpResponse) request.execute().returnResponse();
+  }
+
+  private String cacheListing(BasicClassicHttpResponse httpResponse, String listing) {
+    Header eTag = httpResponse.getFirstHeader(HttpHeaders.ETAG);
+    boolean cacheable = !Objects.isNull(listing) && !Objects.isNull(eTag);
+    this.cachedListingETag = cacheable ? eTag.getValue() : null;
+    this.cachedListing = cacheable ? listing : null;
+    return listing;
   }
 
   @VisibleForTesting
@@ -199,6 +581,11 @@ public class FSRestClient {
     return serverStatsApi;
   }
 
+  @FunctionalInterface
+  interface ServerCall {
+    BasicClassicHttpResponse execute() throws IOException;
+  }
+
   private void cleanUpHttpResourcesIfNecessary(
           HttpEntity httpEntity, BasicClassicHttpResponse httpResponse) throws IOException {
     if (!Objects.isNull(httpEntity)) {
@@ -0,0 +1,120 @@
+package com.tools.fsclient.rest;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Settings learnt from a server (e.g. its upload size limit) kept in a small properties file, so
+ * that short-lived CLI runs do not each have to ask the server again. Every value expires after a
+ * time to live. The cache is best effort: an unreadable or unwritable file only means the server is
+ * asked again. Updates replace the file atomically, so concurrent CLI runs never read a torn file
+ */
+public class ServerSettingsCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServerSettingsCache.class);
+  private static final String KEY_SEPARATOR = "|";
+  private static final String FETCHED_AT_SUFFIX = KEY_SEPARATOR + "fetchedAt";
+
+  private final Path cacheFile;
+  private final long ttlMillis;
+  private final LongSupplier clock;
+
+  /**
+   * @param cacheFile - the properties file, created with its parent folders on first write
+   * @param ttlSeconds - how long a cached value is used before the server is asked again, 0 or less
+   *     disables the cache
+   */
+  public ServerSettingsCache(Path cacheFile, long ttlSeconds) {
+    this(cacheFile, TimeUnit.SECONDS.toMillis(ttlSeconds), System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  ServerSettingsCache(Path cacheFile, long ttlMillis, LongSupplier clock) {
+    this.cacheFile = cacheFile;
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+  }
+
+  /** @return a cache which never holds anything */
+  public static ServerSettingsCache disabled() {
+    return new ServerSettingsCache(null, 0, System::currentTimeMillis);
+  }
+
+  /**
+   * @param server - identifies the server, e.g. the URL of its API
+   * @param setting - the name of the setting
+   * @return the cached value, or null if there is none or it has expired
+   */
+  public String get(String server, String setting) {
+    if (!isEnabled()) {
+      return null;
+    }
+    Properties settings = load();
+    String key = server + KEY_SEPARATOR + setting;
+    String value = settings.getProperty(key);
+    String fetchedAt = settings.getProperty(key + FETCHED_AT_SUFFIX);
+    if (value == null || fetchedAt == null) {
+      return null;
+    }
+    try {
+      long ageMillis = clock.getAsLong() - Long.parseLong(fetchedAt);
+      return ageMillis >= 0 && ageMillis < ttlMillis ? value : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Caches the value as fetched now */
+  public void put(String server, String setting, String value) {
+    if (!isEnabled()) {
+      return;
+    }
+    Properties settings = load();
+    String key = server + KEY_SEPARATOR + setting;
+    settings.setProperty(key, value);
+    settings.setProperty(key + FETCHED_AT_SUFFIX, String.valueOf(clock.getAsLong()));
+    try {
+      Path folder = cacheFile.toAbsolutePath().getParent();
+      Files.createDirectories(folder);
+      Path tempFile = Files.createTempFile(folder, cacheFile.getFileName().toString(), ".tmp");
+      try {
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+          settings.store(out, "Server settings cached by file-storage-client");
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      LOG.debug("Could not write the server settings cache {}", cacheFile, e);
+    }
+  }
+
+  private boolean isEnabled() {
+    return cacheFile != null && ttlMillis > 0;
+  }
+
+  private Properties load() {
+    Properties settings = new Properties();
+    try (InputStream in = Files.newInputStream(cacheFile)) {
+      settings.load(in);
+    } catch (NoSuchFileException e) {
+      // nothing cached yet
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.debug("Ignoring unreadable server settings cache {}", cacheFile, e);
+    }
+    return settings;
+  }
+}
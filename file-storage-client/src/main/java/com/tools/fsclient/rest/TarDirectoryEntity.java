@@ -0,0 +1,69 @@
+package com.tools.fsclient.rest;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Request body made of a tar archive of the given files, each stored under its own file name. The
+ * archive is written straight into the connection as the request is sent (chunked, since its size
+ * is not known up front), so no temporary archive is built and only one file is open at a time.
+ * Being generated from the files, the entity can be sent again when a request is retried
+ */
+class TarDirectoryEntity extends AbstractHttpEntity {
+
+  static final ContentType APPLICATION_TAR = ContentType.create("application/x-tar");
+
+  private final List<Path> files;
+
+  TarDirectoryEntity(List<Path> files) {
+    super(APPLICATION_TAR, null, true);
+    this.files = files;
+  }
+
+  @Override
+  public void writeTo(OutputStream outStream) throws IOException {
+    // not closed, which would close the connection's stream underneath the client
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(outStream);
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    for (Path file : files) {
+      tar.putArchiveEntry(new TarArchiveEntry(file, file.getFileName().toString()));
+      Files.copy(file, tar);
+      tar.closeArchiveEntry();
+    }
+    tar.finish();
+    tar.flush();
+  }
+
+  @Override
+  public InputStream getContent() {
+    throw new UnsupportedOperationException("The archive is only ever written out, see writeTo");
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,47 @@
+package com.tools.fsclient.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How an upload went: whether the server stored the file, how many attempts it took (more than one
+ * means the server pushed back with 429/503) and how long the last attempt took, i.e. the transfer
+ * itself without the backoff waits
+ */
+public class TransferStats {
+
+  private final boolean successful;
+  private final int attempts;
+  private final long elapsedNanos;
+
+  public TransferStats(boolean successful, int attempts, long elapsedNanos) {
+    this.successful = successful;
+    this.attempts = attempts;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public boolean isSuccessful() {
+    return successful;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /** @return whether the server turned away at least one attempt as it was busy */
+  public boolean wasThrottled() {
+    return attempts > 1;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s in %d ms after %d attempt(s)",
+        successful ? "stored" : "not stored",
+        TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+        attempts);
+  }
+}
@@ -0,0 +1,419 @@
+package com.tools.fsclient.sdk;
+
+import com.tools.fsclient.rest.BackoffPolicy;
+import org.apache.hc.client5.http.async.AsyncClientEndpoint;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.async.MinimalHttpAsyncClient;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.config.Http1Config;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous Java API of the storage server, for programs embedding the client. Every operation
+ * returns at once with a future of its FileOperationResult, which tells what came of it (stored,
+ * already present, too large, server busy...) instead of logging it. The futures never complete
+ * exceptionally: unreachable servers and unreadable files are outcomes too (IO_ERROR).
+ *
+ * <p>All operations share one connection pool and a few I/O threads, which do not block on the
+ * network or on the files being uploaded, so thousands of operations can be in flight without a
+ * thread each. Requests the server turns away as busy (429/503) are sent again as dictated by the
+ * backoff policy, without holding a thread while waiting. deleteFiles pipelines its requests over a
+ * single connection. The HTTP client is started by the first operation; close the client when done
+ */
+public class FSAsyncClient implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FSAsyncClient.class);
+  private static final String MULTIPART_UPLOAD_PAYLOAD_NAME = "payload";
+  private static final int DEFAULT_MAX_CONNECTIONS = 16;
+  private static final int DEFAULT_IO_THREADS = 2;
+
+  private final String serverFilesApi;
+  private final BackoffPolicy backoffPolicy;
+  private final int maxConnections;
+  private final int ioThreads;
+  private MinimalHttpAsyncClient httpClient;
+  private boolean closed;
+  private volatile CachedListing cachedListing;
+
+  public FSAsyncClient(String serverFilesApi) {
+    this(
+        serverFilesApi,
+        BackoffPolicy.defaultPolicy(),
+        DEFAULT_MAX_CONNECTIONS,
+        DEFAULT_IO_THREADS);
+  }
+
+  /**
+   * @param maxConnections - the most connections kept open to the server, further requests wait
+   *     for one of them to be free
+   * @param ioThreads - threads doing all of the network I/O
+   */
+  public FSAsyncClient(
+      String serverFilesApi, BackoffPolicy backoffPolicy, int maxConnections, int ioThreads) {
+    this.serverFilesApi = serverFilesApi;
+    this.backoffPolicy = backoffPolicy;
+    this.maxConnections = maxConnections;
+    this.ioThreads = ioThreads;
+  }
+
+  /**
+   * Fetches the names of all uploaded files. The last listing is kept together with its ETag, so
+   * that later calls only revalidate it and the server sends it again only when something changed
+   *
+   * @return SUCCESS with the file names, an empty list if no files have been uploaded yet
+   */
+  public CompletableFuture<FileOperationResult<List<String>>> listUploadedFiles() {
+    LOG.debug("Requesting list of all uploaded files");
+    CachedListing cached = this.cachedListing;
+    return callWithBackoff(
+            () -> {
+              SimpleRequestBuilder request = SimpleRequestBuilder.get(this.serverFilesApi);
+              if (!Objects.isNull(cached)) {
+                request.addHeader(HttpHeaders.IF_NONE_MATCH, cached.eTag);
+              }
+              return SimpleRequestProducer.create(request.build());
+            },
+            this::send)
+        .thenApply(response -> listingOf(response, cached))
+        .exceptionally(FSAsyncClient::ioError);
+  }
+
+  private FileOperationResult<List<String>> listingOf(
+      ServerResponse response, CachedListing cached) {
+    switch (response.httpResponse.getCode()) {
+      case HttpStatus.SC_OK -> {
+        List<String> fileNames = parseListing(response.httpResponse.getBodyText());
+        Header eTag = response.httpResponse.getFirstHeader(HttpHeaders.ETAG);
+        this.cachedListing =
+            Objects.isNull(eTag) ? null : new CachedListing(eTag.getValue(), fileNames);
+        return response.toResult(FileOperationStatus.SUCCESS, fileNames);
+      }
+      case HttpStatus.SC_NOT_MODIFIED -> {
+        // only ever asked for when a listing is cached
+        return Objects.isNull(cached)
+            ? response.toResult(FileOperationStatus.UNEXPECTED_RESPONSE, null)
+            : response.toResult(FileOperationStatus.SUCCESS, cached.fileNames);
+      }
+      case HttpStatus.SC_NOT_FOUND -> {
+        this.cachedListing = null;
+        return response.toResult(FileOperationStatus.SUCCESS, Collections.emptyList());
+      }
+      default -> {
+        return response.toResult(
+            FileOperationStatus.fromHttpCode(response.httpResponse.getCode()), null);
+      }
+    }
+  }
+
+  private static List<String> parseListing(String listing) {
+    if (Objects.isNull(listing) || listing.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(Arrays.asList(listing.split(",")));
+  }
+
+  /**
+   * Uploads a local file, stored on the server under its file name. The file is read as the
+   * connection takes it, so it must not change size until the upload completes
+   *
+   * @return SUCCESS, or e.g. CONFLICT if a file of that name already exists, TOO_LARGE if it is
+   *     larger than the server's upload size limit
+   */
+  public CompletableFuture<FileOperationResult<Void>> uploadFile(Path fileToUpload) {
+    LOG.debug("Requesting to upload the file {}", fileToUpload);
+    long fileSize;
+    try {
+      fileSize = Files.size(fileToUpload);
+    } catch (IOException e) {
+      LOG.debug("Cannot read file {} to upload", fileToUpload, e);
+      return CompletableFuture.completedFuture(
+          new FileOperationResult<>(FileOperationStatus.IO_ERROR, null, 0, 0));
+    }
+    // This encoding ensures we deal with file names which may contain spaces
+    String encodedFileName =
+        URLEncoder.encode(fileToUpload.getFileName().toString(), Charset.defaultCharset());
+    return callWithBackoff(
+            () ->
+                AsyncRequestBuilder.post(this.serverFilesApi + "/" + encodedFileName)
+                    .setEntity(
+                        new MultipartFileProducer(
+                            MULTIPART_UPLOAD_PAYLOAD_NAME, encodedFileName, fileToUpload, fileSize))
+                    .build(),
+            this::send)
+        .thenApply(FSAsyncClient::resultOf)
+        .exceptionally(FSAsyncClient::ioError);
+  }
+
+  /** @return SUCCESS, or NOT_FOUND if no file of that name is present on the server */
+  public CompletableFuture<FileOperationResult<Void>> deleteFile(String fileNameToDelete) {
+    LOG.debug("Requesting for deletion {}", fileNameToDelete);
+    return callWithBackoff(() -> deleteRequest(fileNameToDelete), this::send)
+        .thenApply(FSAsyncClient::resultOf)
+        .exceptionally(FSAsyncClient::ioError);
+  }
+
+  /**
+   * Deletes many files, pipelining the requests over one connection: they are all written without
+   * waiting for the server's answers, so the deletions cost about one round trip rather than one
+   * each. Deletions the server turns away as busy are retried over the connection pool
+   *
+   * @return the outcome of every deletion, in the order given
+   */
+  public CompletableFuture<Map<String, FileOperationResult<Void>>> deleteFiles(
+      List<String> fileNamesToDelete) {
+    LOG.debug("Requesting for deletion of {} files over one connection", fileNamesToDelete.size());
+    URI filesApi = URI.create(this.serverFilesApi);
+    CompletableFuture<AsyncClientEndpoint> leasedEndpoint = new CompletableFuture<>();
+    try {
+      httpClient()
+          .lease(
+              new HttpHost(filesApi.getScheme(), filesApi.getHost(), filesApi.getPort()),
+              toCallback(leasedEndpoint));
+    } catch (IllegalStateException e) {
+      leasedEndpoint.completeExceptionally(e); // closed
+    }
+    return leasedEndpoint
+        .thenCompose(endpoint -> pipelineDeletes(endpoint, fileNamesToDelete))
+        .exceptionally(
+            e -> {
+              Map<String, FileOperationResult<Void>> results = new LinkedHashMap<>();
+              fileNamesToDelete.forEach(fileName -> results.put(fileName, ioError(e)));
+              return results;
+            });
+  }
+
+  private CompletableFuture<Map<String, FileOperationResult<Void>>> pipelineDeletes(
+      AsyncClientEndpoint endpoint, List<String> fileNamesToDelete) {
+    List<CompletableFuture<FileOperationResult<Void>>> deletions = new ArrayList<>();
+    for (String fileName : fileNamesToDelete) {
+      deletions.add(
+          callWithBackoff(
+                  () -> deleteRequest(fileName),
+                  request -> {
+                    CompletableFuture<SimpleHttpResponse> response = new CompletableFuture<>();
+                    endpoint.execute(
+                        request, SimpleResponseConsumer.create(), toCallback(response));
+                    return response;
+                  })
+              .thenApply(FSAsyncClient::resultOf)
+              .exceptionally(FSAsyncClient::ioError));
+    }
+    return CompletableFuture.allOf(deletions.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            done -> {
+              Map<String, FileOperationResult<Void>> results = new LinkedHashMap<>();
+              boolean connectionHealthy = true;
+              for (int i = 0; i < fileNamesToDelete.size(); i++) {
+                FileOperationResult<Void> result = deletions.get(i).join();
+                connectionHealthy &= result.getStatus() != FileOperationStatus.IO_ERROR;
+                results.put(fileNamesToDelete.get(i), result);
+              }
+              if (connectionHealthy) {
+                endpoint.releaseAndReuse();
+              } else {
+                endpoint.releaseAndDiscard();
+              }
+              return results;
+            });
+  }
+
+  private AsyncRequestProducer deleteRequest(String fileNameToDelete) {
+    return SimpleRequestProducer.create(
+        SimpleRequestBuilder.delete(this.serverFilesApi + "/" + fileNameToDelete).build());
+  }
+
+  /**
+   * Sends the request, again while the server answers 429 Too Many Requests or 503 Service
+   * Unavailable, waiting between attempts as dictated by the backoff policy and the server's
+   * Retry-After header, on a timer rather than a blocked thread. The last response is returned once
+   * attempts are exhausted
+   *
+   * @param requests - builds the request of each attempt, as a request body can only be sent once
+   * @param firstSender - sends the first attempt, retries go over the connection pool
+   */
+  private CompletableFuture<ServerResponse> callWithBackoff(
+      Supplier<AsyncRequestProducer> requests,
+      Function<AsyncRequestProducer, CompletableFuture<SimpleHttpResponse>> firstSender) {
+    CompletableFuture<ServerResponse> outcome = new CompletableFuture<>();
+    attempt(requests, firstSender, 1, outcome);
+    return outcome;
+  }
+
+  private void attempt(
+      Supplier<AsyncRequestProducer> requests,
+      Function<AsyncRequestProducer, CompletableFuture<SimpleHttpResponse>> sender,
+      int attempt,
+      CompletableFuture<ServerResponse> outcome) {
+    long startNanos = System.nanoTime();
+    sender
+        .apply(requests.get())
+        .whenComplete(
+            (httpResponse, failure) -> {
+              if (!Objects.isNull(failure)) {
+                outcome.completeExceptionally(failure);
+              } else if (attempt < this.backoffPolicy.getMaxAttempts()
+                  && isServerBusy(httpResponse)) {
+                long delayMillis =
+                    this.backoffPolicy.delayMillisBeforeRetry(
+                        attempt, retryAfterSeconds(httpResponse));
+                LOG.debug(
+                    "Server busy (HTTP {}), retrying in {} ms",
+                    httpResponse.getCode(),
+                    delayMillis);
+                CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(requests, this::send, attempt + 1, outcome));
+              } else {
+                outcome.complete(
+                    new ServerResponse(httpResponse, attempt, System.nanoTime() - startNanos));
+              }
+            });
+  }
+
+  private CompletableFuture<SimpleHttpResponse> send(AsyncRequestProducer request) {
+    CompletableFuture<SimpleHttpResponse> response = new CompletableFuture<>();
+    try {
+      httpClient().execute(request, SimpleResponseConsumer.create(), toCallback(response));
+    } catch (IllegalStateException e) {
+      response.completeExceptionally(e); // closed
+    }
+    return response;
+  }
+
+  private synchronized MinimalHttpAsyncClient httpClient() {
+    if (this.closed) {
+      throw new IllegalStateException("Client is closed");
+    }
+    if (Objects.isNull(this.httpClient)) {
+      this.httpClient =
+          HttpAsyncClients.createMinimal(
+              H2Config.DEFAULT,
+              Http1Config.DEFAULT,
+              IOReactorConfig.custom().setIoThreadCount(this.ioThreads).build(),
+              PoolingAsyncClientConnectionManagerBuilder.create()
+                  .setMaxConnTotal(this.maxConnections)
+                  .setMaxConnPerRoute(this.maxConnections)
+                  .build());
+      this.httpClient.start();
+    }
+    return this.httpClient;
+  }
+
+  private static <T> FutureCallback<T> toCallback(CompletableFuture<T> future) {
+    return new FutureCallback<>() {
+      @Override
+      public void completed(T result) {
+        future.complete(result);
+      }
+
+      @Override
+      public void failed(Exception e) {
+        future.completeExceptionally(e);
+      }
+
+      @Override
+      public void cancelled() {
+        future.cancel(false);
+      }
+    };
+  }
+
+  private static boolean isServerBusy(SimpleHttpResponse httpResponse) {
+    int code = httpResponse.getCode();
+    return code == HttpStatus.SC_TOO_MANY_REQUESTS || code == HttpStatus.SC_SERVICE_UNAVAILABLE;
+  }
+
+  private static long retryAfterSeconds(SimpleHttpResponse httpResponse) {
+    Header retryAfter = httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER);
+    if (Objects.isNull(retryAfter)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(retryAfter.getValue().trim());
+    } catch (NumberFormatException e) {
+      return -1; // HTTP-date form, fall back to our own backoff
+    }
+  }
+
+  private static FileOperationResult<Void> resultOf(ServerResponse response) {
+    return response.toResult(
+        FileOperationStatus.fromHttpCode(response.httpResponse.getCode()), null);
+  }
+
+  private static <T> FileOperationResult<T> ioError(Throwable failure) {
+    LOG.debug("Error contacting the server", failure);
+    return new FileOperationResult<>(FileOperationStatus.IO_ERROR, null, 1, 0);
+  }
+
+  public String getServerFilesApi() {
+    return serverFilesApi;
+  }
+
+  /** Stops the HTTP client, operations still in flight are aborted */
+  @Override
+  public synchronized void close() {
+    this.closed = true;
+    if (!Objects.isNull(this.httpClient)) {
+      this.httpClient.close(CloseMode.GRACEFUL);
+    }
+  }
+
+  private static final class ServerResponse {
+    private final SimpleHttpResponse httpResponse;
+    private final int attempts;
+    private final long elapsedNanos;
+
+    private ServerResponse(SimpleHttpResponse httpResponse, int attempts, long elapsedNanos) {
+      this.httpResponse = httpResponse;
+      this.attempts = attempts;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    private <T> FileOperationResult<T> toResult(FileOperationStatus status, T value) {
+      return new FileOperationResult<>(status, value, attempts, elapsedNanos);
+    }
+  }
+
+  private static final class CachedListing {
+    private final String eTag;
+    private final List<String> fileNames;
+
+    private CachedListing(String eTag, List<String> fileNames) {
+      this.eTag = eTag;
+      this.fileNames = fileNames;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.tools.fsclient.sdk;
+
+import com.tools.fsclient.rest.TransferStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one operation of FSAsyncClient: its status, what it returned if it succeeded (e.g.
+ * the listing), how many attempts it took and how long the last attempt took
+ *
+ * @param <T> - type of the returned value, Void for operations which return nothing
+ */
+public final class FileOperationResult<T> {
+
+  private final FileOperationStatus status;
+  private final T value;
+  private final int attempts;
+  private final long elapsedNanos;
+
+  public FileOperationResult(
+      FileOperationStatus status, T value, int attempts, long elapsedNanos) {
+    this.status = status;
+    this.value = value;
+    this.attempts = attempts;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public FileOperationStatus getStatus() {
+    return status;
+  }
+
+  public boolean isSuccessful() {
+    return status == FileOperationStatus.SUCCESS;
+  }
+
+  /** @return what the operation returned, null unless it succeeded or for Void operations */
+  public T getValue() {
+    return value;
+  }
+
+  /** @return the number of requests sent, more than one if the server pushed back (429/503) */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /** @return the same outcome in the form used by FSRestClient.uploadFileWithStats */
+  public TransferStats toTransferStats() {
+    return new TransferStats(isSuccessful(), attempts, elapsedNanos);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s in %d ms after %d attempt(s)",
+        status, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), attempts);
+  }
+}
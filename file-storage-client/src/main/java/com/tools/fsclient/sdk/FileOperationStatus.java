@@ -0,0 +1,38 @@
+package com.tools.fsclient.sdk;
+
+import org.apache.hc.core5.http.HttpStatus;
+
+/** What came of a request to the server, see FileOperationResult */
+public enum FileOperationStatus {
+  /** The server did what was asked */
+  SUCCESS,
+  /** The request was incomplete, e.g. an upload without its multipart 'payload' body */
+  BAD_REQUEST,
+  /** The file is not present on the server */
+  NOT_FOUND,
+  /** A file of that name is already present on the server, which never overwrites files */
+  CONFLICT,
+  /** The file is larger than the server's upload size limit */
+  TOO_LARGE,
+  /** The server was still busy (429/503) after every attempt allowed by the backoff policy */
+  SERVER_BUSY,
+  /** Something went wrong server-side */
+  SERVER_ERROR,
+  /** The server answered with a status it is not expected to send */
+  UNEXPECTED_RESPONSE,
+  /** The server could not be reached or the local file could not be read */
+  IO_ERROR;
+
+  static FileOperationStatus fromHttpCode(int httpCode) {
+    return switch (httpCode) {
+      case HttpStatus.SC_OK -> SUCCESS;
+      case HttpStatus.SC_BAD_REQUEST -> BAD_REQUEST;
+      case HttpStatus.SC_NOT_FOUND -> NOT_FOUND;
+      case HttpStatus.SC_CONFLICT -> CONFLICT;
+      case HttpStatus.SC_REQUEST_TOO_LONG -> TOO_LARGE;
+      case HttpStatus.SC_TOO_MANY_REQUESTS, HttpStatus.SC_SERVICE_UNAVAILABLE -> SERVER_BUSY;
+      case HttpStatus.SC_INTERNAL_SERVER_ERROR -> SERVER_ERROR;
+      default -> UNEXPECTED_RESPONSE;
+    };
+  }
+}
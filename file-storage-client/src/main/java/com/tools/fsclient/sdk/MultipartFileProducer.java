@@ -0,0 +1,153 @@
+package com.tools.fsclient.sdk;
+
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A multipart/form-data body made of a single file part, written straight from the file as the
+ * connection can take it. Unlike MultipartEntityBuilder's entities it never blocks a thread, so an
+ * I/O thread can interleave the uploads of many files. The length is known upfront, hence the
+ * file must not change size while being uploaded
+ */
+final class MultipartFileProducer implements AsyncEntityProducer {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private final Path file;
+  private final String contentType;
+  private final ByteBuffer head;
+  private final ByteBuffer tail;
+  private final long contentLength;
+  private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+  private FileChannel fileChannel;
+  private boolean fileSent;
+
+  /**
+   * @param partName - name of the form field carrying the file
+   * @param fileName - file name announced in the part, must not need quoting
+   * @param fileSize - size of the file, which must not change until it is sent
+   */
+  MultipartFileProducer(String partName, String fileName, Path file, long fileSize) {
+    String boundary = "fsclient-" + UUID.randomUUID();
+    this.file = file;
+    this.contentType = "multipart/form-data; boundary=" + boundary;
+    this.head =
+        ascii(
+            "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + partName + "\"; filename=\""
+                + fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n");
+    this.tail = ascii("\r\n--" + boundary + "--\r\n");
+    this.contentLength = head.remaining() + fileSize + tail.remaining();
+    this.chunk.flip();
+  }
+
+  private static ByteBuffer ascii(String text) {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Override
+  public void produce(DataStreamChannel channel) throws IOException {
+    if (head.hasRemaining() && writeFully(channel, head)) {
+      return;
+    }
+    while (!fileSent) {
+      if (!chunk.hasRemaining()) {
+        chunk.clear();
+        int read = fileChannel().read(chunk);
+        chunk.flip();
+        if (read < 0) {
+          fileSent = true;
+          break;
+        }
+      }
+      if (writeFully(channel, chunk)) {
+        return;
+      }
+    }
+    if (tail.hasRemaining() && writeFully(channel, tail)) {
+      return;
+    }
+    channel.endStream();
+  }
+
+  /** @return true if the channel is full, produce is then called again once it can take more */
+  private static boolean writeFully(DataStreamChannel channel, ByteBuffer buffer)
+      throws IOException {
+    channel.write(buffer);
+    return buffer.hasRemaining();
+  }
+
+  private FileChannel fileChannel() throws IOException {
+    if (fileChannel == null) {
+      fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+    return fileChannel;
+  }
+
+  @Override
+  public int available() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public void failed(Exception cause) {
+    releaseResources();
+  }
+
+  /** Closes the file and rewinds, so that the body can be produced again */
+  @Override
+  public void releaseResources() {
+    if (fileChannel != null) {
+      try {
+        fileChannel.close();
+      } catch (IOException e) {
+        // only read from, nothing to lose
+      }
+      fileChannel = null;
+    }
+    head.rewind();
+    tail.rewind();
+    chunk.clear().flip();
+    fileSent = false;
+  }
+
+  @Override
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return null;
+  }
+
+  @Override
+  public boolean isChunked() {
+    return false;
+  }
+
+  @Override
+  public Set<String> getTrailerNames() {
+    return null;
+  }
+}
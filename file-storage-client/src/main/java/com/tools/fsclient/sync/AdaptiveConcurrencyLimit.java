@@ -0,0 +1,119 @@
+package com.tools.fsclient.sync;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.tools.fsclient.rest.TransferStats;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Limit on the number of uploads running at the same time, adjusted AIMD-style (additive increase,
+ * multiplicative decrease) like TCP congestion control, within fixed bounds. Completed uploads are
+ * looked at in windows of as many uploads as the current limit. The limit is halved after a window
+ * in which the server pushed back (429/503) or an upload failed, or whose throughput fell clearly
+ * below the previous window's, as the extra uploads then only compete for the same bandwidth.
+ * Otherwise it grows by one, or doubles until its first decrease (slow start)
+ */
+class AdaptiveConcurrencyLimit {
+
+  // a window slower than this share of the previous window's throughput counts as congested
+  private static final double THROUGHPUT_DROP_RATIO = 0.8;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final LongSupplier nanoClock;
+  private int limit;
+  private int inFlight;
+  private boolean slowStart = true;
+  private int windowCompleted;
+  private long windowBytes;
+  private long windowStartNanos = -1;
+  private boolean windowCongested;
+  private double lastBytesPerSecond = -1;
+
+  /** Starts at the lower bound, equal bounds give a fixed limit */
+  AdaptiveConcurrencyLimit(int minLimit, int maxLimit) {
+    this(minLimit, maxLimit, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  AdaptiveConcurrencyLimit(int minLimit, int maxLimit, LongSupplier nanoClock) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.nanoClock = nanoClock;
+    this.limit = this.minLimit;
+  }
+
+  /** Waits until one more upload may start */
+  synchronized void acquire() throws InterruptedException {
+    while (inFlight >= limit) {
+      wait();
+    }
+    inFlight++;
+    if (windowStartNanos < 0) {
+      windowStartNanos = nanoClock.getAsLong();
+    }
+  }
+
+  /**
+   * @param bytes - size of the uploaded file
+   * @param stats - how the upload went, null if it broke off unexpectedly
+   */
+  synchronized void release(long bytes, TransferStats stats) {
+    inFlight--;
+    windowCompleted++;
+    windowBytes += bytes;
+    if (stats == null || !stats.isSuccessful() || stats.wasThrottled()) {
+      windowCongested = true;
+    }
+    if (windowCompleted >= limit) {
+      adjust();
+    }
+    notifyAll();
+  }
+
+  private void adjust() {
+    long now = nanoClock.getAsLong();
+    double bytesPerSecond = windowBytes * 1e9 / Math.max(1, now - windowStartNanos);
+    boolean slower =
+        lastBytesPerSecond > 0 && bytesPerSecond < lastBytesPerSecond * THROUGHPUT_DROP_RATIO;
+    if (windowCongested || slower) {
+      limit = Math.max(minLimit, limit / 2);
+      slowStart = false;
+    } else {
+      limit = Math.min(maxLimit, slowStart ? limit * 2 : limit + 1);
+    }
+    lastBytesPerSecond = bytesPerSecond;
+    windowCompleted = 0;
+    windowBytes = 0;
+    windowCongested = false;
+    windowStartNanos = inFlight > 0 ? now : -1;
+  }
+
+  /**
+   * Drops the measurements of an unfinished window, e.g. at the end of a sync pass, so that idle
+   * time until the next uploads does not count as a drop in throughput
+   */
+  synchronized void discardWindow() {
+    windowCompleted = 0;
+    windowBytes = 0;
+    windowCongested = false;
+    windowStartNanos = -1;
+  }
+
+  synchronized int getLimit() {
+    return limit;
+  }
+
+  /** @return upload throughput of the last completed window, -1 before the first one */
+  synchronized double getLastBytesPerSecond() {
+    return lastBytesPerSecond;
+  }
+
+  int getMinLimit() {
+    return minLimit;
+  }
+
+  int getMaxLimit() {
+    return maxLimit;
+  }
+}
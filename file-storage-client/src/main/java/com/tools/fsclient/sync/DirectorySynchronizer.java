@@ -0,0 +1,308 @@
+package com.tools.fsclient.sync;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.tools.fsclient.rest.FSRestClient;
+import com.tools.fsclient.rest.TransferStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Mirrors the regular files directly inside a local directory to the server, the same files as
+ * --upload-dir since the server's file names are flat. Each pass compares every file with its
+ * fingerprint in the state database: files whose size and modification time are unchanged are
+ * skipped without being read, the others are hashed and only uploaded if their content changed.
+ * Hashing runs on a bounded number of threads, uploads as many at a time as an adaptive limit
+ * allows (see AdaptiveConcurrencyLimit), which carries over from one pass to the next. The server
+ * does not overwrite files, so a changed file is uploaded under a temporary name first and only
+ * once stored there renamed over its previous upload. The state is saved every few files as well
+ * as at the end of a pass, and a new file the server already holds with the same content (e.g.
+ * uploaded by a pass that never got to save its state) is adopted instead of failing. Files this
+ * directory never uploaded are never deleted or replaced on the server
+ */
+public class DirectorySynchronizer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DirectorySynchronizer.class);
+  // builds write many files in a burst, a pass starts once the directory has been quiet this long
+  private static final long WATCH_QUIET_PERIOD_MILLIS = 500;
+  // a pass that is interrupted or crashes redoes at most this many files' work
+  private static final int SAVE_INTERVAL_FILES = 50;
+  private static final String TEMPORARY_NAME_INFIX = ".sync-";
+
+  private final FSRestClient fsRestClient;
+  private final Path directory;
+  private final SyncStateStore stateStore;
+  private final AdaptiveConcurrencyLimit uploadLimit;
+  private final boolean propagateDeletes;
+
+  /**
+   * @param stateFolder - where the state database is kept, one file per directory and server
+   * @param minParallelism - the fewest files uploaded at the same time
+   * @param maxParallelism - the most files hashed/uploaded at the same time, equal to
+   *     minParallelism for a fixed number
+   * @param propagateDeletes - whether files deleted locally are deleted from the server too
+   */
+  public DirectorySynchronizer(
+      FSRestClient fsRestClient,
+      Path directory,
+      Path stateFolder,
+      int minParallelism,
+      int maxParallelism,
+      boolean propagateDeletes) {
+    this(
+        fsRestClient,
+        directory,
+        new SyncStateStore(
+            SyncStateStore.stateFileFor(stateFolder, fsRestClient.getServerFilesApi(), directory)),
+        new AdaptiveConcurrencyLimit(minParallelism, maxParallelism),
+        propagateDeletes);
+  }
+
+  @VisibleForTesting
+  DirectorySynchronizer(
+      FSRestClient fsRestClient,
+      Path directory,
+      SyncStateStore stateStore,
+      AdaptiveConcurrencyLimit uploadLimit,
+      boolean propagateDeletes) {
+    this.fsRestClient = fsRestClient;
+    this.directory = directory;
+    this.stateStore = stateStore;
+    this.uploadLimit = uploadLimit;
+    this.propagateDeletes = propagateDeletes;
+  }
+
+  /** Runs one pass over the directory and saves the resulting state */
+  public SyncSummary syncOnce() throws IOException, InterruptedException {
+    Map<String, FileFingerprint> previousState = stateStore.load();
+    Map<String, FileFingerprint> newState = new HashMap<>();
+    // saved while the pass runs: the previous state with the files done so far brought up to date
+    Map<String, FileFingerprint> progress = new HashMap<>(previousState);
+    SyncSummary summary = new SyncSummary();
+    List<Path> files = listFiles();
+    Set<String> listedNames =
+        files.stream().map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+    ExecutorService workers = Executors.newFixedThreadPool(uploadLimit.getMaxLimit());
+    try {
+      List<Future<FileResult>> results = new ArrayList<>();
+      for (Path file : files) {
+        FileFingerprint previous = previousState.get(file.getFileName().toString());
+        results.add(workers.submit(() -> syncFile(file, previous)));
+      }
+      for (int i = 0; i < files.size(); i++) {
+        FileResult result = getResult(results.get(i));
+        summary.add(result.outcome);
+        if (result.fingerprint != null) {
+          String fileName = files.get(i).getFileName().toString();
+          newState.put(fileName, result.fingerprint);
+          progress.put(fileName, result.fingerprint);
+        }
+        if ((i + 1) % SAVE_INTERVAL_FILES == 0) {
+          stateStore.save(progress);
+        }
+      }
+    } catch (InterruptedException e) {
+      stateStore.save(progress);
+      throw e;
+    } finally {
+      workers.shutdownNow();
+      uploadLimit.discardWindow();
+    }
+    if (summary.count(SyncOutcome.UPLOADED) + summary.count(SyncOutcome.REPLACED) > 0) {
+      LOG.info(
+          "Uploading {} files at a time (between {} and {}), last measured at {} KB/s",
+          uploadLimit.getLimit(),
+          uploadLimit.getMinLimit(),
+          uploadLimit.getMaxLimit(),
+          Math.round(uploadLimit.getLastBytesPerSecond() / 1024));
+    }
+    for (Map.Entry<String, FileFingerprint> entry : previousState.entrySet()) {
+      if (!listedNames.contains(entry.getKey())) {
+        syncDeletedFile(entry.getKey(), entry.getValue(), newState, summary);
+      }
+    }
+    stateStore.save(newState);
+    return summary;
+  }
+
+  /**
+   * Syncs the directory, then again each time it changes, until the thread is interrupted or the
+   * directory goes away
+   */
+  public void watch() throws IOException, InterruptedException {
+    try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+      directory.register(
+          watchService,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+      LOG.info("Synced directory {}: {}", directory, syncOnce());
+      while (true) {
+        WatchKey key = watchService.take();
+        while (key != null) {
+          // the events themselves are not needed: every pass looks at the whole directory,
+          // which also covers events lost to an OVERFLOW
+          key.pollEvents();
+          if (!key.reset()) {
+            LOG.error("Directory {} is no longer accessible, stopped watching it", directory);
+            return;
+          }
+          key = watchService.poll(WATCH_QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        LOG.info("Synced directory {}: {}", directory, syncOnce());
+      }
+    }
+  }
+
+  private FileResult syncFile(Path file, FileFingerprint previous) throws InterruptedException {
+    String fileName = file.getFileName().toString();
+    FileFingerprint current;
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      long size = attributes.size();
+      long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+      if (previous != null && previous.hasSizeAndTime(size, lastModifiedMillis)) {
+        return new FileResult(SyncOutcome.UNCHANGED, previous);
+      }
+      current = new FileFingerprint(size, lastModifiedMillis, hash(file));
+    } catch (IOException e) {
+      LOG.error("Error reading file {}, it will be synced on the next pass", file);
+      return new FileResult(SyncOutcome.FAILED, previous);
+    }
+    if (previous != null && previous.getSha256().equals(current.getSha256())) {
+      return new FileResult(SyncOutcome.UNCHANGED, current);
+    }
+    if (previous == null) {
+      if (upload(file, fileName, current)) {
+        return new FileResult(SyncOutcome.UPLOADED, current);
+      }
+      if (isStoredAs(fileName, current)) {
+        LOG.info("{} is already on the server with the same content, adopted it", fileName);
+        return new FileResult(SyncOutcome.ADOPTED, current);
+      }
+      return new FileResult(SyncOutcome.FAILED, null);
+    }
+    // named after the content, so that a pass retrying a replacement finds its earlier upload
+    String temporaryName =
+        fileName + TEMPORARY_NAME_INFIX + current.getSha256().substring(0, 16);
+    if (!upload(file, temporaryName, current) && !isStoredAs(temporaryName, current)) {
+      // the previous fingerprint stays, so the next pass sees the change again and retries
+      return new FileResult(SyncOutcome.FAILED, previous);
+    }
+    // the previous upload stays on the server until the new content is stored in full, the
+    // rename itself is a metadata operation
+    fsRestClient.deleteFile(fileName);
+    if (!fsRestClient.renameFile(temporaryName, fileName)) {
+      LOG.error("{} is stored as {} until the next pass renames it", fileName, temporaryName);
+      return new FileResult(SyncOutcome.FAILED, previous);
+    }
+    return new FileResult(SyncOutcome.REPLACED, current);
+  }
+
+  /** @return whether the server holds the content under that name, according to its SHA-256 */
+  private boolean isStoredAs(String fileName, FileFingerprint current) {
+    return current.getSha256().equals(fsRestClient.getFileSha256(fileName));
+  }
+
+  private boolean upload(Path file, String targetFileName, FileFingerprint current)
+      throws InterruptedException {
+    long size = current.getSize();
+    uploadLimit.acquire();
+    TransferStats stats = null;
+    try {
+      stats = fsRestClient.uploadFileWithStats(file.toString(), targetFileName);
+    } finally {
+      uploadLimit.release(size, stats);
+    }
+    LOG.debug(
+        "Upload of {} ({} bytes, {} KB/s): {}",
+        file,
+        size,
+        Math.round(size * 1e9 / Math.max(1, stats.getElapsedNanos()) / 1024),
+        stats);
+    return stats.isSuccessful();
+  }
+
+  private void syncDeletedFile(
+      String fileName,
+      FileFingerprint previous,
+      Map<String, FileFingerprint> newState,
+      SyncSummary summary) {
+    if (!propagateDeletes) {
+      // still on the server, kept so that the file is recognised if it comes back
+      newState.put(fileName, previous);
+    } else if (fsRestClient.deleteFile(fileName)) {
+      summary.add(SyncOutcome.DELETED);
+    } else {
+      summary.add(SyncOutcome.FAILED);
+      newState.put(fileName, previous);
+    }
+  }
+
+  /** @return the regular files directly inside the directory whose names the server can store */
+  @VisibleForTesting
+  List<Path> listFiles() throws IOException {
+    try (Stream<Path> entries = Files.list(directory)) {
+      return entries
+          .filter(Files::isRegularFile)
+          .filter(DirectorySynchronizer::hasStorableName)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static boolean hasStorableName(Path file) {
+    String fileName = file.getFileName().toString();
+    if (fileName.contains("\n") || fileName.contains("\r")) {
+      LOG.warn("Not syncing {} as the server does not accept line breaks in file names", file);
+      return false;
+    }
+    return true;
+  }
+
+  private static String hash(Path file) throws IOException {
+    return MoreFiles.asByteSource(file).hash(Hashing.sha256()).toString();
+  }
+
+  private static FileResult getResult(Future<FileResult> result) throws InterruptedException {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InterruptedException) {
+        throw (InterruptedException) e.getCause();
+      }
+      throw new IllegalStateException("Unexpected failure syncing a file", e.getCause());
+    }
+  }
+
+  private static final class FileResult {
+    private final SyncOutcome outcome;
+    private final FileFingerprint fingerprint;
+
+    private FileResult(SyncOutcome outcome, FileFingerprint fingerprint) {
+      this.outcome = outcome;
+      this.fingerprint = fingerprint;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.tools.fsclient.sync;
+
+import java.util.Objects;
+
+/** Size, modification time and content hash of a local file as it was when last synced */
+final class FileFingerprint {
+
+  private final long size;
+  private final long lastModifiedMillis;
+  private final String sha256;
+
+  FileFingerprint(long size, long lastModifiedMillis, String sha256) {
+    this.size = size;
+    this.lastModifiedMillis = lastModifiedMillis;
+    this.sha256 = sha256;
+  }
+
+  /** A file with the same size and modification time is taken to be unchanged, without hashing */
+  boolean hasSizeAndTime(long size, long lastModifiedMillis) {
+    return this.size == size && this.lastModifiedMillis == lastModifiedMillis;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  long getLastModifiedMillis() {
+    return lastModifiedMillis;
+  }
+
+  String getSha256() {
+    return sha256;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof FileFingerprint)) {
+      return false;
+    }
+    FileFingerprint that = (FileFingerprint) other;
+    return size == that.size
+        && lastModifiedMillis == that.lastModifiedMillis
+        && sha256.equals(that.sha256);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(size, lastModifiedMillis, sha256);
+  }
+}
@@ -0,0 +1,17 @@
+package com.tools.fsclient.sync;
+
+/** What a sync pass did about one file */
+public enum SyncOutcome {
+  /** New local file, uploaded */
+  UPLOADED,
+  /** Changed local file, uploaded again and renamed over its previous upload */
+  REPLACED,
+  /** New local file the server already held with the same content, recorded without uploading */
+  ADOPTED,
+  /** Local file deleted, deleted from the server as well */
+  DELETED,
+  /** Same content as when last synced */
+  UNCHANGED,
+  /** The server did not take the change, it is tried again on the next pass */
+  FAILED
+}
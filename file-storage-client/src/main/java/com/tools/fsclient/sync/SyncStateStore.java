@@ -0,0 +1,92 @@
+package com.tools.fsclient.sync;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The state database of a synced directory: the fingerprint of every file as last uploaded, one
+ * line of size, modification time, SHA-256 and file name (tab separated) per file. It is kept
+ * outside the directory, so that wiping e.g. a build output folder before a rebuild does not lose
+ * it, and it is replaced atomically when saved. Unreadable lines are dropped, which only means
+ * their files are hashed and compared again on the next pass
+ */
+class SyncStateStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SyncStateStore.class);
+  private static final String SEPARATOR = "\t";
+
+  private final Path stateFile;
+
+  SyncStateStore(Path stateFile) {
+    this.stateFile = stateFile;
+  }
+
+  /**
+   * @return the state file for syncing the directory to the server, named after both so that each
+   *     pair has its own state in the state folder
+   */
+  static Path stateFileFor(Path stateFolder, String serverFilesApi, Path directory) {
+    String key = serverFilesApi + "|" + directory.toAbsolutePath().normalize();
+    return stateFolder.resolve(
+        Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString().substring(0, 32)
+            + ".state");
+  }
+
+  /** @return the fingerprints by file name, empty if the directory was never synced */
+  Map<String, FileFingerprint> load() throws IOException {
+    Map<String, FileFingerprint> fingerprints = new HashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(SEPARATOR, 4);
+        try {
+          fingerprints.put(
+              fields[3],
+              new FileFingerprint(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+          LOG.debug("Ignoring unreadable line of sync state {}: {}", stateFile, line);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // never synced
+    }
+    return fingerprints;
+  }
+
+  void save(Map<String, FileFingerprint> fingerprints) throws IOException {
+    Path folder = stateFile.toAbsolutePath().getParent();
+    Files.createDirectories(folder);
+    Path tempFile = Files.createTempFile(folder, stateFile.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, FileFingerprint> entry : new TreeMap<>(fingerprints).entrySet()) {
+          FileFingerprint fingerprint = entry.getValue();
+          writer.write(
+              String.join(
+                  SEPARATOR,
+                  String.valueOf(fingerprint.getSize()),
+                  String.valueOf(fingerprint.getLastModifiedMillis()),
+                  fingerprint.getSha256(),
+                  entry.getKey()));
+          writer.newLine();
+        }
+      }
+      Files.move(tempFile, stateFile, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.tools.fsclient.sync;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/** How many files of a sync pass ended with each outcome */
+public class SyncSummary {
+
+  private final Map<SyncOutcome, Integer> counts = new EnumMap<>(SyncOutcome.class);
+
+  void add(SyncOutcome outcome) {
+    counts.merge(outcome, 1, Integer::sum);
+  }
+
+  public int count(SyncOutcome outcome) {
+    return counts.getOrDefault(outcome, 0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d uploaded, %d replaced, %d adopted, %d deleted, %d unchanged, %d failed",
+        count(SyncOutcome.UPLOADED),
+        count(SyncOutcome.REPLACED),
+        count(SyncOutcome.ADOPTED),
+        count(SyncOutcome.DELETED),
+        count(SyncOutcome.UNCHANGED),
+        count(SyncOutcome.FAILED));
+  }
+}
@@ -1,12 +1,24 @@
 package com.tools.fsclient;
 
 import com.tools.fsclient.rest.FSRestClient;
+import com.tools.fsclient.sdk.FSAsyncClient;
+import com.tools.fsclient.sdk.FileOperationResult;
+import com.tools.fsclient.sdk.FileOperationStatus;
+import com.tools.fsclient.sync.DirectorySynchronizer;
 import org.apache.commons.configuration2.PropertiesConfiguration;
 import org.apache.commons.configuration2.builder.fluent.Configurations;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.junit.jupiter.api.Test;
+import org.powermock.reflect.Whitebox;
+import org.slf4j.Logger;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
@@ -51,123 +63,296 @@ public class FSCmdLineTest {
     System.clearProperty("fsserver.api.rootUrl");
   }
 
+  /** The shipped application.properties must yield URLs the HTTP client accepts */
+  @Test
+  public void testProcessingShippedConfiguration() {
+    FSCmdLine fsCmdLine = new FSCmdLine(new Configurations());
+    try {
+      String serverStatsApi = fsCmdLine.getFsRestClient().getServerStatsApi();
+      assertEquals("http://127.0.0.1:8080/v1/stats", serverStatsApi);
+      assertEquals(
+          "http://127.0.0.1:8080/v1/files", fsCmdLine.getFsRestClient().getServerFilesApi());
+      URI.create(serverStatsApi + "/fileUploadSizeLimit");
+    } finally {
+      fsCmdLine.getFsAsyncClient().close();
+    }
+  }
+
   @Test
   public void testProcessingListFilesCommand() {
     FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
-    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient);
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
     String[] argsShort = {"-l"};
     fsCmdLine.processInputAndRun(argsShort);
-    verify(fsRestClient).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
-    reset(fsRestClient);
+    verify(fsAsyncClient).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
+    clearInvocations(fsRestClient, fsAsyncClient);
     String[] argsLong = {"--list-files"};
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
     fsCmdLine.processInputAndRun(argsLong);
-    verify(fsRestClient).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
+    verify(fsAsyncClient).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
   }
 
   @Test
   public void testProcessingDeleteFileCommandWithParam() {
     FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
-    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient);
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
     String[] argsShort = {"-d", "fileToDelete.txt"};
     fsCmdLine.processInputAndRun(argsShort);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient).deleteFile(any());
-    reset(fsRestClient);
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient).deleteFile(any());
+    clearInvocations(fsRestClient, fsAsyncClient);
     String[] argsLong = {"--delete-file", "fileToDelete.txt"};
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
     fsCmdLine.processInputAndRun(argsLong);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient).deleteFile(any());
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient).deleteFile(any());
   }
 
   @Test
   public void testProcessingDeleteFileCommandWithNoParamExpectNoRestClientInvocation() {
     FSRestClient fsRestClient = mock(FSRestClient.class);
-    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
     String[] argsShort = {"-d"};
     fsCmdLine.processInputAndRun(argsShort);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
-    reset(fsRestClient);
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
+    clearInvocations(fsRestClient, fsAsyncClient);
     String[] argsLong = {"--delete-file"};
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
     fsCmdLine.processInputAndRun(argsLong);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
   }
 
   @Test
   public void testProcessingUploadFileCommandWithNoParamExpectNoRestClientInvocation() {
     FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
-    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient);
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
     String[] argsShort = {"-u"};
     fsCmdLine.processInputAndRun(argsShort);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
-    reset(fsRestClient);
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
+    clearInvocations(fsRestClient, fsAsyncClient);
     String[] argsLong = {"--upload-file"};
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
     fsCmdLine.processInputAndRun(argsLong);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
   }
 
   @Test
   public void testProcessingUploadFileCommandWithParam() {
     FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
-    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient));
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
     doReturn(true).when(fsCmdLine).checkIfFileToUploadExists(any(String.class));
     String[] argsShort = {"-u", "fileToUpload.txt"};
     fsCmdLine.processInputAndRun(argsShort);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
-    reset(fsRestClient);
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
+    clearInvocations(fsRestClient, fsAsyncClient);
     String[] argsLong = {"--upload-file", "fileToUpload.txt"};
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
     fsCmdLine.processInputAndRun(argsLong);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
   }
 
   @Test
   public void testProcessingEmptyInputExpectNoInvocationOfRestClient() {
     FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
-    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient);
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
     String[] emptyArgs = {};
     fsCmdLine.processInputAndRun(emptyArgs);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
   }
 
   @Test
   public void testProcessingUnsupportedOptionExpectNoInvocationOfRestClient() {
     FSRestClient fsRestClient = mock(FSRestClient.class);
-    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
     when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
     String[] emptyArgs = {"--unsupported-option"};
     fsCmdLine.processInputAndRun(emptyArgs);
-    verify(fsRestClient, never()).listUploadedFiles();
-    verify(fsRestClient, never()).uploadFile(any());
-    verify(fsRestClient, never()).deleteFile(any());
+    verify(fsAsyncClient, never()).listUploadedFiles();
+    verify(fsAsyncClient, never()).uploadFile(any());
+    verify(fsAsyncClient, never()).deleteFile(any());
+  }
+
+  @Test
+  public void testProcessingUploadDirCommandWithParam() {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
+    doReturn(true).when(fsCmdLine).checkIfDirectoryToUploadExists(any(String.class));
+    String[] argsLong = {"--upload-dir", "dirToUpload"};
+    fsCmdLine.processInputAndRun(argsLong);
+    verify(fsRestClient).uploadDirectory("dirToUpload");
+    verify(fsAsyncClient, never()).uploadFile(any());
+  }
+
+  @Test
+  public void testProcessingUploadDirCommandWithMissingDirExpectNoRestClientInvocation() {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    when(fsRestClient.getFileUploadSizeLimit()).thenReturn("");
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
+    doReturn(false).when(fsCmdLine).checkIfDirectoryToUploadExists(any(String.class));
+    String[] argsShort = {"-ud", "missingDir"};
+    fsCmdLine.processInputAndRun(argsShort);
+    verify(fsRestClient, never()).uploadDirectory(any());
+  }
+
+  @Test
+  public void testCommandsDoNotWaitForServerStats() {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
+    fsCmdLine.processInputAndRun(new String[] {"--list-files"});
+    fsCmdLine.processInputAndRun(new String[] {"-d", "fileToDelete"});
+    verify(fsAsyncClient).listUploadedFiles();
+    verify(fsAsyncClient).deleteFile("fileToDelete");
+    verify(fsRestClient, never()).getFileUploadSizeLimit();
+  }
+
+  @Test
+  public void testUsageGuideAsksServerForUploadLimit() {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    when(fsRestClient.getFileUploadSizeLimit()).thenReturn("10M");
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
+    fsCmdLine.processInputAndRun(new String[] {});
+    verify(fsRestClient).getFileUploadSizeLimit();
+  }
+
+  @Test
+  public void testShellRunsEachLineUntilExit() {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
+    doReturn(true).when(fsCmdLine).checkIfFileToUploadExists(any(String.class));
+    String commands =
+        "-l\n\n# comment\n  --upload-file my file.txt  \n--shell\n-d f1.txt\nexit\n-d f2.txt\n";
+    fsCmdLine.runShell(new BufferedReader(new StringReader(commands)));
+    verify(fsAsyncClient).listUploadedFiles();
+    verify(fsAsyncClient).uploadFile(Paths.get("my file.txt"));
+    verify(fsAsyncClient).deleteFile("f1.txt");
+    verify(fsAsyncClient, never()).deleteFile("f2.txt");
+  }
+
+  @Test
+  public void testShellKeepsGoingAfterBadCommand() {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    FSCmdLine fsCmdLine = new FSCmdLine(fsRestClient, fsAsyncClient);
+    fsCmdLine.runShell(new BufferedReader(new StringReader("--unsupported\n-d\n-l")));
+    verify(fsAsyncClient, never()).deleteFile(any());
+    verify(fsAsyncClient).listUploadedFiles();
+  }
+
+  @Test
+  public void testProcessingSyncCommandRunsOnePass() throws Exception {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    DirectorySynchronizer synchronizer = mock(DirectorySynchronizer.class);
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
+    doReturn(true).when(fsCmdLine).checkIfDirectoryToUploadExists(any(String.class));
+    doReturn(synchronizer).when(fsCmdLine).createDirectorySynchronizer(Paths.get("build"), true);
+    fsCmdLine.processInputAndRun(new String[] {"--sync", "build", "--sync-delete"});
+    verify(synchronizer).syncOnce();
+    verify(synchronizer, never()).watch();
+  }
+
+  @Test
+  public void testProcessingSyncCommandWithWatch() throws Exception {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    DirectorySynchronizer synchronizer = mock(DirectorySynchronizer.class);
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
+    doReturn(true).when(fsCmdLine).checkIfDirectoryToUploadExists(any(String.class));
+    doReturn(synchronizer).when(fsCmdLine).createDirectorySynchronizer(Paths.get("build"), false);
+    fsCmdLine.processInputAndRun(new String[] {"-sy", "build", "--sync-watch"});
+    verify(synchronizer).watch();
+    verify(synchronizer, never()).syncOnce();
+  }
+
+  @Test
+  public void testProcessingSyncCommandWithMissingDirExpectNoSync() {
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
+    doReturn(false).when(fsCmdLine).checkIfDirectoryToUploadExists(any(String.class));
+    fsCmdLine.processInputAndRun(new String[] {"--sync", "missingDir"});
+    verify(fsCmdLine, never()).createDirectorySynchronizer(any(), anyBoolean());
+  }
+
+  @Test
+  public void testTypedOutcomesAreReportedToTheUser() {
+    Logger mockLogger = mock(Logger.class);
+    FSRestClient fsRestClient = mock(FSRestClient.class);
+    FSAsyncClient fsAsyncClient = mockAsyncClient();
+    when(fsAsyncClient.uploadFile(any()))
+        .thenReturn(completedResult(FileOperationStatus.CONFLICT, null));
+    when(fsAsyncClient.deleteFile(any()))
+        .thenReturn(completedResult(FileOperationStatus.NOT_FOUND, null));
+    when(fsAsyncClient.listUploadedFiles())
+        .thenReturn(completedResult(FileOperationStatus.SUCCESS, List.of("f1.txt", "f2.txt")));
+    FSCmdLine fsCmdLine = spy(new FSCmdLine(fsRestClient, fsAsyncClient));
+    doReturn(true).when(fsCmdLine).checkIfFileToUploadExists(any(String.class));
+    Logger originalLogger = Whitebox.getInternalState(FSCmdLine.class, "LOG");
+    Whitebox.setInternalState(FSCmdLine.class, "LOG", mockLogger);
+    try {
+      fsCmdLine.processInputAndRun(new String[] {"-u", "f1.txt"});
+      fsCmdLine.processInputAndRun(new String[] {"-d", "f3.txt"});
+      fsCmdLine.processInputAndRun(new String[] {"-l"});
+    } finally {
+      Whitebox.setInternalState(FSCmdLine.class, "LOG", originalLogger);
+    }
+    verify(mockLogger).error(any(String.class), eq("f1.txt"));
+    verify(mockLogger).error(any(String.class), eq("f3.txt"));
+    verify(mockLogger).info(any(String.class), eq("f1.txt,f2.txt"));
+  }
+
+  private static FSAsyncClient mockAsyncClient() {
+    FSAsyncClient fsAsyncClient = mock(FSAsyncClient.class);
+    when(fsAsyncClient.listUploadedFiles())
+        .thenReturn(completedResult(FileOperationStatus.SUCCESS, List.of()));
+    when(fsAsyncClient.uploadFile(any()))
+        .thenReturn(completedResult(FileOperationStatus.SUCCESS, null));
+    when(fsAsyncClient.deleteFile(any()))
+        .thenReturn(completedResult(FileOperationStatus.SUCCESS, null));
+    return fsAsyncClient;
+  }
+
+  private static <T> CompletableFuture<FileOperationResult<T>> completedResult(
+      FileOperationStatus status, T value) {
+    return CompletableFuture.completedFuture(new FileOperationResult<>(status, value, 1, 0));
   }
 }
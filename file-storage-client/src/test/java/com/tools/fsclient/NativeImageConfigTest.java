@@ -0,0 +1,65 @@
+package com.tools.fsclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * The native-image configuration names classes and resources as plain strings, so a dependency
+ * upgrade or a rename would only break the native executable at runtime. These tests fail the
+ * regular build instead
+ */
+public class NativeImageConfigTest {
+
+  private static final String CONFIG_FOLDER =
+      "META-INF/native-image/com.tools/file-storage-client/";
+  private static final Pattern CLASS_NAME = Pattern.compile("\"([a-z][\\w.]*\\.[A-Z]\\w*)\"");
+  private static final Pattern RESOURCE = Pattern.compile("\\\\\\\\Q(.+?)\\\\\\\\E");
+
+  @Test
+  public void testConfiguredClassesExist() throws IOException {
+    List<String> classNames = new ArrayList<>();
+    classNames.addAll(matches(CLASS_NAME, read("reflect-config.json")));
+    classNames.addAll(matches(CLASS_NAME, read("proxy-config.json")));
+    assertFalse(classNames.isEmpty());
+    for (String className : classNames) {
+      assertDoesNotThrow(() -> Class.forName(className, false, getClass().getClassLoader()));
+    }
+  }
+
+  @Test
+  public void testConfiguredResourcesExist() throws IOException {
+    List<String> resources = matches(RESOURCE, read("resource-config.json"));
+    assertFalse(resources.isEmpty());
+    for (String resource : resources) {
+      assertNotNull(getClass().getClassLoader().getResource(resource), resource);
+    }
+  }
+
+  private String read(String configFile) throws IOException {
+    ClassLoader classLoader = getClass().getClassLoader();
+    try (InputStream in = classLoader.getResourceAsStream(CONFIG_FOLDER + configFile)) {
+      assertNotNull(in, configFile);
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static List<String> matches(Pattern pattern, String text) {
+    List<String> matches = new ArrayList<>();
+    Matcher matcher = pattern.matcher(text);
+    while (matcher.find()) {
+      matches.add(matcher.group(1));
+    }
+    return matches;
+  }
+}
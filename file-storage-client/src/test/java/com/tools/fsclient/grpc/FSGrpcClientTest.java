@@ -0,0 +1,230 @@
+package com.tools.fsclient.grpc;
+
+import com.google.protobuf.ByteString;
+import com.tools.fsgrpc.v1.BatchRequest;
+import com.tools.fsgrpc.v1.BatchResponse;
+import com.tools.fsgrpc.v1.DownloadRequest;
+import com.tools.fsgrpc.v1.DownloadResponse;
+import com.tools.fsgrpc.v1.FileTransferGrpc;
+import com.tools.fsgrpc.v1.TransferResult;
+import com.tools.fsgrpc.v1.TransferStatus;
+import com.tools.fsgrpc.v1.UploadRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests FSGrpcClient against an in-process gRPC server backed by an in-memory map, so whole files
+ * travel through the real stubs and flow control without any network
+ */
+public class FSGrpcClientTest {
+
+  @TempDir Path tempDir;
+  private final Map<String, byte[]> serverFiles = new ConcurrentHashMap<>();
+  private Server server;
+  private FSGrpcClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    String serverName = InProcessServerBuilder.generateName();
+    server =
+        InProcessServerBuilder.forName(serverName)
+            .addService(new InMemoryFileTransfer(serverFiles))
+            .build()
+            .start();
+    ManagedChannel channel = InProcessChannelBuilder.forName(serverName).build();
+    client = new FSGrpcClient(channel);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    client.close();
+    server.shutdownNow();
+  }
+
+  @Test
+  public void testUploadFileSendsWholeContent() throws IOException {
+    byte[] content = randomBytes(FSGrpcClient.CHUNK_SIZE * 3 + 5);
+    Path file = Files.write(tempDir.resolve("a.bin"), content);
+    assertEquals(TransferStatus.OK, client.uploadFile(file.toString()));
+    assertArrayEquals(content, serverFiles.get("a.bin"));
+  }
+
+  @Test
+  public void testUploadOfDuplicateReportsServerStatus() throws IOException {
+    serverFiles.put("a.bin", new byte[0]);
+    Path file = Files.write(tempDir.resolve("a.bin"), randomBytes(10));
+    assertEquals(TransferStatus.ALREADY_EXISTS, client.uploadFile(file.toString()));
+  }
+
+  @Test
+  public void testUploadOfMissingLocalFileIsError() {
+    assertEquals(
+        TransferStatus.ERROR, client.uploadFile(tempDir.resolve("nope.bin").toString()));
+  }
+
+  @Test
+  public void testDownloadFileWritesContent() throws IOException {
+    byte[] content = randomBytes(FSGrpcClient.CHUNK_SIZE * 2 + 1);
+    serverFiles.put("a.bin", content);
+    Path destination = tempDir.resolve("copy.bin");
+    assertEquals(TransferStatus.OK, client.downloadFile("a.bin", destination));
+    assertArrayEquals(content, Files.readAllBytes(destination));
+  }
+
+  @Test
+  public void testDownloadOfInexistentFileLeavesNothingBehind() {
+    Path destination = tempDir.resolve("copy.bin");
+    assertEquals(TransferStatus.NOT_FOUND, client.downloadFile("missing.bin", destination));
+    assertFalse(Files.exists(destination));
+  }
+
+  @Test
+  public void testBatchUploadAndDelete() throws IOException {
+    byte[] first = randomBytes(FSGrpcClient.CHUNK_SIZE + 1);
+    byte[] second = randomBytes(3);
+    Path firstFile = Files.write(tempDir.resolve("first.bin"), first);
+    Path secondFile = Files.write(tempDir.resolve("second.bin"), second);
+    serverFiles.put("second.bin", new byte[0]);
+
+    Map<Path, TransferStatus> uploads = client.uploadFiles(List.of(firstFile, secondFile));
+
+    assertEquals(
+        Map.of(firstFile, TransferStatus.OK, secondFile, TransferStatus.ALREADY_EXISTS), uploads);
+    assertArrayEquals(first, serverFiles.get("first.bin"));
+    assertEquals(
+        Map.of("first.bin", TransferStatus.OK, "missing.bin", TransferStatus.NOT_FOUND),
+        client.deleteFiles(List.of("first.bin", "missing.bin")));
+    assertFalse(serverFiles.containsKey("first.bin"));
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Minimal stand-in for the server's FileTransferGrpcService */
+  private static final class InMemoryFileTransfer extends FileTransferGrpc.FileTransferImplBase {
+    private final Map<String, byte[]> files;
+
+    private InMemoryFileTransfer(Map<String, byte[]> files) {
+      this.files = files;
+    }
+
+    @Override
+    public StreamObserver<UploadRequest> upload(StreamObserver<TransferResult> responses) {
+      return new StreamObserver<>() {
+        private String fileName;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        @Override
+        public void onNext(UploadRequest request) {
+          if (request.hasStart()) {
+            fileName = request.getStart().getFileName();
+          } else {
+            content.writeBytes(request.getChunk().toByteArray());
+          }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {}
+
+        @Override
+        public void onCompleted() {
+          responses.onNext(store(fileName, content.toByteArray()));
+          responses.onCompleted();
+        }
+      };
+    }
+
+    @Override
+    public void download(DownloadRequest request, StreamObserver<DownloadResponse> responses) {
+      byte[] content = files.get(request.getFileName());
+      if (content == null) {
+        responses.onError(Status.NOT_FOUND.asRuntimeException());
+        return;
+      }
+      for (int offset = 0; offset < content.length; offset += FSGrpcClient.CHUNK_SIZE) {
+        int length = Math.min(FSGrpcClient.CHUNK_SIZE, content.length - offset);
+        responses.onNext(
+            DownloadResponse.newBuilder()
+                .setChunk(ByteString.copyFrom(content, offset, length))
+                .build());
+      }
+      responses.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<BatchRequest> batch(StreamObserver<BatchResponse> responses) {
+      return new StreamObserver<>() {
+        private final Map<Long, String> names = new HashMap<>();
+        private final Map<Long, ByteArrayOutputStream> contents = new HashMap<>();
+
+        @Override
+        public void onNext(BatchRequest request) {
+          long id = request.getTransferId();
+          switch (request.getOperationCase()) {
+            case UPLOAD_START -> {
+              names.put(id, request.getUploadStart().getFileName());
+              contents.put(id, new ByteArrayOutputStream());
+            }
+            case UPLOAD_CHUNK -> {
+              byte[] chunk = request.getUploadChunk().toByteArray();
+              contents.get(id).writeBytes(chunk);
+            }
+            case UPLOAD_END -> reply(id, store(names.get(id), contents.get(id).toByteArray()));
+            case DELETE -> {
+              String name = request.getDelete().getFileName();
+              boolean deleted = files.remove(name) != null;
+              reply(id, result(name, deleted ? TransferStatus.OK : TransferStatus.NOT_FOUND));
+            }
+            default -> reply(id, result("", TransferStatus.INVALID));
+          }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {}
+
+        @Override
+        public void onCompleted() {
+          responses.onCompleted();
+        }
+
+        private void reply(long id, TransferResult result) {
+          responses.onNext(BatchResponse.newBuilder().setTransferId(id).setResult(result).build());
+        }
+      };
+    }
+
+    private TransferResult store(String fileName, byte[] content) {
+      boolean stored = files.putIfAbsent(fileName, content) == null;
+      return result(fileName, stored ? TransferStatus.OK : TransferStatus.ALREADY_EXISTS);
+    }
+
+    private static TransferResult result(String fileName, TransferStatus status) {
+      return TransferResult.newBuilder().setFileName(fileName).setStatus(status).build();
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.tools.fsclient.rest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Tests for the jittered exponential backoff computation */
+public class BackoffPolicyTest {
+
+  @Test
+  public void testDelayStaysWithinDoublingCeiling() {
+    BackoffPolicy policy = new BackoffPolicy(10, 100, 1000, new Random(5));
+    for (int retry = 1; retry < 10; retry++) {
+      long ceiling = Math.min(1000, 100L << (retry - 1));
+      for (int sample = 0; sample < 100; sample++) {
+        long delay = policy.delayMillisBeforeRetry(retry, -1);
+        assertTrue(delay >= 0 && delay <= ceiling, "delay " + delay + " above " + ceiling);
+      }
+    }
+  }
+
+  @Test
+  public void testRetryAfterIsLowerBound() {
+    BackoffPolicy policy = new BackoffPolicy(3, 100, 1000, new Random(5));
+    assertTrue(policy.delayMillisBeforeRetry(1, 7) >= 7000);
+  }
+
+  @Test
+  public void testInvalidSettingsRejected() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new BackoffPolicy(0, 100, 1000, new Random()));
+    assertThrows(
+        IllegalArgumentException.class, () -> new BackoffPolicy(3, 100, 10, new Random()));
+  }
+}
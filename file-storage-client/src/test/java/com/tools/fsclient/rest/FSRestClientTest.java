@@ -1,15 +1,24 @@
 package com.tools.fsclient.rest;
 
+import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.ParseException;
 import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.message.BasicHeader;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.powermock.reflect.Whitebox;
 import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 /**
@@ -24,6 +33,7 @@ public class FSRestClientTest {
   private static final String TEST_STATS_API = "http://localhost:8080/v1/stats";
   private static final String TEST_FILE_TO_DELETE = "f1.txt";
   private static final String TEST_FILE_TO_UPLOAD = "f2.txt";
+  private static final String TEST_DIR_TO_UPLOAD = "dir";
 
   @Test
   public void testSuccessfulUploadFileCall() throws IOException {
@@ -146,6 +156,27 @@ public class FSRestClientTest {
     verify(mockLogger).info(any(String.class), eq(expectedUploadedFilesCsv));
   }
 
+  @Test
+  public void testListFilesRevalidatesCachedListing() throws IOException, ParseException {
+    String uploadedFilesCsv = "f1.txt,f2.txt";
+    Logger mockLogger = mock(Logger.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    BasicClassicHttpResponse okResponse = mock(BasicClassicHttpResponse.class);
+    when(okResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    when(okResponse.getFirstHeader(HttpHeaders.ETAG))
+        .thenReturn(new BasicHeader(HttpHeaders.ETAG, "\"v1\""));
+    BasicClassicHttpResponse notModifiedResponse = mock(BasicClassicHttpResponse.class);
+    when(notModifiedResponse.getCode()).thenReturn(HttpStatus.SC_NOT_MODIFIED);
+    doReturn(okResponse, notModifiedResponse).when(fsRestClient).serverCallToListUploadedFiles();
+    doReturn(uploadedFilesCsv).when(fsRestClient).convertHttpEntityToString(any());
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    fsRestClient.listUploadedFiles();
+    fsRestClient.listUploadedFiles();
+    // second call is served from the cache, the body is only read once
+    verify(fsRestClient, times(1)).convertHttpEntityToString(any());
+    verify(mockLogger, times(2)).info(any(String.class), eq(uploadedFilesCsv));
+  }
+
   @Test
   public void testListFilesCallWithNoFilesReturned() throws IOException {
     Logger mockLogger = mock(Logger.class);
@@ -259,4 +290,252 @@ public class FSRestClientTest {
     fsRestClient.deleteFile(TEST_FILE_TO_DELETE);
     verify(mockLogger).error(eq("Error deleting file. Please try again"));
   }
+
+  @Test
+  public void testDeleteRetriedWhileServerBusyThenSucceeds() throws IOException {
+    Logger mockLogger = mock(Logger.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    BasicClassicHttpResponse busyResponse = mock(BasicClassicHttpResponse.class);
+    when(busyResponse.getCode()).thenReturn(HttpStatus.SC_TOO_MANY_REQUESTS);
+    when(busyResponse.getFirstHeader(HttpHeaders.RETRY_AFTER))
+        .thenReturn(new BasicHeader(HttpHeaders.RETRY_AFTER, "2"));
+    BasicClassicHttpResponse okResponse = mock(BasicClassicHttpResponse.class);
+    when(okResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    doReturn(busyResponse, okResponse)
+        .when(fsRestClient)
+        .serverCallToDeleteFile(TEST_FILE_TO_DELETE);
+    doNothing().when(fsRestClient).sleep(anyLong());
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    fsRestClient.deleteFile(TEST_FILE_TO_DELETE);
+    // Retry-After is a lower bound on the wait
+    verify(fsRestClient).sleep(longThat(delay -> delay >= 2000));
+    verify(fsRestClient, times(2)).serverCallToDeleteFile(TEST_FILE_TO_DELETE);
+    verify(mockLogger).info(any(String.class), eq(TEST_FILE_TO_DELETE));
+  }
+
+  @Test
+  public void testUploadGivesUpAfterMaxAttemptsWhenServerStaysBusy() throws IOException {
+    Logger mockLogger = mock(Logger.class);
+    Path pathToUploadedFile = mock(Path.class);
+    BackoffPolicy backoffPolicy = new BackoffPolicy(3, 10, 100, new Random(1));
+    FSRestClient fsRestClient =
+        spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API, backoffPolicy));
+    doReturn(pathToUploadedFile).when(fsRestClient).resolvePathToUploadFile(TEST_FILE_TO_UPLOAD);
+    BasicClassicHttpResponse busyResponse = mock(BasicClassicHttpResponse.class);
+    when(busyResponse.getCode()).thenReturn(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    doReturn(busyResponse).when(fsRestClient).serverCallToUploadFile(pathToUploadedFile);
+    doNothing().when(fsRestClient).sleep(anyLong());
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    fsRestClient.uploadFile(TEST_FILE_TO_UPLOAD);
+    verify(fsRestClient, times(3)).serverCallToUploadFile(pathToUploadedFile);
+    verify(fsRestClient, times(2)).sleep(longThat(delay -> delay >= 0 && delay <= 100));
+    verify(mockLogger)
+        .error(
+            eq(
+                "Server is busy, gave up uploading file {} after {} attempts."
+                    + " Please try again later"),
+            eq(TEST_FILE_TO_UPLOAD),
+            eq(3));
+  }
+
+  @Test
+  public void testUploadStatsCountAttemptsTheServerTurnedAway() throws IOException {
+    Path pathToUploadedFile = mock(Path.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    doReturn(pathToUploadedFile).when(fsRestClient).resolvePathToUploadFile(TEST_FILE_TO_UPLOAD);
+    BasicClassicHttpResponse busyResponse = mock(BasicClassicHttpResponse.class);
+    when(busyResponse.getCode()).thenReturn(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    BasicClassicHttpResponse okResponse = mock(BasicClassicHttpResponse.class);
+    when(okResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    doReturn(busyResponse, okResponse)
+        .when(fsRestClient)
+        .serverCallToUploadFile(pathToUploadedFile);
+    doNothing().when(fsRestClient).sleep(anyLong());
+    TransferStats stats = fsRestClient.uploadFileWithStats(TEST_FILE_TO_UPLOAD);
+    assertTrue(stats.isSuccessful());
+    assertEquals(2, stats.getAttempts());
+    assertTrue(stats.wasThrottled());
+  }
+
+  @Test
+  public void testUploadUnderAnotherNameStoresItUnderThatName() throws IOException {
+    Path pathToUploadedFile = mock(Path.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    doReturn(pathToUploadedFile).when(fsRestClient).resolvePathToUploadFile(TEST_FILE_TO_UPLOAD);
+    BasicClassicHttpResponse mockResponse = mock(BasicClassicHttpResponse.class);
+    when(mockResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    doReturn(mockResponse).when(fsRestClient).serverCallToUploadFile(pathToUploadedFile, "f2.tmp");
+    assertTrue(fsRestClient.uploadFileWithStats(TEST_FILE_TO_UPLOAD, "f2.tmp").isSuccessful());
+    verify(fsRestClient, never()).serverCallToUploadFile(pathToUploadedFile);
+  }
+
+  @Test
+  public void testFileSha256IsReadFromTheServersHeader() throws IOException {
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    BasicClassicHttpResponse mockResponse = mock(BasicClassicHttpResponse.class);
+    when(mockResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    when(mockResponse.getFirstHeader("X-Content-SHA256"))
+        .thenReturn(new BasicHeader("X-Content-SHA256", "abc123"));
+    doReturn(mockResponse).when(fsRestClient).serverCallToDescribeFile(TEST_FILE_TO_UPLOAD);
+    assertEquals("abc123", fsRestClient.getFileSha256(TEST_FILE_TO_UPLOAD));
+  }
+
+  @Test
+  public void testFileSha256OfFileNotOnServerIsNull() throws IOException {
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    BasicClassicHttpResponse mockResponse = mock(BasicClassicHttpResponse.class);
+    when(mockResponse.getCode()).thenReturn(HttpStatus.SC_NOT_FOUND);
+    doReturn(mockResponse).when(fsRestClient).serverCallToDescribeFile(TEST_FILE_TO_UPLOAD);
+    assertNull(fsRestClient.getFileSha256(TEST_FILE_TO_UPLOAD));
+  }
+
+  @Test
+  public void testUploadDirectoryLogsEachReportedFile() throws IOException, ParseException {
+    Logger mockLogger = mock(Logger.class);
+    Path directory = mock(Path.class);
+    List<Path> files = List.of(mock(Path.class), mock(Path.class), mock(Path.class));
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    doReturn(directory).when(fsRestClient).resolvePathToUploadFile(TEST_DIR_TO_UPLOAD);
+    doReturn(files).when(fsRestClient).listFilesToUpload(directory);
+    BasicClassicHttpResponse mockResponse = mock(BasicClassicHttpResponse.class);
+    when(mockResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    doReturn(mockResponse).when(fsRestClient).serverCallToUploadArchive(files);
+    doReturn("STORED\ta.txt\nALREADY_EXISTS\tb.txt\nSTORED\tc.txt\n")
+        .when(fsRestClient)
+        .convertHttpEntityToString(any());
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    fsRestClient.uploadDirectory(TEST_DIR_TO_UPLOAD);
+    verify(mockLogger).error(eq("Upload error. {} already exists on server"), eq("b.txt"));
+    verify(mockLogger)
+        .info(
+            eq("Successfully uploaded {} of {} files from directory {}"),
+            eq(2),
+            eq(3),
+            eq(TEST_DIR_TO_UPLOAD));
+  }
+
+  @Test
+  public void testUploadDirectoryWithUnreadableArchive() throws IOException, ParseException {
+    Logger mockLogger = mock(Logger.class);
+    Path directory = mock(Path.class);
+    List<Path> files = List.of(mock(Path.class), mock(Path.class));
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    doReturn(directory).when(fsRestClient).resolvePathToUploadFile(TEST_DIR_TO_UPLOAD);
+    doReturn(files).when(fsRestClient).listFilesToUpload(directory);
+    BasicClassicHttpResponse mockResponse = mock(BasicClassicHttpResponse.class);
+    when(mockResponse.getCode()).thenReturn(HttpStatus.SC_BAD_REQUEST);
+    doReturn(mockResponse).when(fsRestClient).serverCallToUploadArchive(files);
+    doReturn("STORED\ta.txt\nArchive entry is truncated or unreadable\n")
+        .when(fsRestClient)
+        .convertHttpEntityToString(any());
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    fsRestClient.uploadDirectory(TEST_DIR_TO_UPLOAD);
+    verify(mockLogger).error(eq("Archive entry is truncated or unreadable"));
+    verify(mockLogger)
+        .error(
+            eq(
+                "Upload of directory {} stopped early as the server could not read it."
+                    + " Please try again"),
+            eq(TEST_DIR_TO_UPLOAD));
+  }
+
+  @Test
+  public void testUploadOfEmptyDirectoryMakesNoServerCall() throws IOException {
+    Logger mockLogger = mock(Logger.class);
+    Path directory = mock(Path.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    doReturn(directory).when(fsRestClient).resolvePathToUploadFile(TEST_DIR_TO_UPLOAD);
+    doReturn(List.of()).when(fsRestClient).listFilesToUpload(directory);
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    fsRestClient.uploadDirectory(TEST_DIR_TO_UPLOAD);
+    verify(fsRestClient, never()).serverCallToUploadArchive(any());
+    verify(mockLogger)
+        .warn(eq("Directory {} contains no files to upload"), eq(TEST_DIR_TO_UPLOAD));
+  }
+
+  @Test
+  public void testUploadLimitCachedOnDiskIsUsedWithoutServerCall(@TempDir Path tempDir)
+      throws IOException {
+    ServerSettingsCache cache = new ServerSettingsCache(tempDir.resolve("cache"), 60);
+    cache.put(TEST_STATS_API, "fileUploadSizeLimit", "10M");
+    FSRestClient fsRestClient =
+        spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API, BackoffPolicy.defaultPolicy(), cache));
+    assertEquals("10M", fsRestClient.getKnownFileUploadSizeLimit());
+    assertEquals("10M", fsRestClient.getFileUploadSizeLimit());
+    verify(fsRestClient, never()).serverCallToGetFileUploadSizeLimit();
+  }
+
+  @Test
+  public void testFetchedUploadLimitIsCachedOnDisk(@TempDir Path tempDir) throws IOException {
+    Path cacheFile = tempDir.resolve("cache");
+    FSRestClient fsRestClient =
+        spy(
+            new FSRestClient(
+                TEST_FILES_API,
+                TEST_STATS_API,
+                BackoffPolicy.defaultPolicy(),
+                new ServerSettingsCache(cacheFile, 60)));
+    assertEquals("", fsRestClient.getKnownFileUploadSizeLimit());
+    doReturn("10M").when(fsRestClient).serverCallToGetFileUploadSizeLimit();
+    assertEquals("10M", fsRestClient.getFileUploadSizeLimit());
+    assertEquals(
+        "10M",
+        new ServerSettingsCache(cacheFile, 60).get(TEST_STATS_API, "fileUploadSizeLimit"));
+  }
+
+  @Test
+  public void testUploadAndDeleteReportWhetherTheServerTookThem() throws IOException {
+    Path pathToUploadedFile = mock(Path.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    doReturn(pathToUploadedFile).when(fsRestClient).resolvePathToUploadFile(TEST_FILE_TO_UPLOAD);
+    BasicClassicHttpResponse okResponse = mock(BasicClassicHttpResponse.class);
+    when(okResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    BasicClassicHttpResponse conflictResponse = mock(BasicClassicHttpResponse.class);
+    when(conflictResponse.getCode()).thenReturn(HttpStatus.SC_CONFLICT);
+    BasicClassicHttpResponse notFoundResponse = mock(BasicClassicHttpResponse.class);
+    when(notFoundResponse.getCode()).thenReturn(HttpStatus.SC_NOT_FOUND);
+    doReturn(okResponse, conflictResponse)
+        .when(fsRestClient)
+        .serverCallToUploadFile(pathToUploadedFile);
+    doReturn(okResponse, notFoundResponse)
+        .when(fsRestClient)
+        .serverCallToDeleteFile(TEST_FILE_TO_DELETE);
+    assertTrue(fsRestClient.uploadFile(TEST_FILE_TO_UPLOAD));
+    assertFalse(fsRestClient.uploadFile(TEST_FILE_TO_UPLOAD));
+    assertTrue(fsRestClient.deleteFile(TEST_FILE_TO_DELETE));
+    assertFalse(fsRestClient.deleteFile(TEST_FILE_TO_DELETE));
+  }
+
+  @Test
+  public void testSuccessfulCopyFileCall() throws IOException {
+    Logger mockLogger = mock(Logger.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    BasicClassicHttpResponse mockResponse = mock(BasicClassicHttpResponse.class);
+    when(mockResponse.getCode()).thenReturn(HttpStatus.SC_OK);
+    doReturn(mockResponse)
+        .when(fsRestClient)
+        .serverCallToRelocateFile(TEST_FILE_TO_DELETE, ":copy", "release.txt");
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    assertTrue(fsRestClient.copyFile(TEST_FILE_TO_DELETE, "release.txt"));
+    verify(mockLogger)
+        .info(any(String.class), eq("copied"), eq(TEST_FILE_TO_DELETE), eq("release.txt"));
+  }
+
+  @Test
+  public void testRenameFileCallOntoExistingFile() throws IOException {
+    Logger mockLogger = mock(Logger.class);
+    FSRestClient fsRestClient = spy(new FSRestClient(TEST_FILES_API, TEST_STATS_API));
+    BasicClassicHttpResponse mockResponse = mock(BasicClassicHttpResponse.class);
+    when(mockResponse.getCode()).thenReturn(HttpStatus.SC_CONFLICT);
+    doReturn(mockResponse)
+        .when(fsRestClient)
+        .serverCallToRelocateFile(TEST_FILE_TO_DELETE, ":rename", "release.txt");
+    Whitebox.setInternalState(FSRestClient.class, MOCKED_LOGGER, mockLogger);
+    assertFalse(fsRestClient.renameFile(TEST_FILE_TO_DELETE, "release.txt"));
+    verify(mockLogger)
+        .error(
+            eq("Did not {} anything. {} already exists on server"),
+            eq("rename"),
+            eq("release.txt"));
+  }
 }
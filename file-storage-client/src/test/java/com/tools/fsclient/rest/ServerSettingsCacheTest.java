@@ -0,0 +1,65 @@
+package com.tools.fsclient.rest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** Tests for the on-disk cache of server settings, driven by a fake clock */
+public class ServerSettingsCacheTest {
+
+  private static final String SERVER = "http://localhost:8080/v1/stats";
+  private static final String SETTING = "fileUploadSizeLimit";
+
+  @TempDir Path tempDir;
+  private final AtomicLong now = new AtomicLong(1_000_000);
+
+  @Test
+  public void testCachedValueSurvivesNewInstances() {
+    Path cacheFile = tempDir.resolve("nested/settings.properties");
+    new ServerSettingsCache(cacheFile, 60_000, now::get).put(SERVER, SETTING, "10M");
+    assertEquals("10M", new ServerSettingsCache(cacheFile, 60_000, now::get).get(SERVER, SETTING));
+    assertNull(new ServerSettingsCache(cacheFile, 60_000, now::get).get("other", SETTING));
+  }
+
+  @Test
+  public void testCachedValueExpires() {
+    ServerSettingsCache cache =
+        new ServerSettingsCache(tempDir.resolve("settings.properties"), 60_000, now::get);
+    cache.put(SERVER, SETTING, "10M");
+    now.addAndGet(59_999);
+    assertEquals("10M", cache.get(SERVER, SETTING));
+    now.addAndGet(1);
+    assertNull(cache.get(SERVER, SETTING));
+  }
+
+  @Test
+  public void testDisabledCacheHoldsNothing() {
+    Path cacheFile = tempDir.resolve("settings.properties");
+    ServerSettingsCache cache = new ServerSettingsCache(cacheFile, 0);
+    cache.put(SERVER, SETTING, "10M");
+    assertNull(cache.get(SERVER, SETTING));
+    assertFalse(Files.exists(cacheFile));
+    ServerSettingsCache.disabled().put(SERVER, SETTING, "10M");
+    assertNull(ServerSettingsCache.disabled().get(SERVER, SETTING));
+  }
+
+  @Test
+  public void testUnusableCacheFileIsIgnored() throws Exception {
+    Path cacheFile = tempDir.resolve("settings.properties");
+    String key = (SERVER + "|" + SETTING).replace(":", "\\:");
+    Files.writeString(cacheFile, key + "=10M\n" + key + "|fetchedAt=not-a-number\n");
+    ServerSettingsCache cache = new ServerSettingsCache(cacheFile, 60_000, now::get);
+    assertNull(cache.get(SERVER, SETTING));
+    Files.delete(cacheFile);
+    Files.createDirectory(cacheFile);
+    assertNull(cache.get(SERVER, SETTING));
+    cache.put(SERVER, SETTING, "10M");
+  }
+}
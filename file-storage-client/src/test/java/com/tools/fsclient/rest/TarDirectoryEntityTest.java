@@ -0,0 +1,55 @@
+package com.tools.fsclient.rest;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Checks that the archive written as request body unpacks back into the original files */
+public class TarDirectoryEntityTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testWrittenArchiveHoldsEachFileUnderItsName() throws IOException {
+    Path small = Files.write(tempDir.resolve("small.txt"), "hello".getBytes());
+    byte[] largeContent = new byte[100_000];
+    largeContent[99_999] = 7;
+    Path large = Files.write(tempDir.resolve("large.bin"), largeContent);
+    String longName = "n".repeat(150) + ".txt";
+    Path longNamed = Files.write(tempDir.resolve(longName), new byte[0]);
+    TarDirectoryEntity entity = new TarDirectoryEntity(List.of(small, large, longNamed));
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    entity.writeTo(body);
+
+    assertTrue(entity.isRepeatable());
+    assertEquals(-1, entity.getContentLength());
+    try (TarArchiveInputStream tar =
+        new TarArchiveInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+      assertEntry(tar, "small.txt", "hello".getBytes());
+      assertEntry(tar, "large.bin", largeContent);
+      assertEntry(tar, longName, new byte[0]);
+      assertNull(tar.getNextTarEntry());
+    }
+  }
+
+  private static void assertEntry(TarArchiveInputStream tar, String name, byte[] content)
+      throws IOException {
+    TarArchiveEntry entry = tar.getNextTarEntry();
+    assertEquals(name, entry.getName());
+    assertArrayEquals(content, tar.readAllBytes());
+  }
+}
@@ -0,0 +1,196 @@
+package com.tools.fsclient.sdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tools.fsclient.rest.BackoffPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests FSAsyncClient against an in-JVM HTTP server mimicking the storage server's files API on an
+ * in-memory map, so requests travel through the real async client, connection pool and pipelining
+ */
+public class FSAsyncClientTest {
+
+  @TempDir Path tempDir;
+  private final Map<String, byte[]> serverFiles = new ConcurrentHashMap<>();
+  private final AtomicInteger busyResponsesLeft = new AtomicInteger();
+  private final AtomicInteger listingsSent = new AtomicInteger();
+  private HttpServer server;
+  private FSAsyncClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/v1/files", this::handle);
+    server.start();
+    client =
+        new FSAsyncClient(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/files",
+            new BackoffPolicy(3, 1, 1, new Random(0)),
+            4,
+            1);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    client.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void testUploadFileSendsWholeContent() throws IOException {
+    byte[] content = new byte[200_000];
+    new Random(1).nextBytes(content);
+    Path file = Files.write(tempDir.resolve("a file.bin"), content);
+    FileOperationResult<Void> result = client.uploadFile(file).join();
+    assertEquals(FileOperationStatus.SUCCESS, result.getStatus());
+    assertEquals(1, result.getAttempts());
+    assertArrayEquals(content, serverFiles.get("a+file.bin"));
+  }
+
+  @Test
+  public void testUploadOutcomesAreTyped() throws IOException {
+    serverFiles.put("a.txt", new byte[0]);
+    Path file = Files.writeString(tempDir.resolve("a.txt"), "content");
+    assertEquals(FileOperationStatus.CONFLICT, client.uploadFile(file).join().getStatus());
+    assertEquals(
+        FileOperationStatus.IO_ERROR,
+        client.uploadFile(tempDir.resolve("missing.txt")).join().getStatus());
+  }
+
+  @Test
+  public void testManyConcurrentUploadsShareTheConnectionPool() throws IOException {
+    List<CompletableFuture<FileOperationResult<Void>>> uploads = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      Path file = Files.writeString(tempDir.resolve("f" + i + ".txt"), "content " + i);
+      uploads.add(client.uploadFile(file));
+    }
+    CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).join();
+    assertTrue(uploads.stream().allMatch(upload -> upload.join().isSuccessful()));
+    assertEquals(50, serverFiles.size());
+    assertEquals("content 7", new String(serverFiles.get("f7.txt"), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testBusyServerIsRetried() {
+    serverFiles.put("a.txt", new byte[0]);
+    busyResponsesLeft.set(2);
+    FileOperationResult<Void> result = client.deleteFile("a.txt").join();
+    assertEquals(FileOperationStatus.SUCCESS, result.getStatus());
+    assertEquals(3, result.getAttempts());
+    assertTrue(result.toTransferStats().wasThrottled());
+    busyResponsesLeft.set(3);
+    serverFiles.put("a.txt", new byte[0]);
+    assertEquals(FileOperationStatus.SERVER_BUSY, client.deleteFile("a.txt").join().getStatus());
+  }
+
+  @Test
+  public void testListingIsRevalidated() {
+    assertEquals(List.of(), client.listUploadedFiles().join().getValue());
+    serverFiles.put("a.txt", new byte[0]);
+    serverFiles.put("b.txt", new byte[0]);
+    assertEquals(List.of("a.txt", "b.txt"), client.listUploadedFiles().join().getValue());
+    assertEquals(List.of("a.txt", "b.txt"), client.listUploadedFiles().join().getValue());
+    assertEquals(1, listingsSent.get());
+  }
+
+  @Test
+  public void testDeleteFilesPipelinesOverOneConnection() {
+    serverFiles.put("a.txt", new byte[0]);
+    serverFiles.put("c.txt", new byte[0]);
+    Map<String, FileOperationResult<Void>> results =
+        client.deleteFiles(List.of("a.txt", "b.txt", "c.txt")).join();
+    assertEquals(List.of("a.txt", "b.txt", "c.txt"), List.copyOf(results.keySet()));
+    assertEquals(FileOperationStatus.SUCCESS, results.get("a.txt").getStatus());
+    assertEquals(FileOperationStatus.NOT_FOUND, results.get("b.txt").getStatus());
+    assertEquals(FileOperationStatus.SUCCESS, results.get("c.txt").getStatus());
+    assertTrue(serverFiles.isEmpty());
+  }
+
+  @Test
+  public void testUnreachableServerIsAnOutcome() throws IOException {
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      closedPort = socket.getLocalPort();
+    }
+    try (FSAsyncClient unreachable =
+        new FSAsyncClient("http://127.0.0.1:" + closedPort + "/v1/files")) {
+      assertEquals(
+          FileOperationStatus.IO_ERROR, unreachable.listUploadedFiles().join().getStatus());
+      assertEquals(
+          FileOperationStatus.IO_ERROR,
+          unreachable.deleteFiles(List.of("a.txt")).join().get("a.txt").getStatus());
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    byte[] body = exchange.getRequestBody().readAllBytes();
+    String fileName = exchange.getRequestURI().getRawPath().replaceFirst("^/v1/files/?", "");
+    int status;
+    if (busyResponsesLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+      exchange.getResponseHeaders().add("Retry-After", "0");
+      status = 503;
+    } else if (exchange.getRequestMethod().equals("GET")) {
+      respondWithListing(exchange);
+      return;
+    } else if (exchange.getRequestMethod().equals("POST")) {
+      String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+      status =
+          serverFiles.putIfAbsent(fileName, filePartOf(body, contentType)) == null ? 200 : 409;
+    } else {
+      status = serverFiles.remove(fileName) != null ? 200 : 404;
+    }
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  private void respondWithListing(HttpExchange exchange) throws IOException {
+    String listing = String.join(",", new TreeMap<>(serverFiles).keySet());
+    String eTag = "\"" + listing.hashCode() + "\"";
+    if (listing.isEmpty()) {
+      exchange.sendResponseHeaders(404, -1);
+    } else if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+    } else {
+      listingsSent.incrementAndGet();
+      byte[] bytes = listing.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("ETag", eTag);
+      exchange.sendResponseHeaders(200, bytes.length);
+      exchange.getResponseBody().write(bytes);
+    }
+    exchange.close();
+  }
+
+  /** @return the content of the single part of a multipart/form-data body */
+  private static byte[] filePartOf(byte[] body, String contentType) {
+    String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+    String text = new String(body, StandardCharsets.ISO_8859_1);
+    int start = text.indexOf("\r\n\r\n") + 4;
+    int end = text.lastIndexOf("\r\n--" + boundary + "--");
+    return Arrays.copyOfRange(body, start, end);
+  }
+}
@@ -0,0 +1,87 @@
+package com.tools.fsclient.sync;
+
+import com.tools.fsclient.rest.TransferStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for the AIMD upload limit, feeding it windows of uploads with a fake clock: each window's
+ * uploads take one second and transfer the given number of bytes in total
+ */
+public class AdaptiveConcurrencyLimitTest {
+
+  private static final long ONE_SECOND_NANOS = 1_000_000_000L;
+  private static final TransferStats STORED = new TransferStats(true, 1, 1);
+  private static final TransferStats THROTTLED = new TransferStats(true, 3, 1);
+  private static final TransferStats FAILED = new TransferStats(false, 1, 1);
+
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  public void testSlowStartThenAdditiveIncreaseUpToMax() throws Exception {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 10, now::get);
+    runWindow(limit, 100, STORED);
+    assertEquals(2, limit.getLimit());
+    runWindow(limit, 200, STORED);
+    assertEquals(4, limit.getLimit());
+    runWindow(limit, 400, THROTTLED);
+    assertEquals(2, limit.getLimit());
+    runWindow(limit, 400, STORED);
+    assertEquals(3, limit.getLimit());
+    for (int i = 0; i < 20; i++) {
+      runWindow(limit, 400, STORED);
+    }
+    assertEquals(10, limit.getLimit());
+    assertEquals(400, limit.getLastBytesPerSecond(), 0.001);
+  }
+
+  @Test
+  public void testDropInThroughputOrFailureHalvesDownToMin() throws Exception {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 16, now::get);
+    runWindow(limit, 1000, STORED);
+    runWindow(limit, 1000, STORED);
+    assertEquals(8, limit.getLimit());
+    runWindow(limit, 700, STORED);
+    assertEquals(4, limit.getLimit());
+    runWindow(limit, 700, FAILED);
+    assertEquals(2, limit.getLimit());
+    runWindow(limit, 700, FAILED);
+    assertEquals(2, limit.getLimit());
+  }
+
+  @Test
+  public void testEqualBoundsFixTheLimit() throws Exception {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(3, 3, now::get);
+    runWindow(limit, 100, STORED);
+    runWindow(limit, 100, THROTTLED);
+    assertEquals(3, limit.getLimit());
+  }
+
+  @Test
+  public void testDiscardedWindowDoesNotCount() throws Exception {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 10, now::get);
+    runWindow(limit, 100, STORED);
+    limit.acquire();
+    limit.release(1, STORED);
+    limit.discardWindow();
+    now.addAndGet(60 * ONE_SECOND_NANOS);
+    runWindow(limit, 100, STORED);
+    assertEquals(4, limit.getLimit());
+  }
+
+  /** Runs as many uploads as the limit allows at once, all of them ending a second later */
+  private void runWindow(AdaptiveConcurrencyLimit limit, long bytes, TransferStats stats)
+      throws InterruptedException {
+    int uploads = limit.getLimit();
+    for (int i = 0; i < uploads; i++) {
+      limit.acquire();
+    }
+    now.addAndGet(ONE_SECOND_NANOS);
+    for (int i = 0; i < uploads; i++) {
+      limit.release(bytes / uploads, stats);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package com.tools.fsclient.sync;
+
+import com.google.common.hash.Hashing;
+import com.tools.fsclient.rest.FSRestClient;
+import com.tools.fsclient.rest.TransferStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for syncing a temp folder through a mocked FSRestClient, checking which files each pass
+ * uploads, replaces, adopts or deletes and what state it leaves behind
+ */
+public class DirectorySynchronizerTest {
+
+  private static final TransferStats STORED = new TransferStats(true, 1, 1_000_000);
+  private static final TransferStats NOT_STORED = new TransferStats(false, 1, 1_000_000);
+
+  @TempDir Path tempDir;
+  private Path directory;
+  private SyncStateStore stateStore;
+  private FSRestClient fsRestClient;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    directory = Files.createDirectory(tempDir.resolve("build"));
+    stateStore = new SyncStateStore(tempDir.resolve("state/build.state"));
+    fsRestClient = mock(FSRestClient.class);
+    when(fsRestClient.uploadFileWithStats(any(), any())).thenReturn(STORED);
+    when(fsRestClient.deleteFile(any())).thenReturn(true);
+    when(fsRestClient.renameFile(any(), any())).thenReturn(true);
+    Files.writeString(directory.resolve("a.txt"), "a");
+    Files.writeString(directory.resolve("b.txt"), "b");
+    Files.createDirectory(directory.resolve("nested"));
+  }
+
+  @Test
+  public void testFirstPassUploadsAllFilesThenNothingUntilChanged() throws Exception {
+    SyncSummary first = synchronizer(false).syncOnce();
+    assertEquals(2, first.count(SyncOutcome.UPLOADED));
+    verify(fsRestClient).uploadFileWithStats(directory.resolve("a.txt").toString(), "a.txt");
+    verify(fsRestClient).uploadFileWithStats(directory.resolve("b.txt").toString(), "b.txt");
+
+    reset(fsRestClient);
+    SyncSummary second = synchronizer(false).syncOnce();
+    assertEquals(2, second.count(SyncOutcome.UNCHANGED));
+    verifyNoInteractions(fsRestClient);
+  }
+
+  @Test
+  public void testChangedFileIsRenamedOverItsPreviousUpload() throws Exception {
+    synchronizer(false).syncOnce();
+    Path changed = Files.writeString(directory.resolve("a.txt"), "changed");
+    Path touched = directory.resolve("b.txt");
+    Files.setLastModifiedTime(touched, FileTime.fromMillis(0));
+    Files.setLastModifiedTime(changed, FileTime.fromMillis(0));
+
+    SyncSummary summary = synchronizer(false).syncOnce();
+    assertEquals(1, summary.count(SyncOutcome.REPLACED));
+    assertEquals(1, summary.count(SyncOutcome.UNCHANGED));
+    String temporaryName = "a.txt.sync-" + sha256("changed").substring(0, 16);
+    InOrder replacement = inOrder(fsRestClient);
+    replacement.verify(fsRestClient).uploadFileWithStats(changed.toString(), temporaryName);
+    replacement.verify(fsRestClient).deleteFile("a.txt");
+    replacement.verify(fsRestClient).renameFile(temporaryName, "a.txt");
+    verify(fsRestClient, never()).deleteFile("b.txt");
+    verify(fsRestClient, times(1)).uploadFileWithStats(eq(touched.toString()), any());
+  }
+
+  @Test
+  public void testFailedReplacementLeavesPreviousUploadInPlace() throws Exception {
+    synchronizer(false).syncOnce();
+    Path changed = Files.writeString(directory.resolve("a.txt"), "changed");
+    Files.setLastModifiedTime(changed, FileTime.fromMillis(0));
+    when(fsRestClient.uploadFileWithStats(eq(changed.toString()), any())).thenReturn(NOT_STORED);
+
+    SyncSummary summary = synchronizer(false).syncOnce();
+    assertEquals(1, summary.count(SyncOutcome.FAILED));
+    verify(fsRestClient, never()).deleteFile(any());
+    verify(fsRestClient, never()).renameFile(any(), any());
+    assertEquals(sha256("a"), stateStore.load().get("a.txt").getSha256());
+  }
+
+  @Test
+  public void testReplacementStoredUnderTemporaryNameIsAdoptedWhenRetried() throws Exception {
+    synchronizer(false).syncOnce();
+    Path changed = Files.writeString(directory.resolve("a.txt"), "changed");
+    Files.setLastModifiedTime(changed, FileTime.fromMillis(0));
+    String temporaryName = "a.txt.sync-" + sha256("changed").substring(0, 16);
+    // stored under the temporary name by an earlier pass whose rename failed
+    when(fsRestClient.uploadFileWithStats(changed.toString(), temporaryName))
+        .thenReturn(NOT_STORED);
+    when(fsRestClient.getFileSha256(temporaryName)).thenReturn(sha256("changed"));
+
+    SyncSummary summary = synchronizer(false).syncOnce();
+    assertEquals(1, summary.count(SyncOutcome.REPLACED));
+    verify(fsRestClient).renameFile(temporaryName, "a.txt");
+  }
+
+  @Test
+  public void testNewFileAlreadyOnServerWithSameContentIsAdopted() throws Exception {
+    String a = directory.resolve("a.txt").toString();
+    String b = directory.resolve("b.txt").toString();
+    when(fsRestClient.uploadFileWithStats(eq(a), any())).thenReturn(NOT_STORED);
+    when(fsRestClient.uploadFileWithStats(eq(b), any())).thenReturn(NOT_STORED);
+    when(fsRestClient.getFileSha256("a.txt")).thenReturn(sha256("a"));
+    when(fsRestClient.getFileSha256("b.txt")).thenReturn(sha256("something else"));
+
+    SyncSummary summary = synchronizer(false).syncOnce();
+    assertEquals(1, summary.count(SyncOutcome.ADOPTED));
+    assertEquals(1, summary.count(SyncOutcome.FAILED));
+    verify(fsRestClient, never()).deleteFile(any());
+    assertEquals(sha256("a"), stateStore.load().get("a.txt").getSha256());
+    assertNull(stateStore.load().get("b.txt"));
+  }
+
+  @Test
+  public void testStateIsSavedWhileThePassRuns() throws Exception {
+    for (int i = 0; i < 60; i++) {
+      Files.writeString(directory.resolve(String.format("f%02d.txt", i)), "f" + i);
+    }
+    // the pass gives up on the last file, after a.txt, b.txt and f00 to f47 were saved
+    when(fsRestClient.uploadFileWithStats(eq(directory.resolve("f59.txt").toString()), any()))
+        .thenThrow(new IllegalStateException("crashed"));
+
+    assertThrows(IllegalStateException.class, () -> synchronizer(false).syncOnce());
+    assertEquals(50, stateStore.load().size());
+  }
+
+  @Test
+  public void testDeletionsOnlyPropagatedWhenAsked() throws Exception {
+    synchronizer(false).syncOnce();
+    Files.delete(directory.resolve("a.txt"));
+
+    synchronizer(false).syncOnce();
+    verify(fsRestClient, never()).deleteFile(any());
+
+    SyncSummary summary = synchronizer(true).syncOnce();
+    assertEquals(1, summary.count(SyncOutcome.DELETED));
+    verify(fsRestClient).deleteFile("a.txt");
+
+    reset(fsRestClient);
+    synchronizer(true).syncOnce();
+    verifyNoInteractions(fsRestClient);
+  }
+
+  @Test
+  public void testFailedUploadIsRetriedOnNextPass() throws Exception {
+    when(fsRestClient.uploadFileWithStats(directory.resolve("a.txt").toString(), "a.txt"))
+        .thenReturn(NOT_STORED);
+    SyncSummary first = synchronizer(false).syncOnce();
+    assertEquals(1, first.count(SyncOutcome.FAILED));
+    assertEquals(1, first.count(SyncOutcome.UPLOADED));
+
+    when(fsRestClient.uploadFileWithStats(directory.resolve("a.txt").toString(), "a.txt"))
+        .thenReturn(STORED);
+    SyncSummary second = synchronizer(false).syncOnce();
+    assertEquals(1, second.count(SyncOutcome.UPLOADED));
+    assertEquals(1, second.count(SyncOutcome.UNCHANGED));
+    verify(fsRestClient, times(2))
+        .uploadFileWithStats(directory.resolve("a.txt").toString(), "a.txt");
+  }
+
+  private static String sha256(String content) {
+    return Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
+  }
+
+  private DirectorySynchronizer synchronizer(boolean propagateDeletes) {
+    return new DirectorySynchronizer(
+        fsRestClient, directory, stateStore, new AdaptiveConcurrencyLimit(1, 3), propagateDeletes);
+  }
+}
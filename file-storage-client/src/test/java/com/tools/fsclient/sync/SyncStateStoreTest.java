@@ -0,0 +1,53 @@
+package com.tools.fsclient.sync;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Tests for the state database of synced directories */
+public class SyncStateStoreTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testStateSurvivesSaveAndLoad() throws Exception {
+    SyncStateStore store = new SyncStateStore(tempDir.resolve("state/dir.state"));
+    Map<String, FileFingerprint> state =
+        Map.of(
+            "a.txt", new FileFingerprint(10, 1000, "aa"),
+            "name with\ttab.txt", new FileFingerprint(0, 2000, "bb"));
+    store.save(state);
+    assertEquals(state, new SyncStateStore(tempDir.resolve("state/dir.state")).load());
+  }
+
+  @Test
+  public void testNeverSyncedDirectoryHasEmptyState() throws Exception {
+    assertTrue(new SyncStateStore(tempDir.resolve("missing.state")).load().isEmpty());
+  }
+
+  @Test
+  public void testUnreadableLinesAreDropped() throws Exception {
+    Path stateFile = tempDir.resolve("dir.state");
+    Files.writeString(stateFile, "10\t1000\taa\ta.txt\ngarbage\nx\t1\tbb\tb.txt\n");
+    assertEquals(
+        Map.of("a.txt", new FileFingerprint(10, 1000, "aa")), new SyncStateStore(stateFile).load());
+  }
+
+  @Test
+  public void testEachDirectoryAndServerHasItsOwnStateFile() {
+    Path dir = tempDir.resolve("dir");
+    Path stateFile = SyncStateStore.stateFileFor(tempDir, "http://a/v1/files", dir);
+    assertEquals(stateFile, SyncStateStore.stateFileFor(tempDir, "http://a/v1/files", dir));
+    assertNotEquals(stateFile, SyncStateStore.stateFileFor(tempDir, "http://b/v1/files", dir));
+    assertNotEquals(
+        stateFile,
+        SyncStateStore.stateFileFor(tempDir, "http://a/v1/files", tempDir.resolve("other")));
+  }
+}
@@ -0,0 +1,122 @@
+package com.tools.fsserver.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Sequential ingest of large files through each write path of LargeFileWriter (files-copy being
+ * plain Files.copy), alone and with concurrent readers of small files. The files live under
+ * build/, so on the project's disk rather than a possibly memory-backed temp folder.
+ *
+ * <p>The readers show what page cache pollution costs only once ingested data no longer fits in
+ * free memory next to the small files: raise fileSize or run the JVM in a memory-limited cgroup
+ * (e.g. systemd-run --scope -p MemoryMax=512M) to see the effect. Run with ./gradlew
+ * :file-storage-server:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LargeFileWriterBenchmark {
+
+  private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+  private static final int SMALL_FILE_COUNT = 256;
+  private static final int SMALL_FILE_SIZE = 4096;
+
+  @Param({"files-copy", "buffered", "direct"})
+  public String writePath;
+
+  @Param({"268435456"})
+  public int fileSize;
+
+  private Path folder;
+  private Path source;
+  private final List<Path> smallFiles = new ArrayList<>();
+  private final AtomicLong copies = new AtomicLong();
+  private LargeFileWriter writer;
+
+  @State(Scope.Thread)
+  public static class ReaderState {
+    private final Random random = new Random();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    folder = Files.createTempDirectory(Files.createDirectories(Paths.get("build")), "write-bench");
+    byte[] content = new byte[fileSize];
+    new Random(1).nextBytes(content);
+    source = Files.write(folder.resolve("source"), content);
+    for (int i = 0; i < SMALL_FILE_COUNT; i++) {
+      byte[] smallContent = new byte[SMALL_FILE_SIZE];
+      new Random(i).nextBytes(smallContent);
+      smallFiles.add(Files.write(folder.resolve("small-" + i), smallContent));
+    }
+    switch (writePath) {
+      case "files-copy":
+        writer = new LargeFileWriter(Long.MAX_VALUE, BUFFER_SIZE, false);
+        break;
+      case "buffered":
+        writer = new LargeFileWriter(0, BUFFER_SIZE, false);
+        break;
+      default:
+        writer = new LargeFileWriter(0, BUFFER_SIZE, true);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(folder)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public Path sequentialIngest() throws IOException {
+    return ingestOnce();
+  }
+
+  @Benchmark
+  @Group("ingestWithSmallReads")
+  @GroupThreads(1)
+  public Path ingest() throws IOException {
+    return ingestOnce();
+  }
+
+  @Benchmark
+  @Group("ingestWithSmallReads")
+  @GroupThreads(3)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public byte[] readSmallFile(ReaderState state) throws IOException {
+    return Files.readAllBytes(smallFiles.get(state.random.nextInt(SMALL_FILE_COUNT)));
+  }
+
+  private Path ingestOnce() throws IOException {
+    Path destination = folder.resolve("copy-" + copies.incrementAndGet());
+    writer.copy(source, destination);
+    Files.delete(destination);
+    return destination;
+  }
+}
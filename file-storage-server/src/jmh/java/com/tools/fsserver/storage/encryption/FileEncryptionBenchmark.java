@@ -0,0 +1,98 @@
+package com.tools.fsserver.storage.encryption;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Ingest of a large file stored as it is (plain Files.copy) against stored encrypted, and reads of
+ * a small range at the end of it, which must cost one chunk whatever the file size. The files live
+ * under build/, so on the project's disk rather than a possibly memory-backed temp folder.
+ *
+ * <p>AES-GCM only keeps up with the disk with the AES-NI and carry-less multiply intrinsics, which
+ * HotSpot uses on any x86-64 or ARMv8 CPU providing them; -XX:-UseAESIntrinsics shows the
+ * difference. Run with ./gradlew :file-storage-server:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileEncryptionBenchmark {
+
+  private static final int RANGE_LENGTH = 4096;
+
+  @Param({"268435456"})
+  public int fileSize;
+
+  @Param({"65536"})
+  public int chunkSize;
+
+  private Path folder;
+  private Path source;
+  private Path encrypted;
+  private final AtomicLong copies = new AtomicLong();
+  private FileEncryption encryption;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    folder = Files.createTempDirectory(Files.createDirectories(Paths.get("build")), "enc-bench");
+    byte[] content = new byte[fileSize];
+    new Random(1).nextBytes(content);
+    source = Files.write(folder.resolve("source"), content);
+    byte[] masterKey = new byte[32];
+    new Random(2).nextBytes(masterKey);
+    encryption = new FileEncryption(true, masterKey, chunkSize);
+    encrypted = encryption.encrypt(source, folder.resolve("encrypted"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(folder)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public Path plaintextIngest() throws IOException {
+    Path destination = folder.resolve("copy-" + copies.incrementAndGet());
+    Files.copy(source, destination);
+    Files.delete(destination);
+    return destination;
+  }
+
+  @Benchmark
+  public Path encryptedIngest() throws IOException {
+    Path destination = folder.resolve("copy-" + copies.incrementAndGet());
+    encryption.encrypt(source, destination);
+    Files.delete(destination);
+    return destination;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public byte[] encryptedRangeRead() throws IOException {
+    try (InputStream in = encryption.open(encrypted)) {
+      in.skip(fileSize - RANGE_LENGTH);
+      return in.readNBytes(RANGE_LENGTH);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.tools.fsserver.storage.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode throughput of the Reed-Solomon codec for one stripe. Throughput in MB/s of file
+ * data is (dataShards * blockSize) / (average time per operation). Run with ./gradlew
+ * :file-storage-server:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReedSolomonBenchmark {
+
+  @Param({"4:2", "6:3", "10:4"})
+  public String layout;
+
+  @Param({"65536", "1048576"})
+  public int blockSize;
+
+  private ReedSolomon codec;
+  private byte[][] shards;
+  private boolean[] shardPresent;
+
+  @Setup
+  public void setUp() {
+    String[] counts = layout.split(":");
+    codec = new ReedSolomon(Integer.parseInt(counts[0]), Integer.parseInt(counts[1]));
+    shards = new byte[codec.getTotalShardCount()][blockSize];
+    Random random = new Random(1);
+    for (int shard = 0; shard < codec.getDataShardCount(); shard++) {
+      random.nextBytes(shards[shard]);
+    }
+    codec.encodeParity(shards, 0, blockSize);
+    // worst case for decode: as many data shards lost as there are parity shards
+    shardPresent = new boolean[codec.getTotalShardCount()];
+    for (int shard = 0; shard < shardPresent.length; shard++) {
+      shardPresent[shard] = shard >= codec.getParityShardCount();
+    }
+  }
+
+  @Benchmark
+  public byte[][] encode() {
+    codec.encodeParity(shards, 0, blockSize);
+    return shards;
+  }
+
+  @Benchmark
+  public byte[][] decodeWithMaximumDataShardsLost() {
+    codec.reconstruct(shards, shardPresent, 0, blockSize);
+    return shards;
+  }
+}
@@ -0,0 +1,176 @@
+package com.tools.fsserver.admission;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides, from the request headers alone, whether an upload may proceed. Three limits apply, all
+ * checked before a single body byte is read or spooled to disk:
+ *
+ * <ul>
+ *   <li>a cap on concurrent uploads, answered with 503 when the node is saturated
+ *   <li>a cap on in-flight bytes (sum of the declared sizes of admitted uploads), also 503
+ *   <li>a per-client token bucket on upload bandwidth, answered with 429
+ * </ul>
+ *
+ * Rejections carry a Retry-After hint so well-behaved clients back off instead of retrying hot
+ */
+@ApplicationScoped
+public class AdmissionController {
+
+  static final int TOO_MANY_REQUESTS = 429;
+  static final int SERVICE_UNAVAILABLE = 503;
+  private static final Logger LOG = Logger.getLogger(AdmissionController.class);
+  private static final int MAX_TRACKED_CLIENTS = 10_000;
+
+  private final int maxConcurrentUploads;
+  private final long maxInFlightBytes;
+  private final long clientBytesPerSecond;
+  private final long clientBurstBytes;
+  private final long overloadRetryAfterSeconds;
+  private final long unknownLengthCharge;
+  private final LongSupplier nanoClock;
+  private final AtomicInteger concurrentUploads = new AtomicInteger();
+  private final AtomicLong inFlightBytes = new AtomicLong();
+  private final Map<String, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+
+  /**
+   * @param maxConcurrentUploads - uploads allowed to run at once, 0 disables the limit
+   * @param maxInFlightBytes - total declared bytes of uploads allowed to run at once, 0 disables it
+   * @param clientBytesPerSecond - sustained upload bandwidth per client, 0 disables rate limiting
+   * @param clientBurstBytes - bytes a previously idle client may upload at once
+   * @param overloadRetryAfterSeconds - Retry-After hint sent with 503 responses
+   * @param maxUploadSize - the server's upload size limit, charged for uploads without a
+   *     Content-Length since they may be that large
+   */
+  @Inject
+  public AdmissionController(
+      @ConfigProperty(name = "fsserver.admission.maxConcurrentUploads", defaultValue = "64")
+          int maxConcurrentUploads,
+      @ConfigProperty(name = "fsserver.admission.maxInFlightBytes", defaultValue = "512M")
+          MemorySize maxInFlightBytes,
+      @ConfigProperty(name = "fsserver.admission.clientBytesPerSecond", defaultValue = "0")
+          MemorySize clientBytesPerSecond,
+      @ConfigProperty(name = "fsserver.admission.clientBurstBytes", defaultValue = "64M")
+          MemorySize clientBurstBytes,
+      @ConfigProperty(name = "fsserver.admission.overloadRetryAfterSeconds", defaultValue = "1")
+          long overloadRetryAfterSeconds,
+      @ConfigProperty(name = "quarkus.http.limits.max-form-attribute-size")
+          MemorySize maxUploadSize) {
+    this(
+        maxConcurrentUploads,
+        maxInFlightBytes.asLongValue(),
+        clientBytesPerSecond.asLongValue(),
+        clientBurstBytes.asLongValue(),
+        overloadRetryAfterSeconds,
+        maxUploadSize.asLongValue(),
+        System::nanoTime);
+  }
+
+  AdmissionController(
+      int maxConcurrentUploads,
+      long maxInFlightBytes,
+      long clientBytesPerSecond,
+      long clientBurstBytes,
+      long overloadRetryAfterSeconds,
+      long unknownLengthCharge,
+      LongSupplier nanoClock) {
+    this.maxConcurrentUploads = maxConcurrentUploads;
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.clientBytesPerSecond = clientBytesPerSecond;
+    this.clientBurstBytes = clientBurstBytes;
+    this.overloadRetryAfterSeconds = overloadRetryAfterSeconds;
+    this.unknownLengthCharge = unknownLengthCharge;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * @param clientId - identifies the caller for rate limiting, typically its remote address
+   * @param declaredLength - the request's Content-Length, or a negative value if not declared
+   * @return the decision; if admitted, the caller must release it once the request has completed
+   */
+  public AdmissionDecision tryAdmit(String clientId, long declaredLength) {
+    long charge = declaredLength < 0 ? unknownLengthCharge : declaredLength;
+
+    if (maxConcurrentUploads > 0 && concurrentUploads.incrementAndGet() > maxConcurrentUploads) {
+      concurrentUploads.decrementAndGet();
+      return overloaded("Too many concurrent uploads, please retry later");
+    }
+    if (maxInFlightBytes > 0 && inFlightBytes.addAndGet(charge) > maxInFlightBytes) {
+      // a single upload bigger than the whole budget is still let through on an idle node
+      if (inFlightBytes.get() != charge) {
+        inFlightBytes.addAndGet(-charge);
+        releaseConcurrencySlot();
+        return overloaded("Too many bytes being uploaded, please retry later");
+      }
+    }
+    if (clientBytesPerSecond > 0) {
+      long waitNanos = bucketFor(clientId).tryConsume(charge);
+      if (waitNanos > 0) {
+        releaseInFlightBytes(charge);
+        releaseConcurrencySlot();
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1);
+        LOG.debug("Rate limiting client " + clientId + " for " + retryAfterSeconds + "s");
+        return AdmissionDecision.rejected(
+            TOO_MANY_REQUESTS,
+            retryAfterSeconds,
+            "Upload bandwidth limit exceeded, please retry later");
+      }
+    }
+
+    AtomicBoolean released = new AtomicBoolean();
+    return AdmissionDecision.admitted(
+        () -> {
+          if (released.compareAndSet(false, true)) {
+            releaseInFlightBytes(charge);
+            releaseConcurrencySlot();
+          }
+        });
+  }
+
+  int getConcurrentUploads() {
+    return concurrentUploads.get();
+  }
+
+  long getInFlightBytes() {
+    return inFlightBytes.get();
+  }
+
+  private AdmissionDecision overloaded(String reason) {
+    LOG.debug(reason);
+    return AdmissionDecision.rejected(SERVICE_UNAVAILABLE, overloadRetryAfterSeconds, reason);
+  }
+
+  private TokenBucket bucketFor(String clientId) {
+    if (clientBuckets.size() > MAX_TRACKED_CLIENTS) {
+      // idle clients have a full bucket, forgetting them loses nothing
+      clientBuckets.values().removeIf(TokenBucket::isFull);
+    }
+    return clientBuckets.computeIfAbsent(
+        clientId,
+        id -> new TokenBucket(clientBurstBytes, clientBytesPerSecond, nanoClock));
+  }
+
+  private void releaseConcurrencySlot() {
+    if (maxConcurrentUploads > 0) {
+      concurrentUploads.decrementAndGet();
+    }
+  }
+
+  private void releaseInFlightBytes(long charge) {
+    if (maxInFlightBytes > 0) {
+      inFlightBytes.addAndGet(-charge);
+    }
+  }
+}
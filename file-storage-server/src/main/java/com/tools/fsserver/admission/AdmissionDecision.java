@@ -0,0 +1,56 @@
+package com.tools.fsserver.admission;
+
+/**
+ * Outcome of asking the AdmissionController to let an upload in. An admitted decision holds
+ * capacity which must be handed back exactly once through {@link #release()} when the request
+ * completes; a rejected one carries the HTTP status and Retry-After hint to answer with
+ */
+public class AdmissionDecision {
+
+  private final boolean admitted;
+  private final int rejectionStatus;
+  private final long retryAfterSeconds;
+  private final String reason;
+  private final Runnable releaseAction;
+
+  private AdmissionDecision(
+      boolean admitted,
+      int rejectionStatus,
+      long retryAfterSeconds,
+      String reason,
+      Runnable releaseAction) {
+    this.admitted = admitted;
+    this.rejectionStatus = rejectionStatus;
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.reason = reason;
+    this.releaseAction = releaseAction;
+  }
+
+  static AdmissionDecision admitted(Runnable releaseAction) {
+    return new AdmissionDecision(true, 0, 0, null, releaseAction);
+  }
+
+  static AdmissionDecision rejected(int status, long retryAfterSeconds, String reason) {
+    return new AdmissionDecision(false, status, retryAfterSeconds, reason, () -> {});
+  }
+
+  public boolean isAdmitted() {
+    return admitted;
+  }
+
+  public int getRejectionStatus() {
+    return rejectionStatus;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public void release() {
+    releaseAction.run();
+  }
+}
@@ -0,0 +1,81 @@
+package com.tools.fsserver.admission;
+
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+/**
+ * Vert.x route filter placed in front of the upload endpoints of FileStorageResource and
+ * FileArchiveResource, those of every bucket included, so that the server-wide limits hold however
+ * uploads are spread over buckets. It runs on the event loop as soon as the request headers
+ * arrive, before RESTEasy starts reading the body, so rejected uploads cost neither temp disk space
+ * nor a worker thread. Clients sending Expect: 100-continue never transmit the body of a rejected
+ * upload at all
+ */
+@ApplicationScoped
+public class AdmissionFilter {
+
+  // uploads to the default storage and to every bucket alike. Copies and renames are POSTs to the
+  // same paths but carry no body, admitting them would charge the maximal upload size
+  static final String UPLOAD_PATH_REGEX =
+      "/v1/(?:buckets/[^/]+/)?files(/(?!.*:(?:copy|rename)$).+|:archive)";
+  private static final Logger LOG = Logger.getLogger(AdmissionFilter.class);
+  private static final int FILTER_ORDER = -100;
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
+  private static final String UNKNOWN_CLIENT = "unknown";
+
+  private final AdmissionController admissionController;
+
+  @Inject
+  public AdmissionFilter(AdmissionController admissionController) {
+    this.admissionController = admissionController;
+  }
+
+  void registerOn(@Observes Router router) {
+    router
+        .routeWithRegex(HttpMethod.POST, UPLOAD_PATH_REGEX)
+        .order(FILTER_ORDER)
+        .handler(this::admitOrReject);
+  }
+
+  void admitOrReject(RoutingContext routingContext) {
+    String clientId =
+        routingContext.request().remoteAddress() == null
+            ? UNKNOWN_CLIENT
+            : routingContext.request().remoteAddress().host();
+    AdmissionDecision decision =
+        admissionController.tryAdmit(clientId, declaredLength(routingContext));
+    if (decision.isAdmitted()) {
+      routingContext.addEndHandler(ignored -> decision.release());
+      routingContext.next();
+      return;
+    }
+    LOG.debug("Rejected upload " + routingContext.normalizedPath() + ": " + decision.getReason());
+    routingContext
+        .response()
+        .setStatusCode(decision.getRejectionStatus())
+        .putHeader(RETRY_AFTER_HEADER, String.valueOf(decision.getRetryAfterSeconds()))
+        .putHeader(HttpHeaders.CONTENT_TYPE, "text/plain")
+        // the unread body is abandoned, make sure the connection is not reused mid-stream
+        .putHeader(HttpHeaders.CONNECTION, "close")
+        .end(decision.getReason());
+  }
+
+  private static long declaredLength(RoutingContext routingContext) {
+    String contentLength = routingContext.request().getHeader(HttpHeaders.CONTENT_LENGTH);
+    if (contentLength == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(contentLength.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
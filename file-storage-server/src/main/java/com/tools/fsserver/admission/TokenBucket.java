@@ -0,0 +1,66 @@
+package com.tools.fsserver.admission;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Byte-denominated token bucket. Tokens refill continuously at a fixed rate up to the burst
+ * capacity. A request is admitted whenever the balance is not negative and is then charged in full,
+ * possibly driving the balance into debt: this lets a single upload larger than the burst size
+ * through while still holding the client to the configured average rate afterwards
+ */
+public class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  private final long capacity;
+  private final long refillBytesPerSecond;
+  private final LongSupplier nanoClock;
+  private double balance;
+  private long lastRefillNanos;
+
+  /**
+   * @param capacity - maximum number of bytes which can be admitted in a burst
+   * @param refillBytesPerSecond - sustained rate at which bytes are admitted
+   * @param nanoClock - monotonic time source, System::nanoTime outside of tests
+   */
+  public TokenBucket(long capacity, long refillBytesPerSecond, LongSupplier nanoClock) {
+    if (capacity <= 0 || refillBytesPerSecond <= 0) {
+      throw new IllegalArgumentException("Token bucket capacity and rate must be positive");
+    }
+    this.capacity = capacity;
+    this.refillBytesPerSecond = refillBytesPerSecond;
+    this.nanoClock = nanoClock;
+    this.balance = capacity;
+    this.lastRefillNanos = nanoClock.getAsLong();
+  }
+
+  /**
+   * @param bytes - size of the request to admit
+   * @return 0 if the request was admitted and charged, otherwise how many nanoseconds to wait
+   *     before the balance is back to zero and a retry can succeed
+   */
+  public synchronized long tryConsume(long bytes) {
+    refill();
+    if (balance < 0) {
+      return (long) Math.ceil(-balance * NANOS_PER_SECOND / refillBytesPerSecond);
+    }
+    balance -= bytes;
+    return 0;
+  }
+
+  /** @return true if the bucket is full, i.e. the client has been idle long enough to forget */
+  public synchronized boolean isFull() {
+    refill();
+    return balance >= capacity;
+  }
+
+  private void refill() {
+    long now = nanoClock.getAsLong();
+    long elapsed = now - lastRefillNanos;
+    if (elapsed > 0) {
+      double refilled = (double) elapsed * refillBytesPerSecond / NANOS_PER_SECOND;
+      balance = Math.min(capacity, balance + refilled);
+      lastRefillNanos = now;
+    }
+  }
+}
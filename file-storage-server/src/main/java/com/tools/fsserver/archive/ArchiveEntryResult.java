@@ -0,0 +1,30 @@
+package com.tools.fsserver.archive;
+
+/** The outcome of one archive entry, as reported back to the uploading client */
+public final class ArchiveEntryResult {
+
+  private final String entryName;
+  private final ArchiveEntryStatus status;
+
+  public ArchiveEntryResult(String entryName, ArchiveEntryStatus status) {
+    this.entryName = entryName;
+    this.status = status;
+  }
+
+  public String getEntryName() {
+    return entryName;
+  }
+
+  public ArchiveEntryStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the result as one line of the text/plain report, without the line terminator. Names
+   *     containing line breaks are never stored, but they are still escaped here so that a
+   *     rejected entry cannot break the one-result-per-line framing
+   */
+  public String toReportLine() {
+    return status.name() + '\t' + entryName.replace("\r", "\\r").replace("\n", "\\n");
+  }
+}
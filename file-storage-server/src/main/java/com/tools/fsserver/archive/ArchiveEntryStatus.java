@@ -0,0 +1,12 @@
+package com.tools.fsserver.archive;
+
+/** Outcome of one entry of an uploaded archive */
+public enum ArchiveEntryStatus {
+  STORED,
+  ALREADY_EXISTS,
+  TOO_LARGE,
+  INVALID_NAME,
+  /** directories, links and other entries which are not regular files */
+  SKIPPED,
+  ERROR
+}
@@ -0,0 +1,33 @@
+package com.tools.fsserver.archive;
+
+import java.util.Locale;
+
+/** Container formats in which a selection of stored files can be downloaded */
+public enum ArchiveFormat {
+  ZIP("application/zip", ".zip"),
+  TAR("application/x-tar", ".tar");
+
+  private final String mediaType;
+  private final String fileExtension;
+
+  ArchiveFormat(String mediaType, String fileExtension) {
+    this.mediaType = mediaType;
+    this.fileExtension = fileExtension;
+  }
+
+  public String getMediaType() {
+    return mediaType;
+  }
+
+  public String getFileExtension() {
+    return fileExtension;
+  }
+
+  /**
+   * @param format - the format as given by a client, case insensitive
+   * @throws IllegalArgumentException - if the format is not supported
+   */
+  public static ArchiveFormat fromName(String format) {
+    return valueOf(format.toUpperCase(Locale.ROOT));
+  }
+}
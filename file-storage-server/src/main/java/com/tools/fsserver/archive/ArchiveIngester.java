@@ -0,0 +1,170 @@
+package com.tools.fsserver.archive;
+
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.exception.MalformedArchiveException;
+import com.tools.fsserver.storage.IStorageService;
+import io.quarkus.runtime.configuration.MemorySize;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unpacks a tar stream, optionally gzip-compressed, into storage while it is being received. Each
+ * regular file entry is spooled to one temp file reused for the whole archive and handed to
+ * IStorageService.storeFile before the next entry is read, so neither the archive nor more than one
+ * entry is ever held on disk or in memory. Entries are subject to the same size limit as single
+ * file uploads; a rejected entry is skipped over and does not stop the rest of the archive
+ */
+@ApplicationScoped
+public class ArchiveIngester {
+
+  private static final Logger LOG = Logger.getLogger(ArchiveIngester.class);
+  private static final String SPOOL_FILE_PREFIX = "fsserver-archive-entry";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int GZIP_MAGIC_FIRST = 0x1f;
+  private static final int GZIP_MAGIC_SECOND = 0x8b;
+  private static final String CURRENT_DIRECTORY_PREFIX = "./";
+
+  private final IStorageService storageService;
+  private final long maxEntrySize;
+
+  @Inject
+  public ArchiveIngester(
+      IStorageService storageService,
+      @ConfigProperty(name = "quarkus.http.limits.max-form-attribute-size")
+          MemorySize maxEntrySize) {
+    this(storageService, maxEntrySize.asLongValue());
+  }
+
+  ArchiveIngester(IStorageService storageService, long maxEntrySize) {
+    this.storageService = storageService;
+    this.maxEntrySize = maxEntrySize;
+  }
+
+  /**
+   * @param archive - the tar stream, read until its end-of-archive marker and closed
+   * @param results - receives the outcome of every entry, in archive order, as soon as it is known
+   * @throws MalformedArchiveException - if the stream is not a tar archive or ends prematurely.
+   *     Entries reported before that remain stored
+   * @throws IOException - if the spool file cannot be created or removed
+   */
+  public void ingest(InputStream archive, Consumer<ArchiveEntryResult> results)
+      throws MalformedArchiveException, IOException {
+    Path spoolFile = Files.createTempFile(SPOOL_FILE_PREFIX, null);
+    try (TarArchiveInputStream tar = new TarArchiveInputStream(decompressIfGzipped(archive))) {
+      TarArchiveEntry entry;
+      while ((entry = nextEntry(tar)) != null) {
+        results.accept(ingestEntry(tar, entry, spoolFile));
+      }
+    } finally {
+      Files.deleteIfExists(spoolFile);
+    }
+  }
+
+  private ArchiveEntryResult ingestEntry(
+      TarArchiveInputStream tar, TarArchiveEntry entry, Path spoolFile)
+      throws MalformedArchiveException {
+    String fileName = storedNameOf(entry.getName());
+    if (!entry.isFile()) {
+      return new ArchiveEntryResult(fileName, ArchiveEntryStatus.SKIPPED);
+    }
+    if (!isValidFileName(fileName)) {
+      return new ArchiveEntryResult(fileName, ArchiveEntryStatus.INVALID_NAME);
+    }
+    if (entry.getSize() > maxEntrySize) {
+      return new ArchiveEntryResult(fileName, ArchiveEntryStatus.TOO_LARGE);
+    }
+    try {
+      spool(tar, spoolFile);
+      storageService.storeFile(fileName, spoolFile);
+      return new ArchiveEntryResult(fileName, ArchiveEntryStatus.STORED);
+    } catch (FileNamePresentOnServerException e) {
+      return new ArchiveEntryResult(fileName, ArchiveEntryStatus.ALREADY_EXISTS);
+    } catch (IOException e) {
+      LOG.error("An error occurred when storing archive entry " + fileName, e);
+      return new ArchiveEntryResult(fileName, ArchiveEntryStatus.ERROR);
+    }
+  }
+
+  /**
+   * Copies the current entry to the spool file. Failures to read the archive are told apart from
+   * failures to write the spool file: the former end the whole upload, the latter only this entry
+   */
+  private static void spool(TarArchiveInputStream tar, Path spoolFile)
+      throws MalformedArchiveException, IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (OutputStream out = Files.newOutputStream(spoolFile)) {
+      int read;
+      while ((read = readEntry(tar, buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+  }
+
+  private static int readEntry(TarArchiveInputStream tar, byte[] buffer)
+      throws MalformedArchiveException {
+    try {
+      return tar.read(buffer);
+    } catch (IOException e) {
+      throw new MalformedArchiveException("Archive entry is truncated or unreadable", e);
+    }
+  }
+
+  private static TarArchiveEntry nextEntry(TarArchiveInputStream tar)
+      throws MalformedArchiveException {
+    try {
+      return tar.getNextTarEntry();
+    } catch (IOException e) {
+      throw new MalformedArchiveException("Not a tar archive, or truncated", e);
+    }
+  }
+
+  private static InputStream decompressIfGzipped(InputStream archive)
+      throws MalformedArchiveException {
+    InputStream buffered = new BufferedInputStream(archive, BUFFER_SIZE);
+    try {
+      buffered.mark(2);
+      boolean gzipped = buffered.read() == GZIP_MAGIC_FIRST && buffered.read() == GZIP_MAGIC_SECOND;
+      buffered.reset();
+      return gzipped ? new GZIPInputStream(buffered, BUFFER_SIZE) : buffered;
+    } catch (IOException e) {
+      throw new MalformedArchiveException("Unreadable archive", e);
+    }
+  }
+
+  /** Archives made with e.g. 'tar -C dir .' name their entries ./file */
+  private static String storedNameOf(String entryName) {
+    String name = entryName;
+    while (name.startsWith(CURRENT_DIRECTORY_PREFIX)) {
+      name = name.substring(CURRENT_DIRECTORY_PREFIX.length());
+    }
+    return name;
+  }
+
+  /**
+   * Storage is a flat namespace, so entries in sub-folders are refused rather than silently
+   * flattened into names which could collide
+   */
+  public static boolean isValidFileName(String fileName) {
+    return !fileName.isEmpty()
+        && !fileName.equals(".")
+        && !fileName.equals("..")
+        && fileName.indexOf('/') < 0
+        && fileName.indexOf('\\') < 0
+        && fileName.indexOf('\0') < 0
+        && fileName.indexOf('\n') < 0
+        && fileName.indexOf('\r') < 0;
+  }
+}
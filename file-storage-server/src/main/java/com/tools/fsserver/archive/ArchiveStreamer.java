@@ -0,0 +1,161 @@
+package com.tools.fsserver.archive;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.storage.IStorageService;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a selection of stored files as a zip or tar archive straight into an output stream, one
+ * file at a time through a fixed-size buffer, so memory use does not depend on the size of the
+ * files or of the archive. Zip entries are not compressed: stored content is often compressed
+ * already and deflating it would cost CPU for no gain. They are written as deflate blocks at level
+ * 0 rather than with the STORED method, which would need each file's CRC before its content and
+ * thus a second read of every file. Zip64 extensions are used as needed, so selections of more
+ * than 65535 files or 4GB are fine
+ */
+@ApplicationScoped
+public class ArchiveStreamer {
+
+  private static final Logger LOG = Logger.getLogger(ArchiveStreamer.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final IStorageService storageService;
+
+  @Inject
+  public ArchiveStreamer(IStorageService storageService) {
+    this.storageService = storageService;
+  }
+
+  /**
+   * @param prefix - the start of the wanted file names, empty for all files
+   * @return the names of all stored files starting with the prefix, in name order
+   */
+  public List<String> selectByPrefix(String prefix) throws IOException {
+    return storageService.listStoredFiles().stream()
+        .filter(fileName -> fileName.startsWith(prefix))
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  /** @return the given names which are not stored, in the given order */
+  public List<String> findMissing(Collection<String> fileNames) throws IOException {
+    List<String> missing = new ArrayList<>();
+    for (String fileName : fileNames) {
+      try {
+        storageService.getFileSize(fileName);
+      } catch (FileNameNotPresentOnServerException e) {
+        missing.add(fileName);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * Files deleted after they were selected are left out of the archive. The output stream is not
+   * closed
+   */
+  public void write(List<String> fileNames, ArchiveFormat format, OutputStream out)
+      throws IOException {
+    if (format == ArchiveFormat.ZIP) {
+      writeZip(fileNames, out);
+    } else {
+      writeTar(fileNames, out);
+    }
+  }
+
+  private void writeZip(List<String> fileNames, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    ZipOutputStream zip = new ZipOutputStream(out);
+    zip.setLevel(Deflater.NO_COMPRESSION);
+    for (String fileName : fileNames) {
+      try (InputStream content = openOrNull(fileName)) {
+        if (content == null) {
+          continue;
+        }
+        zip.putNextEntry(new ZipEntry(fileName));
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+          zip.write(buffer, 0, read);
+        }
+        zip.closeEntry();
+      }
+    }
+    zip.finish();
+  }
+
+  private void writeTar(List<String> fileNames, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    for (String fileName : fileNames) {
+      long size;
+      try {
+        size = storageService.getFileSize(fileName);
+      } catch (FileNameNotPresentOnServerException e) {
+        continue;
+      }
+      try (InputStream content = openOrNull(fileName)) {
+        if (content == null) {
+          continue;
+        }
+        TarArchiveEntry entry = new TarArchiveEntry(fileName);
+        entry.setSize(size);
+        tar.putArchiveEntry(entry);
+        copyExactly(fileName, content, size, tar, buffer);
+        tar.closeArchiveEntry();
+      }
+    }
+    tar.finish();
+  }
+
+  /**
+   * Tar headers carry the size before the content, so a file replaced between the two reads must
+   * still produce exactly that many bytes for the rest of the archive to stay readable
+   */
+  private static void copyExactly(
+      String fileName, InputStream content, long size, OutputStream out, byte[] buffer)
+      throws IOException {
+    long remaining = size;
+    int read;
+    while (remaining > 0
+        && (read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+    if (remaining > 0 || content.read() != -1) {
+      LOG.error(fileName + " changed while being archived, its archive entry is not usable");
+      Arrays.fill(buffer, (byte) 0);
+      while (remaining > 0) {
+        int padding = (int) Math.min(buffer.length, remaining);
+        out.write(buffer, 0, padding);
+        remaining -= padding;
+      }
+    }
+  }
+
+  private InputStream openOrNull(String fileName) throws IOException {
+    try {
+      return storageService.retrieveFile(fileName);
+    } catch (FileNameNotPresentOnServerException e) {
+      LOG.debug(fileName + " was deleted before it could be archived");
+      return null;
+    }
+  }
+}
@@ -0,0 +1,290 @@
+package com.tools.fsserver.bucket;
+
+import com.tools.fsserver.exception.BucketLimitExceededException;
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.IStorageService;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named storage namespace with limits of its own. It is a storage service in itself, passing
+ * every operation on to its backend once the bucket's limits admit it:
+ *
+ * <ul>
+ *   <li>a cap on requests running at once, so one busy tenant cannot hold every worker thread
+ *   <li>a quota on the total size of stored files, checked before an upload is stored
+ * </ul>
+ *
+ * Downloads count as running until their stream is closed. Both limits can be changed while the
+ * bucket is in use, 0 disables either
+ */
+public class Bucket implements IStorageService {
+
+  private final String name;
+  private final IStorageService storage;
+  private final AtomicInteger requestsInFlight = new AtomicInteger();
+  private final AtomicLong usedBytes;
+  private volatile long quotaBytes;
+  private volatile int maxConcurrentRequests;
+  private volatile boolean retired;
+
+  /**
+   * @param usedBytes - total size of the files already stored in the backend
+   * @param quotaBytes - total size the stored files may reach, 0 for no quota
+   * @param maxConcurrentRequests - requests allowed to run at once, 0 for no limit
+   */
+  Bucket(
+      String name,
+      IStorageService storage,
+      long usedBytes,
+      long quotaBytes,
+      int maxConcurrentRequests) {
+    this.name = name;
+    this.storage = storage;
+    this.usedBytes = new AtomicLong(usedBytes);
+    this.quotaBytes = quotaBytes;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getQuotaBytes() {
+    return quotaBytes;
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  IStorageService getStorage() {
+    return storage;
+  }
+
+  void setLimits(long quotaBytes, int maxConcurrentRequests) {
+    this.quotaBytes = quotaBytes;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  @Override
+  public Set<String> listStoredFiles() throws IOException {
+    enter();
+    try {
+      return storage.listStoredFiles();
+    } finally {
+      exit();
+    }
+  }
+
+  @Override
+  public List<FileMetadata> listStoredFileMetadata() throws IOException {
+    enter();
+    try {
+      return storage.listStoredFileMetadata();
+    } finally {
+      exit();
+    }
+  }
+
+  @Override
+  public void storeFile(String persistingFileName, Path pathToFileToPersist)
+      throws FileNamePresentOnServerException, IOException {
+    storeFile(persistingFileName, pathToFileToPersist, null);
+  }
+
+  @Override
+  public void storeFile(String persistingFileName, Path pathToFileToPersist, String uploader)
+      throws FileNamePresentOnServerException, IOException {
+    enter();
+    try {
+      long size = Files.size(pathToFileToPersist);
+      reserve(persistingFileName, size);
+      boolean stored = false;
+      try {
+        storage.storeFile(persistingFileName, pathToFileToPersist, uploader);
+        stored = true;
+      } finally {
+        if (!stored) {
+          usedBytes.addAndGet(-size);
+        }
+      }
+    } finally {
+      exit();
+    }
+  }
+
+  @Override
+  public void deleteFile(String fileNameToDelete)
+      throws FileNameNotPresentOnServerException, IOException {
+    enter();
+    try {
+      // names are never overwritten, so the size read here is the size of what gets deleted
+      long size = storage.getFileSize(fileNameToDelete);
+      storage.deleteFile(fileNameToDelete);
+      usedBytes.addAndGet(-size);
+    } finally {
+      exit();
+    }
+  }
+
+  /** The copy counts towards the quota, even where the backend shares the data of both names */
+  @Override
+  public void copyFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    enter();
+    try {
+      long size = storage.getFileSize(sourceFileName);
+      reserve(targetFileName, size);
+      boolean copied = false;
+      try {
+        storage.copyFile(sourceFileName, targetFileName);
+        copied = true;
+      } finally {
+        if (!copied) {
+          usedBytes.addAndGet(-size);
+        }
+      }
+    } finally {
+      exit();
+    }
+  }
+
+  @Override
+  public void renameFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    enter();
+    try {
+      storage.renameFile(sourceFileName, targetFileName);
+    } finally {
+      exit();
+    }
+  }
+
+  @Override
+  public InputStream retrieveFile(String fileNameToRetrieve)
+      throws FileNameNotPresentOnServerException, IOException {
+    enter();
+    InputStream content;
+    try {
+      content = storage.retrieveFile(fileNameToRetrieve);
+    } catch (IOException | RuntimeException e) {
+      exit();
+      throw e;
+    }
+    return new FilterInputStream(content) {
+      private final AtomicBoolean exited = new AtomicBoolean();
+
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          if (exited.compareAndSet(false, true)) {
+            exit();
+          }
+        }
+      }
+    };
+  }
+
+  @Override
+  public ContentVersion getListingVersion() {
+    return storage.getListingVersion();
+  }
+
+  @Override
+  public ContentVersion getFileVersion(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    return storage.getFileVersion(fileName);
+  }
+
+  @Override
+  public long getFileSize(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    return storage.getFileSize(fileName);
+  }
+
+  @Override
+  public FileMetadata getFileMetadata(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    enter();
+    try {
+      return storage.getFileMetadata(fileName);
+    } finally {
+      exit();
+    }
+  }
+
+  /**
+   * Refuses all further requests, unless one is still running
+   *
+   * @return whether the bucket is now unused and stays so
+   */
+  boolean retire() {
+    retired = true;
+    // a request counts itself before checking the flag, so either it sees the flag or this
+    // sees the request
+    if (requestsInFlight.get() == 0) {
+      return true;
+    }
+    retired = false;
+    return false;
+  }
+
+  /** Serves requests again after {@link #retire()} */
+  void reinstate() {
+    retired = false;
+  }
+
+  private void enter() {
+    int inFlight = requestsInFlight.incrementAndGet();
+    int limit = maxConcurrentRequests;
+    if (retired) {
+      requestsInFlight.decrementAndGet();
+      throw new BucketLimitExceededException("Bucket " + name + " is being deleted", false);
+    }
+    if (limit > 0 && inFlight > limit) {
+      requestsInFlight.decrementAndGet();
+      throw new BucketLimitExceededException(
+          "Bucket " + name + " is already serving " + limit + " requests", false);
+    }
+  }
+
+  private void exit() {
+    requestsInFlight.decrementAndGet();
+  }
+
+  private void reserve(String fileName, long size) {
+    long quota = quotaBytes;
+    if (quota <= 0) {
+      usedBytes.addAndGet(size);
+      return;
+    }
+    long used;
+    do {
+      used = usedBytes.get();
+      if (used + size > quota) {
+        throw new BucketLimitExceededException(
+            fileName + " would take bucket " + name + " past its quota of " + quota + " bytes",
+            true);
+      }
+    } while (!usedBytes.compareAndSet(used, used + size));
+  }
+}
@@ -0,0 +1,313 @@
+package com.tools.fsserver.bucket;
+
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.FileSystemStorageService;
+import com.tools.fsserver.storage.IStorageService;
+import com.tools.fsserver.storage.LargeFileWriter;
+import com.tools.fsserver.storage.StorageChangeListener;
+import com.tools.fsserver.storage.encryption.FileEncryption;
+import io.quarkus.runtime.Startup;
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the buckets, each a storage namespace of its own under fsserver.buckets.rootPath:
+ *
+ * <pre>
+ * &lt;rootPath&gt;/&lt;bucket&gt;/files/             stored files
+ * &lt;rootPath&gt;/&lt;bucket&gt;/metadata.journal    metadata store (and its snapshot)
+ * &lt;rootPath&gt;/&lt;bucket&gt;/bucket.properties   quota and concurrency limit
+ * </pre>
+ *
+ * Each bucket has its own folder, metadata store, locks and listing version, so uploads, listings
+ * and revalidations in one bucket never contend with those in another. The bucket named "default"
+ * is the server's main storage, the one served under /v1/files, and has no limits of its own.
+ *
+ * <p>Buckets are local folders, so they are only offered with the filesystem storage backend. With
+ * any other backend the default bucket is the only one, rather than the others silently keeping
+ * their files on local disk
+ */
+@Startup
+@ApplicationScoped
+public class BucketRegistry {
+
+  public static final String DEFAULT_BUCKET = "default";
+  public static final String FILESYSTEM_BACKEND = "filesystem";
+  private static final Logger LOG = Logger.getLogger(BucketRegistry.class);
+  // lower case letters, digits, dots and dashes as in S3, so names are safe as folder names
+  private static final Pattern BUCKET_NAME = Pattern.compile("[a-z0-9][a-z0-9.-]{1,61}[a-z0-9]");
+  private static final String FILES_FOLDER = "files";
+  private static final String METADATA_JOURNAL = "metadata.journal";
+  private static final String SETTINGS_FILE = "bucket.properties";
+  private static final String QUOTA_SETTING = "quotaBytes";
+  private static final String CONCURRENCY_SETTING = "maxConcurrentRequests";
+
+  private final IStorageService defaultStorage;
+  private final String storageBackend;
+  private final Path rootPath;
+  private final long defaultQuotaBytes;
+  private final int defaultMaxConcurrentRequests;
+  private final LargeFileWriter largeFileWriter;
+  private final FileEncryption fileEncryption;
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+  @Inject
+  public BucketRegistry(
+      IStorageService defaultStorage,
+      @ConfigProperty(name = "fsserver.storage.backend", defaultValue = FILESYSTEM_BACKEND)
+          String storageBackend,
+      @ConfigProperty(name = "fsserver.buckets.rootPath") String rootPath,
+      @ConfigProperty(name = "fsserver.buckets.defaultQuota", defaultValue = "0")
+          MemorySize defaultQuota,
+      @ConfigProperty(name = "fsserver.buckets.defaultMaxConcurrentRequests", defaultValue = "32")
+          int defaultMaxConcurrentRequests,
+      LargeFileWriter largeFileWriter,
+      FileEncryption fileEncryption)
+      throws IOException {
+    this(
+        defaultStorage,
+        storageBackend,
+        Paths.get(rootPath),
+        defaultQuota.asLongValue(),
+        defaultMaxConcurrentRequests,
+        largeFileWriter,
+        fileEncryption);
+  }
+
+  /**
+   * Opens every bucket found under the root path, none unless the storage backend is the
+   * filesystem
+   *
+   * @param defaultStorage - storage of the default bucket
+   * @param storageBackend - the fsserver.storage.backend the default storage was built for
+   * @param defaultQuotaBytes - quota of buckets created without one, 0 for none
+   * @param defaultMaxConcurrentRequests - concurrency limit of buckets created without one, 0 for
+   *     none
+   * @param largeFileWriter - passed on to the storage of every bucket, may be null
+   * @param fileEncryption - passed on to the storage of every bucket, may be null
+   * @throws IOException - if the root path cannot be created or a bucket cannot be opened
+   */
+  public BucketRegistry(
+      IStorageService defaultStorage,
+      String storageBackend,
+      Path rootPath,
+      long defaultQuotaBytes,
+      int defaultMaxConcurrentRequests,
+      LargeFileWriter largeFileWriter,
+      FileEncryption fileEncryption)
+      throws IOException {
+    this.defaultStorage = defaultStorage;
+    this.storageBackend = storageBackend;
+    this.rootPath = rootPath;
+    this.defaultQuotaBytes = defaultQuotaBytes;
+    this.defaultMaxConcurrentRequests = defaultMaxConcurrentRequests;
+    this.largeFileWriter = largeFileWriter;
+    this.fileEncryption = fileEncryption;
+    if (!FILESYSTEM_BACKEND.equals(storageBackend)) {
+      LOG.info("No buckets besides the default one with the " + storageBackend + " backend");
+      return;
+    }
+    Files.createDirectories(rootPath);
+    try (DirectoryStream<Path> folders = Files.newDirectoryStream(this.rootPath)) {
+      for (Path folder : folders) {
+        String name = folder.getFileName().toString();
+        if (isValidName(name) && Files.exists(folder.resolve(SETTINGS_FILE))) {
+          buckets.put(name, open(name, readSettings(folder)));
+        }
+      }
+    }
+    LOG.info("Opened " + buckets.size() + " buckets under " + this.rootPath.toAbsolutePath());
+  }
+
+  /** @return whether the name may be used for a bucket, which does not mean it is taken */
+  public static boolean isValidName(String name) {
+    return name != null && BUCKET_NAME.matcher(name).matches() && !name.contains("..");
+  }
+
+  /** @return names of all buckets, the default one included, in alphabetical order */
+  public Set<String> listBuckets() {
+    Set<String> names = new TreeSet<>(buckets.keySet());
+    names.add(DEFAULT_BUCKET);
+    return names;
+  }
+
+  /** @return the storage of the bucket, null if there is no such bucket */
+  public IStorageService storageOf(String name) {
+    return DEFAULT_BUCKET.equals(name) ? defaultStorage : buckets.get(name);
+  }
+
+  /** @return the bucket, null if there is none of that name or it is the default one */
+  public Bucket getBucket(String name) {
+    return buckets.get(name);
+  }
+
+  /**
+   * Creates the bucket, or changes its limits if it exists already
+   *
+   * @param quotaBytes - total size its files may reach, 0 for none, null to keep the current or
+   *     take the configured default
+   * @param maxConcurrentRequests - requests it may serve at once, 0 for no limit, null to keep
+   *     the current or take the configured default
+   * @return the bucket
+   * @throws IllegalArgumentException - if the name is not valid or is that of the default bucket,
+   *     or a limit is negative
+   * @throws UnsupportedOperationException - if the storage backend is not the filesystem
+   * @throws IOException - if the bucket folder or its settings cannot be written
+   */
+  public synchronized Bucket createOrUpdate(
+      String name, Long quotaBytes, Integer maxConcurrentRequests) throws IOException {
+    if (!FILESYSTEM_BACKEND.equals(storageBackend)) {
+      throw new UnsupportedOperationException(
+          "Buckets need the filesystem storage backend, this server uses " + storageBackend);
+    }
+    if (!isValidName(name) || DEFAULT_BUCKET.equals(name)) {
+      throw new IllegalArgumentException(name + " is not a valid bucket name");
+    }
+    if ((quotaBytes != null && quotaBytes < 0)
+        || (maxConcurrentRequests != null && maxConcurrentRequests < 0)) {
+      throw new IllegalArgumentException("Bucket limits cannot be negative");
+    }
+    Bucket existing = buckets.get(name);
+    long quota =
+        quotaBytes != null
+            ? quotaBytes
+            : existing != null ? existing.getQuotaBytes() : defaultQuotaBytes;
+    int concurrency =
+        maxConcurrentRequests != null
+            ? maxConcurrentRequests
+            : existing != null ? existing.getMaxConcurrentRequests() : defaultMaxConcurrentRequests;
+    Path folder = rootPath.resolve(name);
+    Files.createDirectories(folder);
+    Properties settings = new Properties();
+    settings.setProperty(QUOTA_SETTING, Long.toString(quota));
+    settings.setProperty(CONCURRENCY_SETTING, Integer.toString(concurrency));
+    writeSettings(folder, settings);
+    if (existing != null) {
+      existing.setLimits(quota, concurrency);
+      return existing;
+    }
+    Bucket bucket = open(name, settings);
+    buckets.put(name, bucket);
+    LOG.info("Created bucket " + name);
+    return bucket;
+  }
+
+  /**
+   * Deletes the bucket, which must hold no files
+   *
+   * @return false if there is no such bucket
+   * @throws IllegalArgumentException - if it is the default bucket
+   * @throws IllegalStateException - if the bucket holds files or is serving requests
+   * @throws IOException - if the bucket folder cannot be deleted
+   */
+  public synchronized boolean delete(String name) throws IOException {
+    if (DEFAULT_BUCKET.equals(name)) {
+      throw new IllegalArgumentException("The default bucket cannot be deleted");
+    }
+    Bucket bucket = buckets.get(name);
+    if (bucket == null) {
+      return false;
+    }
+    if (!bucket.retire()) {
+      throw new IllegalStateException("Bucket " + name + " is serving requests");
+    }
+    // retired, nothing can be stored into it any more while this looks
+    if (!bucket.getStorage().listStoredFiles().isEmpty()) {
+      bucket.reinstate();
+      throw new IllegalStateException("Bucket " + name + " is not empty");
+    }
+    buckets.remove(name);
+    closeStorage(bucket);
+    deleteRecursively(rootPath.resolve(name));
+    LOG.info("Deleted bucket " + name);
+    return true;
+  }
+
+  /** Closes the storage of every bucket, so that their metadata stores get snapshotted */
+  @PreDestroy
+  public void close() {
+    for (Bucket bucket : buckets.values()) {
+      closeStorage(bucket);
+    }
+  }
+
+  private Bucket open(String name, Properties settings) throws IOException {
+    Path folder = rootPath.resolve(name);
+    IStorageService storage =
+        new FileSystemStorageService(
+            folder.resolve(FILES_FOLDER).toString(),
+            folder.resolve(METADATA_JOURNAL).toString(),
+            // the event feed reports the default bucket only, its consumers know no buckets
+            StorageChangeListener.NONE,
+            largeFileWriter,
+            fileEncryption);
+    long usedBytes = 0;
+    for (FileMetadata metadata : storage.listStoredFileMetadata()) {
+      usedBytes += metadata.getSize();
+    }
+    return new Bucket(
+        name,
+        storage,
+        usedBytes,
+        Long.parseLong(settings.getProperty(QUOTA_SETTING, Long.toString(defaultQuotaBytes))),
+        Integer.parseInt(
+            settings.getProperty(
+                CONCURRENCY_SETTING, Integer.toString(defaultMaxConcurrentRequests))));
+  }
+
+  private static void closeStorage(Bucket bucket) {
+    if (bucket.getStorage() instanceof FileSystemStorageService) {
+      ((FileSystemStorageService) bucket.getStorage()).close();
+    }
+  }
+
+  private static Properties readSettings(Path folder) throws IOException {
+    Properties settings = new Properties();
+    try (InputStream in = Files.newInputStream(folder.resolve(SETTINGS_FILE))) {
+      settings.load(in);
+    }
+    return settings;
+  }
+
+  private static void writeSettings(Path folder, Properties settings) throws IOException {
+    Path tempSettings = Files.createTempFile(folder, SETTINGS_FILE, ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(tempSettings)) {
+        settings.store(out, "Bucket limits, 0 for none");
+      }
+      Files.move(tempSettings, folder.resolve(SETTINGS_FILE), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempSettings);
+    }
+  }
+
+  private static void deleteRecursively(Path path) throws IOException {
+    if (Files.isDirectory(path)) {
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+        for (Path child : children) {
+          deleteRecursively(child);
+        }
+      }
+    }
+    Files.deleteIfExists(path);
+  }
+}
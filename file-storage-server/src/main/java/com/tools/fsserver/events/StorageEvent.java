@@ -0,0 +1,101 @@
+package com.tools.fsserver.events;
+
+import com.tools.fsserver.storage.StorageChangeType;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One entry of the change feed. Sequence numbers start at 1, increase by one per event except for a
+ * gap after a server crash, and are never reused, including across restarts, so a consumer can
+ * checkpoint the last sequence it processed and resume from there
+ */
+public final class StorageEvent {
+
+  private static final char LOG_FIELD_SEPARATOR = '\t';
+
+  private final long sequence;
+  private final StorageChangeType type;
+  private final String fileName;
+  private final long timestampMillis;
+
+  public StorageEvent(
+      long sequence, StorageChangeType type, String fileName, long timestampMillis) {
+    this.sequence = sequence;
+    this.type = type;
+    this.fileName = fileName;
+    this.timestampMillis = timestampMillis;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  public StorageChangeType getType() {
+    return type;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /** @return the event as a single-line JSON object, used as the SSE data field */
+  public String toJson() {
+    StringBuilder json = new StringBuilder(64 + fileName.length());
+    json.append("{\"sequence\":").append(sequence);
+    json.append(",\"type\":\"").append(type).append('"');
+    json.append(",\"fileName\":");
+    appendJsonString(json, fileName);
+    json.append(",\"timestamp\":").append(timestampMillis);
+    return json.append('}').toString();
+  }
+
+  /**
+   * @return the event as one line of the on-disk log, without the line terminator. The file name
+   *     is URL-encoded so that no name can break the one-event-per-line framing
+   */
+  String toLogLine() {
+    return Long.toString(sequence)
+        + LOG_FIELD_SEPARATOR
+        + timestampMillis
+        + LOG_FIELD_SEPARATOR
+        + type.name()
+        + LOG_FIELD_SEPARATOR
+        + URLEncoder.encode(fileName, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @throws IllegalArgumentException - if the line is not a complete event written by toLogLine
+   */
+  static StorageEvent fromLogLine(String line) {
+    String[] fields = line.split(String.valueOf(LOG_FIELD_SEPARATOR), -1);
+    if (fields.length != 4) {
+      throw new IllegalArgumentException("Malformed event log line: " + line);
+    }
+    return new StorageEvent(
+        Long.parseLong(fields[0]),
+        StorageChangeType.valueOf(fields[2]),
+        URLDecoder.decode(fields[3], StandardCharsets.UTF_8),
+        Long.parseLong(fields[1]));
+  }
+
+  private static void appendJsonString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+}
@@ -0,0 +1,217 @@
+package com.tools.fsserver.events;
+
+import com.tools.fsserver.storage.StorageChangeListener;
+import com.tools.fsserver.storage.StorageChangeType;
+import io.quarkus.runtime.Startup;
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records every storage change in the StorageEventLog and fans the events out to the connected
+ * server-sent event subscribers. A subscriber is nothing more than a cursor into the log: it holds
+ * no queue of its own, and the events it has not been sent yet are read from the shared ring
+ * buffer, or from the log file when it has fallen further behind. Idle subscribers therefore cost a
+ * few bytes each, and a slow subscriber never holds back the others or grows server memory.
+ *
+ * <p>All cursor movement happens on a single dispatcher thread, so subscribers need no locking and
+ * the upload and delete requests which produce events never wait for a subscriber
+ */
+@Startup
+@ApplicationScoped
+public class StorageEventFeed implements StorageChangeListener {
+
+  static final int MAX_EVENTS_PER_BATCH = 256;
+  private static final Logger LOG = Logger.getLogger(StorageEventFeed.class);
+
+  private final StorageEventLog eventLog;
+  private final ExecutorService dispatcher;
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean fanOutPending = new AtomicBoolean();
+
+  /**
+   * @param logPath - path the segment files of the event log are named after
+   * @param ringBufferSize - number of most recent events served from memory
+   * @param segmentSize - size from which a new segment of the event log is started
+   * @param retainedSegments - number of segments kept, older events are deleted with theirs
+   * @throws IOException - if the event log cannot be opened
+   */
+  @Inject
+  public StorageEventFeed(
+      @ConfigProperty(name = "fsserver.events.logPath") String logPath,
+      @ConfigProperty(name = "fsserver.events.ringBufferSize", defaultValue = "4096")
+          int ringBufferSize,
+      @ConfigProperty(name = "fsserver.events.segmentSize", defaultValue = "64M")
+          MemorySize segmentSize,
+      @ConfigProperty(name = "fsserver.events.retainedSegments", defaultValue = "16")
+          int retainedSegments)
+      throws IOException {
+    this(
+        new StorageEventLog(
+            Paths.get(logPath), ringBufferSize, segmentSize.asLongValue(), retainedSegments),
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "storage-event-dispatcher");
+              thread.setDaemon(true);
+              return thread;
+            }));
+  }
+
+  StorageEventFeed(StorageEventLog eventLog, ExecutorService dispatcher) {
+    this.eventLog = eventLog;
+    this.dispatcher = dispatcher;
+  }
+
+  @Override
+  public void onStorageChange(StorageChangeType changeType, String fileName) {
+    try {
+      eventLog.append(changeType, fileName, System.currentTimeMillis());
+    } catch (IOException e) {
+      LOG.error("Could not write " + changeType + " event of " + fileName + " to the event log", e);
+    }
+    // a burst of changes is fanned out once, every subscriber picks up all it has not seen yet
+    if (fanOutPending.compareAndSet(false, true)) {
+      dispatch(
+          () -> {
+            fanOutPending.set(false);
+            subscriptions.forEach(Subscription::pump);
+          });
+    }
+  }
+
+  /** @return the sequence of the most recent event, 0 if none was ever recorded */
+  public long getLatestSequence() {
+    return eventLog.getLastSequence();
+  }
+
+  /**
+   * Starts streaming to a newly connected client. The sink is closed by the feed if sending fails
+   *
+   * @param afterSequence - the last sequence the client has already processed
+   * @param eventSink - the client connection
+   * @param sse - factory for the outbound events
+   */
+  public void subscribe(long afterSequence, SseEventSink eventSink, Sse sse) {
+    Subscription subscription = new Subscription(afterSequence, eventSink, sse);
+    subscriptions.add(subscription);
+    dispatch(subscription::pump);
+  }
+
+  int getSubscriberCount() {
+    return subscriptions.size();
+  }
+
+  @PreDestroy
+  void shutdown() {
+    dispatcher.shutdownNow();
+    subscriptions.forEach(Subscription::close);
+    try {
+      eventLog.close();
+    } catch (IOException e) {
+      LOG.warn("Could not close the storage event log", e);
+    }
+  }
+
+  private void dispatch(Runnable task) {
+    try {
+      dispatcher.execute(task);
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Storage event feed is shutting down, dropping dispatch");
+    }
+  }
+
+  /** Position of one client in the log. Only ever touched on the dispatcher thread */
+  private final class Subscription {
+    private final SseEventSink eventSink;
+    private final Sse sse;
+    private long cursor;
+    private boolean sending;
+
+    private Subscription(long afterSequence, SseEventSink eventSink, Sse sse) {
+      this.cursor = afterSequence;
+      this.eventSink = eventSink;
+      this.sse = sse;
+    }
+
+    /** Sends the next batch of unseen events unless a send is already in flight */
+    private void pump() {
+      if (sending) {
+        return;
+      }
+      if (eventSink.isClosed()) {
+        close();
+        return;
+      }
+      List<StorageEvent> batch;
+      try {
+        batch = eventLog.readAfter(cursor, MAX_EVENTS_PER_BATCH);
+      } catch (IOException e) {
+        LOG.error("Could not read storage events after " + cursor + ", closing subscriber", e);
+        close();
+        return;
+      }
+      if (!batch.isEmpty()) {
+        sending = true;
+        send(batch, 0);
+      }
+    }
+
+    /** One event in flight at a time: the next is sent once the connection accepted the last */
+    private void send(List<StorageEvent> batch, int index) {
+      StorageEvent event = batch.get(index);
+      eventSink
+          .send(toOutboundEvent(event))
+          .whenComplete(
+              (ignored, failure) ->
+                  dispatch(
+                      () -> {
+                        if (failure != null) {
+                          LOG.debug("Storage event subscriber went away", failure);
+                          close();
+                          return;
+                        }
+                        cursor = event.getSequence();
+                        if (index + 1 < batch.size()) {
+                          send(batch, index + 1);
+                        } else {
+                          sending = false;
+                          pump();
+                        }
+                      }));
+    }
+
+    private OutboundSseEvent toOutboundEvent(StorageEvent event) {
+      return sse.newEventBuilder()
+          .id(Long.toString(event.getSequence()))
+          .name(event.getType().name().toLowerCase(Locale.ROOT))
+          .data(event.toJson())
+          .build();
+    }
+
+    private void close() {
+      subscriptions.remove(this);
+      try {
+        eventSink.close();
+      } catch (RuntimeException e) {
+        LOG.debug("Ignoring failure to close storage event subscriber", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,467 @@
+package com.tools.fsserver.events;
+
+import com.tools.fsserver.storage.StorageChangeType;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Append-only event log kept in segment files, with the most recent events mirrored in a
+ * fixed-size ring buffer. Readers that are live or only slightly behind are served from memory
+ * without locking; readers resuming from an older checkpoint are served from the segments, which
+ * they enter through a sparse in-memory index of line offsets rather than by scanning from the
+ * start.
+ *
+ * <p>Each segment is named after the log path and the sequence it starts at. Once the active
+ * segment has grown to the segment size it is forced to disk and a new one is started, and the
+ * oldest segments beyond the retained number are deleted, so the log stays within bounded disk
+ * space. Readers resuming from before the oldest retained event continue from that event.
+ *
+ * <p>Appends are written through to the OS on every event but not fsynced, so a process crash
+ * loses nothing while a machine crash may lose the most recent events. Their sequences are never
+ * handed out again all the same: sequences are reserved in blocks by a high-water mark file which
+ * is fsynced before any of them is used, and a log that was not closed cleanly resumes after the
+ * reserved block, leaving a gap. An unterminated last line left behind by a crash is truncated on
+ * startup
+ */
+final class StorageEventLog implements Closeable {
+
+  static final int INDEX_INTERVAL = 1024;
+  // sequences reserved per fsync of the high-water mark, at most this many are skipped on a crash
+  static final int SEQUENCE_RESERVATION = 4096;
+  static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+  static final int DEFAULT_RETAINED_SEGMENTS = 16;
+  private static final Logger LOG = Logger.getLogger(StorageEventLog.class);
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final String HIGH_WATER_MARK_SUFFIX = ".sequence";
+  private static final Pattern SEGMENT_SUFFIX = Pattern.compile("\\.(\\d{20})");
+
+  private final Path logPath;
+  private final Path highWaterMarkPath;
+  private final long segmentBytes;
+  private final int retainedSegments;
+  private final StorageEvent[] ring;
+  private final int mask;
+  private final NavigableMap<Long, Segment> segmentsByFirstSequence =
+      new ConcurrentSkipListMap<>();
+  private Segment activeSegment;
+  private FileChannel appendChannel;
+  private long appendOffset;
+  private long reservedSequence;
+  private volatile long lastSequence;
+
+  StorageEventLog(Path logPath, int minimumRingCapacity) throws IOException {
+    this(logPath, minimumRingCapacity, DEFAULT_SEGMENT_BYTES, DEFAULT_RETAINED_SEGMENTS);
+  }
+
+  /**
+   * @param logPath - path the segment files are named after, its parent folders are created if not
+   *     already existing
+   * @param minimumRingCapacity - lower bound for the number of events kept in memory, rounded up to
+   *     a power of two
+   * @param segmentBytes - size from which the active segment is closed and a new one started
+   * @param retainedSegments - number of segments kept, including the active one
+   * @throws IOException - if the log cannot be read or opened for appending
+   */
+  StorageEventLog(Path logPath, int minimumRingCapacity, long segmentBytes, int retainedSegments)
+      throws IOException {
+    if (segmentBytes <= 0 || retainedSegments < 1) {
+      throw new IllegalArgumentException(
+          "Storage event log needs a positive segment size and at least one segment");
+    }
+    int ringCapacity =
+        minimumRingCapacity <= 1 ? 1 : Integer.highestOneBit(minimumRingCapacity - 1) << 1;
+    this.logPath = logPath.toAbsolutePath();
+    this.highWaterMarkPath =
+        this.logPath.resolveSibling(this.logPath.getFileName() + HIGH_WATER_MARK_SUFFIX);
+    this.segmentBytes = segmentBytes;
+    this.retainedSegments = retainedSegments;
+    this.ring = new StorageEvent[ringCapacity];
+    this.mask = ringCapacity - 1;
+    Files.createDirectories(this.logPath.getParent());
+    long validLength = recover();
+    this.appendChannel =
+        FileChannel.open(activeSegment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      this.appendOffset = validLength;
+      this.appendChannel.truncate(this.appendOffset);
+      this.appendChannel.position(this.appendOffset);
+      reserveSequencesAfter(lastSequence);
+    } catch (IOException e) {
+      this.appendChannel.close();
+      throw e;
+    }
+    LOG.info("Storage event log at " + logPath.toAbsolutePath() + " resumes after " + lastSequence);
+  }
+
+  /**
+   * Assigns the next sequence number to a change and records it. The event is published to readers
+   * even if writing it to the file fails, in which case the IOException is rethrown afterwards
+   *
+   * @return the recorded event
+   * @throws IOException - if the event could not be written to the file, or no sequence could be
+   *     reserved for it, in which case it is not published either
+   */
+  synchronized StorageEvent append(StorageChangeType type, String fileName, long timestampMillis)
+      throws IOException {
+    long sequence = lastSequence + 1;
+    if (sequence > reservedSequence) {
+      reserveSequencesAfter(lastSequence);
+    }
+    StorageEvent event = new StorageEvent(sequence, type, fileName, timestampMillis);
+    byte[] line = (event.toLogLine() + '\n').getBytes(StandardCharsets.UTF_8);
+    try {
+      if (appendOffset >= segmentBytes) {
+        rollSegment(sequence);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(line);
+      while (buffer.hasRemaining()) {
+        appendChannel.write(buffer);
+      }
+      indexIfDue(activeSegment, sequence, appendOffset);
+      appendOffset += line.length;
+    } catch (IOException e) {
+      // cut off whatever part of the line made it, so the next append starts on a clean line
+      appendChannel.truncate(appendOffset);
+      appendChannel.position(appendOffset);
+      throw e;
+    } finally {
+      ring[(int) (sequence & mask)] = event;
+      lastSequence = sequence;
+    }
+    return event;
+  }
+
+  long getLastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * @param afterSequence - the last sequence the reader has already seen, 0 to read from the start
+   * @param maxEvents - upper bound for the number of events returned
+   * @return the events following afterSequence in order, empty if the reader is up to date. Events
+   *     lost to an earlier write failure, a crash or the retention of segments are skipped
+   * @throws IOException - if the events had to be read from the file and that failed
+   */
+  List<StorageEvent> readAfter(long afterSequence, int maxEvents) throws IOException {
+    long latest = lastSequence;
+    if (afterSequence >= latest || maxEvents <= 0) {
+      return List.of();
+    }
+    long first = Math.max(afterSequence, 0) + 1;
+    List<StorageEvent> events = readFromRing(first, Math.min(latest, first + maxEvents - 1));
+    return events != null ? events : readFromFile(first, latest, maxEvents);
+  }
+
+  /** Forces the active segment to disk and records that no sequence past the last was used */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      appendChannel.force(false);
+      writeHighWaterMark(lastSequence);
+    } finally {
+      appendChannel.close();
+    }
+  }
+
+  /** @return null if any of the requested events has already been overwritten in the ring */
+  private List<StorageEvent> readFromRing(long first, long last) {
+    if (last - first >= ring.length) {
+      return null;
+    }
+    List<StorageEvent> events = new ArrayList<>((int) (last - first + 1));
+    for (long sequence = first; sequence <= last; sequence++) {
+      StorageEvent event = ring[(int) (sequence & mask)];
+      if (event == null || event.getSequence() != sequence) {
+        return null;
+      }
+      events.add(event);
+    }
+    return events;
+  }
+
+  private List<StorageEvent> readFromFile(long first, long last, int maxEvents)
+      throws IOException {
+    Long startSegment = segmentsByFirstSequence.floorKey(first);
+    Collection<Segment> segments =
+        startSegment == null
+            ? segmentsByFirstSequence.values()
+            : segmentsByFirstSequence.tailMap(startSegment, true).values();
+    List<StorageEvent> events = new ArrayList<>();
+    for (Segment segment : segments) {
+      if (readSegment(segment, first, last, maxEvents, events)) {
+        break;
+      }
+    }
+    return events;
+  }
+
+  /** @return whether the reader has all its events, so that later segments need not be read */
+  private boolean readSegment(
+      Segment segment, long first, long last, int maxEvents, List<StorageEvent> events)
+      throws IOException {
+    Map.Entry<Long, Long> indexEntry = segment.lineOffsetsBySequence.floorEntry(first);
+    long startOffset = indexEntry == null ? 0 : indexEntry.getValue();
+    try (FileChannel readChannel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+      readChannel.position(startOffset);
+      LineReader lines = new LineReader(Channels.newInputStream(readChannel), startOffset);
+      byte[] line;
+      while ((line = lines.next()) != null && lines.lastLineTerminated()) {
+        StorageEvent event = parseOrNull(line);
+        if (event == null || event.getSequence() < first) {
+          continue;
+        }
+        if (event.getSequence() > last) {
+          return true;
+        }
+        events.add(event);
+        if (events.size() == maxEvents) {
+          return true;
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // deleted by the retention while this reader was on its way, its events are skipped
+    }
+    return false;
+  }
+
+  /**
+   * Loads the segments in order, the last one becoming the active segment, and resumes after the
+   * high-water mark if the log was not closed cleanly
+   *
+   * @return the offset just after the last complete line of the active segment
+   */
+  private long recover() throws IOException {
+    if (Files.isRegularFile(logPath)) {
+      // a log written before it was split into segments, its events start at 1
+      Files.move(logPath, segmentPath(1));
+    }
+    long validLength = 0;
+    for (long firstSequence : listSegments()) {
+      Segment segment = new Segment(segmentPath(firstSequence));
+      segmentsByFirstSequence.put(firstSequence, segment);
+      validLength = recoverSegment(segment);
+      activeSegment = segment;
+    }
+    long highWaterMark = readHighWaterMark();
+    if (highWaterMark > lastSequence) {
+      LOG.warn(
+          "Storage event log "
+              + logPath
+              + " was not closed cleanly after "
+              + lastSequence
+              + ", resuming after its reserved sequences up to "
+              + highWaterMark);
+      lastSequence = highWaterMark;
+    }
+    if (activeSegment == null) {
+      activeSegment = new Segment(segmentPath(lastSequence + 1));
+      segmentsByFirstSequence.put(lastSequence + 1, activeSegment);
+    }
+    return validLength;
+  }
+
+  /** @return the offset just after the last complete line of the segment */
+  private long recoverSegment(Segment segment) throws IOException {
+    long validLength = 0;
+    try (InputStream in = Files.newInputStream(segment.path)) {
+      LineReader lines = new LineReader(in, 0);
+      byte[] line;
+      while ((line = lines.next()) != null && lines.lastLineTerminated()) {
+        StorageEvent event = parseOrNull(line);
+        if (event != null && event.getSequence() > lastSequence) {
+          indexIfDue(segment, event.getSequence(), lines.lastLineOffset());
+          ring[(int) (event.getSequence() & mask)] = event;
+          lastSequence = event.getSequence();
+        }
+        validLength = lines.offset();
+      }
+      if (line != null) {
+        LOG.warn("Ignoring incomplete last line of storage event log segment " + segment.path);
+      }
+    }
+    return validLength;
+  }
+
+  /** @return the first sequences of the segments on disk, in order */
+  private List<Long> listSegments() throws IOException {
+    String logName = logPath.getFileName().toString();
+    List<Long> firstSequences = new ArrayList<>();
+    try (Stream<Path> entries = Files.list(logPath.getParent())) {
+      entries.forEach(
+          entry -> {
+            String name = entry.getFileName().toString();
+            if (name.startsWith(logName)) {
+              Matcher suffix = SEGMENT_SUFFIX.matcher(name.substring(logName.length()));
+              if (suffix.matches()) {
+                firstSequences.add(Long.parseLong(suffix.group(1)));
+              }
+            }
+          });
+    }
+    firstSequences.sort(null);
+    return firstSequences;
+  }
+
+  /**
+   * Forces the active segment to disk and starts a new one with the given sequence, then deletes
+   * the oldest segments beyond the retained number
+   */
+  private void rollSegment(long firstSequence) throws IOException {
+    appendChannel.force(false);
+    Segment segment = new Segment(segmentPath(firstSequence));
+    FileChannel channel =
+        FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    try {
+      appendChannel.close();
+    } catch (IOException e) {
+      LOG.warn("Could not close storage event log segment " + activeSegment.path, e);
+    }
+    appendChannel = channel;
+    appendOffset = 0;
+    activeSegment = segment;
+    segmentsByFirstSequence.put(firstSequence, segment);
+    while (segmentsByFirstSequence.size() > retainedSegments) {
+      Path oldest = segmentsByFirstSequence.pollFirstEntry().getValue().path;
+      try {
+        Files.deleteIfExists(oldest);
+      } catch (IOException e) {
+        LOG.warn("Could not delete storage event log segment " + oldest, e);
+      }
+    }
+  }
+
+  private void reserveSequencesAfter(long sequence) throws IOException {
+    writeHighWaterMark(sequence + SEQUENCE_RESERVATION);
+    reservedSequence = sequence + SEQUENCE_RESERVATION;
+  }
+
+  private long readHighWaterMark() throws IOException {
+    String highWaterMark;
+    try {
+      highWaterMark = Files.readString(highWaterMarkPath, StandardCharsets.UTF_8).trim();
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(highWaterMark);
+    } catch (NumberFormatException e) {
+      throw new IOException("Unreadable storage event high-water mark " + highWaterMarkPath, e);
+    }
+  }
+
+  /**
+   * Writes the high-water mark to a temporary file next to it, forces it to disk and moves it over
+   * the previous one, so that a crash leaves either of them
+   */
+  private void writeHighWaterMark(long sequence) throws IOException {
+    Path tempFile =
+        Files.createTempFile(
+            highWaterMarkPath.getParent(), highWaterMarkPath.getFileName().toString(), ".tmp");
+    try {
+      Files.writeString(tempFile, Long.toString(sequence), StandardCharsets.UTF_8);
+      try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(tempFile, highWaterMarkPath, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private Path segmentPath(long firstSequence) {
+    return logPath.resolveSibling(
+        String.format("%s.%020d", logPath.getFileName(), firstSequence));
+  }
+
+  private void indexIfDue(Segment segment, long sequence, long lineOffset) {
+    if (sequence % INDEX_INTERVAL == 1 || segment.lineOffsetsBySequence.isEmpty()) {
+      segment.lineOffsetsBySequence.put(sequence, lineOffset);
+    }
+  }
+
+  private StorageEvent parseOrNull(byte[] line) {
+    String text = new String(line, StandardCharsets.UTF_8);
+    try {
+      return StorageEvent.fromLogLine(text);
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Skipping malformed line in storage event log " + logPath + ": " + text);
+      return null;
+    }
+  }
+
+  /** One file of the log, with the sparse index of its line offsets */
+  private static final class Segment {
+    private final Path path;
+    private final NavigableMap<Long, Long> lineOffsetsBySequence = new ConcurrentSkipListMap<>();
+
+    private Segment(Path path) {
+      this.path = path;
+    }
+  }
+
+  /** Splits a byte stream on '\n' while tracking the file offset of every line */
+  private static final class LineReader {
+    private final InputStream in;
+    private final ByteArrayOutputStream current = new ByteArrayOutputStream(128);
+    private long offset;
+    private long lastLineOffset;
+    private boolean lastLineTerminated;
+
+    private LineReader(InputStream in, long startOffset) {
+      this.in = new BufferedInputStream(in, READ_BUFFER_SIZE);
+      this.offset = startOffset;
+    }
+
+    /** @return the next line without its terminator, or null at the end of the stream */
+    private byte[] next() throws IOException {
+      current.reset();
+      lastLineOffset = offset;
+      int b;
+      while ((b = in.read()) != -1) {
+        offset++;
+        if (b == '\n') {
+          lastLineTerminated = true;
+          return current.toByteArray();
+        }
+        current.write(b);
+      }
+      lastLineTerminated = false;
+      return current.size() == 0 ? null : current.toByteArray();
+    }
+
+    private boolean lastLineTerminated() {
+      return lastLineTerminated;
+    }
+
+    private long lastLineOffset() {
+      return lastLineOffset;
+    }
+
+    private long offset() {
+      return offset;
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package com.tools.fsserver.exception;
+
+/**
+ * Thrown by a bucket refusing a request which would exceed one of its limits. Unchecked, since it
+ * is raised from behind the generic storage interface, whose callers know nothing of buckets
+ */
+public class BucketLimitExceededException extends RuntimeException {
+
+  private final boolean quotaExceeded;
+
+  /** @param quotaExceeded - whether the storage quota was hit, otherwise the concurrency limit */
+  public BucketLimitExceededException(String message, boolean quotaExceeded) {
+    super(message);
+    this.quotaExceeded = quotaExceeded;
+  }
+
+  /** @return whether retrying is pointless until files are deleted from the bucket */
+  public boolean isQuotaExceeded() {
+    return quotaExceeded;
+  }
+}
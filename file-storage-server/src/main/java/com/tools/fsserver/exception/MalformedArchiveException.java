@@ -0,0 +1,7 @@
+package com.tools.fsserver.exception;
+
+public class MalformedArchiveException extends Exception {
+  public MalformedArchiveException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
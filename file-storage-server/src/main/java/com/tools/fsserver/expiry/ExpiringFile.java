@@ -0,0 +1,36 @@
+package com.tools.fsserver.expiry;
+
+/**
+ * A stored file due for deletion at a given time. The version tag identifies the upload the
+ * expiry was set on, by content, modification and upload time, so that a file deleted and uploaded
+ * again under the same name in the meantime is left alone, even with the same content
+ */
+final class ExpiringFile {
+
+  private final String fileName;
+  private final String versionTag;
+  private final long expiresAtMillis;
+
+  ExpiringFile(String fileName, String versionTag, long expiresAtMillis) {
+    this.fileName = fileName;
+    this.versionTag = versionTag;
+    this.expiresAtMillis = expiresAtMillis;
+  }
+
+  String getFileName() {
+    return fileName;
+  }
+
+  String getVersionTag() {
+    return versionTag;
+  }
+
+  long getExpiresAtMillis() {
+    return expiresAtMillis;
+  }
+
+  /** @return what identifies this expiry in the log, a name may have several pending */
+  String key() {
+    return expiresAtMillis + "/" + fileName;
+  }
+}
@@ -0,0 +1,191 @@
+package com.tools.fsserver.expiry;
+
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of the pending expiries, from which the timing wheel is rebuilt on startup. Setting an
+ * expiry appends an EXP record, completing it (the file was deleted, or had been replaced or
+ * deleted already) a DONE record. The journal is rewritten with only the pending expiries once it
+ * holds many more records than that, so its size follows the number of pending expiries.
+ *
+ * <p>Records are appended after the fact and not fsynced: a crash may lose the last few, costing
+ * at worst an expiry set just before it, or a deletion which is then attempted again
+ */
+final class ExpiryLog implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(ExpiryLog.class);
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final String EXPIRY_RECORD = "EXP";
+  private static final String DONE_RECORD = "DONE";
+  // the log is compacted once it holds this many records more than twice the pending expiries
+  private static final int COMPACTION_SLACK = 1024;
+
+  private final Path logPath;
+  private final Map<String, ExpiringFile> pending = new LinkedHashMap<>();
+  private FileChannel log;
+  private long logOffset;
+  private long logRecords;
+
+  /**
+   * @param logPath - file holding the log, created with its parent folders if not already existing
+   * @throws IOException - if the log cannot be read or rewritten
+   */
+  ExpiryLog(Path logPath) throws IOException {
+    this.logPath = logPath;
+    if (logPath.toAbsolutePath().getParent() != null) {
+      Files.createDirectories(logPath.toAbsolutePath().getParent());
+    }
+    replay();
+    compact();
+  }
+
+  /** @return the expiries set and not yet done, in the order they were set */
+  synchronized List<ExpiringFile> getPending() {
+    return new ArrayList<>(pending.values());
+  }
+
+  synchronized void recordExpiry(ExpiringFile file) {
+    pending.put(file.key(), file);
+    append(expiryRecord(file));
+  }
+
+  synchronized void recordDone(ExpiringFile file) {
+    if (pending.remove(file.key()) != null) {
+      append(
+          String.join(
+              FIELD_SEPARATOR,
+              DONE_RECORD,
+              Long.toString(file.getExpiresAtMillis()),
+              encode(file.getFileName())));
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    log.close();
+  }
+
+  /**
+   * A failed append is only logged: the wheel in memory is up to date, and losing the record costs
+   * no more than a crash would
+   */
+  private void append(String record) {
+    ByteBuffer line = ByteBuffer.wrap((record + '\n').getBytes(StandardCharsets.UTF_8));
+    int length = line.remaining();
+    try {
+      while (line.hasRemaining()) {
+        log.write(line);
+      }
+      logOffset += length;
+      logRecords++;
+      if (logRecords > 2L * pending.size() + COMPACTION_SLACK) {
+        compact();
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not record an expiry change in " + logPath, e);
+      try {
+        // cut off whatever part of the line made it, so the next append starts on a clean line
+        log.truncate(logOffset);
+        log.position(logOffset);
+      } catch (IOException truncateFailure) {
+        LOG.warn("Could not truncate expiry log " + logPath, truncateFailure);
+      }
+    }
+  }
+
+  private void replay() throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(logPath, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        try {
+          applyRecord(line);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+          // e.g. the unterminated last line left by a crash
+          LOG.warn("Skipping malformed record in expiry log " + logPath + ": " + line);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // first start
+    }
+  }
+
+  private void applyRecord(String line) {
+    String[] fields = line.split(FIELD_SEPARATOR, -1);
+    if (EXPIRY_RECORD.equals(fields[0]) && fields.length == 4) {
+      ExpiringFile file =
+          new ExpiringFile(decode(fields[3]), decode(fields[2]), Long.parseLong(fields[1]));
+      pending.put(file.key(), file);
+    } else if (DONE_RECORD.equals(fields[0]) && fields.length == 3) {
+      pending.remove(Long.parseLong(fields[1]) + "/" + decode(fields[2]));
+    } else {
+      throw new IllegalArgumentException("Unknown record");
+    }
+  }
+
+  /**
+   * Rewrites the log with one record per pending expiry into a temporary file, forces it to disk
+   * and moves it over the log, so that a crash leaves either the previous log or this one. The
+   * log is then reopened for appending
+   */
+  private void compact() throws IOException {
+    Path folder = logPath.toAbsolutePath().getParent();
+    Path tempLog = Files.createTempFile(folder, logPath.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(tempLog, StandardCharsets.UTF_8)) {
+        for (ExpiringFile file : pending.values()) {
+          writer.write(expiryRecord(file));
+          writer.write('\n');
+        }
+      }
+      try (FileChannel channel = FileChannel.open(tempLog, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(tempLog, logPath, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempLog);
+    }
+    if (log != null) {
+      log.close();
+    }
+    log = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    logOffset = log.size();
+    logRecords = pending.size();
+  }
+
+  private static String expiryRecord(ExpiringFile file) {
+    return String.join(
+        FIELD_SEPARATOR,
+        EXPIRY_RECORD,
+        Long.toString(file.getExpiresAtMillis()),
+        encode(file.getVersionTag()),
+        encode(file.getFileName()));
+  }
+
+  /** Names are URL-encoded so that no name can break the one-record-per-line framing */
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+}
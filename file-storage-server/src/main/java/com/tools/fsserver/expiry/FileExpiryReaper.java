@@ -0,0 +1,289 @@
+package com.tools.fsserver.expiry;
+
+import com.tools.fsserver.admission.TokenBucket;
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.IStorageService;
+import io.quarkus.runtime.Startup;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deletes stored files once the time to live given on upload has passed. Pending expiries are held
+ * in a hierarchical TimingWheel, so that finding the files due costs nothing more than the files
+ * themselves: the storage is never scanned and the expiries never sorted. They are journaled in the
+ * ExpiryLog next to the data, from which the wheel is rebuilt on startup, deleting at once what
+ * expired while the server was down.
+ *
+ * <p>A background thread turns the wheel every tick and deletes the files due through
+ * IStorageService.deleteFileIf, at most maxDeletesPerSecond on average so that a mass expiry never
+ * competes with uploads and downloads for the disk. Files beyond the budget wait in a backlog for
+ * the following ticks. A file uploaded again since its expiry was set is left alone, which is
+ * checked under the storage's per-name lock together with the delete
+ */
+@Startup
+@ApplicationScoped
+public class FileExpiryReaper {
+
+  private static final Logger LOG = Logger.getLogger(FileExpiryReaper.class);
+  private static final Pattern TTL_PATTERN = Pattern.compile("(\\d+)([smhd]?)");
+  private static final int SLOTS_PER_LEVEL = 64;
+  // with one-second ticks, the wheel reaches 64^4 seconds ahead, about 194 days
+  private static final int LEVELS = 4;
+  private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  // far beyond any retention asked for in practice, and far from overflowing the expiry times
+  static final Duration MAX_TIME_TO_LIVE = Duration.ofDays(3650);
+
+  private final IStorageService storageService;
+  private final ExpiryLog expiryLog;
+  private final TimingWheel<ExpiringFile> wheel;
+  private final Deque<ExpiringFile> backlog = new ArrayDeque<>();
+  private final TokenBucket deleteBudget;
+  private final LongSupplier clock;
+  private final ScheduledExecutorService ticker;
+
+  /**
+   * @param logPath - journal of the pending expiries, created at startup if not already existing
+   * @param tickMillis - resolution of expiry times, and how often the background thread runs
+   * @param maxDeletesPerSecond - average rate at which expired files are deleted
+   * @throws IOException - if the expiry log cannot be read or written
+   */
+  @Inject
+  public FileExpiryReaper(
+      IStorageService storageService,
+      @ConfigProperty(name = "fsserver.expiry.logPath") String logPath,
+      @ConfigProperty(name = "fsserver.expiry.tickMillis", defaultValue = "1000") long tickMillis,
+      @ConfigProperty(name = "fsserver.expiry.maxDeletesPerSecond", defaultValue = "50")
+          int maxDeletesPerSecond)
+      throws IOException {
+    this(
+        storageService,
+        new ExpiryLog(Paths.get(logPath)),
+        tickMillis,
+        maxDeletesPerSecond,
+        System::currentTimeMillis,
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "file-expiry-reaper");
+              thread.setDaemon(true);
+              return thread;
+            }));
+    ticker.scheduleWithFixedDelay(this::reapSafely, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param clock - wall clock in milliseconds, System::currentTimeMillis outside of tests
+   * @param ticker - runs the periodic reaping, shut down with the reaper
+   */
+  FileExpiryReaper(
+      IStorageService storageService,
+      ExpiryLog expiryLog,
+      long tickMillis,
+      int maxDeletesPerSecond,
+      LongSupplier clock,
+      ScheduledExecutorService ticker) {
+    this.storageService = storageService;
+    this.expiryLog = expiryLog;
+    this.clock = clock;
+    this.ticker = ticker;
+    this.wheel = new TimingWheel<>(tickMillis, SLOTS_PER_LEVEL, LEVELS, clock.getAsLong());
+    // expressed in milliseconds of the wall clock, close enough to a monotonic one for pacing
+    this.deleteBudget =
+        new TokenBucket(
+            maxDeletesPerSecond,
+            maxDeletesPerSecond,
+            () -> TimeUnit.MILLISECONDS.toNanos(clock.getAsLong()));
+    for (ExpiringFile file : expiryLog.getPending()) {
+      wheel.schedule(file.getExpiresAtMillis(), file);
+    }
+    LOG.info("File expiry reaper resumes with " + wheel.size() + " pending expiries");
+  }
+
+  /**
+   * Sets a file to be deleted once the given time has passed. The file's current upload is
+   * recorded with it, so the expiry no longer applies if the file is replaced, even by the same
+   * content
+   *
+   * @throws IllegalArgumentException - if the time to live is not positive or beyond
+   *     MAX_TIME_TO_LIVE
+   * @throws FileNameNotPresentOnServerException - if there is no such file
+   * @throws IOException - if the version of the file cannot be read
+   */
+  public void expireAfter(String fileName, Duration timeToLive)
+      throws FileNameNotPresentOnServerException, IOException {
+    checkTimeToLive(timeToLive);
+    String versionTag = uploadVersionOf(fileName);
+    ExpiringFile file =
+        new ExpiringFile(fileName, versionTag, clock.getAsLong() + timeToLive.toMillis());
+    synchronized (this) {
+      wheel.schedule(file.getExpiresAtMillis(), file);
+    }
+    expiryLog.recordExpiry(file);
+  }
+
+  /**
+   * Turns the wheel to the current time and deletes the files due, within the delete budget
+   *
+   * @return the number of files deleted
+   */
+  int reapDueFiles() {
+    synchronized (this) {
+      backlog.addAll(wheel.advanceTo(clock.getAsLong()));
+    }
+    int deleted = 0;
+    while (true) {
+      ExpiringFile file;
+      synchronized (this) {
+        if (backlog.isEmpty() || deleteBudget.tryConsume(1) > 0) {
+          break;
+        }
+        file = backlog.poll();
+      }
+      if (reap(file)) {
+        deleted++;
+      }
+    }
+    if (deleted > 0) {
+      LOG.debug("Deleted " + deleted + " expired files, " + getBacklogSize() + " still due");
+    }
+    return deleted;
+  }
+
+  /** @return the number of expiries pending, due or not */
+  synchronized int getPendingCount() {
+    return wheel.size() + backlog.size();
+  }
+
+  synchronized int getBacklogSize() {
+    return backlog.size();
+  }
+
+  /**
+   * Parses a time to live given as a number of seconds, or followed by s, m, h or d for seconds,
+   * minutes, hours or days, e.g. 90, 15m or 3d
+   *
+   * @throws IllegalArgumentException - if the value is malformed, not positive or beyond
+   *     MAX_TIME_TO_LIVE
+   */
+  public static Duration parseTimeToLive(String value) {
+    Matcher matcher = TTL_PATTERN.matcher(value.trim().toLowerCase(Locale.ROOT));
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Invalid time to live " + value);
+    }
+    long amount;
+    try {
+      amount = Long.parseLong(matcher.group(1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid time to live " + value, e);
+    }
+    Duration timeToLive;
+    try {
+      switch (matcher.group(2)) {
+        case "m":
+          timeToLive = Duration.ofMinutes(amount);
+          break;
+        case "h":
+          timeToLive = Duration.ofHours(amount);
+          break;
+        case "d":
+          timeToLive = Duration.ofDays(amount);
+          break;
+        default:
+          timeToLive = Duration.ofSeconds(amount);
+      }
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Invalid time to live " + value, e);
+    }
+    checkTimeToLive(timeToLive);
+    return timeToLive;
+  }
+
+  private static void checkTimeToLive(Duration timeToLive) {
+    if (timeToLive.isNegative() || timeToLive.isZero()) {
+      throw new IllegalArgumentException("The time to live must be positive");
+    }
+    if (timeToLive.compareTo(MAX_TIME_TO_LIVE) > 0) {
+      throw new IllegalArgumentException(
+          "The time to live must be at most " + MAX_TIME_TO_LIVE.toDays() + " days");
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    ticker.shutdownNow();
+    try {
+      expiryLog.close();
+    } catch (IOException e) {
+      LOG.warn("Could not close the expiry log", e);
+    }
+  }
+
+  /** @return whether the file was deleted */
+  private boolean reap(ExpiringFile file) {
+    String fileName = file.getFileName();
+    try {
+      // a file uploaded again after this expiry was set keeps its own expiry, if any. The version
+      // is checked under the name's lock, so the new upload cannot slip in before the delete
+      boolean deleted =
+          storageService.deleteFileIf(
+              fileName, metadata -> uploadVersionOf(metadata).equals(file.getVersionTag()));
+      expiryLog.recordDone(file);
+      if (deleted) {
+        LOG.debug("Deleted expired file " + fileName);
+      }
+      return deleted;
+    } catch (FileNameNotPresentOnServerException e) {
+      expiryLog.recordDone(file);
+      return false;
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Could not delete expired file " + fileName + ", retrying later", e);
+      synchronized (this) {
+        wheel.schedule(clock.getAsLong() + RETRY_DELAY_MILLIS, file);
+      }
+      return false;
+    }
+  }
+
+  private String uploadVersionOf(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    return uploadVersionOf(storageService.getFileMetadata(fileName));
+  }
+
+  /**
+   * @return what identifies the current upload of the file: its content alone would not tell a
+   *     file deleted and uploaded again with the same bytes, e.g. a re-published build artifact,
+   *     from the one the expiry was set on
+   */
+  private static String uploadVersionOf(FileMetadata metadata) {
+    return metadata.getSha256()
+        + "@"
+        + metadata.getLastModifiedMillis()
+        + "@"
+        + metadata.getUploadedAtMillis();
+  }
+
+  private void reapSafely() {
+    try {
+      reapDueFiles();
+    } catch (RuntimeException e) {
+      // an exception would cancel the periodic task
+      LOG.error("Expiry reaping failed", e);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.tools.fsserver.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: level 0 has one slot per tick, each higher level one slot per full
+ * turn of the level below. Scheduling and advancing by a tick cost O(1) whatever the number of
+ * deadlines held, and nothing is ever scanned or sorted. An entry sits in the level whose slot
+ * span fits its remaining time and moves down a level each time its slot comes up, reaching level
+ * 0 in the slot of its deadline tick.
+ *
+ * <p>Deadlines beyond the reach of the top level are parked in its furthest slot and placed again
+ * when it comes up. Deadlines are rounded up to whole ticks, so items are never due early. Not
+ * thread-safe
+ *
+ * @param <T> - the items scheduled
+ */
+final class TimingWheel<T> {
+
+  private final long tickMillis;
+  private final int slotsPerLevel;
+  private final List<Entry<T>>[][] levels;
+  // ticks covered by one slot of each level, and by the whole top level
+  private final long[] slotSpans;
+  private final long reach;
+  private final List<T> overdue = new ArrayList<>();
+  private long currentTick;
+  private int size;
+
+  /**
+   * @param tickMillis - resolution of the deadlines
+   * @param slotsPerLevel - slots in each level, levels * log2(slotsPerLevel) must stay under 62
+   * @param levelCount - number of levels, the wheel reaches slotsPerLevel^levelCount ticks ahead
+   * @param nowMillis - the current time
+   */
+  @SuppressWarnings("unchecked")
+  TimingWheel(long tickMillis, int slotsPerLevel, int levelCount, long nowMillis) {
+    if (tickMillis <= 0 || slotsPerLevel < 2 || levelCount < 1) {
+      throw new IllegalArgumentException("Invalid timing wheel dimensions");
+    }
+    this.tickMillis = tickMillis;
+    this.slotsPerLevel = slotsPerLevel;
+    this.levels = new List[levelCount][slotsPerLevel];
+    this.slotSpans = new long[levelCount];
+    long span = 1;
+    for (int level = 0; level < levelCount; level++) {
+      slotSpans[level] = span;
+      span = Math.multiplyExact(span, slotsPerLevel);
+    }
+    this.reach = span;
+    this.currentTick = Math.floorDiv(nowMillis, tickMillis);
+  }
+
+  /** Schedules an item, which is due at once by the next advance if its deadline has passed */
+  void schedule(long deadlineMillis, T item) {
+    place(new Entry<>(-Math.floorDiv(-deadlineMillis, tickMillis), item));
+    size++;
+  }
+
+  /**
+   * Moves the wheel forward to the given time
+   *
+   * @return the items whose deadline is now past, in deadline order give or take a tick
+   */
+  List<T> advanceTo(long nowMillis) {
+    long targetTick = Math.floorDiv(nowMillis, tickMillis);
+    List<T> due = new ArrayList<>(overdue);
+    overdue.clear();
+    if (size == due.size()) {
+      // nothing left in the slots, no need to turn them one by one
+      currentTick = Math.max(currentTick, targetTick);
+    }
+    while (currentTick < targetTick) {
+      currentTick++;
+      for (int level = levels.length - 1; level > 0; level--) {
+        if (currentTick % slotSpans[level] == 0) {
+          List<Entry<T>> cascading = takeSlot(level, slotIndex(currentTick, level));
+          for (Entry<T> entry : cascading) {
+            place(entry);
+          }
+        }
+      }
+      for (Entry<T> entry : takeSlot(0, slotIndex(currentTick, 0))) {
+        due.add(entry.item);
+      }
+      due.addAll(overdue);
+      overdue.clear();
+    }
+    size -= due.size();
+    return due;
+  }
+
+  /** @return the number of items scheduled and not yet returned as due */
+  int size() {
+    return size;
+  }
+
+  private void place(Entry<T> entry) {
+    long remaining = entry.deadlineTick - currentTick;
+    if (remaining <= 0) {
+      overdue.add(entry.item);
+      return;
+    }
+    // parked entries are placed again once their slot comes up
+    long placementTick = remaining < reach ? entry.deadlineTick : currentTick + reach - 1;
+    int level = 0;
+    while (placementTick - currentTick >= slotSpans[level] * slotsPerLevel) {
+      level++;
+    }
+    int slot = slotIndex(placementTick, level);
+    if (levels[level][slot] == null) {
+      levels[level][slot] = new ArrayList<>();
+    }
+    levels[level][slot].add(entry);
+  }
+
+  private List<Entry<T>> takeSlot(int level, int slot) {
+    List<Entry<T>> entries = levels[level][slot];
+    if (entries == null) {
+      return List.of();
+    }
+    levels[level][slot] = null;
+    return entries;
+  }
+
+  private int slotIndex(long tick, int level) {
+    return (int) Math.floorMod(tick / slotSpans[level], (long) slotsPerLevel);
+  }
+
+  private static final class Entry<T> {
+    private final long deadlineTick;
+    private final T item;
+
+    private Entry(long deadlineTick, T item) {
+      this.deadlineTick = deadlineTick;
+      this.item = item;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+package com.tools.fsserver.grpc;
+
+import com.google.protobuf.ByteString;
+import com.tools.fsgrpc.v1.BatchRequest;
+import com.tools.fsgrpc.v1.BatchResponse;
+import com.tools.fsgrpc.v1.TransferResult;
+import com.tools.fsgrpc.v1.TransferStatus;
+import com.tools.fsserver.admission.AdmissionController;
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.storage.IStorageService;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Server side of one Batch call. Requests are handled as they arrive: upload chunks are spooled
+ * straight away, deletes run immediately, and downloads join a queue which is drained round-robin,
+ * one chunk per download per turn, whenever the response stream has room. A large download
+ * therefore never starves the small ones behind it, and HTTP/2 flow control towards a slow client
+ * stops the reading of files rather than letting chunks pile up in memory.
+ *
+ * <p>gRPC delivers the callbacks of one call one at a time, so the session needs no locking
+ */
+final class BatchSession implements StreamObserver<BatchRequest> {
+
+  private static final Logger LOG = Logger.getLogger(BatchSession.class);
+
+  private final IStorageService storageService;
+  private final AdmissionController admissionController;
+  private final long maxUploadSize;
+  private final String clientId;
+  private final ServerCallStreamObserver<BatchResponse> responses;
+  private final Map<Long, IncomingUpload> uploads = new HashMap<>();
+  private final Queue<QueuedDownload> downloads = new ArrayDeque<>();
+  private boolean requestsCompleted;
+  private boolean finished;
+
+  BatchSession(
+      IStorageService storageService,
+      AdmissionController admissionController,
+      long maxUploadSize,
+      String clientId,
+      ServerCallStreamObserver<BatchResponse> responses) {
+    this.storageService = storageService;
+    this.admissionController = admissionController;
+    this.maxUploadSize = maxUploadSize;
+    this.clientId = clientId;
+    this.responses = responses;
+    responses.setOnReadyHandler(this::sendDownloadChunks);
+    responses.setOnCancelHandler(this::abandon);
+  }
+
+  @Override
+  public void onNext(BatchRequest request) {
+    long transferId = request.getTransferId();
+    switch (request.getOperationCase()) {
+      case UPLOAD_START:
+        startUpload(transferId, request);
+        break;
+      case UPLOAD_CHUNK:
+        appendToUpload(transferId, request.getUploadChunk());
+        break;
+      case UPLOAD_END:
+        finishUpload(transferId);
+        break;
+      case DOWNLOAD:
+        startDownload(transferId, request.getDownload().getFileName());
+        break;
+      case DELETE:
+        delete(transferId, request.getDelete().getFileName());
+        break;
+      default:
+        sendResult(
+            transferId,
+            TransferResults.of("", TransferStatus.INVALID, "Request without operation"));
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    LOG.debug("Batch call failed on the client side", throwable);
+    abandon();
+  }
+
+  @Override
+  public void onCompleted() {
+    requestsCompleted = true;
+    for (Map.Entry<Long, IncomingUpload> unfinished : uploads.entrySet()) {
+      IncomingUpload upload = unfinished.getValue();
+      if (!upload.isRejected()) {
+        upload.abort();
+        sendResult(
+            unfinished.getKey(),
+            TransferResults.of(
+                upload.getFileName(), TransferStatus.INVALID, "Batch ended before upload_end"));
+      }
+    }
+    uploads.clear();
+    completeIfDone();
+  }
+
+  private void startUpload(long transferId, BatchRequest request) {
+    if (uploads.containsKey(transferId)) {
+      sendResult(
+          transferId,
+          TransferResults.of(
+              request.getUploadStart().getFileName(),
+              TransferStatus.INVALID,
+              "Transfer id " + transferId + " is already in use"));
+      return;
+    }
+    IncomingUpload upload =
+        IncomingUpload.start(
+            request.getUploadStart(), clientId, admissionController, maxUploadSize);
+    // rejected uploads stay registered so that their remaining chunks are silently dropped
+    uploads.put(transferId, upload);
+    if (upload.isRejected()) {
+      sendResult(transferId, upload.getRejection());
+    }
+  }
+
+  private void appendToUpload(long transferId, ByteString chunk) {
+    IncomingUpload upload = uploads.get(transferId);
+    if (upload == null || upload.isRejected()) {
+      return;
+    }
+    upload.append(chunk);
+    if (upload.isRejected()) {
+      sendResult(transferId, upload.getRejection());
+    }
+  }
+
+  private void finishUpload(long transferId) {
+    IncomingUpload upload = uploads.remove(transferId);
+    if (upload == null) {
+      sendResult(
+          transferId,
+          TransferResults.of(
+              "", TransferStatus.INVALID, "No upload started with transfer id " + transferId));
+    } else if (!upload.isRejected()) {
+      sendResult(transferId, upload.finish(storageService));
+    }
+  }
+
+  private void startDownload(long transferId, String fileName) {
+    if (!TransferResults.isValidFileName(fileName)) {
+      sendResult(
+          transferId,
+          TransferResults.of(fileName, TransferStatus.INVALID, "Not a valid file name"));
+      return;
+    }
+    try {
+      OutgoingDownload download =
+          new OutgoingDownload(fileName, storageService.retrieveFile(fileName));
+      downloads.add(new QueuedDownload(transferId, download));
+      sendDownloadChunks();
+    } catch (FileNameNotPresentOnServerException e) {
+      sendResult(
+          transferId,
+          TransferResults.of(
+              fileName, TransferStatus.NOT_FOUND, fileName + " does not exist on server"));
+    } catch (IOException e) {
+      LOG.error("An error occurred during file download of " + fileName, e);
+      sendResult(transferId, downloadError(fileName));
+    }
+  }
+
+  private void delete(long transferId, String fileName) {
+    if (!TransferResults.isValidFileName(fileName)) {
+      sendResult(
+          transferId,
+          TransferResults.of(fileName, TransferStatus.INVALID, "Not a valid file name"));
+      return;
+    }
+    TransferResult result;
+    try {
+      storageService.deleteFile(fileName);
+      result = TransferResults.of(fileName, TransferStatus.OK, "File deleted successfully");
+    } catch (FileNameNotPresentOnServerException e) {
+      result =
+          TransferResults.of(
+              fileName, TransferStatus.NOT_FOUND, fileName + " does not exist on server");
+    } catch (IOException e) {
+      LOG.error("An error occurred during file deletion of " + fileName, e);
+      result =
+          TransferResults.of(
+              fileName,
+              TransferStatus.ERROR,
+              "An error occurred during file deletion. Please try again");
+    }
+    sendResult(transferId, result);
+  }
+
+  /** Round-robin over the queued downloads for as long as the response stream accepts data */
+  private void sendDownloadChunks() {
+    while (!finished && responses.isReady() && !downloads.isEmpty()) {
+      QueuedDownload queued = downloads.poll();
+      String fileName = queued.download.getFileName();
+      try {
+        ByteString chunk = queued.download.nextChunk();
+        if (chunk == null) {
+          sendResult(
+              queued.transferId,
+              TransferResults.of(fileName, TransferStatus.OK, "File downloaded successfully"));
+        } else {
+          responses.onNext(
+              BatchResponse.newBuilder()
+                  .setTransferId(queued.transferId)
+                  .setDownloadChunk(chunk)
+                  .build());
+          downloads.add(queued);
+        }
+      } catch (IOException e) {
+        LOG.error("An error occurred during file download of " + fileName, e);
+        sendResult(queued.transferId, downloadError(fileName));
+      }
+    }
+    completeIfDone();
+  }
+
+  private void completeIfDone() {
+    if (!finished && requestsCompleted && downloads.isEmpty()) {
+      finished = true;
+      responses.onCompleted();
+    }
+  }
+
+  private void sendResult(long transferId, TransferResult result) {
+    if (!finished) {
+      responses.onNext(
+          BatchResponse.newBuilder().setTransferId(transferId).setResult(result).build());
+    }
+  }
+
+  private void abandon() {
+    finished = true;
+    uploads.values().forEach(IncomingUpload::abort);
+    uploads.clear();
+    downloads.forEach(queued -> queued.download.close());
+    downloads.clear();
+  }
+
+  private static TransferResult downloadError(String fileName) {
+    return TransferResults.of(
+        fileName, TransferStatus.ERROR, "An error occurred during file download. Please try again");
+  }
+
+  private static final class QueuedDownload {
+    private final long transferId;
+    private final OutgoingDownload download;
+
+    private QueuedDownload(long transferId, OutgoingDownload download) {
+      this.transferId = transferId;
+      this.download = download;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package com.tools.fsserver.grpc;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Exposes the caller's address to the gRPC service through the call Context, so that gRPC uploads
+ * are charged to the same per-client admission bucket as REST uploads from that address
+ */
+@ApplicationScoped
+public class ClientAddressInterceptor implements ServerInterceptor {
+
+  static final String UNKNOWN_CLIENT = "unknown";
+  private static final Context.Key<String> CLIENT_ID = Context.key("fsserver-client-id");
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    SocketAddress remoteAddress = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+    String clientId =
+        remoteAddress instanceof InetSocketAddress
+            ? ((InetSocketAddress) remoteAddress).getHostString()
+            : UNKNOWN_CLIENT;
+    return Contexts.interceptCall(
+        Context.current().withValue(CLIENT_ID, clientId), call, headers, next);
+  }
+
+  /** @return the address of the client whose call is being handled on the current thread */
+  static String currentClientId() {
+    String clientId = CLIENT_ID.get();
+    return clientId == null ? UNKNOWN_CLIENT : clientId;
+  }
+}
@@ -0,0 +1,192 @@
+package com.tools.fsserver.grpc;
+
+import com.google.protobuf.ByteString;
+import com.tools.fsgrpc.v1.BatchRequest;
+import com.tools.fsgrpc.v1.BatchResponse;
+import com.tools.fsgrpc.v1.DownloadRequest;
+import com.tools.fsgrpc.v1.DownloadResponse;
+import com.tools.fsgrpc.v1.FileTransferGrpc;
+import com.tools.fsgrpc.v1.TransferResult;
+import com.tools.fsgrpc.v1.TransferStatus;
+import com.tools.fsgrpc.v1.UploadRequest;
+import com.tools.fsserver.admission.AdmissionController;
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.storage.IStorageService;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.quarkus.grpc.GrpcService;
+import io.quarkus.grpc.RegisterInterceptor;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.smallrye.common.annotation.Blocking;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.inject.Inject;
+import java.io.IOException;
+
+/**
+ * gRPC counterpart of FileStorageResource for machine to machine traffic, served on its own HTTP/2
+ * port (quarkus.grpc.server.port). It delegates to the same IStorageService and applies the same
+ * upload size limit and admission control, so the two APIs can be used side by side. Storage calls
+ * block, so the handlers run on worker threads rather than the event loop
+ */
+@GrpcService
+@Blocking
+@RegisterInterceptor(ClientAddressInterceptor.class)
+public class FileTransferGrpcService extends FileTransferGrpc.FileTransferImplBase {
+
+  private static final Logger LOG = Logger.getLogger(FileTransferGrpcService.class);
+
+  private final IStorageService storageService;
+  private final AdmissionController admissionController;
+  private final long maxUploadSize;
+
+  @Inject
+  public FileTransferGrpcService(
+      IStorageService storageService,
+      AdmissionController admissionController,
+      @ConfigProperty(name = "quarkus.http.limits.max-form-attribute-size")
+          MemorySize maxUploadSize) {
+    this.storageService = storageService;
+    this.admissionController = admissionController;
+    this.maxUploadSize = maxUploadSize.asLongValue();
+  }
+
+  /**
+   * Receives one file. A rejection (invalid name, too large, server busy) is answered as soon as
+   * it is known, which ends the call and stops the client from sending the rest of the content
+   */
+  @Override
+  public StreamObserver<UploadRequest> upload(StreamObserver<TransferResult> responseObserver) {
+    String clientId = ClientAddressInterceptor.currentClientId();
+    return new StreamObserver<>() {
+      private IncomingUpload upload;
+      private boolean answered;
+
+      @Override
+      public void onNext(UploadRequest request) {
+        if (answered) {
+          return;
+        }
+        if (request.hasStart() && upload == null) {
+          upload =
+              IncomingUpload.start(
+                  request.getStart(), clientId, admissionController, maxUploadSize);
+        } else if (request.getPartCase() == UploadRequest.PartCase.CHUNK && upload != null) {
+          upload.append(request.getChunk());
+        } else {
+          answer(
+              TransferResults.of(
+                  upload == null ? "" : upload.getFileName(),
+                  TransferStatus.INVALID,
+                  "An upload must consist of one start message followed by content chunks"));
+          return;
+        }
+        if (upload.isRejected()) {
+          answer(upload.getRejection());
+        }
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        LOG.debug("Upload call failed on the client side", throwable);
+        if (upload != null) {
+          upload.abort();
+        }
+      }
+
+      @Override
+      public void onCompleted() {
+        if (answered) {
+          return;
+        }
+        answer(
+            upload == null
+                ? TransferResults.of("", TransferStatus.INVALID, "Upload without start message")
+                : upload.finish(storageService));
+      }
+
+      private void answer(TransferResult result) {
+        if (upload != null) {
+          upload.abort();
+        }
+        answered = true;
+        responseObserver.onNext(result);
+        responseObserver.onCompleted();
+      }
+    };
+  }
+
+  /** Streams one file, reading the next chunk only when the client is ready to receive it */
+  @Override
+  public void download(
+      DownloadRequest request, StreamObserver<DownloadResponse> responseObserver) {
+    String fileName = request.getFileName();
+    if (!TransferResults.isValidFileName(fileName)) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription("Not a valid file name").asRuntimeException());
+      return;
+    }
+    OutgoingDownload download;
+    try {
+      download = new OutgoingDownload(fileName, storageService.retrieveFile(fileName));
+    } catch (FileNameNotPresentOnServerException e) {
+      responseObserver.onError(
+          Status.NOT_FOUND
+              .withDescription(fileName + " does not exist on server")
+              .asRuntimeException());
+      return;
+    } catch (IOException e) {
+      LOG.error("An error occurred during file download of " + fileName, e);
+      responseObserver.onError(downloadError());
+      return;
+    }
+    ServerCallStreamObserver<DownloadResponse> responses =
+        (ServerCallStreamObserver<DownloadResponse>) responseObserver;
+    responses.setOnCancelHandler(download::close);
+    Runnable sendChunks =
+        new Runnable() {
+          private boolean done;
+
+          @Override
+          public void run() {
+            try {
+              while (!done && responses.isReady()) {
+                ByteString chunk = download.nextChunk();
+                if (chunk == null) {
+                  done = true;
+                  responses.onCompleted();
+                } else {
+                  responses.onNext(DownloadResponse.newBuilder().setChunk(chunk).build());
+                }
+              }
+            } catch (IOException e) {
+              LOG.error("An error occurred during file download of " + fileName, e);
+              done = true;
+              responses.onError(downloadError());
+            }
+          }
+        };
+    responses.setOnReadyHandler(sendChunks);
+    // the call may already be ready, in which case no ready notification is coming
+    sendChunks.run();
+  }
+
+  /** Opens a multiplexed session, see BatchSession */
+  @Override
+  public StreamObserver<BatchRequest> batch(StreamObserver<BatchResponse> responseObserver) {
+    return new BatchSession(
+        storageService,
+        admissionController,
+        maxUploadSize,
+        ClientAddressInterceptor.currentClientId(),
+        (ServerCallStreamObserver<BatchResponse>) responseObserver);
+  }
+
+  private static RuntimeException downloadError() {
+    return Status.INTERNAL
+        .withDescription("An error occurred during file download. Please try again")
+        .asRuntimeException();
+  }
+}
@@ -0,0 +1,171 @@
+package com.tools.fsserver.grpc;
+
+import com.google.protobuf.ByteString;
+import com.tools.fsgrpc.v1.TransferResult;
+import com.tools.fsgrpc.v1.TransferStatus;
+import com.tools.fsgrpc.v1.UploadStart;
+import com.tools.fsserver.admission.AdmissionController;
+import com.tools.fsserver.admission.AdmissionDecision;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.IStorageService;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * One file being received over gRPC. Chunks are spooled to a temp file exactly like the multipart
+ * uploads Quarkus spools for the REST API, and the complete file is handed to
+ * IStorageService.storeFile. The same size limit and admission control as for REST apply; once an
+ * upload is rejected it holds the result to report and ignores any further chunks
+ */
+final class IncomingUpload {
+
+  private static final Logger LOG = Logger.getLogger(IncomingUpload.class);
+  private static final String SPOOL_FILE_PREFIX = "fsserver-grpc-upload";
+
+  private final String fileName;
+  private final long maxUploadSize;
+  private AdmissionDecision admission;
+  private Path spoolFile;
+  private OutputStream spoolStream;
+  private long receivedBytes;
+  private TransferResult rejection;
+
+  private IncomingUpload(String fileName, long maxUploadSize) {
+    this.fileName = fileName;
+    this.maxUploadSize = maxUploadSize;
+  }
+
+  /**
+   * @param start - the upload's first message
+   * @param clientId - the caller, charged for the upload by the admission controller
+   * @return the upload, possibly already rejected
+   */
+  static IncomingUpload start(
+      UploadStart start,
+      String clientId,
+      AdmissionController admissionController,
+      long maxUploadSize) {
+    IncomingUpload upload = new IncomingUpload(start.getFileName(), maxUploadSize);
+    if (!TransferResults.isValidFileName(start.getFileName())) {
+      upload.reject(TransferStatus.INVALID, "Not a valid file name: " + start.getFileName());
+      return upload;
+    }
+    if (start.hasSize() && start.getSize() > maxUploadSize) {
+      upload.rejectAsTooLarge();
+      return upload;
+    }
+    AdmissionDecision decision =
+        admissionController.tryAdmit(clientId, start.hasSize() ? start.getSize() : -1);
+    if (!decision.isAdmitted()) {
+      upload.rejection =
+          TransferResults.busy(
+              upload.fileName, decision.getReason(), decision.getRetryAfterSeconds());
+      return upload;
+    }
+    upload.admission = decision;
+    try {
+      upload.spoolFile = Files.createTempFile(SPOOL_FILE_PREFIX, null);
+      upload.spoolStream = new BufferedOutputStream(Files.newOutputStream(upload.spoolFile));
+    } catch (IOException e) {
+      LOG.error("Could not create a spool file for upload of " + upload.fileName, e);
+      upload.reject(TransferStatus.ERROR, "An error occurred during file upload. Please try again");
+    }
+    return upload;
+  }
+
+  String getFileName() {
+    return fileName;
+  }
+
+  boolean isRejected() {
+    return rejection != null;
+  }
+
+  /** @return why the upload was rejected, null while it is still accepted */
+  TransferResult getRejection() {
+    return rejection;
+  }
+
+  /** Spools a chunk, or rejects the upload if it would exceed the size limit */
+  void append(ByteString chunk) {
+    if (isRejected()) {
+      return;
+    }
+    receivedBytes += chunk.size();
+    if (receivedBytes > maxUploadSize) {
+      rejectAsTooLarge();
+      return;
+    }
+    try {
+      chunk.writeTo(spoolStream);
+    } catch (IOException e) {
+      LOG.error("Could not spool upload of " + fileName, e);
+      reject(TransferStatus.ERROR, "An error occurred during file upload. Please try again");
+    }
+  }
+
+  /** Stores the spooled file and releases everything the upload held */
+  TransferResult finish(IStorageService storageService) {
+    if (isRejected()) {
+      return rejection;
+    }
+    try {
+      spoolStream.close();
+      storageService.storeFile(fileName, spoolFile);
+      return TransferResults.of(fileName, TransferStatus.OK, "File uploaded successfully");
+    } catch (FileNamePresentOnServerException e) {
+      return TransferResults.of(
+          fileName, TransferStatus.ALREADY_EXISTS, fileName + " already exists on server");
+    } catch (IOException e) {
+      LOG.error("An error occurred during file upload of " + fileName, e);
+      return TransferResults.of(
+          fileName, TransferStatus.ERROR, "An error occurred during file upload. Please try again");
+    } finally {
+      release();
+    }
+  }
+
+  /** Abandons the upload, e.g. because the client cancelled the call */
+  void abort() {
+    release();
+  }
+
+  private void rejectAsTooLarge() {
+    reject(
+        TransferStatus.TOO_LARGE,
+        fileName + " is larger than the size limit of " + maxUploadSize + " bytes");
+  }
+
+  private void reject(TransferStatus status, String message) {
+    rejection = TransferResults.of(fileName, status, message);
+    release();
+  }
+
+  private void release() {
+    if (spoolStream != null) {
+      try {
+        spoolStream.close();
+      } catch (IOException e) {
+        LOG.debug("Ignoring failure to close spool file " + spoolFile, e);
+      }
+      spoolStream = null;
+    }
+    if (spoolFile != null) {
+      try {
+        Files.deleteIfExists(spoolFile);
+      } catch (IOException e) {
+        LOG.warn("Could not remove spool file " + spoolFile, e);
+      }
+      spoolFile = null;
+    }
+    if (admission != null) {
+      admission.release();
+      admission = null;
+    }
+  }
+}
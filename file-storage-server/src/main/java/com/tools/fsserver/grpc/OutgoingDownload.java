@@ -0,0 +1,59 @@
+package com.tools.fsserver.grpc;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * One file being sent over gRPC, read from IStorageService one chunk at a time. Chunks are only
+ * read when the call has room for them, so memory per download stays at one chunk however slowly
+ * the client reads
+ */
+final class OutgoingDownload {
+
+  static final int CHUNK_SIZE = 64 * 1024;
+  private static final Logger LOG = Logger.getLogger(OutgoingDownload.class);
+
+  private final String fileName;
+  private final InputStream content;
+
+  OutgoingDownload(String fileName, InputStream content) {
+    this.fileName = fileName;
+    this.content = content;
+  }
+
+  String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * @return the next chunk, or null once the whole file has been read, at which point the
+   *     underlying stream is closed
+   * @throws IOException - if reading fails, the stream is closed as well
+   */
+  ByteString nextChunk() throws IOException {
+    try {
+      byte[] chunk = content.readNBytes(CHUNK_SIZE);
+      if (chunk.length == 0) {
+        close();
+        return null;
+      }
+      // the array is never touched again, so it can back the message without a copy
+      return UnsafeByteOperations.unsafeWrap(chunk);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  void close() {
+    try {
+      content.close();
+    } catch (IOException e) {
+      LOG.debug("Ignoring failure to close download of " + fileName, e);
+    }
+  }
+}
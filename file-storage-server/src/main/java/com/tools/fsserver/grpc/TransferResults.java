@@ -0,0 +1,37 @@
+package com.tools.fsserver.grpc;
+
+import com.tools.fsgrpc.v1.TransferResult;
+import com.tools.fsgrpc.v1.TransferStatus;
+
+/** Builders for the TransferResult messages shared by the single-file and batch calls */
+final class TransferResults {
+
+  private TransferResults() {}
+
+  static TransferResult of(String fileName, TransferStatus status, String message) {
+    return TransferResult.newBuilder()
+        .setFileName(fileName)
+        .setStatus(status)
+        .setMessage(message)
+        .build();
+  }
+
+  static TransferResult busy(String fileName, String reason, long retryAfterSeconds) {
+    return of(fileName, TransferStatus.BUSY, reason).toBuilder()
+        .setRetryAfterSeconds(retryAfterSeconds)
+        .build();
+  }
+
+  /**
+   * File names arrive as free text here, unlike the REST API where they are a single path segment,
+   * so anything which could address a path outside the storage folder is refused
+   */
+  static boolean isValidFileName(String fileName) {
+    return !fileName.isEmpty()
+        && !fileName.equals(".")
+        && !fileName.equals("..")
+        && fileName.indexOf('/') < 0
+        && fileName.indexOf('\\') < 0
+        && fileName.indexOf('\0') < 0;
+  }
+}
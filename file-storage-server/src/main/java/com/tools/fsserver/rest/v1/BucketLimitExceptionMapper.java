@@ -0,0 +1,31 @@
+package com.tools.fsserver.rest.v1;
+
+import com.tools.fsserver.exception.BucketLimitExceededException;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Answers requests refused by a bucket's limits: 507 once its quota is reached, which only
+ * deleting files resolves, and 503 with a Retry-After hint while it is serving all the requests it
+ * may
+ */
+@Provider
+public class BucketLimitExceptionMapper implements ExceptionMapper<BucketLimitExceededException> {
+
+  static final int INSUFFICIENT_STORAGE = 507;
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  @Override
+  public Response toResponse(BucketLimitExceededException e) {
+    Response.ResponseBuilder response =
+        e.isQuotaExceeded()
+            ? Response.status(INSUFFICIENT_STORAGE)
+            : Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+    return response.type(MediaType.TEXT_PLAIN).entity(e.getMessage()).build();
+  }
+}
@@ -0,0 +1,155 @@
+package com.tools.fsserver.rest.v1;
+
+import com.tools.fsserver.bucket.Bucket;
+import com.tools.fsserver.bucket.BucketRegistry;
+import com.tools.fsserver.expiry.FileExpiryReaper;
+import com.tools.fsserver.storage.IStorageService;
+import io.quarkus.runtime.configuration.MemorySizeConverter;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+import org.jboss.logging.Logger;
+
+import javax.inject.Inject;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+
+/**
+ * V1 of the /buckets REST API. Manages buckets, storage namespaces with their own folder, metadata
+ * store, quota and concurrency limit, and serves the files of each under
+ * /v1/buckets/{bucket}/files with exactly the operations /v1/files offers. The latter is the
+ * bucket named "default"
+ */
+@Tag(
+    name = "File Storage Server buckets REST API",
+    description = "provides bucket management and the /files operations within each bucket")
+@Path("/v1/buckets")
+public class BucketResource {
+
+  private static final Logger LOG = Logger.getLogger(BucketResource.class);
+  private static final MemorySizeConverter SIZE_CONVERTER = new MemorySizeConverter();
+
+  private final BucketRegistry bucketRegistry;
+  // expires files of the default bucket only, its journal lives next to the main storage
+  private final FileExpiryReaper expiryReaper;
+
+  @Inject
+  public BucketResource(BucketRegistry bucketRegistry, FileExpiryReaper expiryReaper) {
+    this.bucketRegistry = bucketRegistry;
+    this.expiryReaper = expiryReaper;
+  }
+
+  @GET
+  @Produces(MediaType.TEXT_PLAIN)
+  @Operation(summary = "Returns the names of all buckets, the default one included")
+  @APIResponses({@APIResponse(responseCode = "200", description = "Buckets listed successfully")})
+  public Response listBuckets() {
+    return Response.status(Response.Status.OK)
+        .entity(String.join(",", this.bucketRegistry.listBuckets()))
+        .build();
+  }
+
+  @PUT
+  @Path("{bucket}")
+  @Produces(MediaType.TEXT_PLAIN)
+  @Operation(
+      summary =
+          "Creates a bucket, or changes its limits. quota (bytes, or a number followed by K, M, "
+              + "G or T) caps the total size of its files, maxConcurrentRequests the requests it "
+              + "serves at once. 0 disables either, omitted ones keep their current or default "
+              + "value")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "Bucket created or updated successfully"),
+    @APIResponse(
+        responseCode = "400",
+        description = "Invalid bucket name, the default bucket, or invalid limits"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error"),
+    @APIResponse(
+        responseCode = "501",
+        description = "Buckets are not available with this server's storage backend")
+  })
+  public Response createOrUpdateBucket(
+      @PathParam("bucket") String bucketName,
+      @QueryParam("quota") String quota,
+      @QueryParam("maxConcurrentRequests") Integer maxConcurrentRequests) {
+    LOG.debug("Received request to create or update bucket " + bucketName);
+    try {
+      Long quotaBytes = quota == null ? null : SIZE_CONVERTER.convert(quota).asLongValue();
+      Bucket bucket =
+          this.bucketRegistry.createOrUpdate(bucketName, quotaBytes, maxConcurrentRequests);
+      return Response.status(Response.Status.OK)
+          .entity(
+              "Bucket "
+                  + bucket.getName()
+                  + " has a quota of "
+                  + bucket.getQuotaBytes()
+                  + " bytes and serves "
+                  + bucket.getMaxConcurrentRequests()
+                  + " requests at once")
+          .build();
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+    } catch (UnsupportedOperationException e) {
+      return Response.status(Response.Status.NOT_IMPLEMENTED).entity(e.getMessage()).build();
+    } catch (IOException e) {
+      String errMsg = "An error occurred when creating bucket " + bucketName;
+      LOG.error(errMsg, e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(errMsg).build();
+    }
+  }
+
+  @DELETE
+  @Path("{bucket}")
+  @Produces(MediaType.TEXT_PLAIN)
+  @Operation(summary = "Deletes an empty bucket")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "Bucket deleted successfully"),
+    @APIResponse(responseCode = "400", description = "Attempting to delete the default bucket"),
+    @APIResponse(responseCode = "404", description = "No such bucket"),
+    @APIResponse(responseCode = "409", description = "Bucket holds files or is in use"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response deleteBucket(@PathParam("bucket") String bucketName) {
+    LOG.debug("Received request to delete bucket " + bucketName);
+    try {
+      return this.bucketRegistry.delete(bucketName)
+          ? Response.status(Response.Status.OK).entity("Bucket deleted successfully").build()
+          : Response.status(Response.Status.NOT_FOUND)
+              .entity(bucketName + " does not exist on server")
+              .build();
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+    } catch (IllegalStateException e) {
+      return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+    } catch (IOException e) {
+      String errMsg = "An error occurred when deleting bucket " + bucketName;
+      LOG.error(errMsg, e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(errMsg).build();
+    }
+  }
+
+  /**
+   * Serves the files of one bucket through the same resource as /v1/files, bound to the bucket's
+   * storage. Files in buckets other than the default cannot be given a time to live: uploads
+   * asking for one are rejected rather than stored without it
+   */
+  @Path("{bucket}/files")
+  public FileStorageResource files(@PathParam("bucket") String bucketName) {
+    IStorageService storage = this.bucketRegistry.storageOf(bucketName);
+    if (storage == null) {
+      throw new NotFoundException("Bucket " + bucketName + " does not exist on server");
+    }
+    boolean defaultBucket = BucketRegistry.DEFAULT_BUCKET.equals(bucketName);
+    return new FileStorageResource(storage, defaultBucket ? this.expiryReaper : null);
+  }
+}
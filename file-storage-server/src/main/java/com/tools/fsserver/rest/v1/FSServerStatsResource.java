@@ -1,5 +1,7 @@
 package com.tools.fsserver.rest.v1;
 
+import com.tools.fsserver.scheduling.RequestScheduler;
+import com.tools.fsserver.scheduling.SchedulingLane;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
@@ -12,6 +14,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.stream.Collectors;
 
 /**
  * V1 of the /stats REST API. Exposes information about the server which potential clients may be
@@ -25,12 +28,15 @@ import javax.ws.rs.core.Response;
 public class FSServerStatsResource {
 
   private final String fileUploadSizeLimit;
+  private final RequestScheduler requestScheduler;
 
   @Inject
   public FSServerStatsResource(
       @ConfigProperty(name = "quarkus.http.limits.max-form-attribute-size")
-          String fileUploadSizeLimit) {
+          String fileUploadSizeLimit,
+      RequestScheduler requestScheduler) {
     this.fileUploadSizeLimit = fileUploadSizeLimit;
+    this.requestScheduler = requestScheduler;
   }
 
   @GET
@@ -43,4 +49,22 @@ public class FSServerStatsResource {
   public Response fileUploadSizeLimit() {
     return Response.status(Response.Status.OK).entity(this.fileUploadSizeLimit).build();
   }
+
+  @GET
+  @Path("/lanes")
+  @Produces(MediaType.TEXT_PLAIN)
+  @Operation(
+      summary =
+          "Returns one line per scheduling lane with its occupancy, rejections and latency"
+              + " percentiles")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "Scheduling lane stats returned successfully")
+  })
+  public Response lanes() {
+    String lanes =
+        requestScheduler.getLanes().stream()
+            .map(SchedulingLane::describe)
+            .collect(Collectors.joining("\n"));
+    return Response.status(Response.Status.OK).entity(lanes).build();
+  }
 }
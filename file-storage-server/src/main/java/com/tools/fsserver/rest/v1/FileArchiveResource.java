@@ -0,0 +1,194 @@
+package com.tools.fsserver.rest.v1;
+
+import com.tools.fsserver.archive.ArchiveFormat;
+import com.tools.fsserver.archive.ArchiveIngester;
+import com.tools.fsserver.archive.ArchiveStreamer;
+import com.tools.fsserver.exception.MalformedArchiveException;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+import org.jboss.logging.Logger;
+
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * V1 of the /files:archive REST API, moving many files in one request. Uploads are a tar stream
+ * which is unpacked into storage while it arrives, see ArchiveIngester; the response lists the
+ * outcome of every entry on its own line as STATUS, a tab and the entry name. Downloads select
+ * files by name prefix or by explicit list and stream them back as a zip or tar archive built on
+ * the fly, see ArchiveStreamer
+ */
+@Tag(
+    name = "File Storage Server main REST API",
+    description =
+        "provides operations for uploading, downloading, deleting and listing uploaded files")
+@Path("/v1/files:archive")
+public class FileArchiveResource {
+
+  private static final Logger LOG = Logger.getLogger(FileArchiveResource.class);
+  private static final String APPLICATION_TAR = "application/x-tar";
+  private static final String APPLICATION_GZIP = "application/gzip";
+  private static final String APPLICATION_ZIP = "application/zip";
+  private static final String DOWNLOAD_FILE_NAME = "files";
+  private static final String COMMON_SERVER_ERROR_MESSAGE_SUFFIX = " Please try again";
+
+  private final ArchiveIngester archiveIngester;
+  private final ArchiveStreamer archiveStreamer;
+
+  @Inject
+  public FileArchiveResource(ArchiveIngester archiveIngester, ArchiveStreamer archiveStreamer) {
+    this.archiveIngester = archiveIngester;
+    this.archiveStreamer = archiveStreamer;
+  }
+
+  @POST
+  @Consumes({APPLICATION_TAR, APPLICATION_GZIP, MediaType.APPLICATION_OCTET_STREAM})
+  @Produces(MediaType.TEXT_PLAIN)
+  @Operation(summary = "Uploads every regular file of a tar archive, optionally gzip-compressed")
+  @APIResponses({
+    @APIResponse(
+        responseCode = "200",
+        description = "Archive read completely, the outcome of each entry is listed"),
+    @APIResponse(
+        responseCode = "400",
+        description = "Not a tar archive or truncated. Entries listed before the error are stored"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response uploadArchive(InputStream archive) {
+    LOG.debug("Received request to upload an archive");
+    StringBuilder report = new StringBuilder();
+    try {
+      this.archiveIngester.ingest(
+          archive, result -> report.append(result.toReportLine()).append('\n'));
+    } catch (MalformedArchiveException e) {
+      LOG.debug("Rejected archive upload", e);
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(report.append(e.getMessage()).append('\n').toString())
+          .build();
+    } catch (IOException e) {
+      String errMsg = "An error occurred during archive upload.";
+      LOG.error(errMsg, e);
+      report.append(errMsg).append(COMMON_SERVER_ERROR_MESSAGE_SUFFIX).append('\n');
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+          .entity(report.toString())
+          .build();
+    }
+    return Response.status(Response.Status.OK).entity(report.toString()).build();
+  }
+
+  @GET
+  @Produces({APPLICATION_ZIP, APPLICATION_TAR, MediaType.TEXT_PLAIN})
+  @Operation(summary = "Downloads the files whose name starts with a prefix as one archive")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "Archive of the selected files streamed"),
+    @APIResponse(responseCode = "400", description = "Unsupported archive format"),
+    @APIResponse(responseCode = "404", description = "No uploaded file matches the prefix"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response downloadArchiveByPrefix(
+      @QueryParam("prefix") @DefaultValue("") String prefix,
+      @QueryParam("format") @DefaultValue("zip") String format) {
+    LOG.debug("Received request to download an archive of files starting with " + prefix);
+    try {
+      List<String> fileNames = this.archiveStreamer.selectByPrefix(prefix);
+      if (fileNames.isEmpty()) {
+        return Response.status(Response.Status.NOT_FOUND)
+            .type(MediaType.TEXT_PLAIN)
+            .entity("No uploaded file name starts with " + prefix)
+            .build();
+      }
+      return archiveOf(fileNames, format);
+    } catch (IOException e) {
+      return archiveDownloadError(e);
+    }
+  }
+
+  @POST
+  @Path("/selection")
+  @Consumes(MediaType.TEXT_PLAIN)
+  @Produces({APPLICATION_ZIP, APPLICATION_TAR, MediaType.TEXT_PLAIN})
+  @Operation(summary = "Downloads the files listed one per line in the body as one archive")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "Archive of the listed files streamed"),
+    @APIResponse(responseCode = "400", description = "Empty list or unsupported archive format"),
+    @APIResponse(responseCode = "404", description = "Some listed files are not uploaded"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response downloadArchiveOfSelection(
+      String fileNameList, @QueryParam("format") @DefaultValue("zip") String format) {
+    LOG.debug("Received request to download an archive of selected files");
+    List<String> fileNames =
+        Arrays.stream(fileNameList.split("\\r?\\n"))
+            .filter(fileName -> !fileName.isEmpty())
+            .distinct()
+            .collect(Collectors.toList());
+    if (fileNames.isEmpty()) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .type(MediaType.TEXT_PLAIN)
+          .entity("Request body must list the file names to download, one per line")
+          .build();
+    }
+    try {
+      List<String> missing = this.archiveStreamer.findMissing(fileNames);
+      if (!missing.isEmpty()) {
+        return Response.status(Response.Status.NOT_FOUND)
+            .type(MediaType.TEXT_PLAIN)
+            .entity("Not uploaded on server: " + String.join(",", missing))
+            .build();
+      }
+      return archiveOf(fileNames, format);
+    } catch (IOException e) {
+      return archiveDownloadError(e);
+    }
+  }
+
+  /**
+   * The archive is only written once the response is being sent, straight into the connection, so
+   * nothing but the list of names is held in memory
+   */
+  private Response archiveOf(List<String> fileNames, String format) {
+    ArchiveFormat archiveFormat;
+    try {
+      archiveFormat = ArchiveFormat.fromName(format);
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .type(MediaType.TEXT_PLAIN)
+          .entity("Unsupported archive format " + format + ", use zip or tar")
+          .build();
+    }
+    StreamingOutput archive = out -> this.archiveStreamer.write(fileNames, archiveFormat, out);
+    String downloadFileName = DOWNLOAD_FILE_NAME + archiveFormat.getFileExtension();
+    return Response.status(Response.Status.OK)
+        .type(archiveFormat.getMediaType())
+        .header(
+            HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadFileName + "\"")
+        .entity(archive)
+        .build();
+  }
+
+  private static Response archiveDownloadError(IOException e) {
+    String errMsg = "An error occurred when selecting files for download.";
+    LOG.error(errMsg, e);
+    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+        .type(MediaType.TEXT_PLAIN)
+        .entity(errMsg + COMMON_SERVER_ERROR_MESSAGE_SUFFIX)
+        .build();
+  }
+}
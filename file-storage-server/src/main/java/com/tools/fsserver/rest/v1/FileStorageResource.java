@@ -1,8 +1,17 @@
 package com.tools.fsserver.rest.v1;
 
+import com.tools.fsserver.archive.ArchiveIngester;
 import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
 import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.expiry.FileExpiryReaper;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.FileMetadata;
 import com.tools.fsserver.storage.IStorageService;
+import com.tools.fsserver.tracing.TraceSpan;
+import com.tools.fsserver.tracing.UploadTrace;
+import com.tools.fsserver.tracing.UploadTracingFilter;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.ext.web.RoutingContext;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
@@ -12,9 +21,19 @@ import org.jboss.resteasy.reactive.RestForm;
 
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -27,37 +46,73 @@ import java.util.Set;
  */
 @Tag(
     name = "File Storage Server main REST API",
-    description = "provides operations for uploading, deleting and listing uploaded files")
+    description =
+        "provides operations for uploading, downloading, deleting and listing uploaded files")
 @Path("/v1/files")
 public class FileStorageResource {
 
   private static final Logger LOG = Logger.getLogger(FileStorageResource.class);
   private static final String COMMON_SERVER_ERROR_MESSAGE_SUFFIX = " Please try again";
+  private static final String CONTENT_SHA256_HEADER = "X-Content-SHA256";
+  private static final String UPLOADED_AT_HEADER = "X-Uploaded-At";
+  private static final String UPLOADED_BY_HEADER = "X-Uploaded-By";
+  private static final String TTL_HEADER = "X-TTL";
+  // the detailed listing is a different representation, so it needs its own strong ETag
+  private static final String DETAILED_LISTING_TAG_SUFFIX = "-details";
 
   private final IStorageService storageService;
+  private final FileExpiryReaper expiryReaper;
 
+  /**
+   * @param expiryReaper - deletes files uploaded with a time to live, null where uploads cannot
+   *     be given one
+   */
   @Inject
-  public FileStorageResource(IStorageService storageService) {
+  public FileStorageResource(IStorageService storageService, FileExpiryReaper expiryReaper) {
     this.storageService = storageService;
+    this.expiryReaper = expiryReaper;
   }
 
   @GET
   @Produces(MediaType.TEXT_PLAIN)
-  @Operation(summary = "Returns a list of all uploaded file names")
+  @Operation(
+      summary =
+          "Returns a list of all uploaded file names, or with details=true one line per file: "
+              + "size, SHA-256, upload time (epoch ms), content type, uploader and name, "
+              + "tab-separated")
   @APIResponses({
     @APIResponse(responseCode = "200", description = "Uploaded files found"),
+    @APIResponse(
+        responseCode = "304",
+        description = "Listing unchanged since If-None-Match/If-Modified-Since version"),
     @APIResponse(responseCode = "404", description = "No uploaded files found"),
     @APIResponse(responseCode = "500", description = "Unexpected server error")
   })
-  public Response listFiles() {
+  public Response listFiles(
+      @QueryParam("details") @DefaultValue("false") boolean details, @Context Request request) {
     LOG.debug("Received request to list all uploaded files");
+    // the version is maintained in memory, so revalidation never touches the storage folder
+    ContentVersion listingVersion = this.storageService.getListingVersion();
+    EntityTag entityTag =
+        details
+            ? new EntityTag(listingVersion.getTag() + DETAILED_LISTING_TAG_SUFFIX)
+            : entityTagOf(listingVersion);
+    Date lastModified = lastModifiedOf(listingVersion);
+    Response.ResponseBuilder notModified = request.evaluatePreconditions(lastModified, entityTag);
+    if (notModified != null) {
+      return notModified.tag(entityTag).lastModified(lastModified).build();
+    }
     try {
-      String uploadedFileNamesCsv =
-          convertUploadedFileNamesToCsv(this.storageService.listStoredFiles());
-      return uploadedFileNamesCsv.isEmpty()
+      String listing =
+          details
+              ? convertFileMetadataToLines(this.storageService.listStoredFileMetadata())
+              : convertUploadedFileNamesToCsv(this.storageService.listStoredFiles());
+      return listing.isEmpty()
           ? Response.status(Response.Status.NOT_FOUND).build()
           : Response.status(Response.Status.OK)
-              .entity(this.storageService.listStoredFiles())
+              .entity(listing)
+              .tag(entityTag)
+              .lastModified(lastModified)
               .build();
     } catch (IOException e) {
       String errMsg = "An error occurred when listing uploaded files.";
@@ -72,14 +127,42 @@ public class FileStorageResource {
     return String.join(",", uploadedFileNames);
   }
 
+  private String convertFileMetadataToLines(List<FileMetadata> fileMetadata) {
+    List<FileMetadata> sortedByName = new ArrayList<>(fileMetadata);
+    sortedByName.sort(Comparator.comparing(FileMetadata::getFileName));
+    StringBuilder lines = new StringBuilder();
+    for (FileMetadata metadata : sortedByName) {
+      lines
+          .append(metadata.getSize())
+          .append('\t')
+          .append(metadata.getSha256())
+          .append('\t')
+          .append(metadata.getUploadedAtMillis())
+          .append('\t')
+          .append(metadata.getContentType())
+          .append('\t')
+          .append(metadata.getUploader() == null ? "-" : metadata.getUploader())
+          .append('\t')
+          .append(metadata.getFileName())
+          .append('\n');
+    }
+    return lines.toString();
+  }
+
   @POST
   @Path("{fileName}")
   @Consumes(MediaType.MULTIPART_FORM_DATA)
   @Produces(MediaType.TEXT_PLAIN)
-  @Operation(summary = "Uploads a file to data-server folder")
+  @Operation(
+      summary =
+          "Uploads a file to data-server folder. With a ttl query parameter or X-TTL header "
+              + "(seconds, or a number followed by s, m, h or d) it is deleted once that has passed")
   @APIResponses({
     @APIResponse(responseCode = "200", description = "File uploaded successfully"),
-    @APIResponse(responseCode = "400", description = "Request without a multipart 'payload' body"),
+    @APIResponse(
+        responseCode = "400",
+        description =
+            "Request without a multipart 'payload' body, or with an invalid or unsupported TTL"),
     @APIResponse(responseCode = "409", description = "Attempting to upload a duplicate"),
     @APIResponse(
         responseCode = "413",
@@ -88,15 +171,54 @@ public class FileStorageResource {
   })
   public Response uploadFile(
       @PathParam("fileName") String persistentFileName,
-      @RestForm("payload") java.nio.file.Path pathToTempUploadLocation) {
+      @RestForm("payload") java.nio.file.Path pathToTempUploadLocation,
+      @QueryParam("ttl") String ttlParameter,
+      @HeaderParam(TTL_HEADER) String ttlHeader,
+      @Context RoutingContext routingContext) {
     LOG.debug("Received request to upload file " + persistentFileName);
     if (Objects.isNull(pathToTempUploadLocation)) {
       String errMsg = "Request did not contain a multipart 'payload' body";
       LOG.error(errMsg);
       return Response.status(Response.Status.BAD_REQUEST).entity(errMsg).build();
     }
+    Duration timeToLive = null;
+    String ttl = ttlParameter != null ? ttlParameter : ttlHeader;
+    if (ttl != null) {
+      if (this.expiryReaper == null) {
+        return Response.status(Response.Status.BAD_REQUEST)
+            .entity("Files cannot be given a time to live here")
+            .build();
+      }
+      try {
+        timeToLive = FileExpiryReaper.parseTimeToLive(ttl);
+      } catch (IllegalArgumentException e) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+      }
+    }
+    SocketAddress clientAddress = routingContext.request().remoteAddress();
+    String uploader = clientAddress == null ? null : clientAddress.host();
+    UploadTrace trace = UploadTracingFilter.traceOf(routingContext);
+    if (trace == null) {
+      return storeUpload(persistentFileName, pathToTempUploadLocation, uploader, timeToLive);
+    }
+    recordArrivalPhases(trace, pathToTempUploadLocation);
+    trace.attach();
+    try (TraceSpan storePhase = UploadTrace.startPhase("upload.store")) {
+      storePhase.setAttribute("fsserver.file_name", persistentFileName);
+      return storeUpload(persistentFileName, pathToTempUploadLocation, uploader, timeToLive);
+    } finally {
+      trace.detach();
+    }
+  }
+
+  /** @param timeToLive - how long the file is kept, null to keep it until deleted */
+  private Response storeUpload(
+      String persistentFileName,
+      java.nio.file.Path pathToTempUploadLocation,
+      String uploader,
+      Duration timeToLive) {
     try {
-      this.storageService.storeFile(persistentFileName, pathToTempUploadLocation);
+      this.storageService.storeFile(persistentFileName, pathToTempUploadLocation, uploader);
     } catch (FileNamePresentOnServerException e) {
       return Response.status(Response.Status.CONFLICT)
           .entity(persistentFileName + " already exists on server")
@@ -108,9 +230,230 @@ public class FileStorageResource {
           .entity(errMsg + COMMON_SERVER_ERROR_MESSAGE_SUFFIX)
           .build();
     }
+    if (timeToLive != null) {
+      return expireUpload(persistentFileName, timeToLive);
+    }
     return Response.status(Response.Status.OK).entity("File uploaded successfully").build();
   }
 
+  /**
+   * Sets the time to live of a file just stored. Should that fail, the file is deleted again so
+   * that the client can retry the upload, and only reported as uploaded if it cannot be deleted
+   * either: a stored file is never answered with a failed upload
+   */
+  private Response expireUpload(String persistentFileName, Duration timeToLive) {
+    try {
+      this.expiryReaper.expireAfter(persistentFileName, timeToLive);
+    } catch (FileNameNotPresentOnServerException e) {
+      // deleted again before its expiry could be set, nothing is left to expire
+      LOG.debug(persistentFileName + " was deleted right after upload");
+    } catch (IOException e) {
+      LOG.error("Could not set the time to live of " + persistentFileName, e);
+      try {
+        this.storageService.deleteFile(persistentFileName);
+      } catch (FileNameNotPresentOnServerException alreadyDeleted) {
+        LOG.debug(persistentFileName + " was deleted right after upload");
+      } catch (IOException deleteFailure) {
+        LOG.warn("Keeping " + persistentFileName + " without a time to live", deleteFailure);
+        return Response.status(Response.Status.OK)
+            .entity("File uploaded, but its time to live could not be set")
+            .build();
+      }
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+          .entity(
+              "Could not set the time to live, the upload was discarded."
+                  + COMMON_SERVER_ERROR_MESSAGE_SUFFIX)
+          .build();
+    }
+    return Response.status(Response.Status.OK).entity("File uploaded successfully").build();
+  }
+
+  /**
+   * Splits the time between the arrival of the request headers and this method into receiving the
+   * body (which Quarkus spools to the temp file as it arrives) and waiting for a worker thread. The
+   * split is the last modification of the temp file, so it is as precise as file timestamps are
+   */
+  private static void recordArrivalPhases(
+      UploadTrace trace, java.nio.file.Path pathToTempUploadLocation) {
+    long methodEntry = System.nanoTime();
+    long bodyReceived;
+    long bodySize;
+    try {
+      long spooledAt =
+          trace.toNanoTime(Files.getLastModifiedTime(pathToTempUploadLocation).toMillis());
+      bodyReceived = Math.max(trace.getStartNanoTime(), Math.min(spooledAt, methodEntry));
+      bodySize = Files.size(pathToTempUploadLocation);
+    } catch (IOException e) {
+      trace.recordPhase("upload.receive", trace.getStartNanoTime(), methodEntry);
+      return;
+    }
+    trace
+        .recordPhase("upload.receive", trace.getStartNanoTime(), bodyReceived)
+        .setAttribute(TraceSpan.BYTES, bodySize);
+    trace.recordPhase("upload.dispatch", bodyReceived, methodEntry);
+  }
+
+  @GET
+  @Path("{fileName}")
+  @Produces(MediaType.APPLICATION_OCTET_STREAM)
+  @Operation(summary = "Downloads a previously uploaded file")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "File contents returned successfully"),
+    @APIResponse(
+        responseCode = "304",
+        description = "File unchanged since If-None-Match/If-Modified-Since version"),
+    @APIResponse(responseCode = "404", description = "File not uploaded on server"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response downloadFile(@PathParam("fileName") String fileName, @Context Request request) {
+    LOG.debug("Received request to download file " + fileName);
+    try {
+      ContentVersion fileVersion = this.storageService.getFileVersion(fileName);
+      EntityTag entityTag = entityTagOf(fileVersion);
+      Date lastModified = lastModifiedOf(fileVersion);
+      Response.ResponseBuilder notModified = request.evaluatePreconditions(lastModified, entityTag);
+      if (notModified != null) {
+        return notModified.tag(entityTag).lastModified(lastModified).build();
+      }
+      return Response.status(Response.Status.OK)
+          .entity(this.storageService.retrieveFile(fileName))
+          .tag(entityTag)
+          .lastModified(lastModified)
+          .build();
+    } catch (FileNameNotPresentOnServerException e) {
+      return Response.status(Response.Status.NOT_FOUND)
+          .type(MediaType.TEXT_PLAIN)
+          .entity(fileName + " does not exist on server")
+          .build();
+    } catch (IOException e) {
+      String errMsg = "An error occurred during file download.";
+      LOG.error(errMsg, e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+          .type(MediaType.TEXT_PLAIN)
+          .entity(errMsg + COMMON_SERVER_ERROR_MESSAGE_SUFFIX)
+          .build();
+    }
+  }
+
+  @HEAD
+  @Path("{fileName}")
+  @Operation(
+      summary =
+          "Returns the metadata of a previously uploaded file as headers: size, content type, "
+              + "SHA-256, upload time and uploader")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "File metadata returned successfully"),
+    @APIResponse(
+        responseCode = "304",
+        description = "File unchanged since If-None-Match/If-Modified-Since version"),
+    @APIResponse(responseCode = "404", description = "File not uploaded on server"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response describeFile(@PathParam("fileName") String fileName, @Context Request request) {
+    LOG.debug("Received request to describe file " + fileName);
+    try {
+      FileMetadata metadata = this.storageService.getFileMetadata(fileName);
+      ContentVersion fileVersion = metadata.toContentVersion();
+      EntityTag entityTag = entityTagOf(fileVersion);
+      Date lastModified = lastModifiedOf(fileVersion);
+      Response.ResponseBuilder notModified = request.evaluatePreconditions(lastModified, entityTag);
+      if (notModified != null) {
+        return notModified.tag(entityTag).lastModified(lastModified).build();
+      }
+      Response.ResponseBuilder response =
+          Response.status(Response.Status.OK)
+              .header(HttpHeaders.CONTENT_LENGTH, metadata.getSize())
+              .type(metadata.getContentType())
+              .tag(entityTag)
+              .lastModified(lastModified)
+              .header(CONTENT_SHA256_HEADER, metadata.getSha256())
+              .header(UPLOADED_AT_HEADER, new Date(metadata.getUploadedAtMillis()));
+      if (metadata.getUploader() != null) {
+        response.header(UPLOADED_BY_HEADER, metadata.getUploader());
+      }
+      return response.build();
+    } catch (FileNameNotPresentOnServerException e) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    } catch (IOException e) {
+      LOG.error("An error occurred when describing file " + fileName, e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+    }
+  }
+
+  @POST
+  @Path("{fileName: [^/:]+}:copy")
+  @Produces(MediaType.TEXT_PLAIN)
+  @Operation(
+      summary =
+          "Copies a stored file to the name given by the 'to' query parameter, on the server and "
+              + "without reading its content where the storage allows")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "File copied successfully"),
+    @APIResponse(responseCode = "400", description = "Missing or invalid 'to' query parameter"),
+    @APIResponse(responseCode = "404", description = "File not uploaded on server"),
+    @APIResponse(responseCode = "409", description = "A file of the target name already exists"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response copyFile(
+      @PathParam("fileName") String fileName, @QueryParam("to") String targetFileName) {
+    LOG.debug("Received request to copy file " + fileName + " to " + targetFileName);
+    return relocateFile(fileName, targetFileName, false);
+  }
+
+  @POST
+  @Path("{fileName: [^/:]+}:rename")
+  @Produces(MediaType.TEXT_PLAIN)
+  @Operation(
+      summary =
+          "Renames a stored file to the name given by the 'to' query parameter, atomically where "
+              + "the storage allows")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "File renamed successfully"),
+    @APIResponse(responseCode = "400", description = "Missing or invalid 'to' query parameter"),
+    @APIResponse(responseCode = "404", description = "File not uploaded on server"),
+    @APIResponse(responseCode = "409", description = "A file of the target name already exists"),
+    @APIResponse(responseCode = "500", description = "Unexpected server error")
+  })
+  public Response renameFile(
+      @PathParam("fileName") String fileName, @QueryParam("to") String targetFileName) {
+    LOG.debug("Received request to rename file " + fileName + " to " + targetFileName);
+    return relocateFile(fileName, targetFileName, true);
+  }
+
+  /** @param rename - whether the source name goes, otherwise the file is copied */
+  private Response relocateFile(String fileName, String targetFileName, boolean rename) {
+    // the target arrives as a query parameter, nothing like a path segment keeps it flat
+    if (targetFileName == null || !ArchiveIngester.isValidFileName(targetFileName)) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity("Request did not contain a valid 'to' file name")
+          .build();
+    }
+    try {
+      if (rename) {
+        this.storageService.renameFile(fileName, targetFileName);
+      } else {
+        this.storageService.copyFile(fileName, targetFileName);
+      }
+    } catch (FileNameNotPresentOnServerException e) {
+      return Response.status(Response.Status.NOT_FOUND)
+          .entity(fileName + " does not exist on server")
+          .build();
+    } catch (FileNamePresentOnServerException e) {
+      return Response.status(Response.Status.CONFLICT)
+          .entity(targetFileName + " already exists on server")
+          .build();
+    } catch (IOException e) {
+      String errMsg = "An error occurred during file " + (rename ? "renaming." : "copying.");
+      LOG.error(errMsg, e);
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+          .entity(errMsg + COMMON_SERVER_ERROR_MESSAGE_SUFFIX)
+          .build();
+    }
+    return Response.status(Response.Status.OK)
+        .entity(rename ? "File renamed successfully" : "File copied successfully")
+        .build();
+  }
+
   @DELETE
   @Path("{fileName}")
   @Consumes(MediaType.MULTIPART_FORM_DATA)
@@ -138,4 +481,13 @@ public class FileStorageResource {
     }
     return Response.status(Response.Status.OK).entity("File deleted successfully").build();
   }
+
+  private static EntityTag entityTagOf(ContentVersion contentVersion) {
+    return new EntityTag(contentVersion.getTag());
+  }
+
+  /** HTTP dates have a one second resolution, sub-second parts would defeat If-Modified-Since */
+  private static Date lastModifiedOf(ContentVersion contentVersion) {
+    return new Date(contentVersion.getLastModifiedMillis() / 1000 * 1000);
+  }
 }
@@ -0,0 +1,85 @@
+package com.tools.fsserver.rest.v1;
+
+import com.tools.fsserver.events.StorageEventFeed;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+import org.jboss.logging.Logger;
+
+import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+/**
+ * V1 of the /events REST API: a server-sent event stream of file creations and deletions, meant to
+ * replace polling and diffing the full listing. Every event carries its sequence number as the SSE
+ * id, so standard EventSource clients resume where they left off after a reconnect through the
+ * Last-Event-ID header. Other consumers can checkpoint the sequence themselves and pass it back
+ * through the since query parameter
+ */
+@Tag(
+    name = "File Storage Server change feed",
+    description = "streams creation and deletion events of uploaded files")
+@Path("/v1/events")
+public class StorageEventResource {
+
+  static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+  private static final Logger LOG = Logger.getLogger(StorageEventResource.class);
+
+  private final StorageEventFeed eventFeed;
+
+  @Inject
+  public StorageEventResource(StorageEventFeed eventFeed) {
+    this.eventFeed = eventFeed;
+  }
+
+  @GET
+  @Produces(MediaType.SERVER_SENT_EVENTS)
+  @Operation(
+      summary =
+          "Streams created/deleted events with an increasing sequence number. Without a resume"
+              + " point only events occurring after the connection are sent")
+  @APIResponses({
+    @APIResponse(responseCode = "200", description = "Event stream opened"),
+    @APIResponse(responseCode = "400", description = "Malformed Last-Event-ID or since value")
+  })
+  public void streamEvents(
+      @HeaderParam(LAST_EVENT_ID_HEADER) String lastEventId,
+      @QueryParam("since") String since,
+      @Context SseEventSink eventSink,
+      @Context Sse sse) {
+    long afterSequence;
+    if (lastEventId != null) {
+      afterSequence = parseSequence(LAST_EVENT_ID_HEADER, lastEventId);
+    } else if (since != null) {
+      afterSequence = parseSequence("since", since);
+    } else {
+      afterSequence = this.eventFeed.getLatestSequence();
+    }
+    LOG.debug("Opening storage event stream after sequence " + afterSequence);
+    this.eventFeed.subscribe(afterSequence, eventSink, sse);
+  }
+
+  private static long parseSequence(String source, String value) {
+    try {
+      long sequence = Long.parseLong(value.trim());
+      if (sequence >= 0) {
+        return sequence;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    String errMsg = source + " must be a non-negative event sequence number";
+    LOG.error(errMsg);
+    throw new BadRequestException(errMsg);
+  }
+}
@@ -0,0 +1,51 @@
+package com.tools.fsserver.scheduling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in power-of-two microsecond buckets: 41 counters are enough to
+ * tell a p99 of a millisecond from one of a second, from any number of threads and without ever
+ * allocating. Percentiles are reported as the upper bound of their bucket, so at most twice the
+ * true value
+ */
+public final class LatencyHistogram {
+
+  // bucket i counts latencies of i significant bits in microseconds, the last one all beyond
+  private static final int BUCKETS = 41;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+
+  public void record(long latencyNanos) {
+    long micros = Math.max(0, latencyNanos / 1000);
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    counts.incrementAndGet(bucket);
+    total.incrementAndGet();
+  }
+
+  public long getCount() {
+    return total.get();
+  }
+
+  /**
+   * @param fraction - e.g. 0.99 for the p99
+   * @return the latency in milliseconds which at least that fraction of the recorded ones did not
+   *     exceed, 0 if none were recorded
+   */
+  public double percentileMillis(double fraction) {
+    long count = total.get();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= rank) {
+        return (1L << bucket) / 1000.0;
+      }
+    }
+    return (1L << (BUCKETS - 1)) / 1000.0;
+  }
+}
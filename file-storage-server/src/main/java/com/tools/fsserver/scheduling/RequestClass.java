@@ -0,0 +1,9 @@
+package com.tools.fsserver.scheduling;
+
+/** Scheduling classes of requests, each served by a SchedulingLane of its own */
+public enum RequestClass {
+  /** Listings, metadata operations and transfers of small bodies, expected to take milliseconds */
+  FAST,
+  /** Transfers of large or unknown size, which may take as long as the network and disk need */
+  BULK
+}
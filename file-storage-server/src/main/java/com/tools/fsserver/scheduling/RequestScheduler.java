@@ -0,0 +1,128 @@
+package com.tools.fsserver.scheduling;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Sorts requests to the files API into scheduling classes and holds the lane of each. Listings,
+ * metadata operations, deletes, copies, renames and transfers of at most smallBodyThreshold go to
+ * the fast lane, larger transfers and those of unknown size to the bulk lane. Uploads are sized by
+ * their Content-Length, downloads by the stored file. Keeping the bulk lane narrow has the large
+ * transfers share the disk bandwidth between few streams, in arrival order, while small requests
+ * run beside them rather than queueing behind them
+ */
+@ApplicationScoped
+public class RequestScheduler {
+
+  /**
+   * /v1/files or /v1/buckets/{bucket}/files, then a file name, possibly with an action suffix,
+   * or one of the archive endpoints
+   */
+  static final Pattern FILES_PATH =
+      Pattern.compile("/v1/(?:buckets/([^/]+)/)?files(?:/([^/]+)|(:archive(?:/selection)?))?");
+
+  private static final Logger LOG = Logger.getLogger(RequestScheduler.class);
+
+  private final long smallBodyThreshold;
+  private final SchedulingLane fastLane;
+  private final SchedulingLane bulkLane;
+
+  /**
+   * Both lanes' maxConcurrent together should stay below the worker pool size
+   * (quarkus.thread-pool.max-threads), so that neither lane can take the threads of the other
+   *
+   * @param smallBodyThreshold - largest transfer still served by the fast lane
+   * @param fastMaxConcurrent - fast requests allowed to run at once
+   * @param fastMaxQueued - fast requests allowed to wait for their turn
+   * @param bulkMaxConcurrent - large transfers allowed to run at once
+   * @param bulkMaxQueued - large transfers allowed to wait for their turn
+   */
+  @Inject
+  public RequestScheduler(
+      @ConfigProperty(name = "fsserver.scheduling.smallBodyThreshold", defaultValue = "1M")
+          MemorySize smallBodyThreshold,
+      @ConfigProperty(name = "fsserver.scheduling.fast.maxConcurrent", defaultValue = "32")
+          int fastMaxConcurrent,
+      @ConfigProperty(name = "fsserver.scheduling.fast.maxQueued", defaultValue = "1024")
+          int fastMaxQueued,
+      @ConfigProperty(name = "fsserver.scheduling.bulk.maxConcurrent", defaultValue = "4")
+          int bulkMaxConcurrent,
+      @ConfigProperty(name = "fsserver.scheduling.bulk.maxQueued", defaultValue = "256")
+          int bulkMaxQueued) {
+    this(
+        smallBodyThreshold.asLongValue(),
+        fastMaxConcurrent,
+        fastMaxQueued,
+        bulkMaxConcurrent,
+        bulkMaxQueued,
+        System::nanoTime);
+    LOG.info(
+        "FSServer schedules transfers above "
+            + this.smallBodyThreshold
+            + " bytes in the bulk lane, "
+            + bulkMaxConcurrent
+            + " at a time");
+  }
+
+  RequestScheduler(
+      long smallBodyThreshold,
+      int fastMaxConcurrent,
+      int fastMaxQueued,
+      int bulkMaxConcurrent,
+      int bulkMaxQueued,
+      LongSupplier nanoClock) {
+    this.smallBodyThreshold = smallBodyThreshold;
+    this.fastLane =
+        new SchedulingLane(RequestClass.FAST, fastMaxConcurrent, fastMaxQueued, nanoClock);
+    this.bulkLane =
+        new SchedulingLane(RequestClass.BULK, bulkMaxConcurrent, bulkMaxQueued, nanoClock);
+  }
+
+  /**
+   * @param fileSegment - the path segment after files/, null if there is none
+   * @param archive - whether the request is for one of the archive endpoints
+   * @param declaredLength - the request's Content-Length, -1 if it has none
+   * @return the class of the request, null for a download, whose class is that of the size of
+   *     the stored file, see {@link #classifyBySize(long)}
+   */
+  public RequestClass classify(
+      String method, String fileSegment, boolean archive, long declaredLength) {
+    if (method.equals("POST")) {
+      return isRelocation(fileSegment) ? RequestClass.FAST : classifyBySize(declaredLength);
+    }
+    if (method.equals("GET") && archive) {
+      // streams any number of files
+      return RequestClass.BULK;
+    }
+    if (method.equals("GET") && fileSegment != null) {
+      return null;
+    }
+    return RequestClass.FAST;
+  }
+
+  /** @param bytes - size of the body to transfer, -1 if not known */
+  public RequestClass classifyBySize(long bytes) {
+    return bytes >= 0 && bytes <= smallBodyThreshold ? RequestClass.FAST : RequestClass.BULK;
+  }
+
+  public SchedulingLane laneFor(RequestClass requestClass) {
+    return requestClass == RequestClass.FAST ? fastLane : bulkLane;
+  }
+
+  public List<SchedulingLane> getLanes() {
+    return List.of(fastLane, bulkLane);
+  }
+
+  /** Copies and renames carry no body, and the filesystem backend links or moves in place */
+  private static boolean isRelocation(String fileSegment) {
+    return fileSegment != null
+        && (fileSegment.endsWith(":copy") || fileSegment.endsWith(":rename"));
+  }
+}
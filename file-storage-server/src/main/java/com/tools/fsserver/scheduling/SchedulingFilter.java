@@ -0,0 +1,154 @@
+package com.tools.fsserver.scheduling;
+
+import com.tools.fsserver.bucket.BucketRegistry;
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.storage.IStorageService;
+import io.vertx.core.Context;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+
+/**
+ * Vert.x route filter placed in front of every files API endpoint, after the AdmissionFilter. It
+ * hands each request on to RESTEasy only once the lane of its class has a free slot, so the
+ * requests of one class never hold more worker threads than their lane allows and small requests
+ * do not wait for a worker behind large transfers. Requests waiting for their turn are paused, so
+ * their bodies stay in the client's socket buffers rather than being spooled to disk. The size of
+ * a download is looked up on a worker thread, the event loop must not touch the storage
+ */
+@ApplicationScoped
+public class SchedulingFilter {
+
+  private static final Logger LOG = Logger.getLogger(SchedulingFilter.class);
+  // after admission control, which rejects uploads without queueing them
+  private static final int FILTER_ORDER = -90;
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
+
+  private final RequestScheduler requestScheduler;
+  private final BucketRegistry bucketRegistry;
+  private final long overloadRetryAfterSeconds;
+
+  /** @param overloadRetryAfterSeconds - Retry-After hint sent when a lane's queue is full */
+  @Inject
+  public SchedulingFilter(
+      RequestScheduler requestScheduler,
+      BucketRegistry bucketRegistry,
+      @ConfigProperty(name = "fsserver.admission.overloadRetryAfterSeconds", defaultValue = "1")
+          long overloadRetryAfterSeconds) {
+    this.requestScheduler = requestScheduler;
+    this.bucketRegistry = bucketRegistry;
+    this.overloadRetryAfterSeconds = overloadRetryAfterSeconds;
+  }
+
+  void registerOn(@Observes Router router) {
+    router
+        .routeWithRegex(RequestScheduler.FILES_PATH.pattern())
+        .order(FILTER_ORDER)
+        .handler(this::schedule);
+  }
+
+  void schedule(RoutingContext routingContext) {
+    Matcher path = RequestScheduler.FILES_PATH.matcher(routingContext.normalizedPath());
+    if (!path.matches()) {
+      routingContext.next();
+      return;
+    }
+    String bucketName = path.group(1);
+    String fileSegment = path.group(2);
+    RequestClass requestClass =
+        requestScheduler.classify(
+            routingContext.request().method().name(),
+            fileSegment,
+            path.group(3) != null,
+            declaredLength(routingContext));
+    if (requestClass != null) {
+      enterLane(routingContext, requestClass);
+      return;
+    }
+    routingContext
+        .vertx()
+        .<Long>executeBlocking(
+            promise -> promise.complete(storedSize(bucketName, decode(fileSegment))),
+            false,
+            size ->
+                enterLane(
+                    routingContext,
+                    requestScheduler.classifyBySize(size.succeeded() ? size.result() : -1)));
+  }
+
+  /**
+   * Continues routing once the lane has a slot for the request, on the request's own event loop.
+   * The slot is given back when the response ends or the connection closes, whichever is first
+   */
+  private void enterLane(RoutingContext routingContext, RequestClass requestClass) {
+    SchedulingLane lane = requestScheduler.laneFor(requestClass);
+    Context context = routingContext.vertx().getOrCreateContext();
+    HttpServerRequest request = routingContext.request();
+    request.pause();
+    SchedulingLane.Ticket ticket =
+        lane.enter(
+            () ->
+                context.runOnContext(
+                    ignored -> {
+                      request.resume();
+                      routingContext.next();
+                    }));
+    if (ticket == null) {
+      LOG.debug("Rejected " + routingContext.normalizedPath() + ", its lane is full");
+      routingContext
+          .response()
+          .setStatusCode(503)
+          .putHeader(RETRY_AFTER_HEADER, String.valueOf(overloadRetryAfterSeconds))
+          .putHeader(HttpHeaders.CONTENT_TYPE, "text/plain")
+          // the unread body is abandoned, make sure the connection is not reused mid-stream
+          .putHeader(HttpHeaders.CONNECTION, "close")
+          .end("Too many " + requestClass + " requests are waiting, retry later");
+      return;
+    }
+    routingContext.addEndHandler(ignored -> lane.complete(ticket));
+  }
+
+  /** @return the size of the stored file, 0 if there is none as the answer is then tiny too */
+  private long storedSize(String bucketName, String fileName) {
+    IStorageService storage =
+        bucketRegistry.storageOf(bucketName == null ? BucketRegistry.DEFAULT_BUCKET : bucketName);
+    if (storage == null) {
+      return 0;
+    }
+    try {
+      return storage.getFileSize(fileName);
+    } catch (FileNameNotPresentOnServerException e) {
+      return 0;
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /** Path segments keep '+' literally, unlike the form encoding URLDecoder expects */
+  private static String decode(String pathSegment) {
+    return URLDecoder.decode(pathSegment.replace("+", "%2B"), StandardCharsets.UTF_8);
+  }
+
+  private static long declaredLength(RoutingContext routingContext) {
+    String contentLength = routingContext.request().getHeader(HttpHeaders.CONTENT_LENGTH);
+    if (contentLength == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(contentLength.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
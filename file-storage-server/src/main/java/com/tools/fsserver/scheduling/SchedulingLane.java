@@ -0,0 +1,164 @@
+package com.tools.fsserver.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded lane for the requests of one class: at most maxConcurrent of them run at once, the
+ * following wait in a FIFO queue of at most maxQueued, and any beyond that are rejected. Requests
+ * never borrow capacity from another lane, so a burst in one class only ever queues behind itself.
+ * Records how long requests waited for their turn and how long they took overall
+ */
+public final class SchedulingLane {
+
+  private final RequestClass requestClass;
+  private final int maxConcurrent;
+  private final int maxQueued;
+  private final LongSupplier nanoClock;
+  private final Deque<Ticket> waiting = new ArrayDeque<>();
+  private final LatencyHistogram queueWait = new LatencyHistogram();
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicLong rejected = new AtomicLong();
+  private int running;
+
+  /**
+   * @param maxConcurrent - requests allowed to run at once, at least 1
+   * @param maxQueued - requests allowed to wait for their turn, 0 to reject rather than queue
+   */
+  SchedulingLane(
+      RequestClass requestClass, int maxConcurrent, int maxQueued, LongSupplier nanoClock) {
+    if (maxConcurrent < 1 || maxQueued < 0) {
+      throw new IllegalArgumentException(
+          "The " + requestClass + " lane needs maxConcurrent >= 1 and maxQueued >= 0");
+    }
+    this.requestClass = requestClass;
+    this.maxConcurrent = maxConcurrent;
+    this.maxQueued = maxQueued;
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Starts the request at once if the lane has a free slot, else as soon as the requests queued
+   * ahead of it have started. The start runs on the thread of the enter or complete call which
+   * made room for it, so it must only hand the request on
+   *
+   * @param start - continues processing the request
+   * @return the ticket to complete once the request is done, null if the lane is full and the
+   *     request must be rejected
+   */
+  public Ticket enter(Runnable start) {
+    Ticket ticket = new Ticket(start, nanoClock.getAsLong());
+    synchronized (this) {
+      if (running >= maxConcurrent) {
+        if (waiting.size() >= maxQueued) {
+          rejected.incrementAndGet();
+          return null;
+        }
+        waiting.addLast(ticket);
+        return ticket;
+      }
+      running++;
+      ticket.started = true;
+    }
+    ticket.start();
+    return ticket;
+  }
+
+  /**
+   * Ends the request of the ticket, handing its slot to the longest waiting request. A ticket
+   * still queued, e.g. of a client which disconnected, leaves the queue without ever starting.
+   * Completing a ticket again has no effect
+   */
+  public void complete(Ticket ticket) {
+    if (!ticket.completed.compareAndSet(false, true)) {
+      return;
+    }
+    Ticket next;
+    synchronized (this) {
+      if (!ticket.started) {
+        waiting.remove(ticket);
+        return;
+      }
+      next = waiting.pollFirst();
+      if (next == null) {
+        running--;
+      } else {
+        // the slot passes on, so a next completed before it actually starts still frees it
+        next.started = true;
+      }
+    }
+    latency.record(nanoClock.getAsLong() - ticket.enteredAtNanos);
+    if (next != null) {
+      next.start();
+    }
+  }
+
+  public RequestClass getRequestClass() {
+    return requestClass;
+  }
+
+  public synchronized int getRunning() {
+    return running;
+  }
+
+  public synchronized int getQueued() {
+    return waiting.size();
+  }
+
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /** @return time from entering the lane to starting, of every request started so far */
+  public LatencyHistogram getQueueWait() {
+    return queueWait;
+  }
+
+  /** @return time from entering the lane to completing, of every request completed so far */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /** @return one line of the lane's occupancy and latency percentiles, for the stats API */
+  public String describe() {
+    return String.format(
+        Locale.ROOT,
+        "%s running=%d/%d queued=%d/%d rejected=%d completed=%d"
+            + " p50=%.3fms p99=%.3fms waitP50=%.3fms waitP99=%.3fms",
+        requestClass.name().toLowerCase(Locale.ROOT),
+        getRunning(),
+        maxConcurrent,
+        getQueued(),
+        maxQueued,
+        getRejected(),
+        latency.getCount(),
+        latency.percentileMillis(0.5),
+        latency.percentileMillis(0.99),
+        queueWait.percentileMillis(0.5),
+        queueWait.percentileMillis(0.99));
+  }
+
+  /** A request admitted to the lane, running or waiting for its turn */
+  public final class Ticket {
+
+    private final Runnable start;
+    private final long enteredAtNanos;
+    private final AtomicBoolean completed = new AtomicBoolean();
+    // guarded by the lane, set once the ticket holds a slot
+    private boolean started;
+
+    private Ticket(Runnable start, long enteredAtNanos) {
+      this.start = start;
+      this.enteredAtNanos = enteredAtNanos;
+    }
+
+    private void start() {
+      queueWait.record(nanoClock.getAsLong() - enteredAtNanos);
+      start.run();
+    }
+  }
+}
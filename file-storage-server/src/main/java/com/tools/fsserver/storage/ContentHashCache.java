@@ -0,0 +1,86 @@
+package com.tools.fsserver.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-256 content hashes of stored files, computed once on first request and then served from
+ * memory. Entries are keyed by name and last-modified time, so a file replaced behind the server's
+ * back is re-hashed rather than served with a stale hash
+ */
+public class ContentHashCache {
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final Map<String, CachedHash> hashesByFileName = new ConcurrentHashMap<>();
+
+  /** Supplies the content of a file for hashing */
+  @FunctionalInterface
+  public interface ContentOpener {
+    InputStream open() throws IOException;
+  }
+
+  /**
+   * @param fileName - the stored file name
+   * @param lastModifiedMillis - current modification time of the stored file
+   * @param contentOpener - used to read the file if no hash is cached for this version
+   * @return lowercase hex SHA-256 of the file content
+   */
+  public String hashFor(String fileName, long lastModifiedMillis, ContentOpener contentOpener)
+      throws IOException {
+    CachedHash cached = hashesByFileName.get(fileName);
+    if (cached != null && cached.lastModifiedMillis == lastModifiedMillis) {
+      return cached.hash;
+    }
+    String hash = sha256(contentOpener);
+    hashesByFileName.put(fileName, new CachedHash(hash, lastModifiedMillis));
+    return hash;
+  }
+
+  public void invalidate(String fileName) {
+    hashesByFileName.remove(fileName);
+  }
+
+  /** @return lowercase hex SHA-256 of the content, read once without caching */
+  public static String sha256(ContentOpener contentOpener) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is mandatory on every JVM", e);
+    }
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    try (InputStream in = new DigestInputStream(contentOpener.open(), digest)) {
+      while (in.read(buffer) != -1) {
+        // reading drives the digest
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /** @return the bytes as lowercase hex, as content hashes are given */
+  public static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+      hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+    }
+    return new String(hex);
+  }
+
+  private static final class CachedHash {
+    private final String hash;
+    private final long lastModifiedMillis;
+
+    private CachedHash(String hash, long lastModifiedMillis) {
+      this.hash = hash;
+      this.lastModifiedMillis = lastModifiedMillis;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.tools.fsserver.storage;
+
+/**
+ * Validator pair identifying one version of a stored resource: an opaque tag which changes
+ * whenever the content changes (usable as a strong HTTP ETag), and the time of the last change
+ * (usable as HTTP Last-Modified)
+ */
+public class ContentVersion {
+
+  private final String tag;
+  private final long lastModifiedMillis;
+
+  public ContentVersion(String tag, long lastModifiedMillis) {
+    this.tag = tag;
+    this.lastModifiedMillis = lastModifiedMillis;
+  }
+
+  public String getTag() {
+    return tag;
+  }
+
+  public long getLastModifiedMillis() {
+    return lastModifiedMillis;
+  }
+}
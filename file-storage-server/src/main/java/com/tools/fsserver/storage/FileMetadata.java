@@ -0,0 +1,82 @@
+package com.tools.fsserver.storage;
+
+import java.net.URLConnection;
+
+/**
+ * What the server knows about a stored file besides its content: size, SHA-256 content hash,
+ * content type (guessed from the name), modification time of the stored data, when it was uploaded
+ * and by whom
+ */
+public class FileMetadata {
+
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  private final String fileName;
+  private final long size;
+  private final String sha256;
+  private final String contentType;
+  private final long lastModifiedMillis;
+  private final long uploadedAtMillis;
+  private final String uploader;
+
+  /**
+   * @param lastModifiedMillis - modification time of the stored data, which tells whether this
+   *     metadata still describes it
+   * @param uploader - address of the client which uploaded the file, null if not known
+   */
+  public FileMetadata(
+      String fileName,
+      long size,
+      String sha256,
+      String contentType,
+      long lastModifiedMillis,
+      long uploadedAtMillis,
+      String uploader) {
+    this.fileName = fileName;
+    this.size = size;
+    this.sha256 = sha256;
+    this.contentType = contentType;
+    this.lastModifiedMillis = lastModifiedMillis;
+    this.uploadedAtMillis = uploadedAtMillis;
+    this.uploader = uploader;
+  }
+
+  /** @return the content type matching the file name's extension, a generic binary type if none */
+  public static String guessContentType(String fileName) {
+    String contentType = URLConnection.guessContentTypeFromName(fileName);
+    return contentType == null ? DEFAULT_CONTENT_TYPE : contentType;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public String getSha256() {
+    return sha256;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public long getLastModifiedMillis() {
+    return lastModifiedMillis;
+  }
+
+  public long getUploadedAtMillis() {
+    return uploadedAtMillis;
+  }
+
+  public String getUploader() {
+    return uploader;
+  }
+
+  /** @return the validators of the stored content, as used for ETag and Last-Modified */
+  public ContentVersion toContentVersion() {
+    return new ContentVersion(sha256, lastModifiedMillis);
+  }
+}
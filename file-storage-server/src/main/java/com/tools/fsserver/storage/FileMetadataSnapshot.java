@@ -0,0 +1,199 @@
+package com.tools.fsserver.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary image of the metadata store, written whole and replaced atomically. Reading loads
+ * the file in one read and decodes it in one pass, without a system call per record. It is not
+ * mapped: a mapping stays open until garbage collected, and Windows refuses to replace a mapped
+ * file, which the next compaction does:
+ *
+ * <pre>
+ * magic (8) | generation (8) | storage folder modification time in ns (8) | record count (4)
+ *   | records | CRC32 of everything before (8)
+ * record: size (8) | last modified (8) | uploaded at (8) | sha256, content type, uploader, name
+ * string: UTF-8 length (4, -1 for null) | UTF-8 bytes
+ * </pre>
+ */
+final class FileMetadataSnapshot {
+
+  /** Storage folder time of a snapshot taken while the folder may have been changing */
+  static final long UNKNOWN_FOLDER_TIME = Long.MIN_VALUE;
+
+  private static final byte[] MAGIC = {'F', 'S', 'S', 'M', 'E', 'T', 'A', 1};
+  private static final int HEADER_LENGTH = MAGIC.length + 8 + 8 + 4;
+  private static final int CHECKSUM_LENGTH = 8;
+  private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+  private final long generation;
+  private final long folderTimeNanos;
+  private final List<FileMetadata> records;
+
+  private FileMetadataSnapshot(
+      long generation, long folderTimeNanos, List<FileMetadata> records) {
+    this.generation = generation;
+    this.folderTimeNanos = folderTimeNanos;
+    this.records = records;
+  }
+
+  /**
+   * @return the snapshot held in the file, null if there is none
+   * @throws IOException - if the file is corrupt or cannot be read
+   */
+  static FileMetadataSnapshot read(Path snapshotPath) throws IOException {
+    byte[] content;
+    try {
+      content = Files.readAllBytes(snapshotPath);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    if (content.length < HEADER_LENGTH + CHECKSUM_LENGTH) {
+      throw new IOException("Metadata snapshot " + snapshotPath + " has an invalid length");
+    }
+    return decode(ByteBuffer.wrap(content), snapshotPath);
+  }
+
+  private static FileMetadataSnapshot decode(ByteBuffer buffer, Path snapshotPath)
+      throws IOException {
+    ByteBuffer content = buffer.duplicate();
+    content.limit(buffer.limit() - CHECKSUM_LENGTH);
+    CRC32 crc = new CRC32();
+    crc.update(content.duplicate());
+    if (crc.getValue() != buffer.getLong(buffer.limit() - CHECKSUM_LENGTH)) {
+      throw new IOException("Metadata snapshot " + snapshotPath + " fails its checksum");
+    }
+    byte[] magic = new byte[MAGIC.length];
+    content.get(magic);
+    if (!Arrays.equals(MAGIC, magic)) {
+      throw new IOException(snapshotPath + " is not a metadata snapshot");
+    }
+    long generation = content.getLong();
+    long folderTimeNanos = content.getLong();
+    int count = content.getInt();
+    List<FileMetadata> records = new ArrayList<>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        long size = content.getLong();
+        long lastModifiedMillis = content.getLong();
+        long uploadedAtMillis = content.getLong();
+        String sha256 = getString(content);
+        String contentType = getString(content);
+        String uploader = getString(content);
+        String fileName = getString(content);
+        records.add(
+            new FileMetadata(
+                fileName,
+                size,
+                sha256,
+                contentType,
+                lastModifiedMillis,
+                uploadedAtMillis,
+                uploader));
+      }
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Metadata snapshot " + snapshotPath + " is truncated", e);
+    }
+    return new FileMetadataSnapshot(generation, folderTimeNanos, records);
+  }
+
+  /**
+   * Writes the snapshot to a temporary file next to the target, forces it to disk and moves it
+   * over the target, so that a crash leaves either the previous snapshot or this one
+   */
+  static void write(
+      Path snapshotPath, long generation, long folderTimeNanos, Collection<FileMetadata> records)
+      throws IOException {
+    Path folder = snapshotPath.toAbsolutePath().getParent();
+    Path tempSnapshot = Files.createTempFile(folder, snapshotPath.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream file = Files.newOutputStream(tempSnapshot)) {
+        CRC32 crc = new CRC32();
+        DataOutputStream out =
+            new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(file, WRITE_BUFFER_SIZE), crc));
+        out.write(MAGIC);
+        out.writeLong(generation);
+        out.writeLong(folderTimeNanos);
+        out.writeInt(records.size());
+        for (FileMetadata metadata : records) {
+          out.writeLong(metadata.getSize());
+          out.writeLong(metadata.getLastModifiedMillis());
+          out.writeLong(metadata.getUploadedAtMillis());
+          putString(out, metadata.getSha256());
+          putString(out, metadata.getContentType());
+          putString(out, metadata.getUploader());
+          putString(out, metadata.getFileName());
+        }
+        out.flush();
+        // written past the checked stream, the checksum does not cover itself
+        DataOutputStream trailer = new DataOutputStream(file);
+        trailer.writeLong(crc.getValue());
+        trailer.flush();
+      }
+      try (FileChannel channel = FileChannel.open(tempSnapshot, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(tempSnapshot, snapshotPath, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempSnapshot);
+    }
+  }
+
+  /** @return the generation of the journal whose records follow this snapshot */
+  long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * @return modification time of the storage folder when the snapshot was taken, if it was then
+   *     known to describe the folder exactly, otherwise {@link #UNKNOWN_FOLDER_TIME}
+   */
+  long getFolderTimeNanos() {
+    return folderTimeNanos;
+  }
+
+  List<FileMetadata> getRecords() {
+    return records;
+  }
+
+  private static void putString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > buffer.remaining()) {
+      throw new IllegalArgumentException("String runs past the end of the snapshot");
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,445 @@
+package com.tools.fsserver.storage;
+
+import com.tools.fsserver.storage.encryption.FileEncryption;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded key-value store of the metadata of every file in a storage folder, keyed by file name.
+ * Lookups are served from memory; every change is also appended to a journal file, which is
+ * replayed on startup and rewritten compactly once it holds many more records than there are
+ * files.
+ *
+ * <p>The stored files remain the source of truth: a record is appended only after its file was
+ * written or deleted, and on startup the replayed records are reconciled with the storage folder.
+ * Records of files which are gone are dropped, files without a record, or changed since (size or
+ * modification time), are described afresh. A crash at any point, including one losing the end of
+ * the journal, therefore costs at most the uploader and upload time of the files concerned, never
+ * metadata disagreeing with the data. Journal writes are not fsynced for the same reason.
+ *
+ * <p>Compaction writes the whole store to a binary {@link FileMetadataSnapshot} and starts an
+ * empty journal, whose first line names the snapshot it follows. Startup reads the snapshot and
+ * replays the journal on top of it. When the journal is empty and the storage folder still has the
+ * modification time recorded in the snapshot, no file was created, deleted or renamed in it since,
+ * and the folder scan is skipped: restarting then takes as long as decoding the snapshot, whatever
+ * the number of files. Closing the store takes such a snapshot. Stored files are never modified in
+ * place, which is why the folder time is enough to tell that nothing changed
+ */
+final class FileMetadataStore implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(FileMetadataStore.class);
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final String PUT_RECORD = "PUT";
+  private static final String DELETE_RECORD = "DEL";
+  // first line of a journal, followed by the generation of the snapshot it continues
+  private static final String BASE_RECORD = "BASE";
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+  // folder times this recent may yet be shared by a change within the same timestamp tick
+  private static final long SETTLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  // the journal is compacted once it holds this many records more than twice the number of files
+  private static final int COMPACTION_SLACK = 1024;
+
+  private final Path journalPath;
+  private final Path snapshotPath;
+  private final Path storageFolder;
+  // null when stored files are never encrypted
+  private final FileEncryption encryption;
+  private final Map<String, FileMetadata> metadataByFileName = new ConcurrentHashMap<>();
+  private FileChannel journal;
+  private long journalOffset;
+  private long journalRecords;
+  private long generation;
+  // whether the last snapshot taken or loaded describes the storage folder exactly
+  private boolean snapshotMatchesFolder;
+
+  /**
+   * Loads the snapshot and the journal. Unless they are known to describe the storage folder as it
+   * is, reconciles them with it and compacts them
+   *
+   * @param journalPath - file holding the journal, created with its parent folders if not already
+   *     existing. It must not be inside the storage folder
+   * @param storageFolder - the folder holding the stored files, one per name
+   * @throws IOException - if the storage folder cannot be read or the journal cannot be written
+   */
+  FileMetadataStore(Path journalPath, Path storageFolder) throws IOException {
+    this(journalPath, storageFolder, null);
+  }
+
+  /**
+   * @param encryption - reads stored files which may be encrypted, whose recorded size is that of
+   *     their content rather than of the file. Null if files are stored as they are
+   */
+  FileMetadataStore(Path journalPath, Path storageFolder, FileEncryption encryption)
+      throws IOException {
+    this.journalPath = journalPath;
+    this.snapshotPath = journalPath.resolveSibling(journalPath.getFileName() + SNAPSHOT_SUFFIX);
+    this.storageFolder = storageFolder;
+    this.encryption = encryption;
+    if (journalPath.toAbsolutePath().getParent() != null) {
+      Files.createDirectories(journalPath.toAbsolutePath().getParent());
+    }
+    FileMetadataSnapshot snapshot = loadSnapshot();
+    long tailRecords = replay(snapshot);
+    if (snapshot != null
+        && tailRecords == 0
+        && snapshot.getFolderTimeNanos() != FileMetadataSnapshot.UNKNOWN_FOLDER_TIME
+        && snapshot.getFolderTimeNanos() == folderTimeNanos()) {
+      LOG.info("Storage folder unchanged since the metadata snapshot, skipping its scan");
+      snapshotMatchesFolder = true;
+      startJournal();
+    } else {
+      // read before the scan, a change made during it must not be vouched for
+      long folderTime = settledFolderTime(false);
+      reconcile(storageFolder);
+      compact(folderTime);
+    }
+    LOG.info(
+        "File metadata store at "
+            + journalPath.toAbsolutePath()
+            + " describes "
+            + metadataByFileName.size()
+            + " files");
+  }
+
+  /**
+   * Reads the stored file and describes it
+   *
+   * @param uploadedAtMillis - when the file was uploaded
+   * @param uploader - address of the client which uploaded it, null if not known
+   * @throws IOException - if the file cannot be read
+   */
+  static FileMetadata describe(
+      String fileName, Path storedFile, long uploadedAtMillis, String uploader)
+      throws IOException {
+    String sha256 = ContentHashCache.sha256(() -> Files.newInputStream(storedFile));
+    return describe(fileName, storedFile, sha256, uploadedAtMillis, uploader);
+  }
+
+  /**
+   * Describes a stored file whose content hash is already known, e.g. computed from the upload
+   *
+   * @throws IOException - if the file attributes cannot be read
+   */
+  static FileMetadata describe(
+      String fileName, Path storedFile, String sha256, long uploadedAtMillis, String uploader)
+      throws IOException {
+    return describe(
+        fileName, storedFile, Files.size(storedFile), sha256, uploadedAtMillis, uploader);
+  }
+
+  /**
+   * Describes a stored file whose content differs in size from the file, e.g. once encrypted
+   *
+   * @param size - length of the file content
+   * @throws IOException - if the file attributes cannot be read
+   */
+  static FileMetadata describe(
+      String fileName,
+      Path storedFile,
+      long size,
+      String sha256,
+      long uploadedAtMillis,
+      String uploader)
+      throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(storedFile, BasicFileAttributes.class);
+    return new FileMetadata(
+        fileName,
+        size,
+        sha256,
+        FileMetadata.guessContentType(fileName),
+        attributes.lastModifiedTime().toMillis(),
+        uploadedAtMillis,
+        uploader);
+  }
+
+  /** @return the metadata of the file, null if no such file is stored */
+  FileMetadata get(String fileName) {
+    return metadataByFileName.get(fileName);
+  }
+
+  /** @return the metadata of every stored file, in no particular order */
+  List<FileMetadata> getAll() {
+    return new ArrayList<>(metadataByFileName.values());
+  }
+
+  /** Records a file which has just been written to the storage folder */
+  synchronized void put(FileMetadata metadata) {
+    metadataByFileName.put(metadata.getFileName(), metadata);
+    appendToJournal(putRecord(metadata));
+  }
+
+  /** Records a file which has just been deleted from the storage folder */
+  synchronized void remove(String fileName) {
+    if (metadataByFileName.remove(fileName) != null) {
+      appendToJournal(DELETE_RECORD + FIELD_SEPARATOR + encode(fileName));
+    }
+  }
+
+  /**
+   * Takes a snapshot describing the storage folder, unless the last one still does, so that the
+   * next start skips the folder scan. Waits for the folder time to settle for up to a fraction of a
+   * second. Nothing may be written to the folder or recorded from then on
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (journalRecords > 0 || !snapshotMatchesFolder) {
+        compact(settledFolderTime(true));
+      }
+    } finally {
+      journal.close();
+    }
+  }
+
+  /**
+   * A failed append is only logged: the change itself took effect on the stored files, and the
+   * startup reconciliation describes them afresh
+   */
+  private void appendToJournal(String record) {
+    ByteBuffer line = ByteBuffer.wrap((record + '\n').getBytes(StandardCharsets.UTF_8));
+    int length = line.remaining();
+    try {
+      while (line.hasRemaining()) {
+        journal.write(line);
+      }
+      journalOffset += length;
+      journalRecords++;
+      if (journalRecords > 2L * metadataByFileName.size() + COMPACTION_SLACK) {
+        // files may be being written meanwhile, only a later close can vouch for the folder
+        compact(FileMetadataSnapshot.UNKNOWN_FOLDER_TIME);
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not record a metadata change in " + journalPath, e);
+      try {
+        // cut off whatever part of the line made it, so the next append starts on a clean line
+        journal.truncate(journalOffset);
+        journal.position(journalOffset);
+      } catch (IOException truncateFailure) {
+        LOG.warn("Could not truncate metadata journal " + journalPath, truncateFailure);
+      }
+    }
+  }
+
+  /** @return the snapshot, null if there is none or it cannot be used */
+  private FileMetadataSnapshot loadSnapshot() {
+    try {
+      FileMetadataSnapshot snapshot = FileMetadataSnapshot.read(snapshotPath);
+      if (snapshot != null) {
+        generation = snapshot.getGeneration();
+        for (FileMetadata metadata : snapshot.getRecords()) {
+          metadataByFileName.put(metadata.getFileName(), metadata);
+        }
+      }
+      return snapshot;
+    } catch (IOException e) {
+      // the journal and the stored files are enough to rebuild it
+      LOG.warn("Ignoring unreadable metadata snapshot " + snapshotPath, e);
+      return null;
+    }
+  }
+
+  /**
+   * @param snapshot - the snapshot loaded, null if none. A journal following another snapshot
+   *     predates it, as a crash between replacing the snapshot and the journal leaves, and is
+   *     skipped. Without a usable snapshot every journal is replayed
+   * @return the number of records replayed, malformed ones included
+   */
+  private long replay(FileMetadataSnapshot snapshot) throws IOException {
+    long records = 0;
+    try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (line != null && line.startsWith(BASE_RECORD + FIELD_SEPARATOR)) {
+        if (snapshot != null && !line.equals(baseRecord(snapshot.getGeneration()))) {
+          LOG.info("Skipping metadata journal " + journalPath + ", it predates the snapshot");
+          return 0;
+        }
+        line = reader.readLine();
+      }
+      for (; line != null; line = reader.readLine()) {
+        records++;
+        try {
+          applyRecord(line);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+          // e.g. the unterminated last line left by a crash, reconciliation makes up for it
+          LOG.warn("Skipping malformed record in metadata journal " + journalPath + ": " + line);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // first start
+    }
+    return records;
+  }
+
+  private void applyRecord(String line) {
+    String[] fields = line.split(FIELD_SEPARATOR, -1);
+    if (DELETE_RECORD.equals(fields[0]) && fields.length == 2) {
+      metadataByFileName.remove(decode(fields[1]));
+    } else if (PUT_RECORD.equals(fields[0]) && fields.length == 8) {
+      String uploader = decode(fields[6]);
+      FileMetadata metadata =
+          new FileMetadata(
+              decode(fields[7]),
+              Long.parseLong(fields[1]),
+              fields[4],
+              decode(fields[5]),
+              Long.parseLong(fields[2]),
+              Long.parseLong(fields[3]),
+              uploader.isEmpty() ? null : uploader);
+      metadataByFileName.put(metadata.getFileName(), metadata);
+    } else {
+      throw new IllegalArgumentException("Unknown record");
+    }
+  }
+
+  private void reconcile(Path storageFolder) throws IOException {
+    Map<String, FileMetadata> unmatched = new HashMap<>(metadataByFileName);
+    try (DirectoryStream<Path> storedFiles = Files.newDirectoryStream(storageFolder)) {
+      for (Path storedFile : storedFiles) {
+        BasicFileAttributes attributes =
+            Files.readAttributes(storedFile, BasicFileAttributes.class);
+        if (attributes.isDirectory()) {
+          continue;
+        }
+        String fileName = storedFile.getFileName().toString();
+        FileMetadata recorded = unmatched.remove(fileName);
+        if (recorded != null
+            && matchesSize(recorded, attributes.size())
+            && recorded.getLastModifiedMillis() == attributes.lastModifiedTime().toMillis()) {
+          continue;
+        }
+        LOG.info("Describing stored file " + fileName + ", its journal record is missing or stale");
+        long uploadedAtMillis = attributes.lastModifiedTime().toMillis();
+        metadataByFileName.put(fileName, describeAfresh(fileName, storedFile, uploadedAtMillis));
+      }
+    }
+    for (String vanishedFileName : unmatched.keySet()) {
+      LOG.info("Dropping metadata of " + vanishedFileName + ", no longer stored");
+      metadataByFileName.remove(vanishedFileName);
+    }
+  }
+
+  /** Records hold the content size, which an encrypted file exceeds by a known overhead */
+  private boolean matchesSize(FileMetadata recorded, long storedSize) {
+    return recorded.getSize() == storedSize
+        || (encryption != null && encryption.encryptedSize(recorded.getSize()) == storedSize);
+  }
+
+  private FileMetadata describeAfresh(String fileName, Path storedFile, long uploadedAtMillis)
+      throws IOException {
+    if (encryption == null) {
+      return describe(fileName, storedFile, uploadedAtMillis, null);
+    }
+    String sha256 = ContentHashCache.sha256(() -> encryption.open(storedFile));
+    long size = encryption.contentSize(storedFile);
+    return describe(fileName, storedFile, size, sha256, uploadedAtMillis, null);
+  }
+
+  /**
+   * Writes every record to a new snapshot and starts an empty journal following it
+   *
+   * @param folderTimeNanos - modification time of the storage folder the records describe exactly,
+   *     or UNKNOWN_FOLDER_TIME
+   */
+  private void compact(long folderTimeNanos) throws IOException {
+    FileMetadataSnapshot.write(
+        snapshotPath, generation + 1, folderTimeNanos, metadataByFileName.values());
+    generation++;
+    snapshotMatchesFolder = folderTimeNanos != FileMetadataSnapshot.UNKNOWN_FOLDER_TIME;
+    startJournal();
+  }
+
+  /** Replaces the journal with one holding only its base record, and opens it for appending */
+  private void startJournal() throws IOException {
+    Path folder = journalPath.toAbsolutePath().getParent();
+    Path tempJournal = Files.createTempFile(folder, journalPath.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tempJournal, (baseRecord(generation) + '\n').getBytes(StandardCharsets.UTF_8));
+      Files.move(tempJournal, journalPath, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempJournal);
+    }
+    if (journal != null) {
+      journal.close();
+    }
+    journal = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    journalOffset = journal.size();
+    journalRecords = 0;
+  }
+
+  private long folderTimeNanos() throws IOException {
+    return Files.getLastModifiedTime(storageFolder).to(TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Folder times are only as fine as the file system clock tick: a change within the same tick as
+   * the last one would leave the time unchanged. A time is therefore only trusted once older than
+   * SETTLE_NANOS, as git does with its index
+   *
+   * @param wait - whether to wait for a recent time to settle rather than give up on it
+   * @return the modification time of the storage folder, or UNKNOWN_FOLDER_TIME if it is too recent
+   */
+  private long settledFolderTime(boolean wait) throws IOException {
+    long folderTime = folderTimeNanos();
+    long age = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - folderTime;
+    if (age >= SETTLE_NANOS) {
+      return folderTime;
+    }
+    if (!wait) {
+      return FileMetadataSnapshot.UNKNOWN_FOLDER_TIME;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(SETTLE_NANOS - age);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return FileMetadataSnapshot.UNKNOWN_FOLDER_TIME;
+    }
+    return folderTimeNanos() == folderTime ? folderTime : FileMetadataSnapshot.UNKNOWN_FOLDER_TIME;
+  }
+
+  private static String baseRecord(long generation) {
+    return BASE_RECORD + FIELD_SEPARATOR + generation;
+  }
+
+  private static String putRecord(FileMetadata metadata) {
+    return String.join(
+        FIELD_SEPARATOR,
+        PUT_RECORD,
+        Long.toString(metadata.getSize()),
+        Long.toString(metadata.getLastModifiedMillis()),
+        Long.toString(metadata.getUploadedAtMillis()),
+        metadata.getSha256(),
+        encode(metadata.getContentType()),
+        encode(metadata.getUploader() == null ? "" : metadata.getUploader()),
+        encode(metadata.getFileName()));
+  }
+
+  /** Names are URL-encoded so that no name can break the one-record-per-line framing */
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+}
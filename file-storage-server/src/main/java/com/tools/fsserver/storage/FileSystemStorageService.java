@@ -2,43 +2,121 @@ package com.tools.fsserver.storage;
 
 import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
 import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.encryption.FileEncryption;
+import com.tools.fsserver.tracing.TraceSpan;
+import com.tools.fsserver.tracing.UploadTrace;
+import io.quarkus.arc.DefaultBean;
 import io.quarkus.runtime.Startup;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Default storage backend keeping every uploaded file in a single local folder, as-is or encrypted
+ * (see FileEncryption). Other backends are selected at build time through the
+ * fsserver.storage.backend property
+ */
 @Startup
+@DefaultBean
 @ApplicationScoped
 public class FileSystemStorageService implements IStorageService {
 
   private static final Logger LOG = Logger.getLogger(FileSystemStorageService.class);
+  // hidden folder inside the storage folder where uploads are written before being moved into
+  // place, on the same file system so the move is atomic. Listings skip folders
+  static final String INCOMING_FOLDER = ".incoming";
   private final Path permanentStoragePath;
+  private final Path incomingPath;
+  private final StripedLocks fileNameLocks = new StripedLocks();
+  private final StorageVersionTracker versionTracker = new StorageVersionTracker();
+  private final ContentHashCache contentHashes = new ContentHashCache();
+  private final StorageChangeListener changeListener;
+  // null when running without a metadata store, file details are then read from the folder
+  private final FileMetadataStore metadataStore;
+  // null to copy every file with Files.copy
+  private final LargeFileWriter largeFileWriter;
+  // null to store and read every file as it is
+  private final FileEncryption fileEncryption;
+  // stores and deletes under way, the metadata store may only be closed once there are none
+  private final AtomicInteger writesInFlight = new AtomicInteger();
+  private volatile boolean closed;
+
+  public FileSystemStorageService(String permanentStoragePath) throws IOException {
+    this(permanentStoragePath, StorageChangeListener.NONE);
+  }
+
+  public FileSystemStorageService(
+      String permanentStoragePath, StorageChangeListener changeListener) throws IOException {
+    this(permanentStoragePath, null, changeListener);
+  }
+
+  public FileSystemStorageService(
+      String permanentStoragePath,
+      String metadataJournalPath,
+      StorageChangeListener changeListener)
+      throws IOException {
+    this(permanentStoragePath, metadataJournalPath, changeListener, null, null);
+  }
 
   /**
    * @param permanentStoragePath - Relative path to the folder containing all uploaded files. It is
    *     read from the application.properties file, particularly from the fsserver.uploadedFilesPath
    *     property. At server startup this folder is created if not already existing
+   * @param metadataJournalPath - journal of the metadata store which serves file details, sizes
+   *     and listings from memory, read from the fsserver.metadata.journalPath property. Null to run
+   *     without a metadata store
+   * @param changeListener - notified of every successful store and delete
+   * @param largeFileWriter - writes uploaded files into the storage folder, null to use Files.copy
+   * @param fileEncryption - encrypts uploaded files when enabled, instead of the writer above, and
+   *     decrypts encrypted files when read. Null to store and read every file as it is
    * @throws IOException - if any I/O issues when checking existence of storage path or when
-   *     creating it
+   *     creating it, or when loading the metadata store
    */
   @Inject
   public FileSystemStorageService(
-      @ConfigProperty(name = "fsserver.uploadedFilesPath") String permanentStoragePath)
+      @ConfigProperty(name = "fsserver.uploadedFilesPath") String permanentStoragePath,
+      @ConfigProperty(name = "fsserver.metadata.journalPath") String metadataJournalPath,
+      StorageChangeListener changeListener,
+      LargeFileWriter largeFileWriter,
+      FileEncryption fileEncryption)
       throws IOException {
+    this.changeListener = changeListener;
+    this.largeFileWriter = largeFileWriter;
+    this.fileEncryption = fileEncryption;
     Path pathToStorage = Paths.get(permanentStoragePath);
     this.permanentStoragePath =
         Files.notExists(pathToStorage) ? Files.createDirectories(pathToStorage) : pathToStorage;
     LOG.info("FSServer permanent storage path is at " + this.permanentStoragePath.toAbsolutePath());
+    this.incomingPath = this.permanentStoragePath.resolve(INCOMING_FOLDER);
+    Files.createDirectories(this.incomingPath);
+    removeUnfinishedWrites(this.incomingPath);
+    this.metadataStore =
+        metadataJournalPath == null
+            ? null
+            : new FileMetadataStore(
+                Paths.get(metadataJournalPath), this.permanentStoragePath, fileEncryption);
   }
 
   /**
@@ -46,6 +124,11 @@ public class FileSystemStorageService implements IStorageService {
    * @throws IOException If any I/O issue occurs
    */
   public Set<String> listStoredFiles() throws IOException {
+    if (this.metadataStore != null) {
+      return this.metadataStore.getAll().stream()
+          .map(FileMetadata::getFileName)
+          .collect(Collectors.toSet());
+    }
     try (Stream<Path> stream = Files.list(this.permanentStoragePath)) {
       Set<String> uploadedFileNames =
           stream
@@ -59,6 +142,10 @@ public class FileSystemStorageService implements IStorageService {
   }
 
   /**
+   * Uploads and deletions of the same file name are serialised through a per-name lock stripe, so a
+   * delete never observes a half-copied file and two parallel uploads of one name resolve to
+   * exactly one success and one conflict. Different names proceed in parallel
+   *
    * @param fileName - the final name of the uploaded file
    * @param uploadSourcePath - the full path to the temp location where the multipart file has been
    *     uploaded. It is usually uploaded under a quarkus-generated filename in the temp folder, so
@@ -68,6 +155,27 @@ public class FileSystemStorageService implements IStorageService {
    */
   public void storeFile(String fileName, Path uploadSourcePath)
       throws FileNamePresentOnServerException, IOException {
+    storeFile(fileName, uploadSourcePath, null);
+  }
+
+  /**
+   * Same as {@link #storeFile(String, Path)}, also recording who uploaded the file. With a metadata
+   * store the upload is hashed before the name is locked, and the file's metadata is recorded
+   * under the lock, so lookups never see a stored file without its metadata. Hashing, waiting for
+   * the lock, copying and recording metadata are traced as phases of the upload being served
+   *
+   * @param uploader - address of the client which uploaded the file, null if not known
+   */
+  @Override
+  public void storeFile(String fileName, Path uploadSourcePath, String uploader)
+      throws FileNamePresentOnServerException, IOException {
+    String sha256 = null;
+    if (this.metadataStore != null) {
+      try (TraceSpan hashPhase = UploadTrace.startPhase("storage.hash")) {
+        sha256 = ContentHashCache.sha256(() -> Files.newInputStream(uploadSourcePath));
+      }
+    }
+    long uploadedAtMillis = System.currentTimeMillis();
     java.nio.file.Path destinationPath = Paths.get(this.permanentStoragePath.toString(), fileName);
     LOG.debug(
         "Copying file from source path "
@@ -75,16 +183,90 @@ public class FileSystemStorageService implements IStorageService {
             + " to destination path "
             + destinationPath.toAbsolutePath());
     Path uploadedFinalPath;
+    beginWrite();
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    try (TraceSpan lockPhase = UploadTrace.startPhase("storage.lock_wait")) {
+      fileNameLock.lock();
+    }
     try {
-      uploadedFinalPath = Files.copy(uploadSourcePath, destinationPath);
+      try (TraceSpan copyPhase = UploadTrace.startPhase("storage.copy")) {
+        uploadedFinalPath = copyIntoStorage(uploadSourcePath, destinationPath);
+        if (copyPhase.isRecording()) {
+          copyPhase.setAttribute(TraceSpan.BYTES, Files.size(uploadedFinalPath));
+        }
+      }
+      if (this.metadataStore != null) {
+        try (TraceSpan metadataPhase = UploadTrace.startPhase("storage.metadata")) {
+          this.metadataStore.put(
+              FileMetadataStore.describe(
+                  fileName,
+                  destinationPath,
+                  Files.size(uploadSourcePath),
+                  sha256,
+                  uploadedAtMillis,
+                  uploader));
+        }
+      }
+      this.changeListener.onStorageChange(StorageChangeType.CREATED, fileName);
     } catch (FileAlreadyExistsException faex) {
       String errMsg = "There already exists a file called " + destinationPath.getFileName();
       LOG.error(errMsg);
       throw new FileNamePresentOnServerException(errMsg);
+    } catch (IOException e) {
+      // the copy never leaves a partial file under the name, but recording its metadata may fail
+      // after the move
+      Files.deleteIfExists(destinationPath);
+      throw e;
+    } finally {
+      fileNameLock.unlock();
+      endWrite();
     }
+    this.contentHashes.invalidate(fileName);
+    this.versionTracker.bump();
     LOG.debug("Uploaded file at path " + uploadedFinalPath.toAbsolutePath());
   }
 
+  /**
+   * Writes the upload into a temp file of the incoming folder, forces it to disk and only then
+   * moves it under its final name, so after a crash the name holds either the whole file or
+   * nothing. The caller holds the name's lock, so nothing can store the name between the check
+   * and the move
+   *
+   * @return the stored file
+   * @throws FileAlreadyExistsException - if there already is a file of the destination name
+   */
+  private Path copyIntoStorage(Path uploadSourcePath, Path destinationPath) throws IOException {
+    if (Files.exists(destinationPath)) {
+      throw new FileAlreadyExistsException(destinationPath.toString());
+    }
+    Path tempPath = this.incomingPath.resolve(UUID.randomUUID() + ".part");
+    try {
+      if (this.fileEncryption != null && this.fileEncryption.isEnabled()) {
+        this.fileEncryption.encrypt(uploadSourcePath, tempPath);
+      } else if (this.largeFileWriter == null) {
+        Files.copy(uploadSourcePath, tempPath);
+      } else {
+        this.largeFileWriter.copy(uploadSourcePath, tempPath);
+      }
+      try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      return Files.move(tempPath, destinationPath, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  /** Deletes the temp files of writes cut short by a crash, they never got a name */
+  private static void removeUnfinishedWrites(Path incomingPath) throws IOException {
+    try (Stream<Path> stream = Files.list(incomingPath)) {
+      for (Path unfinished : (Iterable<Path>) stream::iterator) {
+        LOG.info("Removing unfinished upload " + unfinished);
+        Files.deleteIfExists(unfinished);
+      }
+    }
+  }
+
   /**
    * @param fileNameToDelete - the name of the previously-uploaded file which we want to delete.
    *     This parameter should not be a path, just a file name
@@ -97,8 +279,25 @@ public class FileSystemStorageService implements IStorageService {
     java.nio.file.Path pathToFile =
         Paths.get(this.permanentStoragePath.toString(), fileNameToDelete);
     LOG.debug("Attempting to delete uploaded file at location " + pathToFile);
-    boolean deleted = Files.deleteIfExists(pathToFile);
+    boolean deleted;
+    beginWrite();
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileNameToDelete);
+    fileNameLock.lock();
+    try {
+      deleted = Files.deleteIfExists(pathToFile);
+      if (deleted && this.metadataStore != null) {
+        this.metadataStore.remove(fileNameToDelete);
+      }
+      if (deleted) {
+        this.changeListener.onStorageChange(StorageChangeType.DELETED, fileNameToDelete);
+      }
+    } finally {
+      fileNameLock.unlock();
+      endWrite();
+    }
     if (deleted) {
+      this.contentHashes.invalidate(fileNameToDelete);
+      this.versionTracker.bump();
       LOG.debug("Successfully deleted file at location " + pathToFile);
     } else {
       String errMsg = "There is no already uploaded file called " + fileNameToDelete;
@@ -106,4 +305,342 @@ public class FileSystemStorageService implements IStorageService {
       throw new FileNameNotPresentOnServerException(errMsg);
     }
   }
+
+  /**
+   * Checks the condition and deletes under the name's lock, so the file cannot be deleted and
+   * stored again in between. The lock is reentrant, deleteFile takes it again inside
+   */
+  @Override
+  public boolean deleteFileIf(String fileName, Predicate<FileMetadata> condition)
+      throws FileNameNotPresentOnServerException, IOException {
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    fileNameLock.lock();
+    try {
+      return IStorageService.super.deleteFileIf(fileName, condition);
+    } finally {
+      fileNameLock.unlock();
+    }
+  }
+
+  /**
+   * Copies a stored file without its bytes passing through the JVM. The copy is a hard link to the
+   * same data, which takes the same time whatever the size; only where the file system has no
+   * hard links are the bytes copied, in the kernel (FileChannel.transferTo). Stored files are
+   * never modified in place, so two names can share their data. Both names are locked, so the
+   * source cannot be deleted nor the target stored while copying
+   *
+   * @throws FileNameNotPresentOnServerException - if there is no file of the source name
+   * @throws FileNamePresentOnServerException - if there already is a file of the target name
+   * @throws IOException - if any I/O issue occurs
+   */
+  @Override
+  public void copyFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    Path sourcePath = Paths.get(this.permanentStoragePath.toString(), sourceFileName);
+    Path targetPath = Paths.get(this.permanentStoragePath.toString(), targetFileName);
+    LOG.debug("Copying stored file " + sourcePath + " to " + targetPath);
+    beginWrite();
+    Lock[] locks = this.fileNameLocks.locksFor(sourceFileName, targetFileName);
+    lockAll(locks);
+    try {
+      FileMetadata sourceMetadata = sourceMetadataOf(sourceFileName);
+      try {
+        linkOrCopy(sourcePath, targetPath);
+      } catch (NoSuchFileException e) {
+        throw fileNotPresent(sourceFileName);
+      } catch (FileAlreadyExistsException e) {
+        throw fileAlreadyPresent(targetFileName);
+      }
+      try {
+        if (this.metadataStore != null) {
+          this.metadataStore.put(
+              FileMetadataStore.describe(
+                  targetFileName,
+                  targetPath,
+                  sourceMetadata.getSize(),
+                  sourceMetadata.getSha256(),
+                  System.currentTimeMillis(),
+                  sourceMetadata.getUploader()));
+        }
+      } catch (IOException e) {
+        Files.deleteIfExists(targetPath);
+        throw e;
+      }
+      this.changeListener.onStorageChange(StorageChangeType.CREATED, targetFileName);
+    } finally {
+      unlockAll(locks);
+      endWrite();
+    }
+    this.contentHashes.invalidate(targetFileName);
+    this.versionTracker.bump();
+  }
+
+  /**
+   * Renames a stored file with an atomic move within the storage folder, so readers see the file
+   * under exactly one of its names at any time and its data is not touched. The file keeps its
+   * upload time and uploader
+   *
+   * @throws FileNameNotPresentOnServerException - if there is no file of the source name
+   * @throws FileNamePresentOnServerException - if there already is a file of the target name
+   * @throws IOException - if any I/O issue occurs
+   */
+  @Override
+  public void renameFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    Path sourcePath = Paths.get(this.permanentStoragePath.toString(), sourceFileName);
+    Path targetPath = Paths.get(this.permanentStoragePath.toString(), targetFileName);
+    LOG.debug("Renaming stored file " + sourcePath + " to " + targetPath);
+    beginWrite();
+    Lock[] locks = this.fileNameLocks.locksFor(sourceFileName, targetFileName);
+    lockAll(locks);
+    try {
+      FileMetadata sourceMetadata = sourceMetadataOf(sourceFileName);
+      // an atomic move replaces an existing target, but with both names locked nothing can
+      // store the target between this check and the move
+      if (Files.exists(targetPath)) {
+        throw fileAlreadyPresent(targetFileName);
+      }
+      try {
+        Files.move(sourcePath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+      } catch (NoSuchFileException e) {
+        throw fileNotPresent(sourceFileName);
+      }
+      if (this.metadataStore != null) {
+        this.metadataStore.remove(sourceFileName);
+        this.metadataStore.put(
+            FileMetadataStore.describe(
+                targetFileName,
+                targetPath,
+                sourceMetadata.getSize(),
+                sourceMetadata.getSha256(),
+                sourceMetadata.getUploadedAtMillis(),
+                sourceMetadata.getUploader()));
+      }
+      this.changeListener.onStorageChange(StorageChangeType.CREATED, targetFileName);
+      this.changeListener.onStorageChange(StorageChangeType.DELETED, sourceFileName);
+    } finally {
+      unlockAll(locks);
+      endWrite();
+    }
+    this.contentHashes.invalidate(sourceFileName);
+    this.contentHashes.invalidate(targetFileName);
+    this.versionTracker.bump();
+  }
+
+  /** @return the metadata of the file, null without a metadata store */
+  private FileMetadata sourceMetadataOf(String fileName)
+      throws FileNameNotPresentOnServerException {
+    if (this.metadataStore == null) {
+      return null;
+    }
+    FileMetadata metadata = this.metadataStore.get(fileName);
+    if (metadata == null) {
+      throw fileNotPresent(fileName);
+    }
+    return metadata;
+  }
+
+  /** Hard links the target to the source, or copies it in the kernel without hard link support */
+  private static void linkOrCopy(Path sourcePath, Path targetPath) throws IOException {
+    try {
+      Files.createLink(targetPath, sourcePath);
+      return;
+    } catch (FileAlreadyExistsException | NoSuchFileException e) {
+      throw e;
+    } catch (UnsupportedOperationException | FileSystemException e) {
+      LOG.debug("Cannot hard link " + targetPath + ", copying it instead: " + e.getMessage());
+    }
+    try (FileChannel in = FileChannel.open(sourcePath, StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(targetPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+      long size = in.size();
+      long position = 0;
+      while (position < size) {
+        position += in.transferTo(position, size - position, out);
+      }
+    } catch (FileAlreadyExistsException | NoSuchFileException e) {
+      throw e;
+    } catch (IOException e) {
+      Files.deleteIfExists(targetPath);
+      throw e;
+    }
+  }
+
+  private static void lockAll(Lock[] locks) {
+    for (Lock lock : locks) {
+      lock.lock();
+    }
+  }
+
+  private static void unlockAll(Lock[] locks) {
+    for (int i = locks.length - 1; i >= 0; i--) {
+      locks[i].unlock();
+    }
+  }
+
+  private static FileNameNotPresentOnServerException fileNotPresent(String fileName) {
+    String errMsg = "There is no already uploaded file called " + fileName;
+    LOG.error(errMsg);
+    return new FileNameNotPresentOnServerException(errMsg);
+  }
+
+  private static FileNamePresentOnServerException fileAlreadyPresent(String fileName) {
+    String errMsg = "There already exists a file called " + fileName;
+    LOG.error(errMsg);
+    return new FileNamePresentOnServerException(errMsg);
+  }
+
+  /**
+   * @param fileNameToRetrieve - the name of the previously-uploaded file we want to read
+   * @return a stream over the stored file contents, which the caller must close
+   * @throws FileNameNotPresentOnServerException - thrown if the file was never uploaded
+   * @throws IOException - thrown if any I/O issue occurs
+   */
+  public InputStream retrieveFile(String fileNameToRetrieve)
+      throws FileNameNotPresentOnServerException, IOException {
+    java.nio.file.Path pathToFile =
+        Paths.get(this.permanentStoragePath.toString(), fileNameToRetrieve);
+    LOG.debug("Opening uploaded file at location " + pathToFile);
+    try {
+      return openStoredFile(pathToFile);
+    } catch (NoSuchFileException e) {
+      String errMsg = "There is no already uploaded file called " + fileNameToRetrieve;
+      LOG.error(errMsg);
+      throw new FileNameNotPresentOnServerException(errMsg);
+    }
+  }
+
+  /**
+   * @param fileName - the name of a previously-uploaded file
+   * @return the size of the file in bytes
+   * @throws FileNameNotPresentOnServerException - thrown if the file was never uploaded
+   * @throws IOException - thrown if any I/O issue occurs
+   */
+  public long getFileSize(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    if (this.metadataStore != null) {
+      return getFileMetadata(fileName).getSize();
+    }
+    java.nio.file.Path pathToFile = Paths.get(this.permanentStoragePath.toString(), fileName);
+    try {
+      return this.fileEncryption == null
+          ? Files.size(pathToFile)
+          : this.fileEncryption.contentSize(pathToFile);
+    } catch (NoSuchFileException e) {
+      String errMsg = "There is no already uploaded file called " + fileName;
+      LOG.error(errMsg);
+      throw new FileNameNotPresentOnServerException(errMsg);
+    }
+  }
+
+  /**
+   * @return the version of the set of stored files, maintained in memory so that it can be
+   *     obtained without listing the storage folder
+   */
+  public ContentVersion getListingVersion() {
+    return this.versionTracker.current();
+  }
+
+  /**
+   * @param fileName - the name of a previously-uploaded file
+   * @return the SHA-256 content hash and modification time of the file. The hash is computed on
+   *     first request and cached until the file changes
+   * @throws FileNameNotPresentOnServerException - thrown if the file was never uploaded
+   * @throws IOException - thrown if any I/O issue occurs
+   */
+  public ContentVersion getFileVersion(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    if (this.metadataStore != null) {
+      return getFileMetadata(fileName).toContentVersion();
+    }
+    java.nio.file.Path pathToFile = Paths.get(this.permanentStoragePath.toString(), fileName);
+    try {
+      long lastModifiedMillis = Files.getLastModifiedTime(pathToFile).toMillis();
+      String contentHash =
+          this.contentHashes.hashFor(
+              fileName, lastModifiedMillis, () -> openStoredFile(pathToFile));
+      return new ContentVersion(contentHash, lastModifiedMillis);
+    } catch (NoSuchFileException e) {
+      String errMsg = "There is no already uploaded file called " + fileName;
+      LOG.error(errMsg);
+      throw new FileNameNotPresentOnServerException(errMsg);
+    }
+  }
+
+  /**
+   * @param fileName - the name of a previously-uploaded file
+   * @return everything known about the file, served from memory with a metadata store
+   * @throws FileNameNotPresentOnServerException - thrown if the file was never uploaded
+   * @throws IOException - thrown if any I/O issue occurs
+   */
+  @Override
+  public FileMetadata getFileMetadata(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    if (this.metadataStore == null) {
+      return IStorageService.super.getFileMetadata(fileName);
+    }
+    FileMetadata metadata = this.metadataStore.get(fileName);
+    if (metadata == null) {
+      String errMsg = "There is no already uploaded file called " + fileName;
+      LOG.error(errMsg);
+      throw new FileNameNotPresentOnServerException(errMsg);
+    }
+    return metadata;
+  }
+
+  /**
+   * @return the metadata of every stored file, served from memory with a metadata store
+   * @throws IOException - thrown if any I/O issue occurs
+   */
+  @Override
+  public List<FileMetadata> listStoredFileMetadata() throws IOException {
+    if (this.metadataStore == null) {
+      return IStorageService.super.listStoredFileMetadata();
+    }
+    return this.metadataStore.getAll();
+  }
+
+  /**
+   * Refuses further stores and deletes, then closes the metadata store so that it snapshots the
+   * storage folder and the next start need not scan it. If a write is still under way, the store
+   * is left as it is and the next start reconciles it with the folder
+   */
+  @PreDestroy
+  public void close() {
+    this.closed = true;
+    if (this.metadataStore == null) {
+      return;
+    }
+    if (this.writesInFlight.get() > 0) {
+      LOG.warn("Stopping during a write, the storage folder will be scanned on next start");
+      return;
+    }
+    try {
+      this.metadataStore.close();
+    } catch (IOException e) {
+      LOG.warn("Could not snapshot the file metadata store", e);
+    }
+  }
+
+  private void beginWrite() throws IOException {
+    this.writesInFlight.incrementAndGet();
+    if (this.closed) {
+      this.writesInFlight.decrementAndGet();
+      throw new IOException("The storage is shutting down");
+    }
+  }
+
+  private void endWrite() {
+    this.writesInFlight.decrementAndGet();
+  }
+
+  private InputStream openStoredFile(Path pathToFile) throws IOException {
+    return this.fileEncryption == null
+        ? Files.newInputStream(pathToFile)
+        : this.fileEncryption.open(pathToFile);
+  }
+
+  StripedLocks fileNameLocks() {
+    return this.fileNameLocks;
+  }
 }
@@ -4,8 +4,14 @@ import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
 import com.tools.fsserver.exception.FileNamePresentOnServerException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Generic storage service interface permitting storage of files, deletion and listing stored files.
@@ -17,5 +23,104 @@ public interface IStorageService {
   void storeFile(String persistingFileName, Path pathToFileToPersist)
       throws FileNamePresentOnServerException, IOException;
 
+  /**
+   * Stores a file uploaded by a known client. Backends which keep no metadata ignore the uploader
+   *
+   * @param uploader - address of the client which uploaded the file, null if not known
+   */
+  default void storeFile(String persistingFileName, Path pathToFileToPersist, String uploader)
+      throws FileNamePresentOnServerException, IOException {
+    storeFile(persistingFileName, pathToFileToPersist);
+  }
+
   void deleteFile(String fileNameToDelete) throws FileNameNotPresentOnServerException, IOException;
+
+  /**
+   * Deletes a file only if its metadata still satisfies the condition. Backends with a per-name
+   * lock check and delete under it, so the file cannot be replaced in between; this default only
+   * checks right before deleting
+   *
+   * @return whether the file was deleted
+   * @throws FileNameNotPresentOnServerException - if there is no file of that name
+   */
+  default boolean deleteFileIf(String fileName, Predicate<FileMetadata> condition)
+      throws FileNameNotPresentOnServerException, IOException {
+    if (!condition.test(getFileMetadata(fileName))) {
+      return false;
+    }
+    deleteFile(fileName);
+    return true;
+  }
+
+  /**
+   * Stores a copy of a stored file under another name. Backends which cannot copy in place read
+   * the file back and store it again
+   *
+   * @throws FileNameNotPresentOnServerException - if there is no file of the source name
+   * @throws FileNamePresentOnServerException - if there already is a file of the target name
+   */
+  default void copyFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    Path tempCopy = Files.createTempFile("fsserver-copy", null);
+    try {
+      try (InputStream content = retrieveFile(sourceFileName)) {
+        Files.copy(content, tempCopy, StandardCopyOption.REPLACE_EXISTING);
+      }
+      storeFile(targetFileName, tempCopy);
+    } finally {
+      Files.deleteIfExists(tempCopy);
+    }
+  }
+
+  /**
+   * Gives a stored file another name. Backends which cannot rename in place copy the file and
+   * delete the source, so both names may briefly be listed
+   *
+   * @throws FileNameNotPresentOnServerException - if there is no file of the source name
+   * @throws FileNamePresentOnServerException - if there already is a file of the target name
+   */
+  default void renameFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    copyFile(sourceFileName, targetFileName);
+    deleteFile(sourceFileName);
+  }
+
+  InputStream retrieveFile(String fileNameToRetrieve)
+      throws FileNameNotPresentOnServerException, IOException;
+
+  ContentVersion getListingVersion();
+
+  ContentVersion getFileVersion(String fileName)
+      throws FileNameNotPresentOnServerException, IOException;
+
+  long getFileSize(String fileName) throws FileNameNotPresentOnServerException, IOException;
+
+  /**
+   * Backends without a metadata store describe the file from its version and size, taking its
+   * modification time as upload time and leaving the uploader unknown
+   */
+  default FileMetadata getFileMetadata(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    ContentVersion version = getFileVersion(fileName);
+    return new FileMetadata(
+        fileName,
+        getFileSize(fileName),
+        version.getTag(),
+        FileMetadata.guessContentType(fileName),
+        version.getLastModifiedMillis(),
+        version.getLastModifiedMillis(),
+        null);
+  }
+
+  default List<FileMetadata> listStoredFileMetadata() throws IOException {
+    List<FileMetadata> metadata = new ArrayList<>();
+    for (String fileName : listStoredFiles()) {
+      try {
+        metadata.add(getFileMetadata(fileName));
+      } catch (FileNameNotPresentOnServerException e) {
+        // deleted since it was listed
+      }
+    }
+    return metadata;
+  }
 }
@@ -0,0 +1,197 @@
+package com.tools.fsserver.storage;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Write path for large files entering storage. Files.copy lets the destination grow a few KB at a
+ * time and leaves every written byte in the page cache, where a burst of large uploads evicts the
+ * small, hot files and metadata that reads depend on. Above a size threshold this writer instead:
+ *
+ * <ul>
+ *   <li>sets the final length of the destination before writing, since the size of a spooled
+ *       upload is known. Java has no fallocate, so the file is extended sparsely: this does not
+ *       reserve blocks but lets delayed-allocation filesystems (ext4, XFS) allocate the whole
+ *       file in few extents rather than one append at a time
+ *   <li>writes in large buffers aligned to the filesystem block size, at explicit positions
+ *   <li>optionally bypasses the page cache with O_DIRECT (ExtendedOpenOption.DIRECT, no JNI). On
+ *       filesystems or platforms refusing O_DIRECT, e.g. tmpfs, it falls back to buffered writes
+ *       forced to disk every writeback window, which keeps dirty pages bounded. Clean pages stay
+ *       cached in that case, evicting them would take posix_fadvise, which Java cannot call
+ * </ul>
+ *
+ * Smaller files are copied with Files.copy, for which none of this pays off
+ */
+@ApplicationScoped
+public class LargeFileWriter {
+
+  private static final Logger LOG = Logger.getLogger(LargeFileWriter.class);
+  // buffered writes replacing refused direct ones are forced to disk this often
+  private static final long WRITEBACK_WINDOW = 64L * 1024 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 16;
+
+  private final long largeFileThreshold;
+  private final int bufferSize;
+  private final boolean bypassPageCache;
+  private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+  private volatile boolean directWritesRefused;
+
+  /**
+   * @param largeFileThreshold - files at least this large take the preallocated, aligned path
+   * @param bufferSize - size of each write, rounded up to the filesystem block size
+   * @param bypassPageCache - whether large files are written with O_DIRECT
+   */
+  @Inject
+  public LargeFileWriter(
+      @ConfigProperty(name = "fsserver.write.largeFileThreshold", defaultValue = "8M")
+          MemorySize largeFileThreshold,
+      @ConfigProperty(name = "fsserver.write.bufferSize", defaultValue = "4M")
+          MemorySize bufferSize,
+      @ConfigProperty(name = "fsserver.write.bypassPageCache", defaultValue = "false")
+          boolean bypassPageCache) {
+    this(largeFileThreshold.asLongValue(), (int) bufferSize.asLongValue(), bypassPageCache);
+  }
+
+  public LargeFileWriter(long largeFileThreshold, int bufferSize, boolean bypassPageCache) {
+    this.largeFileThreshold = largeFileThreshold;
+    this.bufferSize = bufferSize;
+    this.bypassPageCache = bypassPageCache;
+  }
+
+  /**
+   * Copies a file to a destination which must not exist yet
+   *
+   * @return the destination
+   * @throws java.nio.file.FileAlreadyExistsException - if the destination already exists
+   * @throws IOException - if any I/O issue occurs. A partially written destination is left behind
+   *     for the caller to delete
+   */
+  public Path copy(Path source, Path destination) throws IOException {
+    long size = Files.size(source);
+    if (size < largeFileThreshold) {
+      return Files.copy(source, destination);
+    }
+    Path folder = destination.toAbsolutePath().getParent();
+    int blockSize = (int) Files.getFileStore(folder).getBlockSize();
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(
+                destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+      preallocate(out, size);
+      FileChannel directOut = bypassPageCache ? openDirect(destination) : null;
+      if (directOut == null) {
+        writeAll(in, out, size, blockSize, false);
+        return destination;
+      }
+      try (directOut) {
+        writeAll(in, directOut, size, blockSize, true);
+      }
+      // the last block was written whole, cut the padding off
+      out.truncate(size);
+    }
+    return destination;
+  }
+
+  /** @return whether O_DIRECT turned out not to be usable, so large files are written buffered */
+  boolean isDirectWritesRefused() {
+    return directWritesRefused;
+  }
+
+  private static void preallocate(FileChannel out, long size) throws IOException {
+    if (size > 0) {
+      // a single byte at the end sets the length in one metadata update
+      out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+    }
+  }
+
+  /** @return a channel writing past the page cache, null if O_DIRECT is refused here */
+  private FileChannel openDirect(Path destination) {
+    if (directWritesRefused) {
+      return null;
+    }
+    OpenOption[] options = {StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT};
+    try {
+      return FileChannel.open(destination, options);
+    } catch (IOException | UnsupportedOperationException e) {
+      directWritesRefused = true;
+      LOG.warn("O_DIRECT writes refused, large files are written through the page cache: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the source at the same positions in the destination. Direct writes must cover whole
+   * blocks, so the last one is padded. Buffered writes standing in for refused direct ones are
+   * forced out every writeback window
+   */
+  private void writeAll(FileChannel in, FileChannel out, long size, int blockSize, boolean direct)
+      throws IOException {
+    ByteBuffer buffer = borrowBuffer(blockSize);
+    try {
+      long position = 0;
+      long unforced = 0;
+      while (position < size) {
+        buffer.clear();
+        while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+          // fill the whole buffer so that every write but the last is block aligned
+        }
+        int length = buffer.position();
+        if (length == 0) {
+          throw new IOException("Source shrank to " + position + " bytes while being copied");
+        }
+        buffer.flip();
+        if (direct) {
+          // whole blocks only, the capacity is a multiple of the block size
+          buffer.limit((length + blockSize - 1) / blockSize * blockSize);
+        }
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+          writePosition += out.write(buffer, writePosition);
+        }
+        position += length;
+        unforced += length;
+        if (bypassPageCache && !direct && unforced >= WRITEBACK_WINDOW) {
+          out.force(false);
+          unforced = 0;
+        }
+      }
+    } finally {
+      returnBuffer(buffer);
+    }
+  }
+
+  /** @return a direct buffer of bufferSize rounded up to whole blocks, aligned to the block size */
+  private ByteBuffer borrowBuffer(int blockSize) {
+    int alignedSize = (bufferSize + blockSize - 1) / blockSize * blockSize;
+    ByteBuffer pooled = bufferPool.poll();
+    if (pooled != null
+        && pooled.capacity() == alignedSize
+        && pooled.alignmentOffset(0, blockSize) == 0) {
+      return pooled;
+    }
+    return ByteBuffer.allocateDirect(alignedSize + blockSize)
+        .alignedSlice(blockSize)
+        .limit(alignedSize)
+        .slice();
+  }
+
+  private void returnBuffer(ByteBuffer buffer) {
+    if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+      bufferPool.offer(buffer);
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package com.tools.fsserver.storage;
+
+/**
+ * Notified by the storage backends after every successful store or delete. Backends call it while
+ * still holding the per-name lock, so changes to one file name are always reported in the order
+ * they took effect
+ */
+@FunctionalInterface
+public interface StorageChangeListener {
+
+  StorageChangeListener NONE = (changeType, fileName) -> {};
+
+  void onStorageChange(StorageChangeType changeType, String fileName);
+}
@@ -0,0 +1,7 @@
+package com.tools.fsserver.storage;
+
+/** Kinds of change to the set of stored files reported to a StorageChangeListener */
+public enum StorageChangeType {
+  CREATED,
+  DELETED
+}
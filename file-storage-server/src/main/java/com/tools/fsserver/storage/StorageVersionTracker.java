@@ -0,0 +1,35 @@
+package com.tools.fsserver.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic version of the set of stored files, bumped by the storage backends on every successful
+ * store or delete. Combined with the time this server instance started, the version identifies the
+ * listing content without ever touching the disk, so conditional listing requests are answered in
+ * constant time. Counters restart from zero on reboot; the instance epoch keeps tags from two runs
+ * from colliding
+ */
+public class StorageVersionTracker {
+
+  private final long instanceEpochMillis;
+  private final AtomicLong version = new AtomicLong();
+  private volatile long lastModifiedMillis;
+
+  public StorageVersionTracker() {
+    this.instanceEpochMillis = System.currentTimeMillis();
+    this.lastModifiedMillis = instanceEpochMillis;
+  }
+
+  /** Records a change to the set of stored files */
+  public void bump() {
+    version.incrementAndGet();
+    lastModifiedMillis = System.currentTimeMillis();
+  }
+
+  public ContentVersion current() {
+    // read the timestamp first so a concurrent bump can only make the tag newer, never older
+    long modified = lastModifiedMillis;
+    return new ContentVersion(
+        Long.toString(instanceEpochMillis, 36) + "-" + version.get(), modified);
+  }
+}
@@ -0,0 +1,69 @@
+package com.tools.fsserver.storage;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of locks indexed by file name hash. Operations on the same name always map to the same
+ * lock and are serialised, while operations on different names almost always map to different
+ * locks and proceed in parallel. Memory stays constant regardless of how many names are seen, and
+ * no per-name bookkeeping has to be cleaned up afterwards
+ */
+public final class StripedLocks {
+
+  public static final int DEFAULT_STRIPES = 256;
+
+  private final Lock[] stripes;
+  private final int mask;
+
+  public StripedLocks() {
+    this(DEFAULT_STRIPES);
+  }
+
+  /**
+   * @param minimumStripes - lower bound for the number of locks, rounded up to a power of two
+   */
+  public StripedLocks(int minimumStripes) {
+    int stripeCount = minimumStripes <= 1 ? 1 : Integer.highestOneBit(minimumStripes - 1) << 1;
+    this.stripes = new Lock[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      this.stripes[i] = new ReentrantLock();
+    }
+    this.mask = stripeCount - 1;
+  }
+
+  /**
+   * @param fileName - the name the caller is about to mutate
+   * @return the lock guarding that name, which the caller must lock and unlock
+   */
+  public Lock lockFor(String fileName) {
+    return stripes[stripeIndex(fileName)];
+  }
+
+  /**
+   * @param first - one of two names the caller is about to mutate together
+   * @param second - the other one
+   * @return the locks guarding both names, once each, in the order every caller must lock them
+   *     so that two callers locking the same pair the other way round cannot deadlock
+   */
+  public Lock[] locksFor(String first, String second) {
+    int firstIndex = stripeIndex(first);
+    int secondIndex = stripeIndex(second);
+    if (firstIndex == secondIndex) {
+      return new Lock[] {stripes[firstIndex]};
+    }
+    return new Lock[] {
+      stripes[Math.min(firstIndex, secondIndex)], stripes[Math.max(firstIndex, secondIndex)]
+    };
+  }
+
+  int stripeIndex(String fileName) {
+    int hash = fileName.hashCode();
+    // spread the high bits down, String hashes of similar names differ mostly in the low bits
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  int stripeCount() {
+    return stripes.length;
+  }
+}
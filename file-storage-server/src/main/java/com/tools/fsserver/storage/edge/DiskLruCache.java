@@ -0,0 +1,143 @@
+package com.tools.fsserver.storage.edge;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Content-addressed cache of whole files in a local folder, each named by its SHA-256, so files
+ * of equal content are held once whatever their names upstream. Once the cached files add up to
+ * more than maxBytes the least recently used ones are deleted. Recency is tracked in memory and
+ * rebuilt from the files' modification times on startup, which a hit refreshes on disk too
+ */
+final class DiskLruCache {
+
+  private static final Logger LOG = Logger.getLogger(DiskLruCache.class);
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path folder;
+  private final long maxBytes;
+  // access-ordered: iteration starts at the least recently used entry
+  private final LinkedHashMap<String, Long> sizeBySha = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+
+  /**
+   * Picks up the files cached by a previous run, dropping downloads it left incomplete and
+   * evicting down to maxBytes should it have been lowered since
+   */
+  DiskLruCache(Path folder, long maxBytes) throws IOException {
+    this.folder = Files.createDirectories(folder);
+    this.maxBytes = maxBytes;
+    List<Path> cached = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+      for (Path entry : entries) {
+        if (entry.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+          Files.deleteIfExists(entry);
+        } else if (Files.isRegularFile(entry)) {
+          cached.add(entry);
+        }
+      }
+    }
+    cached.sort(Comparator.comparing(DiskLruCache::lastModifiedQuietly));
+    synchronized (this) {
+      for (Path entry : cached) {
+        long size = Files.size(entry);
+        sizeBySha.put(entry.getFileName().toString(), size);
+        totalBytes += size;
+      }
+      evict(null);
+    }
+    LOG.info("Edge cache holds " + cached.size() + " files, " + totalBytes + " bytes");
+  }
+
+  /** @return the cached file of that content, null on a miss */
+  Path get(String sha256) {
+    synchronized (this) {
+      if (sizeBySha.get(sha256) == null) {
+        return null;
+      }
+    }
+    Path cached = folder.resolve(sha256);
+    try {
+      Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // evicted in the meantime, the caller finds out when opening it
+    }
+    return cached;
+  }
+
+  /** @return a fresh path in the cache folder to download into, to be passed to put */
+  Path newTempFile() {
+    return folder.resolve(UUID.randomUUID() + TEMP_SUFFIX);
+  }
+
+  /**
+   * Moves a completed download into the cache, then evicts the least recently used files until
+   * the cache fits maxBytes again. The new file itself is kept even when it alone exceeds it
+   *
+   * @return the cached file
+   */
+  Path put(String sha256, Path tempFile) throws IOException {
+    Path cached = folder.resolve(sha256);
+    long size = Files.size(tempFile);
+    synchronized (this) {
+      Files.move(tempFile, cached, StandardCopyOption.REPLACE_EXISTING);
+      Long previous = sizeBySha.put(sha256, size);
+      totalBytes += size - (previous == null ? 0 : previous);
+      evict(sha256);
+    }
+    return cached;
+  }
+
+  synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  synchronized int getFileCount() {
+    return sizeBySha.size();
+  }
+
+  /**
+   * Deletes least recently used files until the total fits maxBytes. A download still reading an
+   * evicted file keeps its open handle, as POSIX keeps the data of unlinked files until closed
+   */
+  private void evict(String keep) {
+    Iterator<Map.Entry<String, Long>> oldestFirst = sizeBySha.entrySet().iterator();
+    while (totalBytes > maxBytes && oldestFirst.hasNext()) {
+      Map.Entry<String, Long> entry = oldestFirst.next();
+      if (entry.getKey().equals(keep)) {
+        continue;
+      }
+      try {
+        Files.deleteIfExists(folder.resolve(entry.getKey()));
+      } catch (IOException e) {
+        LOG.warn("Could not evict " + entry.getKey() + " from the edge cache: " + e);
+        continue;
+      }
+      totalBytes -= entry.getValue();
+      oldestFirst.remove();
+    }
+  }
+
+  private static FileTime lastModifiedQuietly(Path file) {
+    try {
+      return Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime();
+    } catch (IOException e) {
+      // gone already, so among the first to go anyway
+      return FileTime.fromMillis(0);
+    }
+  }
+}
@@ -0,0 +1,459 @@
+package com.tools.fsserver.storage.edge;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.IStorageService;
+import com.tools.fsserver.storage.StorageChangeListener;
+import com.tools.fsserver.storage.StorageChangeType;
+import com.tools.fsserver.storage.StorageVersionTracker;
+import com.tools.fsserver.storage.StripedLocks;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.runtime.Startup;
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Storage backend serving the files of another FS server, the upstream, from a local disk cache.
+ * A file missing from the cache is downloaded once, however many clients ask for it meanwhile,
+ * and then served locally until evicted as least recently used. The cache is content-addressed,
+ * and file contents are looked up from the upstream's detailed listing, which is kept for
+ * listingTtlMillis and then revalidated with its ETag. Uploads, deletes, copies and renames are
+ * passed on to the upstream. Enabled with fsserver.storage.backend=edge
+ */
+@Startup
+@ApplicationScoped
+@IfBuildProperty(name = "fsserver.storage.backend", stringValue = "edge")
+public class EdgeCacheStorageService implements IStorageService {
+
+  private static final Logger LOG = Logger.getLogger(EdgeCacheStorageService.class);
+  private static final String COPY_ACTION = ":copy";
+  private static final String RENAME_ACTION = ":rename";
+
+  private final UpstreamClient upstream;
+  private final DiskLruCache cache;
+  private final long listingTtlMillis;
+  private final LongSupplier clock;
+  private final StorageChangeListener changeListener;
+  private final StripedLocks fileNameLocks = new StripedLocks();
+  private final StorageVersionTracker versionTracker = new StorageVersionTracker();
+  // one download per content, whichever of the names holding it was asked for
+  private final Map<String, CompletableFuture<Path>> downloadsInFlight = new ConcurrentHashMap<>();
+  private final Object listingRefreshLock = new Object();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong cacheMisses = new AtomicLong();
+  private final AtomicLong upstreamDownloads = new AtomicLong();
+  private volatile CachedListing listing;
+
+  /**
+   * @param upstreamUrl - the files API of the upstream server, e.g. http://central:8080/v1/files
+   * @param cachePath - folder the downloaded files are cached in
+   * @param cacheSize - total size of the cached files, beyond which the least recently used go
+   * @param listingTtlMillis - how long the upstream's listing is used before it is revalidated
+   * @param requestTimeoutSeconds - bounds the wait for each response of the upstream
+   * @param changeListener - notified of every store and delete passed on successfully
+   */
+  @Inject
+  public EdgeCacheStorageService(
+      @ConfigProperty(name = "fsserver.edge.upstreamUrl") String upstreamUrl,
+      @ConfigProperty(name = "fsserver.edge.cachePath", defaultValue = "data-server-edge-cache")
+          String cachePath,
+      @ConfigProperty(name = "fsserver.edge.cacheSize", defaultValue = "10G")
+          MemorySize cacheSize,
+      @ConfigProperty(name = "fsserver.edge.listingTtlMillis", defaultValue = "2000")
+          long listingTtlMillis,
+      @ConfigProperty(name = "fsserver.edge.requestTimeoutSeconds", defaultValue = "60")
+          int requestTimeoutSeconds,
+      StorageChangeListener changeListener)
+      throws IOException {
+    this(
+        new UpstreamClient(URI.create(upstreamUrl), Duration.ofSeconds(requestTimeoutSeconds)),
+        new DiskLruCache(Paths.get(cachePath), cacheSize.asLongValue()),
+        listingTtlMillis,
+        System::currentTimeMillis,
+        changeListener);
+    LOG.info(
+        "FSServer edge cache in front of "
+            + upstreamUrl
+            + ", caching up to "
+            + cacheSize.asLongValue()
+            + " bytes in "
+            + cachePath);
+  }
+
+  EdgeCacheStorageService(
+      UpstreamClient upstream,
+      DiskLruCache cache,
+      long listingTtlMillis,
+      LongSupplier clock,
+      StorageChangeListener changeListener) {
+    this.upstream = upstream;
+    this.cache = cache;
+    this.listingTtlMillis = listingTtlMillis;
+    this.clock = clock;
+    this.changeListener = changeListener;
+  }
+
+  /** @return downloads served from the cache */
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  /** @return downloads which did not find their content in the cache */
+  public long getCacheMisses() {
+    return cacheMisses.get();
+  }
+
+  /** @return files fetched from the upstream, fewer than misses when concurrent ones coalesce */
+  public long getUpstreamDownloads() {
+    return upstreamDownloads.get();
+  }
+
+  public Set<String> listStoredFiles() throws IOException {
+    return new HashSet<>(currentListing().filesByName.keySet());
+  }
+
+  @Override
+  public List<FileMetadata> listStoredFileMetadata() throws IOException {
+    return new ArrayList<>(currentListing().filesByName.values());
+  }
+
+  public void storeFile(String fileName, Path uploadSourcePath)
+      throws FileNamePresentOnServerException, IOException {
+    storeFile(fileName, uploadSourcePath, null);
+  }
+
+  /**
+   * Uploads the file to the upstream, which records this server rather than the client as its
+   * uploader. It is cached on its first download, like any other file
+   */
+  @Override
+  public void storeFile(String fileName, Path uploadSourcePath, String uploader)
+      throws FileNamePresentOnServerException, IOException {
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    fileNameLock.lock();
+    try {
+      if (upstream.upload(fileName, uploadSourcePath) == UpstreamClient.CONFLICT) {
+        throw fileAlreadyPresent(fileName);
+      }
+      listingChanged();
+      this.changeListener.onStorageChange(StorageChangeType.CREATED, fileName);
+    } finally {
+      fileNameLock.unlock();
+    }
+    LOG.debug("Stored file " + fileName + " upstream");
+  }
+
+  /** Cached content stays until evicted, as other names may hold the same */
+  public void deleteFile(String fileNameToDelete)
+      throws FileNameNotPresentOnServerException, IOException {
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileNameToDelete);
+    fileNameLock.lock();
+    try {
+      if (upstream.delete(fileNameToDelete) == UpstreamClient.NOT_FOUND) {
+        throw fileNotPresent(fileNameToDelete);
+      }
+      listingChanged();
+      this.changeListener.onStorageChange(StorageChangeType.DELETED, fileNameToDelete);
+    } finally {
+      fileNameLock.unlock();
+    }
+    LOG.debug("Deleted file " + fileNameToDelete + " upstream");
+  }
+
+  /** Checks the condition and deletes under the name's lock */
+  @Override
+  public boolean deleteFileIf(String fileName, Predicate<FileMetadata> condition)
+      throws FileNameNotPresentOnServerException, IOException {
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    fileNameLock.lock();
+    try {
+      return IStorageService.super.deleteFileIf(fileName, condition);
+    } finally {
+      fileNameLock.unlock();
+    }
+  }
+
+  /** The upstream copies in place, so no content passes through the edge */
+  @Override
+  public void copyFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    relocate(sourceFileName, COPY_ACTION, targetFileName);
+  }
+
+  /** The upstream renames in place, and the cached content stays valid for the new name */
+  @Override
+  public void renameFile(String sourceFileName, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    relocate(sourceFileName, RENAME_ACTION, targetFileName);
+  }
+
+  /**
+   * Serves the file from the cache, downloading it first on a miss. Clients missing the same
+   * content at the same time wait for a single download
+   *
+   * @throws FileNameNotPresentOnServerException - thrown if the upstream has no such file
+   */
+  public InputStream retrieveFile(String fileNameToRetrieve)
+      throws FileNameNotPresentOnServerException, IOException {
+    String sha256 = getFileMetadata(fileNameToRetrieve).getSha256();
+    Path cached = cache.get(sha256);
+    if (cached != null) {
+      cacheHits.incrementAndGet();
+      try {
+        return Files.newInputStream(cached);
+      } catch (NoSuchFileException e) {
+        // evicted between lookup and opening
+      }
+    }
+    cacheMisses.incrementAndGet();
+    return Files.newInputStream(fetch(fileNameToRetrieve, sha256));
+  }
+
+  public ContentVersion getListingVersion() {
+    try {
+      // brings the version up to date with the upstream once the listing has expired
+      currentListing();
+    } catch (IOException e) {
+      LOG.warn("Could not revalidate the upstream listing: " + e);
+    }
+    return this.versionTracker.current();
+  }
+
+  public ContentVersion getFileVersion(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    return getFileMetadata(fileName).toContentVersion();
+  }
+
+  public long getFileSize(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    return getFileMetadata(fileName).getSize();
+  }
+
+  /** Files stored upstream since the listing was fetched are described by the upstream itself */
+  @Override
+  public FileMetadata getFileMetadata(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    FileMetadata metadata = currentListing().filesByName.get(fileName);
+    if (metadata == null) {
+      metadata = upstream.describe(fileName);
+    }
+    if (metadata == null || metadata.getSha256() == null) {
+      throw fileNotPresent(fileName);
+    }
+    return metadata;
+  }
+
+  /**
+   * @return the listing fetched within the last listingTtlMillis, else the upstream's current
+   *     one. If the upstream cannot be reached the previous listing is used for another TTL
+   */
+  private CachedListing currentListing() throws IOException {
+    CachedListing cached = this.listing;
+    if (cached != null && clock.getAsLong() - cached.fetchedAtMillis < listingTtlMillis) {
+      return cached;
+    }
+    synchronized (listingRefreshLock) {
+      cached = this.listing;
+      if (cached != null && clock.getAsLong() - cached.fetchedAtMillis < listingTtlMillis) {
+        // refreshed by another request while this one waited
+        return cached;
+      }
+      CachedListing refreshed;
+      try {
+        UpstreamClient.Listing fetched = upstream.list(cached == null ? null : cached.eTag);
+        if (fetched == null) {
+          refreshed = cached.renewedAt(clock.getAsLong());
+        } else {
+          refreshed = new CachedListing(fetched, clock.getAsLong());
+          if (cached != null && !Objects.equals(cached.eTag, refreshed.eTag)) {
+            this.versionTracker.bump();
+          }
+        }
+      } catch (IOException e) {
+        if (cached == null) {
+          throw e;
+        }
+        LOG.warn("Serving the previous listing, the upstream could not be reached: " + e);
+        refreshed = cached.renewedAt(clock.getAsLong());
+      }
+      this.listing = refreshed;
+      return refreshed;
+    }
+  }
+
+  /** Expires the cached listing after a change made through this server */
+  private void listingChanged() {
+    CachedListing cached = this.listing;
+    if (cached != null) {
+      this.listing = cached.renewedAt(clock.getAsLong() - listingTtlMillis);
+    }
+    this.versionTracker.bump();
+  }
+
+  /**
+   * Joins the download of the same content if one is running, else downloads it. A joined
+   * download which found other content under its name, or no file at all, was for another name,
+   * so this one downloads its own
+   *
+   * @return the cached file
+   */
+  private Path fetch(String fileName, String sha256)
+      throws FileNameNotPresentOnServerException, IOException {
+    CompletableFuture<Path> download = new CompletableFuture<>();
+    CompletableFuture<Path> inFlight = downloadsInFlight.putIfAbsent(sha256, download);
+    if (inFlight != null) {
+      Path joined = await(inFlight);
+      if (joined != null && joined.getFileName().toString().equals(sha256)) {
+        return joined;
+      }
+      return downloadIntoCache(fileName, sha256);
+    }
+    try {
+      // a download which completed since the lookup has already left the map
+      Path cached = cache.get(sha256);
+      download.complete(cached != null ? cached : downloadIntoCache(fileName, sha256));
+    } catch (IOException | RuntimeException e) {
+      download.completeExceptionally(e);
+      throw e;
+    } finally {
+      downloadsInFlight.remove(sha256, download);
+    }
+    return download.join();
+  }
+
+  /** @return the file downloaded, null if the download found no file */
+  private static Path await(CompletableFuture<Path> download) throws IOException {
+    try {
+      return download.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FileNameNotPresentOnServerException) {
+        return null;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Content which differs from the listing's is cached under its own hash, and the listing
+   * expired, as the name has been deleted and uploaded again upstream
+   */
+  private Path downloadIntoCache(String fileName, String expectedSha256)
+      throws FileNameNotPresentOnServerException, IOException {
+    Path tempFile = cache.newTempFile();
+    try {
+      String sha256 = upstream.download(fileName, tempFile);
+      if (sha256 == null) {
+        listingChanged();
+        throw fileNotPresent(fileName);
+      }
+      upstreamDownloads.incrementAndGet();
+      if (!sha256.equals(expectedSha256)) {
+        LOG.info(fileName + " has changed upstream since it was listed");
+        listingChanged();
+      }
+      LOG.debug("Cached " + Files.size(tempFile) + " bytes of " + fileName);
+      return cache.put(sha256, tempFile);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private void relocate(String sourceFileName, String action, String targetFileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    Lock[] locks = this.fileNameLocks.locksFor(sourceFileName, targetFileName);
+    for (Lock lock : locks) {
+      lock.lock();
+    }
+    try {
+      int status = upstream.relocate(sourceFileName, action, targetFileName);
+      if (status == UpstreamClient.NOT_FOUND) {
+        throw fileNotPresent(sourceFileName);
+      }
+      if (status == UpstreamClient.CONFLICT) {
+        throw fileAlreadyPresent(targetFileName);
+      }
+      listingChanged();
+      this.changeListener.onStorageChange(StorageChangeType.CREATED, targetFileName);
+      if (RENAME_ACTION.equals(action)) {
+        this.changeListener.onStorageChange(StorageChangeType.DELETED, sourceFileName);
+      }
+    } finally {
+      for (int i = locks.length - 1; i >= 0; i--) {
+        locks[i].unlock();
+      }
+    }
+    LOG.debug("Passed " + action.substring(1) + " of " + sourceFileName + " upstream");
+  }
+
+  private static FileNamePresentOnServerException fileAlreadyPresent(String fileName) {
+    String errMsg = "There already exists a file called " + fileName;
+    LOG.error(errMsg);
+    return new FileNamePresentOnServerException(errMsg);
+  }
+
+  private static FileNameNotPresentOnServerException fileNotPresent(String fileName) {
+    String errMsg = "There is no already uploaded file called " + fileName;
+    LOG.error(errMsg);
+    return new FileNameNotPresentOnServerException(errMsg);
+  }
+
+  /** The upstream's listing by file name, with its ETag and when it was last confirmed */
+  private static final class CachedListing {
+
+    private final String eTag;
+    private final Map<String, FileMetadata> filesByName;
+    private final long fetchedAtMillis;
+
+    CachedListing(UpstreamClient.Listing fetched, long fetchedAtMillis) {
+      Map<String, FileMetadata> filesByName = new LinkedHashMap<>();
+      for (FileMetadata metadata : fetched.getFiles()) {
+        filesByName.put(metadata.getFileName(), metadata);
+      }
+      this.eTag = fetched.getETag();
+      this.filesByName = filesByName;
+      this.fetchedAtMillis = fetchedAtMillis;
+    }
+
+    private CachedListing(String eTag, Map<String, FileMetadata> filesByName, long fetchedAt) {
+      this.eTag = eTag;
+      this.filesByName = filesByName;
+      this.fetchedAtMillis = fetchedAt;
+    }
+
+    CachedListing renewedAt(long fetchedAtMillis) {
+      return new CachedListing(eTag, filesByName, fetchedAtMillis);
+    }
+  }
+}
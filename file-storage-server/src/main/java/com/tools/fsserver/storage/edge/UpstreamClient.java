@@ -0,0 +1,311 @@
+package com.tools.fsserver.storage.edge;
+
+import com.tools.fsserver.storage.ContentHashCache;
+import com.tools.fsserver.storage.FileMetadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Client of the /v1/files API of another FS server, the upstream an edge cache sits in front of.
+ * Every call is a single request; retrying is left to the edge's own clients
+ */
+final class UpstreamClient {
+
+  static final int OK = 200;
+  static final int NOT_MODIFIED = 304;
+  static final int NOT_FOUND = 404;
+  static final int CONFLICT = 409;
+  private static final String CONTENT_SHA256_HEADER = "X-Content-SHA256";
+  private static final String UPLOADED_AT_HEADER = "X-Uploaded-At";
+  private static final String UPLOADED_BY_HEADER = "X-Uploaded-By";
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final String filesApi;
+  private final HttpClient httpClient;
+  private final Duration requestTimeout;
+
+  /**
+   * @param filesApi - the upstream's files API, e.g. http://central:8080/v1/files
+   * @param requestTimeout - bounds connection establishment and the wait for each response, but
+   *     not the streaming of a downloaded body, which takes as long as the file's size requires
+   */
+  UpstreamClient(URI filesApi, Duration requestTimeout) {
+    String base = filesApi.toString();
+    this.filesApi = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+    this.requestTimeout = requestTimeout;
+    this.httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(requestTimeout)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+  }
+
+  /**
+   * @param ifNoneMatch - ETag of the listing held already, null if none
+   * @return the detailed listing, null if it is still the one of that ETag
+   */
+  Listing list(String ifNoneMatch) throws IOException {
+    HttpRequest.Builder request = request(filesApi + "?details=true").GET();
+    if (ifNoneMatch != null) {
+      request.header("If-None-Match", ifNoneMatch);
+    }
+    HttpResponse<String> response =
+        send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    if (response.statusCode() == NOT_MODIFIED) {
+      return null;
+    }
+    String eTag = response.headers().firstValue("ETag").orElse(null);
+    if (response.statusCode() == NOT_FOUND) {
+      // the upstream answers an empty listing with 404
+      return new Listing(eTag, Collections.emptyList());
+    }
+    checkSuccess(response.statusCode(), "listing files");
+    List<FileMetadata> files = new ArrayList<>();
+    for (String line : response.body().split("\n")) {
+      if (!line.isEmpty()) {
+        files.add(parseListingLine(line));
+      }
+    }
+    return new Listing(eTag, files);
+  }
+
+  /** @return the metadata of the file, null if the upstream has no such file */
+  FileMetadata describe(String fileName) throws IOException {
+    HttpRequest request =
+        request(fileUri(fileName)).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+    HttpResponse<Void> response = send(request, HttpResponse.BodyHandlers.discarding());
+    if (response.statusCode() == NOT_FOUND) {
+      return null;
+    }
+    checkSuccess(response.statusCode(), "describing " + fileName);
+    HttpHeaders headers = response.headers();
+    long uploadedAtMillis = dateHeader(headers, UPLOADED_AT_HEADER);
+    return new FileMetadata(
+        fileName,
+        headers.firstValueAsLong("Content-Length").orElse(0),
+        headers.firstValue(CONTENT_SHA256_HEADER).orElse(null),
+        headers.firstValue("Content-Type").orElse(FileMetadata.guessContentType(fileName)),
+        uploadedAtMillis,
+        uploadedAtMillis,
+        headers.firstValue(UPLOADED_BY_HEADER).orElse(null));
+  }
+
+  /**
+   * Downloads the file into a target which must not exist yet, hashing it on the way
+   *
+   * @return the SHA-256 of what was downloaded, null if the upstream has no such file
+   */
+  String download(String fileName, Path target) throws IOException {
+    HttpRequest request = request(fileUri(fileName)).GET().build();
+    HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+    try (InputStream body = response.body()) {
+      if (response.statusCode() == NOT_FOUND) {
+        return null;
+      }
+      checkSuccess(response.statusCode(), "downloading " + fileName);
+      MessageDigest digest = newDigest();
+      byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      try (InputStream in = new DigestInputStream(body, digest);
+          OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW)) {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+      return ContentHashCache.toHex(digest.digest());
+    }
+  }
+
+  /** @return the response status, OK or CONFLICT if the name is taken */
+  int upload(String fileName, Path source) throws IOException {
+    String boundary = UUID.randomUUID().toString();
+    byte[] head =
+        ("--"
+                + boundary
+                + "\r\nContent-Disposition: form-data; name=\"payload\"; filename=\""
+                + fileName.replace("\"", "%22")
+                + "\"\r\nContent-Type: application/octet-stream\r\n\r\n")
+            .getBytes(StandardCharsets.UTF_8);
+    byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+    long length = head.length + Files.size(source) + tail.length;
+    // a declared length spares the upstream's admission control from assuming the largest upload
+    HttpRequest.BodyPublisher body =
+        HttpRequest.BodyPublishers.fromPublisher(
+            HttpRequest.BodyPublishers.ofInputStream(
+                () ->
+                    new SequenceInputStream(
+                        Collections.enumeration(
+                            List.of(
+                                new ByteArrayInputStream(head),
+                                openQuietly(source),
+                                new ByteArrayInputStream(tail))))),
+            length);
+    HttpRequest request =
+        request(fileUri(fileName))
+            .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+            .POST(body)
+            .build();
+    int status = send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    if (status != CONFLICT) {
+      checkSuccess(status, "uploading " + fileName);
+    }
+    return status;
+  }
+
+  /** @return the response status, OK or NOT_FOUND */
+  int delete(String fileName) throws IOException {
+    int status =
+        send(request(fileUri(fileName)).DELETE().build(), HttpResponse.BodyHandlers.discarding())
+            .statusCode();
+    if (status != NOT_FOUND) {
+      checkSuccess(status, "deleting " + fileName);
+    }
+    return status;
+  }
+
+  /**
+   * @param action - ":copy" or ":rename"
+   * @return the response status, OK, NOT_FOUND or CONFLICT
+   */
+  int relocate(String fileName, String action, String targetFileName) throws IOException {
+    HttpRequest request =
+        request(fileUri(fileName) + action + "?to=" + encode(targetFileName))
+            .POST(HttpRequest.BodyPublishers.noBody())
+            .build();
+    int status = send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    if (status != NOT_FOUND && status != CONFLICT) {
+      checkSuccess(status, action.substring(1) + " of " + fileName);
+    }
+    return status;
+  }
+
+  private HttpRequest.Builder request(String uri) {
+    return HttpRequest.newBuilder(URI.create(uri)).timeout(requestTimeout);
+  }
+
+  private String fileUri(String fileName) {
+    return filesApi + "/" + encode(fileName);
+  }
+
+  private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+      throws IOException {
+    try {
+      return httpClient.send(request, bodyHandler);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while calling " + request.uri());
+    }
+  }
+
+  private static void checkSuccess(int status, String what) throws IOException {
+    if (status / 100 != 2) {
+      throw new IOException("Upstream answered " + status + " when " + what);
+    }
+  }
+
+  /** Names are percent-encoded as path segments, where '+' would be taken literally */
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+
+  /** Parses a line of the detailed listing: size, sha256, uploadedAt, type, uploader, name */
+  private static FileMetadata parseListingLine(String line) throws IOException {
+    String[] fields = line.split("\t", 6);
+    if (fields.length != 6) {
+      throw new IOException("Malformed upstream listing line: " + line);
+    }
+    try {
+      long uploadedAtMillis = Long.parseLong(fields[2]);
+      return new FileMetadata(
+          fields[5],
+          Long.parseLong(fields[0]),
+          fields[1],
+          fields[3],
+          uploadedAtMillis,
+          uploadedAtMillis,
+          "-".equals(fields[4]) ? null : fields[4]);
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed upstream listing line: " + line, e);
+    }
+  }
+
+  private static long dateHeader(HttpHeaders headers, String name) {
+    String value =
+        headers.firstValue(name).orElse(headers.firstValue("Last-Modified").orElse(null));
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+          .toInstant()
+          .toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  private static InputStream openQuietly(Path source) {
+    try {
+      return Files.newInputStream(source);
+    } catch (IOException e) {
+      // the HTTP client fails the request with it
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is mandatory on every JVM", e);
+    }
+  }
+
+  /** The upstream's detailed listing with the ETag to revalidate it with */
+  static final class Listing {
+
+    private final String eTag;
+    private final List<FileMetadata> files;
+
+    Listing(String eTag, List<FileMetadata> files) {
+      this.eTag = eTag;
+      this.files = files;
+    }
+
+    String getETag() {
+      return eTag;
+    }
+
+    List<FileMetadata> getFiles() {
+      return files;
+    }
+  }
+}
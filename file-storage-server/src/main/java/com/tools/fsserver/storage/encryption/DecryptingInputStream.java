@@ -0,0 +1,108 @@
+package com.tools.fsserver.storage.encryption;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Content of an encrypted file, read and authenticated one chunk at a time with positional reads.
+ * Skipping moves the read position without decrypting anything, the chunk where reading resumes
+ * is the only one decrypted
+ */
+final class DecryptingInputStream extends InputStream {
+
+  private final FileChannel channel;
+  private final EncryptedFileHeader header;
+  private final byte[] headerBytes;
+  private final SecretKey dataKey;
+  private final Cipher cipher = FileEncryption.newCipher();
+  private final byte[] sealed;
+  private final byte[] chunk;
+  // index of the chunk held in the buffer, -1 if none
+  private long bufferedChunk = -1;
+  private long position;
+
+  DecryptingInputStream(FileChannel channel, EncryptedFileHeader header, SecretKey dataKey) {
+    this.channel = channel;
+    this.header = header;
+    this.headerBytes = header.toBytes();
+    this.dataKey = dataKey;
+    this.sealed = new byte[header.getChunkSize() + FileEncryption.TAG_LENGTH];
+    this.chunk = new byte[header.getChunkSize()];
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (position >= header.getContentLength()) {
+      return -1;
+    }
+    long chunkIndex = position / header.getChunkSize();
+    if (chunkIndex != bufferedChunk) {
+      decryptChunk(chunkIndex);
+    }
+    int offsetInChunk = (int) (position - chunkIndex * header.getChunkSize());
+    int read = Math.min(length, header.chunkContentLength(chunkIndex) - offsetInChunk);
+    System.arraycopy(chunk, offsetInChunk, buffer, offset, read);
+    position += read;
+    return read;
+  }
+
+  @Override
+  public long skip(long n) {
+    long skipped = Math.max(0, Math.min(n, header.getContentLength() - position));
+    position += skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    if (bufferedChunk != position / header.getChunkSize()) {
+      return 0;
+    }
+    return (int) Math.min(
+        header.chunkContentLength(bufferedChunk) - (position % header.getChunkSize()),
+        header.getContentLength() - position);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void decryptChunk(long chunkIndex) throws IOException {
+    int sealedLength = header.chunkContentLength(chunkIndex) + FileEncryption.TAG_LENGTH;
+    ByteBuffer target = ByteBuffer.wrap(sealed, 0, sealedLength);
+    long chunkOffset = header.chunkOffset(chunkIndex);
+    while (target.hasRemaining()) {
+      if (channel.read(target, chunkOffset + target.position()) < 0) {
+        throw new IOException("Encrypted file is truncated in chunk " + chunkIndex);
+      }
+    }
+    try {
+      FileEncryption.initChunk(
+          cipher, Cipher.DECRYPT_MODE, dataKey, chunkIndex, header.getChunkCount(), headerBytes);
+      cipher.doFinal(sealed, 0, sealedLength, chunk, 0);
+    } catch (AEADBadTagException e) {
+      bufferedChunk = -1;
+      throw new IOException("Chunk " + chunkIndex + " of encrypted file failed authentication");
+    } catch (GeneralSecurityException e) {
+      bufferedChunk = -1;
+      throw new IOException("Could not decrypt chunk " + chunkIndex, e);
+    }
+    bufferedChunk = chunkIndex;
+  }
+}
@@ -0,0 +1,104 @@
+package com.tools.fsserver.storage.encryption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Fixed-size header in front of the chunks of an encrypted file. It is not encrypted, but every
+ * chunk is authenticated together with it, so any change to it fails decryption:
+ *
+ * <pre>
+ * magic (8) | chunk size (4) | content length (8) | master key fingerprint (4)
+ *   | wrapped data key length (2) | wrapped data key (40 for a 256-bit key)
+ * </pre>
+ */
+final class EncryptedFileHeader {
+
+  static final byte[] MAGIC = {'F', 'S', 'S', 'E', 'N', 'C', 0, 1};
+  static final int WRAPPED_KEY_LENGTH = 40;
+  static final int LENGTH = MAGIC.length + 4 + 8 + 4 + 2 + WRAPPED_KEY_LENGTH;
+
+  private final int chunkSize;
+  private final long contentLength;
+  private final int masterKeyFingerprint;
+  private final byte[] wrappedDataKey;
+
+  EncryptedFileHeader(
+      int chunkSize, long contentLength, int masterKeyFingerprint, byte[] wrappedDataKey) {
+    this.chunkSize = chunkSize;
+    this.contentLength = contentLength;
+    this.masterKeyFingerprint = masterKeyFingerprint;
+    this.wrappedDataKey = wrappedDataKey;
+  }
+
+  /** @return the header of the file, null if the file does not start with one */
+  static EncryptedFileHeader readFrom(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+    while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+      // positional reads until the header is complete or the file ends
+    }
+    if (buffer.hasRemaining()) {
+      return null;
+    }
+    buffer.flip();
+    byte[] magic = new byte[MAGIC.length];
+    buffer.get(magic);
+    if (!Arrays.equals(MAGIC, magic)) {
+      return null;
+    }
+    int chunkSize = buffer.getInt();
+    long contentLength = buffer.getLong();
+    int fingerprint = buffer.getInt();
+    int wrappedKeyLength = buffer.getShort();
+    if (chunkSize <= 0 || contentLength < 0 || wrappedKeyLength != WRAPPED_KEY_LENGTH) {
+      throw new IOException("Corrupt encrypted file header");
+    }
+    byte[] wrappedKey = new byte[wrappedKeyLength];
+    buffer.get(wrappedKey);
+    return new EncryptedFileHeader(chunkSize, contentLength, fingerprint, wrappedKey);
+  }
+
+  byte[] toBytes() {
+    return ByteBuffer.allocate(LENGTH)
+        .put(MAGIC)
+        .putInt(chunkSize)
+        .putLong(contentLength)
+        .putInt(masterKeyFingerprint)
+        .putShort((short) wrappedDataKey.length)
+        .put(wrappedDataKey)
+        .array();
+  }
+
+  /** @return the number of chunks, at least one so that even empty files are authenticated */
+  long getChunkCount() {
+    return Math.max(1, (contentLength + chunkSize - 1) / chunkSize);
+  }
+
+  /** @return where the given chunk starts in the file */
+  long chunkOffset(long chunkIndex) {
+    return LENGTH + chunkIndex * (chunkSize + (long) FileEncryption.TAG_LENGTH);
+  }
+
+  /** @return how many content bytes the given chunk holds */
+  int chunkContentLength(long chunkIndex) {
+    return (int) Math.min(chunkSize, contentLength - chunkIndex * chunkSize);
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  long getContentLength() {
+    return contentLength;
+  }
+
+  int getMasterKeyFingerprint() {
+    return masterKeyFingerprint;
+  }
+
+  byte[] getWrappedDataKey() {
+    return wrappedDataKey;
+  }
+}
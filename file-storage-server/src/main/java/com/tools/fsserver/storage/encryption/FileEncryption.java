@@ -0,0 +1,283 @@
+package com.tools.fsserver.storage.encryption;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Optional encryption at rest of stored files, streamed chunk by chunk so that memory use does not
+ * depend on file size. Each file gets its own random 256-bit data key, stored in the file header
+ * wrapped (RFC 3394) by the master key from fsserver.encryption.masterKey, so the master key never
+ * encrypts data itself and a file's key is useless without it.
+ *
+ * <p>Content is split into chunks of fsserver.encryption.chunkSize, each sealed with AES-GCM
+ * (AES-NI and carry-less multiply intrinsics in the JDK) under a nonce made of its index and a
+ * last-chunk flag, with the header as associated data. Chunks therefore cannot be reordered,
+ * dropped or moved between files undetected, and any chunk can be decrypted on its own: reading
+ * from an offset costs one chunk, not the whole file before it.
+ *
+ * <p>Reading recognises encrypted files by their header, so files stored before encryption was
+ * enabled are still served as they are. Encrypted files cannot be read without the master key
+ */
+@ApplicationScoped
+public class FileEncryption {
+
+  static final int TAG_LENGTH = 16;
+  private static final Logger LOG = Logger.getLogger(FileEncryption.class);
+  private static final String CONTENT_CIPHER = "AES/GCM/NoPadding";
+  private static final String KEY_WRAP_CIPHER = "AESWrap";
+  private static final int DATA_KEY_BITS = 256;
+  private static final int NONCE_LENGTH = 12;
+  // chunks are read, sealed and written this many bytes at a time
+  private static final int BATCH_SIZE = 1024 * 1024;
+
+  private final boolean enabled;
+  private final SecretKey masterKey;
+  private final int masterKeyFingerprint;
+  private final int chunkSize;
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * @param enabled - whether newly stored files are encrypted
+   * @param masterKey - base64 of a 128, 192 or 256-bit AES key, required to store or read
+   *     encrypted files
+   * @param chunkSize - content bytes sealed together, the granularity of random access
+   */
+  @Inject
+  public FileEncryption(
+      @ConfigProperty(name = "fsserver.encryption.enabled", defaultValue = "false")
+          boolean enabled,
+      @ConfigProperty(name = "fsserver.encryption.masterKey") Optional<String> masterKey,
+      @ConfigProperty(name = "fsserver.encryption.chunkSize", defaultValue = "64K")
+          MemorySize chunkSize) {
+    this(
+        enabled,
+        masterKey.map(key -> Base64.getDecoder().decode(key.trim())).orElse(null),
+        (int) chunkSize.asLongValue());
+    if (enabled) {
+      LOG.info("Encrypting stored files in chunks of " + this.chunkSize + " bytes");
+    }
+  }
+
+  /**
+   * @param masterKey - raw AES key, null if none is configured
+   * @throws IllegalArgumentException - if enabled without a master key, or the key size is wrong
+   */
+  public FileEncryption(boolean enabled, byte[] masterKey, int chunkSize) {
+    if (enabled && masterKey == null) {
+      throw new IllegalArgumentException(
+          "fsserver.encryption.enabled requires fsserver.encryption.masterKey");
+    }
+    if (masterKey != null
+        && masterKey.length != 16
+        && masterKey.length != 24
+        && masterKey.length != 32) {
+      throw new IllegalArgumentException("The master key must be 16, 24 or 32 bytes long");
+    }
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("The chunk size must be positive");
+    }
+    this.enabled = enabled;
+    this.masterKey = masterKey == null ? null : new SecretKeySpec(masterKey, "AES");
+    this.masterKeyFingerprint = masterKey == null ? 0 : fingerprint(masterKey);
+    this.chunkSize = chunkSize;
+  }
+
+  /** @return whether newly stored files are to be encrypted */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Encrypts a file into a destination which must not exist yet, a batch of chunks at a time
+   *
+   * @return the destination
+   * @throws java.nio.file.FileAlreadyExistsException - if the destination already exists
+   * @throws IOException - if any I/O issue occurs. A partially written destination is left behind
+   *     for the caller to delete
+   */
+  public Path encrypt(Path source, Path destination) throws IOException {
+    SecretKey dataKey = newDataKey();
+    EncryptedFileHeader header =
+        new EncryptedFileHeader(chunkSize, Files.size(source), masterKeyFingerprint, wrap(dataKey));
+    byte[] headerBytes = header.toBytes();
+    int chunksPerBatch = Math.max(1, BATCH_SIZE / chunkSize);
+    byte[] content = new byte[chunksPerBatch * chunkSize];
+    byte[] sealed = new byte[chunksPerBatch * (chunkSize + TAG_LENGTH)];
+    Cipher cipher = newCipher();
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(
+                destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+      writeFully(out, ByteBuffer.wrap(headerBytes));
+      long chunkCount = header.getChunkCount();
+      long chunkIndex = 0;
+      while (chunkIndex < chunkCount) {
+        long batchEnd = Math.min(chunkIndex + chunksPerBatch, chunkCount);
+        int contentLength = 0;
+        for (long chunk = chunkIndex; chunk < batchEnd; chunk++) {
+          contentLength += header.chunkContentLength(chunk);
+        }
+        readFully(in, content, contentLength);
+        int contentOffset = 0;
+        int sealedLength = 0;
+        for (; chunkIndex < batchEnd; chunkIndex++) {
+          int chunkLength = header.chunkContentLength(chunkIndex);
+          initChunk(cipher, Cipher.ENCRYPT_MODE, dataKey, chunkIndex, chunkCount, headerBytes);
+          sealedLength += cipher.doFinal(content, contentOffset, chunkLength, sealed, sealedLength);
+          contentOffset += chunkLength;
+        }
+        writeFully(out, ByteBuffer.wrap(sealed, 0, sealedLength));
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Could not encrypt " + source, e);
+    }
+    return destination;
+  }
+
+  /**
+   * @return a stream of the file content, decrypted if the file is encrypted. Skipping forward
+   *     only decrypts the chunk where reading resumes
+   * @throws java.nio.file.NoSuchFileException - if there is no such file
+   * @throws IOException - if the file is encrypted under another or no master key, or any I/O
+   *     issue occurs
+   */
+  public InputStream open(Path storedFile) throws IOException {
+    FileChannel channel = FileChannel.open(storedFile, StandardOpenOption.READ);
+    try {
+      EncryptedFileHeader header = EncryptedFileHeader.readFrom(channel);
+      if (header == null) {
+        // positional reads left the channel at the start of the file
+        return Channels.newInputStream(channel);
+      }
+      return new DecryptingInputStream(channel, header, unwrap(header, storedFile));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** @return the length of the file content, i.e. without encryption overhead */
+  public long contentSize(Path storedFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(storedFile, StandardOpenOption.READ)) {
+      EncryptedFileHeader header = EncryptedFileHeader.readFrom(channel);
+      return header == null ? channel.size() : header.getContentLength();
+    }
+  }
+
+  /** @return how long a file of this content length is once encrypted with the current settings */
+  public long encryptedSize(long contentLength) {
+    long chunkCount = Math.max(1, (contentLength + chunkSize - 1) / chunkSize);
+    return EncryptedFileHeader.LENGTH + contentLength + chunkCount * TAG_LENGTH;
+  }
+
+  /** Initialises the cipher for one chunk of a file, whose header is authenticated with it */
+  static void initChunk(
+      Cipher cipher,
+      int mode,
+      SecretKey dataKey,
+      long chunkIndex,
+      long chunkCount,
+      byte[] headerBytes)
+      throws GeneralSecurityException {
+    byte[] nonce =
+        ByteBuffer.allocate(NONCE_LENGTH)
+            .putLong(chunkIndex)
+            .putInt(chunkIndex == chunkCount - 1 ? 1 : 0)
+            .array();
+    cipher.init(mode, dataKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+    cipher.updateAAD(headerBytes);
+  }
+
+  static Cipher newCipher() {
+    try {
+      return Cipher.getInstance(CONTENT_CIPHER);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(CONTENT_CIPHER + " is mandatory on every JVM", e);
+    }
+  }
+
+  private SecretKey newDataKey() {
+    try {
+      KeyGenerator generator = KeyGenerator.getInstance("AES");
+      generator.init(DATA_KEY_BITS, random);
+      return generator.generateKey();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("AES is mandatory on every JVM", e);
+    }
+  }
+
+  private byte[] wrap(SecretKey dataKey) throws IOException {
+    if (masterKey == null) {
+      throw new IOException("Cannot encrypt without fsserver.encryption.masterKey");
+    }
+    try {
+      Cipher cipher = Cipher.getInstance(KEY_WRAP_CIPHER);
+      cipher.init(Cipher.WRAP_MODE, masterKey);
+      return cipher.wrap(dataKey);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Could not wrap a data key", e);
+    }
+  }
+
+  private SecretKey unwrap(EncryptedFileHeader header, Path storedFile) throws IOException {
+    if (masterKey == null) {
+      throw new IOException(
+          storedFile + " is encrypted but no fsserver.encryption.masterKey is configured");
+    }
+    if (header.getMasterKeyFingerprint() != masterKeyFingerprint) {
+      throw new IOException(storedFile + " is encrypted under a different master key");
+    }
+    try {
+      Cipher cipher = Cipher.getInstance(KEY_WRAP_CIPHER);
+      cipher.init(Cipher.UNWRAP_MODE, masterKey);
+      return (SecretKey) cipher.unwrap(header.getWrappedDataKey(), "AES", Cipher.SECRET_KEY);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Could not unwrap the data key of " + storedFile, e);
+    }
+  }
+
+  private static int fingerprint(byte[] masterKey) {
+    try {
+      return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(masterKey)).getInt();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("SHA-256 is mandatory on every JVM", e);
+    }
+  }
+
+  private static void readFully(FileChannel in, byte[] buffer, int length) throws IOException {
+    ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+    while (target.hasRemaining()) {
+      if (in.read(target) < 0) {
+        throw new IOException("Source shrank while being encrypted");
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+}
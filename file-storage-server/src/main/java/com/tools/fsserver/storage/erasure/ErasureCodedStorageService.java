@@ -0,0 +1,416 @@
+package com.tools.fsserver.storage.erasure;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.ContentHashCache;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.IStorageService;
+import com.tools.fsserver.storage.StorageChangeListener;
+import com.tools.fsserver.storage.StorageChangeType;
+import com.tools.fsserver.storage.StorageVersionTracker;
+import com.tools.fsserver.storage.StripedLocks;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.runtime.Startup;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Storage backend which trades CPU for disk: each file is split into k data shards plus m
+ * Reed-Solomon parity shards, and shard i is written under storage root i modulo the number of
+ * roots. Storage overhead is (k+m)/k instead of the 3x of full replication, and the file stays
+ * readable as long as any k shards survive. Every block is stored with its CRC32, so that bit rot
+ * in a shard is caught on read and the block rebuilt from the other shards. Enabled with
+ * fsserver.storage.backend=erasure
+ */
+@Startup
+@ApplicationScoped
+@IfBuildProperty(name = "fsserver.storage.backend", stringValue = "erasure")
+public class ErasureCodedStorageService implements IStorageService {
+
+  private static final Logger LOG = Logger.getLogger(ErasureCodedStorageService.class);
+  private static final String SHARD_SUFFIX = ".shard";
+  private static final Pattern SHARD_FILE_NAME = Pattern.compile("(.+)\\.shard(\\d+)");
+
+  private final ReedSolomon codec;
+  private final List<Path> shardRoots;
+  private final int blockSize;
+  private final StripedLocks fileNameLocks = new StripedLocks();
+  private final StorageVersionTracker versionTracker = new StorageVersionTracker();
+  private final ContentHashCache contentHashes = new ContentHashCache();
+  private final StorageChangeListener changeListener;
+
+  public ErasureCodedStorageService(
+      List<String> shardRoots, int dataShards, int parityShards, int blockSize)
+      throws IOException {
+    this(shardRoots, dataShards, parityShards, blockSize, StorageChangeListener.NONE);
+  }
+
+  /**
+   * @param shardRoots - folders the shards are spread across, ideally on separate disks or mounts.
+   *     Each is created at startup if not already existing
+   * @param dataShards - number of data shards (k) each file is split into
+   * @param parityShards - number of parity shards (m), i.e. how many lost shards are tolerated
+   * @param blockSize - bytes per shard per stripe; files are encoded one k*blockSize stripe at a
+   *     time so memory use does not grow with file size
+   * @param changeListener - notified of every successful store and delete
+   * @throws IOException - if any I/O issues when creating the shard roots
+   */
+  @Inject
+  public ErasureCodedStorageService(
+      @ConfigProperty(name = "fsserver.erasure.shardRoots") List<String> shardRoots,
+      @ConfigProperty(name = "fsserver.erasure.dataShards", defaultValue = "4") int dataShards,
+      @ConfigProperty(name = "fsserver.erasure.parityShards", defaultValue = "2") int parityShards,
+      @ConfigProperty(name = "fsserver.erasure.blockSize", defaultValue = "65536") int blockSize,
+      StorageChangeListener changeListener)
+      throws IOException {
+    this.changeListener = changeListener;
+    this.codec = new ReedSolomon(dataShards, parityShards);
+    this.blockSize = blockSize;
+    this.shardRoots = new ArrayList<>();
+    for (String shardRoot : shardRoots) {
+      this.shardRoots.add(Files.createDirectories(Paths.get(shardRoot)));
+    }
+    LOG.info(
+        "FSServer erasure-coded storage using "
+            + dataShards
+            + "+"
+            + parityShards
+            + " shards across "
+            + this.shardRoots);
+  }
+
+  /**
+   * @return Returns the set of file names for which at least one shard is stored
+   * @throws IOException If any I/O issue occurs
+   */
+  public Set<String> listStoredFiles() throws IOException {
+    Set<String> uploadedFileNames = new HashSet<>();
+    for (Path shardRoot : new HashSet<>(this.shardRoots)) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(shardRoot)) {
+        for (Path shardFile : stream) {
+          Matcher matcher = SHARD_FILE_NAME.matcher(shardFile.getFileName().toString());
+          if (matcher.matches() && !Files.isDirectory(shardFile)) {
+            uploadedFileNames.add(matcher.group(1));
+          }
+        }
+      }
+    }
+    LOG.debug("Returning list of uploaded files: " + uploadedFileNames);
+    return uploadedFileNames;
+  }
+
+  /**
+   * Encodes the uploaded file stripe by stripe into k+m shard files. If anything fails part way,
+   * the shards written so far are removed so no partial file is left behind
+   *
+   * @param fileName - the final name of the uploaded file
+   * @param uploadSourcePath - the full path to the temp location of the multipart upload
+   * @throws FileNamePresentOnServerException - thrown if this file has already been uploaded
+   * @throws IOException - thrown if any I/O issue occurs
+   */
+  public void storeFile(String fileName, Path uploadSourcePath)
+      throws FileNamePresentOnServerException, IOException {
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    fileNameLock.lock();
+    try {
+      encodeToShards(fileName, uploadSourcePath);
+      this.changeListener.onStorageChange(StorageChangeType.CREATED, fileName);
+    } finally {
+      fileNameLock.unlock();
+    }
+    this.contentHashes.invalidate(fileName);
+    this.versionTracker.bump();
+  }
+
+  private void encodeToShards(String fileName, Path uploadSourcePath)
+      throws FileNamePresentOnServerException, IOException {
+    if (anyShardExists(fileName)) {
+      throw fileAlreadyPresent(fileName);
+    }
+    long originalLength = Files.size(uploadSourcePath);
+    int totalShards = codec.getTotalShardCount();
+    OutputStream[] shardOutputs = new OutputStream[totalShards];
+    boolean stored = false;
+    try (InputStream in = Files.newInputStream(uploadSourcePath)) {
+      for (int shard = 0; shard < totalShards; shard++) {
+        shardOutputs[shard] =
+            Files.newOutputStream(shardPath(fileName, shard), StandardOpenOption.CREATE_NEW);
+        new ShardHeader(
+                codec.getDataShardCount(),
+                codec.getParityShardCount(),
+                shard,
+                blockSize,
+                originalLength,
+                true)
+            .writeTo(shardOutputs[shard]);
+      }
+      // each block followed by its checksum, written out in one go
+      byte[][] stripe = new byte[totalShards][blockSize + ShardHeader.CHECKSUM_SIZE];
+      CRC32 crc = new CRC32();
+      long remaining = originalLength;
+      while (remaining > 0) {
+        for (int shard = 0; shard < codec.getDataShardCount(); shard++) {
+          int read = in.readNBytes(stripe[shard], 0, blockSize);
+          Arrays.fill(stripe[shard], read, blockSize, (byte) 0);
+          remaining -= read;
+        }
+        codec.encodeParity(stripe, 0, blockSize);
+        for (int shard = 0; shard < totalShards; shard++) {
+          ShardHeader.putChecksum(stripe[shard], blockSize, crc);
+          shardOutputs[shard].write(stripe[shard]);
+        }
+      }
+      stored = true;
+    } catch (FileAlreadyExistsException faex) {
+      throw fileAlreadyPresent(fileName);
+    } finally {
+      closeQuietly(shardOutputs);
+      if (!stored) {
+        deleteShardsCreatedBy(fileName, shardOutputs);
+      }
+    }
+    LOG.debug("Stored " + totalShards + " shards for file " + fileName);
+  }
+
+  /**
+   * @param fileNameToDelete - the name of the previously-uploaded file which we want to delete
+   * @throws FileNameNotPresentOnServerException - thrown if no shard of this file exists
+   * @throws IOException - thrown if any I/O issue occurs
+   */
+  public void deleteFile(String fileNameToDelete)
+      throws FileNameNotPresentOnServerException, IOException {
+    boolean deletedAny = false;
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileNameToDelete);
+    fileNameLock.lock();
+    try {
+      for (int shard = 0; shard < codec.getTotalShardCount(); shard++) {
+        deletedAny |= Files.deleteIfExists(shardPath(fileNameToDelete, shard));
+      }
+      if (deletedAny) {
+        this.changeListener.onStorageChange(StorageChangeType.DELETED, fileNameToDelete);
+      }
+    } finally {
+      fileNameLock.unlock();
+    }
+    if (!deletedAny) {
+      String errMsg = "There is no already uploaded file called " + fileNameToDelete;
+      LOG.error(errMsg);
+      throw new FileNameNotPresentOnServerException(errMsg);
+    }
+    this.contentHashes.invalidate(fileNameToDelete);
+    this.versionTracker.bump();
+    LOG.debug("Deleted all shards of file " + fileNameToDelete);
+  }
+
+  /** Checks the condition and deletes under the name's lock */
+  @Override
+  public boolean deleteFileIf(String fileName, Predicate<FileMetadata> condition)
+      throws FileNameNotPresentOnServerException, IOException {
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    fileNameLock.lock();
+    try {
+      return IStorageService.super.deleteFileIf(fileName, condition);
+    } finally {
+      fileNameLock.unlock();
+    }
+  }
+
+  /**
+   * Opens every readable shard and returns a stream which decodes the file stripe by stripe. Shards
+   * which are missing, truncated or carry a mismatching header are treated as erased, and so are
+   * blocks which fail their checksum. Parity shards are only read for stripes which need them
+   *
+   * @param fileNameToRetrieve - the name of the previously-uploaded file we want to read
+   * @throws FileNameNotPresentOnServerException - thrown if no shard of this file exists
+   * @throws IOException - thrown if fewer than k shards are readable, or any I/O issue occurs
+   */
+  public InputStream retrieveFile(String fileNameToRetrieve)
+      throws FileNameNotPresentOnServerException, IOException {
+    InputStream[] shardStreams = new InputStream[codec.getTotalShardCount()];
+    ShardHeader referenceHeader = null;
+    boolean anyShardFound = false;
+    try {
+      for (int shard = 0; shard < shardStreams.length; shard++) {
+        Path shardPath = shardPath(fileNameToRetrieve, shard);
+        if (Files.notExists(shardPath)) {
+          continue;
+        }
+        anyShardFound = true;
+        InputStream shardStream = Files.newInputStream(shardPath);
+        ShardHeader header = readHeaderIfUsable(shardStream, shardPath, shard);
+        boolean usable =
+            header != null
+                && (referenceHeader == null || referenceHeader.isCompatibleWith(header));
+        if (usable) {
+          referenceHeader = referenceHeader == null ? header : referenceHeader;
+          shardStreams[shard] = shardStream;
+        } else {
+          LOG.warn("Ignoring unusable shard " + shardPath);
+          shardStream.close();
+        }
+      }
+      if (!anyShardFound) {
+        String errMsg = "There is no already uploaded file called " + fileNameToRetrieve;
+        LOG.error(errMsg);
+        throw new FileNameNotPresentOnServerException(errMsg);
+      }
+      if (referenceHeader == null) {
+        throw new IOException("No readable shard found for " + fileNameToRetrieve);
+      }
+      return new ErasureDecodingInputStream(codec, shardStreams, referenceHeader);
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(shardStreams);
+      throw e;
+    }
+  }
+
+  public ContentVersion getListingVersion() {
+    return this.versionTracker.current();
+  }
+
+  /**
+   * @param fileName - the name of a previously-uploaded file
+   * @return the SHA-256 hash of the decoded content, computed on first request and cached until a
+   *     shard changes, together with the newest shard modification time
+   * @throws FileNameNotPresentOnServerException - thrown if no shard of this file exists
+   * @throws IOException - thrown if the file cannot be decoded or any I/O issue occurs
+   */
+  public ContentVersion getFileVersion(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    long lastModifiedMillis = -1;
+    for (int shard = 0; shard < codec.getTotalShardCount(); shard++) {
+      Path shardPath = shardPath(fileName, shard);
+      if (Files.exists(shardPath)) {
+        lastModifiedMillis =
+            Math.max(lastModifiedMillis, Files.getLastModifiedTime(shardPath).toMillis());
+      }
+    }
+    if (lastModifiedMillis < 0) {
+      String errMsg = "There is no already uploaded file called " + fileName;
+      LOG.error(errMsg);
+      throw new FileNameNotPresentOnServerException(errMsg);
+    }
+    String contentHash =
+        this.contentHashes.hashFor(fileName, lastModifiedMillis, () -> openForHashing(fileName));
+    return new ContentVersion(contentHash, lastModifiedMillis);
+  }
+
+  /**
+   * @param fileName - the name of a previously-uploaded file
+   * @return the original size of the file, as recorded in the header of the first usable shard
+   * @throws FileNameNotPresentOnServerException - thrown if no shard of this file exists
+   * @throws IOException - thrown if no shard is usable, or any I/O issue occurs
+   */
+  public long getFileSize(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    boolean anyShardFound = false;
+    for (int shard = 0; shard < codec.getTotalShardCount(); shard++) {
+      Path shardPath = shardPath(fileName, shard);
+      if (Files.notExists(shardPath)) {
+        continue;
+      }
+      anyShardFound = true;
+      try (InputStream shardStream = Files.newInputStream(shardPath)) {
+        ShardHeader header = readHeaderIfUsable(shardStream, shardPath, shard);
+        if (header != null) {
+          return header.originalLength;
+        }
+      }
+    }
+    if (!anyShardFound) {
+      String errMsg = "There is no already uploaded file called " + fileName;
+      LOG.error(errMsg);
+      throw new FileNameNotPresentOnServerException(errMsg);
+    }
+    throw new IOException("No readable shard found for " + fileName);
+  }
+
+  private InputStream openForHashing(String fileName) throws IOException {
+    try {
+      return retrieveFile(fileName);
+    } catch (FileNameNotPresentOnServerException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  private ShardHeader readHeaderIfUsable(InputStream shardStream, Path shardPath, int shard) {
+    try {
+      ShardHeader header = ShardHeader.readFrom(shardStream);
+      boolean matchesLayout =
+          header.shardIndex == shard
+              && header.dataShards == codec.getDataShardCount()
+              && header.parityShards == codec.getParityShardCount()
+              && header.blockSize > 0
+              && Files.size(shardPath) == header.expectedShardFileSize();
+      return matchesLayout ? header : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private Path shardPath(String fileName, int shard) {
+    return shardRoots.get(shard % shardRoots.size()).resolve(fileName + SHARD_SUFFIX + shard);
+  }
+
+  private boolean anyShardExists(String fileName) {
+    for (int shard = 0; shard < codec.getTotalShardCount(); shard++) {
+      if (Files.exists(shardPath(fileName, shard))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private FileNamePresentOnServerException fileAlreadyPresent(String fileName) {
+    String errMsg = "There already exists a file called " + fileName;
+    LOG.error(errMsg);
+    return new FileNamePresentOnServerException(errMsg);
+  }
+
+  private void deleteShardsCreatedBy(String fileName, OutputStream[] shardOutputs) {
+    for (int shard = 0; shard < shardOutputs.length; shard++) {
+      if (shardOutputs[shard] != null) {
+        try {
+          Files.deleteIfExists(shardPath(fileName, shard));
+        } catch (IOException e) {
+          LOG.warn("Could not remove partial shard " + shardPath(fileName, shard), e);
+        }
+      }
+    }
+  }
+
+  private static void closeQuietly(AutoCloseable[] closeables) {
+    for (AutoCloseable closeable : closeables) {
+      if (closeable != null) {
+        try {
+          closeable.close();
+        } catch (Exception e) {
+          LOG.debug("Ignoring failure to close shard stream", e);
+        }
+      }
+    }
+  }
+}
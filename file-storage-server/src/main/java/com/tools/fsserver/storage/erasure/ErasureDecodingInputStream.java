@@ -0,0 +1,207 @@
+package com.tools.fsserver.storage.erasure;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reassembles the original file from its shard files one stripe at a time. Memory use is bounded by
+ * a single stripe (k+m blocks) whatever the file size. While the data shards are intact only they
+ * are read; parity blocks are read for a stripe only when one of its data blocks is missing, as
+ * many as there are missing blocks, and the stripe is rebuilt from them on the fly. A block is
+ * missing when its shard is, when the shard is truncated or unreadable from that point on, or when
+ * the block fails its checksum, in which case the rest of the shard is still used
+ */
+class ErasureDecodingInputStream extends InputStream {
+
+  private static final Logger LOG = Logger.getLogger(ErasureDecodingInputStream.class);
+
+  private final ReedSolomon codec;
+  private final InputStream[] shardStreams;
+  private final boolean[] shardPresent;
+  // which blocks of the current stripe were read and are intact
+  private final boolean[] blockValid;
+  // the stripe each shard stream is positioned at, parity streams fall behind while unused
+  private final long[] nextStripeOfShard;
+  // blocks as stored, followed by their checksum if the shards have any
+  private final byte[][] stripe;
+  private final CRC32 crc = new CRC32();
+  private final int blockSize;
+  private final int recordSize;
+  private final boolean blockChecksums;
+  private final long stripeCount;
+  private long remainingBytes;
+  private long stripesRead;
+  private int dataShardIndex;
+  private int positionInBlock;
+  private int availableInStripe;
+
+  /**
+   * @param shardStreams - one stream per shard positioned right after the header, or null for
+   *     shards which are missing. Ownership passes to this stream
+   */
+  ErasureDecodingInputStream(ReedSolomon codec, InputStream[] shardStreams, ShardHeader header)
+      throws IOException {
+    this.codec = codec;
+    this.shardStreams = shardStreams;
+    this.shardPresent = new boolean[shardStreams.length];
+    for (int i = 0; i < shardStreams.length; i++) {
+      this.shardPresent[i] = shardStreams[i] != null;
+    }
+    this.blockValid = new boolean[shardStreams.length];
+    this.nextStripeOfShard = new long[shardStreams.length];
+    this.blockSize = header.blockSize;
+    this.recordSize = header.recordSize();
+    this.blockChecksums = header.blockChecksums;
+    this.stripeCount = header.stripeCount();
+    this.remainingBytes = header.originalLength;
+    this.stripe = new byte[shardStreams.length][recordSize];
+    ensureEnoughShards();
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int read = read(single, 0, 1);
+    return read == -1 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (availableInStripe == 0 && !loadNextStripe()) {
+      return -1;
+    }
+    int copied = 0;
+    while (copied < length && availableInStripe > 0) {
+      int chunk =
+          Math.min(length - copied, Math.min(blockSize - positionInBlock, availableInStripe));
+      System.arraycopy(stripe[dataShardIndex], positionInBlock, buffer, offset + copied, chunk);
+      copied += chunk;
+      positionInBlock += chunk;
+      availableInStripe -= chunk;
+      if (positionInBlock == blockSize) {
+        positionInBlock = 0;
+        dataShardIndex++;
+      }
+    }
+    return copied;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException firstFailure = null;
+    for (InputStream shardStream : shardStreams) {
+      if (shardStream != null) {
+        try {
+          shardStream.close();
+        } catch (IOException e) {
+          firstFailure = firstFailure == null ? e : firstFailure;
+        }
+      }
+    }
+    if (firstFailure != null) {
+      throw firstFailure;
+    }
+  }
+
+  private boolean loadNextStripe() throws IOException {
+    if (stripesRead == stripeCount || remainingBytes == 0) {
+      return false;
+    }
+    int dataShards = codec.getDataShardCount();
+    int validBlocks = 0;
+    for (int shard = 0; shard < shardStreams.length; shard++) {
+      // parity only once a data block is missing, and no more of it than needed
+      boolean needed = shard < dataShards || validBlocks < dataShards;
+      blockValid[shard] = needed && shardPresent[shard] && readBlock(shard, stripesRead);
+      validBlocks += blockValid[shard] ? 1 : 0;
+    }
+    if (validBlocks < dataShards) {
+      throw new IOException(
+          "Only "
+              + validBlocks
+              + " blocks of stripe "
+              + stripesRead
+              + " readable but "
+              + dataShards
+              + " are needed to reconstruct the file");
+    }
+    boolean dataBlockMissing = false;
+    for (int shard = 0; shard < dataShards; shard++) {
+      dataBlockMissing |= !blockValid[shard];
+    }
+    if (dataBlockMissing) {
+      codec.reconstructData(stripe, blockValid, 0, blockSize);
+    }
+    stripesRead++;
+    long stripeDataBytes = (long) dataShards * blockSize;
+    availableInStripe = (int) Math.min(stripeDataBytes, remainingBytes);
+    remainingBytes -= availableInStripe;
+    dataShardIndex = 0;
+    positionInBlock = 0;
+    return true;
+  }
+
+  /**
+   * Reads the shard's block of the given stripe, first skipping the stripes it was not needed for.
+   * A shard which ends early or fails to read is given up for the rest of the file, a block which
+   * fails its checksum only for its stripe
+   *
+   * @return whether the block was read and is intact
+   */
+  private boolean readBlock(int shard, long stripeIndex) {
+    InputStream shardStream = shardStreams[shard];
+    try {
+      if (!skipFully(shardStream, (stripeIndex - nextStripeOfShard[shard]) * recordSize)
+          || shardStream.readNBytes(stripe[shard], 0, recordSize) != recordSize) {
+        shardPresent[shard] = false;
+        return false;
+      }
+    } catch (IOException e) {
+      shardPresent[shard] = false;
+      return false;
+    }
+    nextStripeOfShard[shard] = stripeIndex + 1;
+    if (blockChecksums && !ShardHeader.hasValidChecksum(stripe[shard], blockSize, crc)) {
+      LOG.warn("Block " + stripeIndex + " of shard " + shard + " is corrupt, rebuilding it");
+      return false;
+    }
+    return true;
+  }
+
+  /** @return false if the stream ended before that many bytes, which seek on files */
+  private static boolean skipFully(InputStream in, long bytes) throws IOException {
+    long remaining = bytes;
+    while (remaining > 0) {
+      long skipped = in.skip(remaining);
+      if (skipped <= 0) {
+        if (in.read() == -1) {
+          return false;
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+    return true;
+  }
+
+  private void ensureEnoughShards() throws IOException {
+    int present = 0;
+    for (boolean shardIsPresent : shardPresent) {
+      present += shardIsPresent ? 1 : 0;
+    }
+    if (present < codec.getDataShardCount()) {
+      throw new IOException(
+          "Only "
+              + present
+              + " shards readable but "
+              + codec.getDataShardCount()
+              + " are needed to reconstruct the file");
+    }
+  }
+}
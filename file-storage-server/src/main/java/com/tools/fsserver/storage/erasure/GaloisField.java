@@ -0,0 +1,81 @@
+package com.tools.fsserver.storage.erasure;
+
+/**
+ * Arithmetic over GF(2^8) with the 0x11D generator polynomial. Every operation is a table lookup:
+ * the full 256x256 multiplication table (64KB) is precomputed once so the encode/decode inner loops
+ * reduce to {@code out[i] ^= row[in[i] & 0xFF]}, a branch-free loop over contiguous arrays which
+ * the JIT unrolls well
+ */
+final class GaloisField {
+
+  static final int FIELD_SIZE = 256;
+  private static final int GENERATOR_POLYNOMIAL = 0x11D;
+
+  private static final short[] LOG_TABLE = new short[FIELD_SIZE];
+  private static final byte[] EXP_TABLE = new byte[FIELD_SIZE * 2 - 2];
+  private static final byte[][] MULTIPLICATION_TABLE = new byte[FIELD_SIZE][FIELD_SIZE];
+
+  static {
+    int value = 1;
+    for (int exponent = 0; exponent < FIELD_SIZE - 1; exponent++) {
+      EXP_TABLE[exponent] = (byte) value;
+      EXP_TABLE[exponent + FIELD_SIZE - 1] = (byte) value;
+      LOG_TABLE[value] = (short) exponent;
+      value <<= 1;
+      if (value >= FIELD_SIZE) {
+        value ^= GENERATOR_POLYNOMIAL;
+      }
+    }
+    for (int a = 0; a < FIELD_SIZE; a++) {
+      for (int b = 0; b < FIELD_SIZE; b++) {
+        MULTIPLICATION_TABLE[a][b] = slowMultiply(a, b);
+      }
+    }
+  }
+
+  private GaloisField() {}
+
+  static byte multiply(byte a, byte b) {
+    return MULTIPLICATION_TABLE[a & 0xFF][b & 0xFF];
+  }
+
+  /**
+   * @param coefficient - the constant every input byte will be multiplied by
+   * @return the 256 entry lookup row for multiplication by the given coefficient
+   */
+  static byte[] multiplicationRow(byte coefficient) {
+    return MULTIPLICATION_TABLE[coefficient & 0xFF];
+  }
+
+  static byte divide(byte a, byte b) {
+    if (b == 0) {
+      throw new ArithmeticException("Division by zero in GF(256)");
+    }
+    if (a == 0) {
+      return 0;
+    }
+    int logResult = LOG_TABLE[a & 0xFF] - LOG_TABLE[b & 0xFF];
+    if (logResult < 0) {
+      logResult += FIELD_SIZE - 1;
+    }
+    return EXP_TABLE[logResult];
+  }
+
+  static byte exp(byte a, int exponent) {
+    if (exponent == 0) {
+      return 1;
+    }
+    if (a == 0) {
+      return 0;
+    }
+    int logResult = (LOG_TABLE[a & 0xFF] * exponent) % (FIELD_SIZE - 1);
+    return EXP_TABLE[logResult];
+  }
+
+  private static byte slowMultiply(int a, int b) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+    return EXP_TABLE[LOG_TABLE[a] + LOG_TABLE[b]];
+  }
+}
@@ -0,0 +1,283 @@
+package com.tools.fsserver.storage.erasure;
+
+/**
+ * Systematic Reed-Solomon codec over GF(2^8). The encoding matrix is a Vandermonde matrix
+ * normalised so that its top k rows form the identity: the first k shards are the original data
+ * untouched and the remaining m shards hold parity. Any k of the k+m shards are enough to rebuild
+ * the rest.
+ *
+ * <p>All shards passed to a single call must have the same length. Instances are immutable and
+ * thread safe
+ */
+public final class ReedSolomon {
+
+  private final int dataShardCount;
+  private final int parityShardCount;
+  private final byte[][] encodingMatrix;
+  private final byte[][] parityRows;
+
+  /**
+   * @param dataShardCount - number of data shards (k), at least 1
+   * @param parityShardCount - number of parity shards (m), at least 1
+   * @throws IllegalArgumentException - if the counts are out of range or k+m exceeds 256
+   */
+  public ReedSolomon(int dataShardCount, int parityShardCount) {
+    if (dataShardCount < 1 || parityShardCount < 1) {
+      throw new IllegalArgumentException("Data and parity shard counts must both be positive");
+    }
+    if (dataShardCount + parityShardCount > GaloisField.FIELD_SIZE) {
+      throw new IllegalArgumentException(
+          "Total shard count cannot exceed " + GaloisField.FIELD_SIZE);
+    }
+    this.dataShardCount = dataShardCount;
+    this.parityShardCount = parityShardCount;
+    this.encodingMatrix = buildEncodingMatrix(dataShardCount, dataShardCount + parityShardCount);
+    this.parityRows = new byte[parityShardCount][];
+    for (int i = 0; i < parityShardCount; i++) {
+      this.parityRows[i] = this.encodingMatrix[dataShardCount + i];
+    }
+  }
+
+  public int getDataShardCount() {
+    return dataShardCount;
+  }
+
+  public int getParityShardCount() {
+    return parityShardCount;
+  }
+
+  public int getTotalShardCount() {
+    return dataShardCount + parityShardCount;
+  }
+
+  /**
+   * Computes the parity shards from the data shards
+   *
+   * @param shards - k+m arrays; the first k hold data, the last m are overwritten with parity
+   * @param offset - index of the first byte to encode in every shard
+   * @param byteCount - number of bytes to encode in every shard
+   */
+  public void encodeParity(byte[][] shards, int offset, int byteCount) {
+    checkShards(shards, offset, byteCount);
+    byte[][] outputs = new byte[parityShardCount][];
+    System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+    codeSomeShards(parityRows, shards, outputs, offset, byteCount);
+  }
+
+  /**
+   * Rebuilds every missing shard in place
+   *
+   * @param shards - k+m arrays of equal length; contents of absent shards are ignored and replaced
+   * @param shardPresent - which of the shards hold valid data
+   * @param offset - index of the first byte to reconstruct in every shard
+   * @param byteCount - number of bytes to reconstruct in every shard
+   * @throws IllegalArgumentException - if fewer than k shards are present
+   */
+  public void reconstruct(byte[][] shards, boolean[] shardPresent, int offset, int byteCount) {
+    reconstruct(shards, shardPresent, offset, byteCount, true);
+  }
+
+  /**
+   * Same as reconstruct, but only rebuilds the missing data shards, for readers which have no use
+   * for parity. Absent parity shards are left as they are
+   */
+  public void reconstructData(
+      byte[][] shards, boolean[] shardPresent, int offset, int byteCount) {
+    reconstruct(shards, shardPresent, offset, byteCount, false);
+  }
+
+  private void reconstruct(
+      byte[][] shards, boolean[] shardPresent, int offset, int byteCount, boolean withParity) {
+    checkShards(shards, offset, byteCount);
+    int presentCount = 0;
+    for (boolean present : shardPresent) {
+      if (present) {
+        presentCount++;
+      }
+    }
+    if (presentCount == getTotalShardCount()) {
+      return;
+    }
+    if (presentCount < dataShardCount) {
+      throw new IllegalArgumentException(
+          "Not enough shards to reconstruct: need " + dataShardCount + ", have " + presentCount);
+    }
+
+    // Pick the first k surviving shards and the matching rows of the encoding matrix. Inverting
+    // that square sub-matrix gives the transformation from surviving shards back to the data
+    byte[][] subMatrix = new byte[dataShardCount][];
+    byte[][] subShards = new byte[dataShardCount][];
+    int subRow = 0;
+    for (int shard = 0; shard < getTotalShardCount() && subRow < dataShardCount; shard++) {
+      if (shardPresent[shard]) {
+        subMatrix[subRow] = encodingMatrix[shard].clone();
+        subShards[subRow] = shards[shard];
+        subRow++;
+      }
+    }
+    byte[][] decodeMatrix = invert(subMatrix);
+
+    int missingDataCount = 0;
+    byte[][] missingDataRows = new byte[dataShardCount][];
+    byte[][] missingDataOutputs = new byte[dataShardCount][];
+    for (int shard = 0; shard < dataShardCount; shard++) {
+      if (!shardPresent[shard]) {
+        missingDataRows[missingDataCount] = decodeMatrix[shard];
+        missingDataOutputs[missingDataCount] = shards[shard];
+        missingDataCount++;
+      }
+    }
+    codeSomeShards(
+        trim(missingDataRows, missingDataCount),
+        subShards,
+        trim(missingDataOutputs, missingDataCount),
+        offset,
+        byteCount);
+    if (!withParity) {
+      return;
+    }
+
+    // With all data shards restored, missing parity is a plain re-encode of the affected rows
+    int missingParityCount = 0;
+    byte[][] missingParityRows = new byte[parityShardCount][];
+    byte[][] missingParityOutputs = new byte[parityShardCount][];
+    for (int shard = dataShardCount; shard < getTotalShardCount(); shard++) {
+      if (!shardPresent[shard]) {
+        missingParityRows[missingParityCount] = encodingMatrix[shard];
+        missingParityOutputs[missingParityCount] = shards[shard];
+        missingParityCount++;
+      }
+    }
+    codeSomeShards(
+        trim(missingParityRows, missingParityCount),
+        shards,
+        trim(missingParityOutputs, missingParityCount),
+        offset,
+        byteCount);
+  }
+
+  /**
+   * Multiplies the given matrix rows by the first k input shards. The loop order (input outermost,
+   * then output, then bytes) keeps one lookup row and one input array hot while streaming over the
+   * output, which is what keeps the codec close to memory bandwidth
+   */
+  private void codeSomeShards(
+      byte[][] matrixRows, byte[][] inputs, byte[][] outputs, int offset, int byteCount) {
+    int end = offset + byteCount;
+    for (int inputIndex = 0; inputIndex < dataShardCount; inputIndex++) {
+      byte[] input = inputs[inputIndex];
+      for (int outputIndex = 0; outputIndex < outputs.length; outputIndex++) {
+        byte[] output = outputs[outputIndex];
+        byte[] multiplicationRow =
+            GaloisField.multiplicationRow(matrixRows[outputIndex][inputIndex]);
+        if (inputIndex == 0) {
+          for (int i = offset; i < end; i++) {
+            output[i] = multiplicationRow[input[i] & 0xFF];
+          }
+        } else {
+          for (int i = offset; i < end; i++) {
+            output[i] ^= multiplicationRow[input[i] & 0xFF];
+          }
+        }
+      }
+    }
+  }
+
+  private void checkShards(byte[][] shards, int offset, int byteCount) {
+    if (shards.length != getTotalShardCount()) {
+      throw new IllegalArgumentException(
+          "Expected " + getTotalShardCount() + " shards but got " + shards.length);
+    }
+    int shardLength = shards[0].length;
+    for (byte[] shard : shards) {
+      if (shard.length != shardLength) {
+        throw new IllegalArgumentException("All shards must have the same length");
+      }
+    }
+    if (offset < 0 || byteCount < 0 || offset + byteCount > shardLength) {
+      throw new IllegalArgumentException("Offset and byte count exceed the shard length");
+    }
+  }
+
+  private static byte[][] trim(byte[][] rows, int count) {
+    byte[][] trimmed = new byte[count][];
+    System.arraycopy(rows, 0, trimmed, 0, count);
+    return trimmed;
+  }
+
+  private static byte[][] buildEncodingMatrix(int dataShards, int totalShards) {
+    byte[][] vandermonde = new byte[totalShards][dataShards];
+    for (int row = 0; row < totalShards; row++) {
+      for (int column = 0; column < dataShards; column++) {
+        vandermonde[row][column] = GaloisField.exp((byte) row, column);
+      }
+    }
+    byte[][] top = new byte[dataShards][];
+    for (int row = 0; row < dataShards; row++) {
+      top[row] = vandermonde[row].clone();
+    }
+    return multiply(vandermonde, invert(top));
+  }
+
+  private static byte[][] multiply(byte[][] left, byte[][] right) {
+    int rows = left.length;
+    int columns = right[0].length;
+    int inner = right.length;
+    byte[][] result = new byte[rows][columns];
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        byte value = 0;
+        for (int i = 0; i < inner; i++) {
+          value ^= GaloisField.multiply(left[row][i], right[i][column]);
+        }
+        result[row][column] = value;
+      }
+    }
+    return result;
+  }
+
+  /** Gauss-Jordan elimination over GF(256). The argument is consumed */
+  private static byte[][] invert(byte[][] matrix) {
+    int size = matrix.length;
+    byte[][] inverse = new byte[size][size];
+    for (int i = 0; i < size; i++) {
+      inverse[i][i] = 1;
+    }
+    for (int pivot = 0; pivot < size; pivot++) {
+      if (matrix[pivot][pivot] == 0) {
+        int swapRow = pivot + 1;
+        while (swapRow < size && matrix[swapRow][pivot] == 0) {
+          swapRow++;
+        }
+        if (swapRow == size) {
+          throw new IllegalArgumentException("Matrix is singular");
+        }
+        swapRows(matrix, pivot, swapRow);
+        swapRows(inverse, pivot, swapRow);
+      }
+      byte pivotValue = matrix[pivot][pivot];
+      if (pivotValue != 1) {
+        for (int column = 0; column < size; column++) {
+          matrix[pivot][column] = GaloisField.divide(matrix[pivot][column], pivotValue);
+          inverse[pivot][column] = GaloisField.divide(inverse[pivot][column], pivotValue);
+        }
+      }
+      for (int row = 0; row < size; row++) {
+        byte factor = matrix[row][pivot];
+        if (row != pivot && factor != 0) {
+          for (int column = 0; column < size; column++) {
+            matrix[row][column] ^= GaloisField.multiply(factor, matrix[pivot][column]);
+            inverse[row][column] ^= GaloisField.multiply(factor, inverse[pivot][column]);
+          }
+        }
+      }
+    }
+    return inverse;
+  }
+
+  private static void swapRows(byte[][] matrix, int first, int second) {
+    byte[] temp = matrix[first];
+    matrix[first] = matrix[second];
+    matrix[second] = temp;
+  }
+}
@@ -0,0 +1,120 @@
+package com.tools.fsserver.storage.erasure;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed-size header written at the start of every shard file. Each shard carries the full layout
+ * description, so any surviving subset of shards is self-describing when reconstructing. The magic
+ * number also tells whether every block of the shard is followed by its CRC32, which shards written
+ * before block checksums were introduced are not
+ */
+final class ShardHeader {
+
+  static final int SIZE = 28;
+  static final int CHECKSUM_SIZE = 4;
+  private static final int MAGIC = 0x46535243; // "FSRC", blocks without checksums
+  private static final int CHECKSUMMED_MAGIC = 0x46535232; // "FSR2", blocks followed by a CRC32
+
+  final int dataShards;
+  final int parityShards;
+  final int shardIndex;
+  final int blockSize;
+  final long originalLength;
+  final boolean blockChecksums;
+
+  ShardHeader(
+      int dataShards,
+      int parityShards,
+      int shardIndex,
+      int blockSize,
+      long originalLength,
+      boolean blockChecksums) {
+    this.dataShards = dataShards;
+    this.parityShards = parityShards;
+    this.shardIndex = shardIndex;
+    this.blockSize = blockSize;
+    this.originalLength = originalLength;
+    this.blockChecksums = blockChecksums;
+  }
+
+  /** @return how many k*blockSize stripes the original file spans */
+  long stripeCount() {
+    long stripeBytes = (long) dataShards * blockSize;
+    return (originalLength + stripeBytes - 1) / stripeBytes;
+  }
+
+  /** @return the bytes each stripe takes in the shard file: the block and its checksum if any */
+  int recordSize() {
+    return blockChecksums ? blockSize + CHECKSUM_SIZE : blockSize;
+  }
+
+  /** @return the exact size a complete shard file with this header must have */
+  long expectedShardFileSize() {
+    return SIZE + stripeCount() * recordSize();
+  }
+
+  void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream out = new DataOutputStream(outputStream);
+    out.writeInt(blockChecksums ? CHECKSUMMED_MAGIC : MAGIC);
+    out.writeInt(dataShards);
+    out.writeInt(parityShards);
+    out.writeInt(shardIndex);
+    out.writeInt(blockSize);
+    out.writeLong(originalLength);
+    out.flush();
+  }
+
+  /**
+   * @throws IOException - if the stream is truncated or does not start with a shard header
+   */
+  static ShardHeader readFrom(InputStream inputStream) throws IOException {
+    DataInputStream in = new DataInputStream(inputStream);
+    int magic = in.readInt();
+    if (magic != MAGIC && magic != CHECKSUMMED_MAGIC) {
+      throw new IOException("Not a shard file");
+    }
+    return new ShardHeader(
+        in.readInt(),
+        in.readInt(),
+        in.readInt(),
+        in.readInt(),
+        in.readLong(),
+        magic == CHECKSUMMED_MAGIC);
+  }
+
+  /** Stores the CRC32 of the first blockSize bytes of the record in its last four bytes */
+  static void putChecksum(byte[] record, int blockSize, CRC32 crc) {
+    crc.reset();
+    crc.update(record, 0, blockSize);
+    int value = (int) crc.getValue();
+    record[blockSize] = (byte) (value >>> 24);
+    record[blockSize + 1] = (byte) (value >>> 16);
+    record[blockSize + 2] = (byte) (value >>> 8);
+    record[blockSize + 3] = (byte) value;
+  }
+
+  /** @return whether the block matches the CRC32 stored after it by putChecksum */
+  static boolean hasValidChecksum(byte[] record, int blockSize, CRC32 crc) {
+    crc.reset();
+    crc.update(record, 0, blockSize);
+    int expected =
+        ((record[blockSize] & 0xFF) << 24)
+            | ((record[blockSize + 1] & 0xFF) << 16)
+            | ((record[blockSize + 2] & 0xFF) << 8)
+            | (record[blockSize + 3] & 0xFF);
+    return (int) crc.getValue() == expected;
+  }
+
+  boolean isCompatibleWith(ShardHeader other) {
+    return dataShards == other.dataShards
+        && parityShards == other.parityShards
+        && blockSize == other.blockSize
+        && originalLength == other.originalLength
+        && blockChecksums == other.blockChecksums;
+  }
+}
@@ -0,0 +1,509 @@
+package com.tools.fsserver.storage.s3;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The handful of S3 REST calls the storage backend needs, on the JDK HTTP client with path-style
+ * addressing (endpoint/bucket/key), which S3 and every compatible store accept.
+ *
+ * <p>The JDK client keeps one HTTP/1.1 connection per request in flight and pools them once idle,
+ * so the pool is sized by bounding requests in flight to maxConnections: requests beyond that wait
+ * for a permit instead of opening yet another connection, and the at most maxConnections pooled
+ * ones are reused. A download holds its permit until its stream is closed
+ */
+final class S3Client {
+
+  static final int NOT_FOUND = 404;
+  static final int PRECONDITION_FAILED = 412;
+  static final String METADATA_PREFIX = "x-amz-meta-";
+
+  private final URI endpoint;
+  private final String bucket;
+  private final S3RequestSigner signer;
+  private final HttpClient httpClient;
+  private final Semaphore connectionPermits;
+  private final Duration requestTimeout;
+  private final Clock clock;
+
+  /**
+   * @param endpoint - base URI of the store, e.g. http://127.0.0.1:9000
+   * @param maxConnections - most requests in flight, hence connections open, at any time
+   * @param requestTimeout - also bounds connection establishment
+   */
+  S3Client(
+      URI endpoint,
+      String bucket,
+      S3RequestSigner signer,
+      int maxConnections,
+      Duration requestTimeout,
+      Clock clock) {
+    String base = endpoint.toString();
+    this.endpoint = URI.create(base.endsWith("/") ? base.substring(0, base.length() - 1) : base);
+    this.bucket = bucket;
+    this.signer = signer;
+    this.connectionPermits = new Semaphore(maxConnections);
+    this.requestTimeout = requestTimeout;
+    this.clock = clock;
+    this.httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(requestTimeout)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+  }
+
+  /** @return size, dates and user metadata of the object, null if it does not exist */
+  S3ObjectInfo headObject(String key) throws IOException {
+    HttpResponse<byte[]> response =
+        send(request("HEAD", key, null, Map.of(), HttpRequest.BodyPublishers.noBody()));
+    if (response.statusCode() == NOT_FOUND) {
+      return null;
+    }
+    checkSuccess(response);
+    return toObjectInfo(response.headers());
+  }
+
+  /** @return the object content, null if it does not exist. Closing the stream frees its permit */
+  InputStream getObject(String key) throws IOException {
+    HttpRequest request = request("GET", key, null, Map.of(), HttpRequest.BodyPublishers.noBody());
+    acquirePermit();
+    HttpResponse<InputStream> response;
+    try {
+      response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    } catch (IOException | RuntimeException e) {
+      connectionPermits.release();
+      throw e;
+    } catch (InterruptedException e) {
+      connectionPermits.release();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while requesting " + key);
+    }
+    InputStream body = new PermitReleasingInputStream(response.body(), connectionPermits);
+    if (response.statusCode() / 100 == 2) {
+      return body;
+    }
+    try (body) {
+      if (response.statusCode() == NOT_FOUND) {
+        return null;
+      }
+      throw S3Exception.of(response.statusCode(), body.readAllBytes());
+    }
+  }
+
+  /**
+   * Uploads a whole object in a single request
+   *
+   * @param headers - content type and x-amz-meta-* headers stored with the object
+   * @param ifAbsent - whether to fail with PRECONDITION_FAILED if the key already exists
+   */
+  void putObject(String key, Path source, Map<String, String> headers, boolean ifAbsent)
+      throws IOException {
+    Map<String, String> allHeaders = new HashMap<>(headers);
+    if (ifAbsent) {
+      allHeaders.put("If-None-Match", "*");
+    }
+    checkSuccess(
+        send(request("PUT", key, null, allHeaders, HttpRequest.BodyPublishers.ofFile(source))));
+  }
+
+  void deleteObject(String key) throws IOException {
+    checkSuccess(
+        send(request("DELETE", key, null, Map.of(), HttpRequest.BodyPublishers.noBody())));
+  }
+
+  /**
+   * One page of ListObjectsV2
+   *
+   * @param continuationToken - token of the previous page, null for the first one
+   */
+  ListPage listObjects(String prefix, String continuationToken, int maxKeys) throws IOException {
+    StringBuilder query = new StringBuilder("encoding-type=url&list-type=2");
+    query.append("&max-keys=").append(maxKeys);
+    query.append("&prefix=").append(S3RequestSigner.uriEncode(prefix, true));
+    if (continuationToken != null) {
+      query
+          .append("&continuation-token=")
+          .append(S3RequestSigner.uriEncode(continuationToken, true));
+    }
+    HttpResponse<byte[]> response =
+        send(
+            request(
+                "GET", null, query.toString(), Map.of(), HttpRequest.BodyPublishers.noBody()));
+    checkSuccess(response);
+    Map<String, List<String>> elements =
+        elementTexts(response.body(), "Key", "IsTruncated", "NextContinuationToken");
+    List<String> keys = new ArrayList<>();
+    for (String encodedKey : elements.get("Key")) {
+      keys.add(URLDecoder.decode(encodedKey, StandardCharsets.UTF_8));
+    }
+    boolean truncated =
+        !elements.get("IsTruncated").isEmpty()
+            && Boolean.parseBoolean(elements.get("IsTruncated").get(0));
+    List<String> nextToken = elements.get("NextContinuationToken");
+    return new ListPage(keys, truncated && !nextToken.isEmpty() ? nextToken.get(0) : null);
+  }
+
+  /** @return the upload id of a new multipart upload of the object */
+  String createMultipartUpload(String key, Map<String, String> headers) throws IOException {
+    HttpResponse<byte[]> response =
+        send(request("POST", key, "uploads", headers, HttpRequest.BodyPublishers.noBody()));
+    checkSuccess(response);
+    List<String> uploadIds = elementTexts(response.body(), "UploadId").get("UploadId");
+    if (uploadIds.isEmpty()) {
+      throw new S3Exception(response.statusCode(), null, "No UploadId in response");
+    }
+    return uploadIds.get(0);
+  }
+
+  /**
+   * Uploads bytes [offset, offset + length) of the source as one part, streamed from the file.
+   * Waits for a connection permit, then returns without waiting for the response
+   *
+   * @return the ETag of the part, or an S3Exception or IOException
+   */
+  CompletableFuture<String> uploadPart(
+      String key, String uploadId, int partNumber, Path source, long offset, long length)
+      throws IOException {
+    String query =
+        "partNumber=" + partNumber + "&uploadId=" + S3RequestSigner.uriEncode(uploadId, true);
+    HttpRequest.BodyPublisher body =
+        HttpRequest.BodyPublishers.fromPublisher(
+            HttpRequest.BodyPublishers.ofInputStream(
+                () -> FileRegionInputStream.open(source, offset, length)),
+            length);
+    HttpRequest request = request("PUT", key, query, Map.of(), body);
+    acquirePermit();
+    CompletableFuture<HttpResponse<byte[]>> response;
+    try {
+      response = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    } catch (RuntimeException e) {
+      connectionPermits.release();
+      throw e;
+    }
+    return response
+        .whenComplete((ignored, error) -> connectionPermits.release())
+        .thenApply(
+            partResponse -> {
+              try {
+                checkSuccess(partResponse);
+              } catch (S3Exception e) {
+                throw new CompletionException(e);
+              }
+              return partResponse
+                  .headers()
+                  .firstValue("ETag")
+                  .orElseThrow(
+                      () ->
+                          new CompletionException(
+                              new S3Exception(
+                                  partResponse.statusCode(),
+                                  null,
+                                  "No ETag for part " + partNumber)));
+            });
+  }
+
+  /**
+   * @param partETags - ETag of every part, in part number order
+   * @param ifAbsent - whether to fail with PRECONDITION_FAILED if the key exists by now
+   */
+  void completeMultipartUpload(
+      String key, String uploadId, List<String> partETags, boolean ifAbsent) throws IOException {
+    StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+    for (int i = 0; i < partETags.size(); i++) {
+      body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>");
+      body.append(escapeXml(partETags.get(i))).append("</ETag></Part>");
+    }
+    body.append("</CompleteMultipartUpload>");
+    Map<String, String> headers = new HashMap<>();
+    headers.put("Content-Type", "application/xml");
+    if (ifAbsent) {
+      headers.put("If-None-Match", "*");
+    }
+    HttpResponse<byte[]> response =
+        send(
+            request(
+                "POST",
+                key,
+                "uploadId=" + S3RequestSigner.uriEncode(uploadId, true),
+                headers,
+                HttpRequest.BodyPublishers.ofString(body.toString())));
+    checkSuccess(response);
+    // S3 may answer 200 and still report a failure in the body
+    String responseBody = new String(response.body(), StandardCharsets.UTF_8);
+    if (responseBody.contains("<Error>")) {
+      throw S3Exception.of(response.statusCode(), response.body());
+    }
+  }
+
+  void abortMultipartUpload(String key, String uploadId) throws IOException {
+    HttpResponse<byte[]> response =
+        send(
+            request(
+                "DELETE",
+                key,
+                "uploadId=" + S3RequestSigner.uriEncode(uploadId, true),
+                Map.of(),
+                HttpRequest.BodyPublishers.noBody()));
+    if (response.statusCode() != NOT_FOUND) {
+      checkSuccess(response);
+    }
+  }
+
+  /**
+   * @param key - object key, null for a request on the bucket itself
+   * @param rawQuery - already encoded query string, null if none
+   */
+  private HttpRequest request(
+      String method,
+      String key,
+      String rawQuery,
+      Map<String, String> headers,
+      HttpRequest.BodyPublisher body) {
+    String rawPath =
+        endpoint.getRawPath()
+            + "/"
+            + S3RequestSigner.uriEncode(bucket, true)
+            + (key == null ? "" : "/" + S3RequestSigner.uriEncode(key, false));
+    URI uri =
+        URI.create(
+            endpoint.getScheme()
+                + "://"
+                + endpoint.getRawAuthority()
+                + rawPath
+                + (rawQuery == null ? "" : "?" + rawQuery));
+    SortedMap<String, String> signedHeaders = new TreeMap<>();
+    signedHeaders.put("host", S3RequestSigner.hostHeader(uri));
+    signedHeaders.put("x-amz-date", S3RequestSigner.amzDate(clock.instant()));
+    signedHeaders.put("x-amz-content-sha256", S3RequestSigner.UNSIGNED_PAYLOAD);
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder(uri).timeout(requestTimeout).method(method, body);
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      String name = header.getKey().toLowerCase(Locale.ROOT);
+      if (name.startsWith("x-amz-")) {
+        signedHeaders.put(name, header.getValue());
+      } else {
+        builder.header(header.getKey(), header.getValue());
+      }
+    }
+    for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+      if (!header.getKey().equals("host")) {
+        builder.header(header.getKey(), header.getValue());
+      }
+    }
+    builder.header(
+        "Authorization",
+        signer.authorization(
+            method, rawPath, rawQuery, signedHeaders, S3RequestSigner.UNSIGNED_PAYLOAD));
+    return builder.build();
+  }
+
+  private HttpResponse<byte[]> send(HttpRequest request) throws IOException {
+    acquirePermit();
+    try {
+      return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while requesting " + request.uri());
+    } finally {
+      connectionPermits.release();
+    }
+  }
+
+  private void acquirePermit() throws InterruptedIOException {
+    try {
+      connectionPermits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection");
+    }
+  }
+
+  private static void checkSuccess(HttpResponse<byte[]> response) throws S3Exception {
+    if (response.statusCode() / 100 != 2) {
+      throw S3Exception.of(response.statusCode(), response.body());
+    }
+  }
+
+  private static S3ObjectInfo toObjectInfo(HttpHeaders headers) {
+    Map<String, String> userMetadata = new HashMap<>();
+    for (Map.Entry<String, List<String>> header : headers.map().entrySet()) {
+      String name = header.getKey().toLowerCase(Locale.ROOT);
+      if (name.startsWith(METADATA_PREFIX) && !header.getValue().isEmpty()) {
+        userMetadata.put(name.substring(METADATA_PREFIX.length()), header.getValue().get(0));
+      }
+    }
+    long lastModifiedMillis =
+        headers
+            .firstValue("Last-Modified")
+            .map(
+                value ->
+                    ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant()
+                        .toEpochMilli())
+            .orElse(0L);
+    return new S3ObjectInfo(
+        headers.firstValueAsLong("Content-Length").orElse(0),
+        lastModifiedMillis,
+        headers.firstValue("ETag").orElse(null),
+        headers.firstValue("Content-Type").orElse(null),
+        userMetadata);
+  }
+
+  /** @return text of every element with one of the given local names, in document order */
+  static Map<String, List<String>> elementTexts(byte[] xml, String... elementNames)
+      throws S3Exception {
+    Map<String, List<String>> texts = new HashMap<>();
+    for (String elementName : elementNames) {
+      texts.put(elementName, new ArrayList<>());
+    }
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    try {
+      XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(xml));
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT
+              && texts.containsKey(reader.getLocalName())) {
+            texts.get(reader.getLocalName()).add(reader.getElementText());
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new S3Exception(0, null, "Unreadable XML response: " + e.getMessage());
+    }
+    return texts;
+  }
+
+  private static String escapeXml(String value) {
+    return value
+        .replace("&", "&amp;")
+        .replace("<", "&lt;")
+        .replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+
+  static final class ListPage {
+    private final List<String> keys;
+    private final String nextContinuationToken;
+
+    ListPage(List<String> keys, String nextContinuationToken) {
+      this.keys = keys;
+      this.nextContinuationToken = nextContinuationToken;
+    }
+
+    List<String> getKeys() {
+      return keys;
+    }
+
+    /** @return the token for the next page, null if this is the last one */
+    String getNextContinuationToken() {
+      return nextContinuationToken;
+    }
+  }
+
+  /** Reads a byte range of a file with positional reads, so parts never share a file position */
+  private static final class FileRegionInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    private FileRegionInputStream(FileChannel channel, long offset, long length) {
+      this.channel = channel;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    static InputStream open(Path file, long offset, long length) {
+      try {
+        return new FileRegionInputStream(
+            FileChannel.open(file, StandardOpenOption.READ), offset, length);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (position >= end) {
+        return -1;
+      }
+      int toRead = (int) Math.min(length, end - position);
+      int read = channel.read(ByteBuffer.wrap(buffer, offset, toRead), position);
+      if (read == -1) {
+        throw new IOException("File shrank while uploading bytes up to " + end);
+      }
+      position += read;
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  private static final class PermitReleasingInputStream extends FilterInputStream {
+    private final Semaphore permits;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private PermitReleasingInputStream(InputStream in, Semaphore permits) {
+      super(in);
+      this.permits = permits;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (released.compareAndSet(false, true)) {
+          permits.release();
+        }
+      }
+    }
+  }
+}
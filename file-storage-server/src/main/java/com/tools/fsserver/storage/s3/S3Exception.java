@@ -0,0 +1,50 @@
+package com.tools.fsserver.storage.s3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/** Error response of an S3-compatible store, with its HTTP status and S3 error code if any */
+final class S3Exception extends IOException {
+
+  private final int statusCode;
+  private final String errorCode;
+
+  S3Exception(int statusCode, String errorCode, String message) {
+    super(
+        "S3 request failed with status "
+            + statusCode
+            + (errorCode == null ? "" : " (" + errorCode + ")")
+            + ": "
+            + message);
+    this.statusCode = statusCode;
+    this.errorCode = errorCode;
+  }
+
+  /** @param body - the error document S3 sends back, possibly empty as for HEAD requests */
+  static S3Exception of(int statusCode, byte[] body) {
+    if (body == null || body.length == 0) {
+      return new S3Exception(statusCode, null, "no error document");
+    }
+    try {
+      Map<String, List<String>> error = S3Client.elementTexts(body, "Code", "Message");
+      return new S3Exception(
+          statusCode, first(error.get("Code")), String.valueOf(first(error.get("Message"))));
+    } catch (S3Exception unreadable) {
+      return new S3Exception(statusCode, null, new String(body, StandardCharsets.UTF_8));
+    }
+  }
+
+  int getStatusCode() {
+    return statusCode;
+  }
+
+  String getErrorCode() {
+    return errorCode;
+  }
+
+  private static String first(List<String> values) {
+    return values.isEmpty() ? null : values.get(0);
+  }
+}
@@ -0,0 +1,48 @@
+package com.tools.fsserver.storage.s3;
+
+import java.util.Map;
+
+/** What a HEAD request tells about a stored object */
+final class S3ObjectInfo {
+
+  private final long size;
+  private final long lastModifiedMillis;
+  private final String eTag;
+  private final String contentType;
+  private final Map<String, String> userMetadata;
+
+  /** @param userMetadata - x-amz-meta-* headers, keyed by lowercase name without the prefix */
+  S3ObjectInfo(
+      long size,
+      long lastModifiedMillis,
+      String eTag,
+      String contentType,
+      Map<String, String> userMetadata) {
+    this.size = size;
+    this.lastModifiedMillis = lastModifiedMillis;
+    this.eTag = eTag;
+    this.contentType = contentType;
+    this.userMetadata = userMetadata;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  long getLastModifiedMillis() {
+    return lastModifiedMillis;
+  }
+
+  String getETag() {
+    return eTag;
+  }
+
+  String getContentType() {
+    return contentType;
+  }
+
+  /** @return the user metadata value, null if the object was stored without it */
+  String getUserMetadata(String name) {
+    return userMetadata.get(name);
+  }
+}
@@ -0,0 +1,174 @@
+package com.tools.fsserver.storage.s3;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * AWS Signature Version 4 for requests to S3-compatible stores, header-based. Payloads are not
+ * hashed by the client (UNSIGNED-PAYLOAD): S3 accepts it, and file bodies are streamed rather than
+ * read twice. Keys and values put into request paths and query strings must be encoded with
+ * uriEncode, the signature covers them exactly as sent
+ */
+final class S3RequestSigner {
+
+  static final String ALGORITHM = "AWS4-HMAC-SHA256";
+  static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+  static final DateTimeFormatter AMZ_DATE_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final char[] ESCAPE_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private final String accessKey;
+  private final String secretKey;
+  private final String region;
+  private final String service;
+
+  S3RequestSigner(String accessKey, String secretKey, String region, String service) {
+    this.accessKey = accessKey;
+    this.secretKey = secretKey;
+    this.region = region;
+    this.service = service;
+  }
+
+  static String amzDate(Instant time) {
+    return AMZ_DATE_FORMAT.format(time);
+  }
+
+  /**
+   * @param rawPath - the request path exactly as sent, already encoded
+   * @param rawQuery - the query string exactly as sent, already encoded, null if none
+   * @param signedHeaders - lowercase header names to values, including host and x-amz-date
+   * @param payloadHash - hex SHA-256 of the body, or UNSIGNED_PAYLOAD
+   * @return the value of the Authorization header
+   */
+  String authorization(
+      String method,
+      String rawPath,
+      String rawQuery,
+      SortedMap<String, String> signedHeaders,
+      String payloadHash) {
+    String amzDate = signedHeaders.get("x-amz-date");
+    String scope = amzDate.substring(0, 8) + "/" + region + "/" + service + "/aws4_request";
+    StringBuilder canonicalHeaders = new StringBuilder();
+    for (Map.Entry<String, String> header : signedHeaders.entrySet()) {
+      canonicalHeaders.append(header.getKey()).append(':');
+      canonicalHeaders.append(header.getValue().trim().replaceAll(" +", " ")).append('\n');
+    }
+    String signedHeaderNames = String.join(";", signedHeaders.keySet());
+    String canonicalRequest =
+        method
+            + '\n'
+            + (rawPath == null || rawPath.isEmpty() ? "/" : rawPath)
+            + '\n'
+            + canonicalQuery(rawQuery)
+            + '\n'
+            + canonicalHeaders
+            + '\n'
+            + signedHeaderNames
+            + '\n'
+            + payloadHash;
+    String stringToSign =
+        ALGORITHM + '\n' + amzDate + '\n' + scope + '\n' + hex(sha256(canonicalRequest));
+    byte[] signingKey =
+        hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), amzDate.substring(0, 8));
+    signingKey = hmac(signingKey, region);
+    signingKey = hmac(signingKey, service);
+    signingKey = hmac(signingKey, "aws4_request");
+    return ALGORITHM
+        + " Credential="
+        + accessKey
+        + "/"
+        + scope
+        + ", SignedHeaders="
+        + signedHeaderNames
+        + ", Signature="
+        + hex(hmac(signingKey, stringToSign));
+  }
+
+  /** @return the Host header value the JDK HTTP client sends for this URI */
+  static String hostHeader(URI uri) {
+    int port = uri.getPort();
+    boolean defaultPort =
+        port == -1 || port == ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80);
+    return defaultPort ? uri.getHost() : uri.getHost() + ":" + port;
+  }
+
+  /**
+   * RFC 3986 encoding as S3 expects it: everything but unreserved characters is percent-encoded,
+   * spaces included, and slashes only if encodeSlash is set
+   */
+  static String uriEncode(String value, boolean encodeSlash) {
+    StringBuilder encoded = new StringBuilder(value.length());
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      char c = (char) (b & 0xFF);
+      if ((c >= 'A' && c <= 'Z')
+          || (c >= 'a' && c <= 'z')
+          || (c >= '0' && c <= '9')
+          || c == '-'
+          || c == '_'
+          || c == '.'
+          || c == '~'
+          || (c == '/' && !encodeSlash)) {
+        encoded.append(c);
+      } else {
+        encoded.append('%').append(ESCAPE_DIGITS[c >> 4]).append(ESCAPE_DIGITS[c & 0xF]);
+      }
+    }
+    return encoded.toString();
+  }
+
+  /** Parameters sorted by name then value, each side already encoded; a bare name gets '=' */
+  private static String canonicalQuery(String rawQuery) {
+    if (rawQuery == null || rawQuery.isEmpty()) {
+      return "";
+    }
+    List<String> parameters = new ArrayList<>();
+    for (String parameter : rawQuery.split("&")) {
+      parameters.add(parameter.contains("=") ? parameter : parameter + "=");
+    }
+    parameters.sort(
+        (a, b) -> {
+          int byName = a.substring(0, a.indexOf('=')).compareTo(b.substring(0, b.indexOf('=')));
+          return byName != 0 ? byName : a.compareTo(b);
+        });
+    return String.join("&", parameters);
+  }
+
+  private static byte[] sha256(String value) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("SHA-256 is mandatory on every JVM", e);
+    }
+  }
+
+  private static byte[] hmac(byte[] key, String data) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is mandatory on every JVM", e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+      hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+    }
+    return new String(hex);
+  }
+}
@@ -0,0 +1,447 @@
+package com.tools.fsserver.storage.s3;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.ContentHashCache;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.IStorageService;
+import com.tools.fsserver.storage.StorageChangeListener;
+import com.tools.fsserver.storage.StorageChangeType;
+import com.tools.fsserver.storage.StorageVersionTracker;
+import com.tools.fsserver.storage.StripedLocks;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.runtime.Startup;
+import io.quarkus.runtime.configuration.MemorySize;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+
+/**
+ * Storage backend keeping each file as one object of an S3-compatible store (AWS S3, MinIO, Ceph
+ * RGW, ...), under an optional key prefix. Files from multipartThreshold up are sent as multipart
+ * uploads whose parts go out partConcurrency at a time and are retried individually, smaller ones
+ * in a single PUT. Both are conditional (If-None-Match: *), so two servers sharing a bucket cannot
+ * overwrite each other's files. The SHA-256, upload time and uploader are kept as object metadata,
+ * so a single HEAD describes a file. Enabled with fsserver.storage.backend=s3
+ */
+@Startup
+@ApplicationScoped
+@IfBuildProperty(name = "fsserver.storage.backend", stringValue = "s3")
+public class S3StorageService implements IStorageService {
+
+  private static final Logger LOG = Logger.getLogger(S3StorageService.class);
+  private static final String SHA256_METADATA = "sha256";
+  private static final String UPLOADED_AT_METADATA = "uploaded-at";
+  private static final String UPLOADER_METADATA = "uploader";
+  private static final int PART_ATTEMPTS = 3;
+
+  private final S3Client client;
+  private final String keyPrefix;
+  private final long multipartThreshold;
+  private final long partSize;
+  private final int partConcurrency;
+  private final int listPageSize;
+  private final StripedLocks fileNameLocks = new StripedLocks();
+  private final StorageVersionTracker versionTracker = new StorageVersionTracker();
+  private final StorageChangeListener changeListener;
+
+  /**
+   * @param endpoint - base URI of the store, e.g. https://s3.eu-west-1.amazonaws.com or
+   *     http://127.0.0.1:9000 for a local MinIO
+   * @param bucket - existing bucket the files are stored in
+   * @param keyPrefix - prepended to every file name to form its key, e.g. 'fsserver/'
+   * @param multipartThreshold - files at least this large are sent as multipart uploads
+   * @param partSize - size of every part but the last, S3 requires at least 5MB
+   * @param partConcurrency - parts of one file uploaded at the same time
+   * @param maxConnections - connections to the store shared by all requests, see S3Client
+   * @param listPageSize - keys requested per ListObjectsV2 page, at most 1000
+   * @param changeListener - notified of every successful store and delete
+   */
+  @Inject
+  public S3StorageService(
+      @ConfigProperty(name = "fsserver.s3.endpoint") String endpoint,
+      @ConfigProperty(name = "fsserver.s3.bucket") String bucket,
+      @ConfigProperty(name = "fsserver.s3.region", defaultValue = "us-east-1") String region,
+      @ConfigProperty(name = "fsserver.s3.accessKey") String accessKey,
+      @ConfigProperty(name = "fsserver.s3.secretKey") String secretKey,
+      @ConfigProperty(name = "fsserver.s3.keyPrefix") Optional<String> keyPrefix,
+      @ConfigProperty(name = "fsserver.s3.multipartThreshold", defaultValue = "16M")
+          MemorySize multipartThreshold,
+      @ConfigProperty(name = "fsserver.s3.partSize", defaultValue = "8M") MemorySize partSize,
+      @ConfigProperty(name = "fsserver.s3.partConcurrency", defaultValue = "4")
+          int partConcurrency,
+      @ConfigProperty(name = "fsserver.s3.maxConnections", defaultValue = "64")
+          int maxConnections,
+      @ConfigProperty(name = "fsserver.s3.requestTimeoutSeconds", defaultValue = "60")
+          int requestTimeoutSeconds,
+      @ConfigProperty(name = "fsserver.s3.listPageSize", defaultValue = "1000") int listPageSize,
+      StorageChangeListener changeListener) {
+    this(
+        new S3Client(
+            URI.create(endpoint),
+            bucket,
+            new S3RequestSigner(accessKey, secretKey, region, "s3"),
+            maxConnections,
+            Duration.ofSeconds(requestTimeoutSeconds),
+            Clock.systemUTC()),
+        keyPrefix.orElse(""),
+        multipartThreshold.asLongValue(),
+        partSize.asLongValue(),
+        partConcurrency,
+        listPageSize,
+        changeListener);
+    LOG.info(
+        "FSServer S3 storage using bucket "
+            + bucket
+            + " at "
+            + endpoint
+            + " with up to "
+            + maxConnections
+            + " connections");
+  }
+
+  S3StorageService(
+      S3Client client,
+      String keyPrefix,
+      long multipartThreshold,
+      long partSize,
+      int partConcurrency,
+      int listPageSize,
+      StorageChangeListener changeListener) {
+    this.client = client;
+    this.keyPrefix = keyPrefix;
+    this.multipartThreshold = multipartThreshold;
+    this.partSize = partSize;
+    this.partConcurrency = partConcurrency;
+    this.listPageSize = listPageSize;
+    this.changeListener = changeListener;
+  }
+
+  /**
+   * Pages through ListObjectsV2 until the listing is no longer truncated
+   *
+   * @return Returns the set of file names stored under the key prefix
+   * @throws IOException If any I/O issue occurs or the store rejects the request
+   */
+  public Set<String> listStoredFiles() throws IOException {
+    Set<String> uploadedFileNames = new HashSet<>();
+    String continuationToken = null;
+    do {
+      S3Client.ListPage page = client.listObjects(keyPrefix, continuationToken, listPageSize);
+      for (String key : page.getKeys()) {
+        String fileName = key.substring(keyPrefix.length());
+        // keys in 'sub-folders' of the prefix were not stored by this server
+        if (!fileName.isEmpty() && fileName.indexOf('/') == -1) {
+          uploadedFileNames.add(fileName);
+        }
+      }
+      continuationToken = page.getNextContinuationToken();
+    } while (continuationToken != null);
+    LOG.debug("Returning list of uploaded files: " + uploadedFileNames);
+    return uploadedFileNames;
+  }
+
+  public void storeFile(String fileName, Path uploadSourcePath)
+      throws FileNamePresentOnServerException, IOException {
+    storeFile(fileName, uploadSourcePath, null);
+  }
+
+  /**
+   * Uploads the file as a new object. A multipart upload which fails part way is aborted, so the
+   * store discards the parts already sent
+   *
+   * @param fileName - the final name of the uploaded file
+   * @param uploadSourcePath - the full path to the temp location of the multipart upload
+   * @param uploader - address of the client which uploaded the file, null if not known
+   * @throws FileNamePresentOnServerException - thrown if the object already exists
+   * @throws IOException - thrown if any I/O issue occurs or the store rejects the upload
+   */
+  @Override
+  public void storeFile(String fileName, Path uploadSourcePath, String uploader)
+      throws FileNamePresentOnServerException, IOException {
+    String sha256 = ContentHashCache.sha256(() -> Files.newInputStream(uploadSourcePath));
+    long size = Files.size(uploadSourcePath);
+    Map<String, String> headers = new HashMap<>();
+    headers.put("Content-Type", FileMetadata.guessContentType(fileName));
+    headers.put(S3Client.METADATA_PREFIX + SHA256_METADATA, sha256);
+    headers.put(
+        S3Client.METADATA_PREFIX + UPLOADED_AT_METADATA,
+        Long.toString(System.currentTimeMillis()));
+    if (uploader != null) {
+      headers.put(
+          S3Client.METADATA_PREFIX + UPLOADER_METADATA,
+          S3RequestSigner.uriEncode(uploader, true));
+    }
+    String key = keyPrefix + fileName;
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    fileNameLock.lock();
+    try {
+      // cheaper than sending the whole file to have it refused
+      if (client.headObject(key) != null) {
+        throw fileAlreadyPresent(fileName);
+      }
+      if (size < multipartThreshold) {
+        client.putObject(key, uploadSourcePath, headers, true);
+      } else {
+        uploadMultipart(key, uploadSourcePath, size, headers);
+      }
+      this.changeListener.onStorageChange(StorageChangeType.CREATED, fileName);
+    } catch (S3Exception e) {
+      if (e.getStatusCode() == S3Client.PRECONDITION_FAILED) {
+        throw fileAlreadyPresent(fileName);
+      }
+      throw e;
+    } finally {
+      fileNameLock.unlock();
+    }
+    this.versionTracker.bump();
+    LOG.debug("Stored " + size + " bytes of file " + fileName + " as " + key);
+  }
+
+  /**
+   * @param fileNameToDelete - the name of the previously-uploaded file which we want to delete
+   * @throws FileNameNotPresentOnServerException - thrown if there is no such object
+   * @throws IOException - thrown if any I/O issue occurs or the store rejects the request
+   */
+  public void deleteFile(String fileNameToDelete)
+      throws FileNameNotPresentOnServerException, IOException {
+    String key = keyPrefix + fileNameToDelete;
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileNameToDelete);
+    fileNameLock.lock();
+    try {
+      // S3 deletes succeed whether or not the key exists
+      describe(fileNameToDelete);
+      client.deleteObject(key);
+      this.changeListener.onStorageChange(StorageChangeType.DELETED, fileNameToDelete);
+    } finally {
+      fileNameLock.unlock();
+    }
+    this.versionTracker.bump();
+    LOG.debug("Deleted file " + fileNameToDelete);
+  }
+
+  /** Checks the condition and deletes under the name's lock */
+  @Override
+  public boolean deleteFileIf(String fileName, Predicate<FileMetadata> condition)
+      throws FileNameNotPresentOnServerException, IOException {
+    Lock fileNameLock = this.fileNameLocks.lockFor(fileName);
+    fileNameLock.lock();
+    try {
+      return IStorageService.super.deleteFileIf(fileName, condition);
+    } finally {
+      fileNameLock.unlock();
+    }
+  }
+
+  /**
+   * @param fileNameToRetrieve - the name of the previously-uploaded file we want to read
+   * @return the object content, streamed from the store
+   * @throws FileNameNotPresentOnServerException - thrown if there is no such object
+   * @throws IOException - thrown if any I/O issue occurs or the store rejects the request
+   */
+  public InputStream retrieveFile(String fileNameToRetrieve)
+      throws FileNameNotPresentOnServerException, IOException {
+    InputStream content = client.getObject(keyPrefix + fileNameToRetrieve);
+    if (content == null) {
+      throw fileNotPresent(fileNameToRetrieve);
+    }
+    return content;
+  }
+
+  public ContentVersion getListingVersion() {
+    return this.versionTracker.current();
+  }
+
+  public ContentVersion getFileVersion(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    return getFileMetadata(fileName).toContentVersion();
+  }
+
+  public long getFileSize(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    return describe(fileName).getSize();
+  }
+
+  /** Objects stored by another client lack the metadata, their ETag then stands in for the hash */
+  @Override
+  public FileMetadata getFileMetadata(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    S3ObjectInfo info = describe(fileName);
+    String sha256 = info.getUserMetadata(SHA256_METADATA);
+    String uploadedAt = info.getUserMetadata(UPLOADED_AT_METADATA);
+    String uploader = info.getUserMetadata(UPLOADER_METADATA);
+    return new FileMetadata(
+        fileName,
+        info.getSize(),
+        sha256 != null ? sha256 : unquote(info.getETag()),
+        info.getContentType() != null
+            ? info.getContentType()
+            : FileMetadata.guessContentType(fileName),
+        info.getLastModifiedMillis(),
+        uploadedAt != null ? Long.parseLong(uploadedAt) : info.getLastModifiedMillis(),
+        uploader != null ? URLDecoder.decode(uploader, StandardCharsets.UTF_8) : null);
+  }
+
+  private S3ObjectInfo describe(String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    S3ObjectInfo info = client.headObject(keyPrefix + fileName);
+    if (info == null) {
+      throw fileNotPresent(fileName);
+    }
+    return info;
+  }
+
+  private void uploadMultipart(String key, Path source, long size, Map<String, String> headers)
+      throws IOException {
+    String uploadId = client.createMultipartUpload(key, headers);
+    boolean completed = false;
+    try {
+      List<String> partETags = uploadParts(key, uploadId, source, size);
+      client.completeMultipartUpload(key, uploadId, partETags, true);
+      completed = true;
+    } finally {
+      if (!completed) {
+        abortQuietly(key, uploadId);
+      }
+    }
+  }
+
+  /**
+   * Keeps up to partConcurrency parts in flight, starting the next one as soon as one completes.
+   * Once a part has failed for good no further part is started
+   *
+   * @return the ETag of every part, in part number order
+   */
+  private List<String> uploadParts(String key, String uploadId, Path source, long size)
+      throws IOException {
+    int partCount = (int) ((size + partSize - 1) / partSize);
+    AtomicReferenceArray<String> partETags = new AtomicReferenceArray<>(partCount);
+    Semaphore window = new Semaphore(partConcurrency);
+    AtomicBoolean failed = new AtomicBoolean();
+    List<CompletableFuture<String>> parts = new ArrayList<>();
+    try {
+      for (int partIndex = 0; partIndex < partCount && !failed.get(); partIndex++) {
+        window.acquire();
+        int partNumber = partIndex + 1;
+        long offset = partIndex * partSize;
+        long length = Math.min(partSize, size - offset);
+        parts.add(
+            uploadPart(key, uploadId, partNumber, source, offset, length, 1)
+                .whenComplete(
+                    (partETag, error) -> {
+                      if (error == null) {
+                        partETags.set(partNumber - 1, partETag);
+                      } else {
+                        failed.set(true);
+                      }
+                      window.release();
+                    }));
+      }
+      CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while uploading parts of " + key);
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof IOException
+          ? (IOException) e.getCause()
+          : new IOException("Failed to upload a part of " + key, e.getCause());
+    }
+    List<String> eTags = new ArrayList<>(partCount);
+    for (int i = 0; i < partCount; i++) {
+      eTags.add(partETags.get(i));
+    }
+    return eTags;
+  }
+
+  /** Retries a part which failed on a connection error or a 5xx response, up to PART_ATTEMPTS */
+  private CompletableFuture<String> uploadPart(
+      String key,
+      String uploadId,
+      int partNumber,
+      Path source,
+      long offset,
+      long length,
+      int attempt)
+      throws IOException {
+    return client
+        .uploadPart(key, uploadId, partNumber, source, offset, length)
+        .handle(
+            (partETag, error) -> {
+              if (error == null) {
+                return CompletableFuture.completedFuture(partETag);
+              }
+              Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+              if (attempt >= PART_ATTEMPTS || !isRetryable(cause)) {
+                return CompletableFuture.<String>failedFuture(cause);
+              }
+              LOG.warn("Retrying part " + partNumber + " of " + key + " after: " + cause);
+              try {
+                return uploadPart(
+                    key, uploadId, partNumber, source, offset, length, attempt + 1);
+              } catch (IOException e) {
+                return CompletableFuture.<String>failedFuture(e);
+              }
+            })
+        .thenCompose(partETag -> partETag);
+  }
+
+  private static boolean isRetryable(Throwable error) {
+    if (error instanceof S3Exception) {
+      return ((S3Exception) error).getStatusCode() / 100 == 5;
+    }
+    return error instanceof IOException;
+  }
+
+  private void abortQuietly(String key, String uploadId) {
+    try {
+      client.abortMultipartUpload(key, uploadId);
+    } catch (IOException e) {
+      LOG.warn("Could not abort multipart upload " + uploadId + " of " + key + ": " + e);
+    }
+  }
+
+  private static String unquote(String eTag) {
+    return eTag != null && eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"")
+        ? eTag.substring(1, eTag.length() - 1)
+        : eTag;
+  }
+
+  private static FileNamePresentOnServerException fileAlreadyPresent(String fileName) {
+    String errMsg = "There already exists a file called " + fileName;
+    LOG.error(errMsg);
+    return new FileNamePresentOnServerException(errMsg);
+  }
+
+  private static FileNameNotPresentOnServerException fileNotPresent(String fileName) {
+    String errMsg = "There is no already uploaded file called " + fileName;
+    LOG.error(errMsg);
+    return new FileNameNotPresentOnServerException(errMsg);
+  }
+}
@@ -0,0 +1,222 @@
+package com.tools.fsserver.tracing;
+
+import org.jboss.logging.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports finished traces without any collector: either as a one-line summary per upload in the
+ * server log, or as one JSON object per span appended to a file. The JSON fields are named after
+ * those of OTLP/JSON spans (traceId, spanId, parentSpanId, name, startTimeUnixNano,
+ * endTimeUnixNano), with attributes flattened into one object, so the file maps directly onto
+ * OpenTelemetry tooling.
+ *
+ * <p>Formatting and writing happen on a background thread fed through a bounded queue. When the
+ * queue is full traces are dropped and counted rather than slowing down uploads
+ */
+final class TraceExporter implements Closeable {
+
+  enum Target {
+    LOG,
+    FILE,
+    NONE
+  }
+
+  private static final Logger LOG = Logger.getLogger(TraceExporter.class);
+  private static final int DRAIN_BATCH_SIZE = 256;
+
+  private final Target target;
+  private final BlockingQueue<UploadTrace> pending;
+  private final BufferedWriter fileWriter;
+  private final Thread exportThread;
+  private final AtomicLong droppedTraces = new AtomicLong();
+  private volatile boolean closed;
+
+  /**
+   * @param exportPath - file the spans are appended to for the FILE target, created with its parent
+   *     folders if not already existing. Ignored for other targets
+   * @param queueCapacity - number of finished traces waiting for export before traces are dropped
+   * @throws IOException - if the export file cannot be opened
+   */
+  TraceExporter(Target target, Path exportPath, int queueCapacity) throws IOException {
+    this.target = target;
+    this.pending = new ArrayBlockingQueue<>(queueCapacity);
+    if (target == Target.FILE) {
+      if (exportPath.toAbsolutePath().getParent() != null) {
+        Files.createDirectories(exportPath.toAbsolutePath().getParent());
+      }
+      this.fileWriter =
+          Files.newBufferedWriter(
+              exportPath,
+              StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.APPEND);
+    } else {
+      this.fileWriter = null;
+    }
+    this.exportThread = new Thread(this::exportLoop, "upload-trace-exporter");
+    this.exportThread.setDaemon(true);
+    if (target != Target.NONE) {
+      this.exportThread.start();
+    }
+  }
+
+  /** Queues the trace for export, dropping it if the exporter is falling behind */
+  void export(UploadTrace trace) {
+    if (target != Target.NONE && !pending.offer(trace)) {
+      droppedTraces.incrementAndGet();
+    }
+  }
+
+  long getDroppedTraces() {
+    return droppedTraces.get();
+  }
+
+  /** Exports what is still queued and stops the background thread */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    exportThread.interrupt();
+    try {
+      exportThread.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (fileWriter != null) {
+      fileWriter.close();
+    }
+  }
+
+  private void exportLoop() {
+    List<UploadTrace> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+    while (!closed || !pending.isEmpty()) {
+      try {
+        UploadTrace first = pending.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+      } catch (InterruptedException e) {
+        // woken up by close, export what is left
+        closed = true;
+      }
+      pending.drainTo(batch, DRAIN_BATCH_SIZE - batch.size());
+      try {
+        write(batch);
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Could not export " + batch.size() + " upload traces", e);
+      }
+      batch.clear();
+    }
+  }
+
+  private void write(List<UploadTrace> batch) throws IOException {
+    for (UploadTrace trace : batch) {
+      if (target == Target.LOG) {
+        LOG.info(toSummary(trace));
+      } else {
+        fileWriter.write(toJsonLines(trace));
+      }
+    }
+    if (fileWriter != null) {
+      fileWriter.flush();
+    }
+  }
+
+  /** @return e.g. "upload trace 4bf9... POST /v1/files/a.bin 200 in 84.2 ms: upload.receive ..." */
+  static String toSummary(UploadTrace trace) {
+    TraceSpan root = trace.getRoot();
+    StringBuilder summary =
+        new StringBuilder("upload trace ")
+            .append(trace.getTraceId())
+            .append(' ')
+            .append(root.getName())
+            .append(' ')
+            .append(root.getAttributes().getOrDefault(UploadTracingFilter.STATUS_CODE, "-"))
+            .append(" in ")
+            .append(formatMillis(root.getDurationNanos()))
+            .append(':');
+    List<TraceSpan> phases = trace.getSpans();
+    phases.remove(root);
+    phases.sort(Comparator.comparingLong(TraceSpan::getStartEpochNanos));
+    String separator = " ";
+    for (TraceSpan phase : phases) {
+      summary
+          .append(separator)
+          .append(phase.getName())
+          .append(' ')
+          .append(formatMillis(phase.getDurationNanos()));
+      Object bytes = phase.getAttributes().get(TraceSpan.BYTES);
+      if (bytes != null) {
+        summary.append(" (").append(bytes).append(" bytes)");
+      }
+      separator = ", ";
+    }
+    return summary.toString();
+  }
+
+  /** @return one OTLP/JSON-shaped object per span, each on its own line */
+  static String toJsonLines(UploadTrace trace) {
+    StringBuilder lines = new StringBuilder();
+    for (TraceSpan span : trace.getSpans()) {
+      lines.append("{\"traceId\":\"").append(trace.getTraceId()).append('"');
+      lines.append(",\"spanId\":\"").append(span.getSpanId()).append('"');
+      if (span.getParentSpanId() != null) {
+        lines.append(",\"parentSpanId\":\"").append(span.getParentSpanId()).append('"');
+      }
+      lines.append(",\"name\":");
+      appendJsonString(lines, span.getName());
+      lines.append(",\"startTimeUnixNano\":").append(span.getStartEpochNanos());
+      lines.append(",\"endTimeUnixNano\":").append(span.getEndEpochNanos());
+      lines.append(",\"attributes\":{");
+      String separator = "";
+      for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+        lines.append(separator);
+        appendJsonString(lines, attribute.getKey());
+        lines.append(':');
+        if (attribute.getValue() instanceof Number) {
+          lines.append(attribute.getValue());
+        } else {
+          appendJsonString(lines, String.valueOf(attribute.getValue()));
+        }
+        separator = ",";
+      }
+      lines.append("}}\n");
+    }
+    return lines.toString();
+  }
+
+  private static void appendJsonString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  private static String formatMillis(long nanos) {
+    return String.format(Locale.ROOT, "%.1f ms", nanos / 1_000_000.0);
+  }
+}
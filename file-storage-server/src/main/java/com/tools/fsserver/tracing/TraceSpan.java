@@ -0,0 +1,101 @@
+package com.tools.fsserver.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One timed phase of a traced upload, shaped after an OpenTelemetry span: W3C trace and span ids,
+ * parent span id, name, start and end times in nanoseconds since the epoch, and attributes such as
+ * the number of bytes handled. Closing a span started with {@link UploadTrace#startPhase} ends it
+ * and makes its parent the current span of the thread again
+ */
+public final class TraceSpan implements AutoCloseable {
+
+  /** Attribute holding the number of bytes a phase read, wrote or received */
+  public static final String BYTES = "fsserver.bytes";
+
+  /** Span handed out when the current thread is not tracing an upload, everything is ignored */
+  static final TraceSpan NOOP = new TraceSpan(null, "", "", null, 0);
+
+  private final UploadTrace trace;
+  private final String name;
+  private final String spanId;
+  private final TraceSpan parent;
+  private final long startNanos;
+  private final Map<String, Object> attributes = new LinkedHashMap<>();
+  private volatile long endNanos = -1;
+
+  TraceSpan(UploadTrace trace, String name, String spanId, TraceSpan parent, long startNanos) {
+    this.trace = trace;
+    this.name = name;
+    this.spanId = spanId;
+    this.parent = parent;
+    this.startNanos = startNanos;
+  }
+
+  /** @return false for the no-op span, e.g. to skip computing costly attributes */
+  public boolean isRecording() {
+    return trace != null;
+  }
+
+  /** @return this span, so that attributes can be chained */
+  public synchronized TraceSpan setAttribute(String key, Object value) {
+    if (trace != null) {
+      attributes.put(key, value);
+    }
+    return this;
+  }
+
+  @Override
+  public void close() {
+    if (trace != null && endNanos < 0) {
+      end(System.nanoTime());
+      trace.restoreCurrent(this, parent);
+    }
+  }
+
+  void end(long nanoTime) {
+    endNanos = nanoTime;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getSpanId() {
+    return spanId;
+  }
+
+  /**
+   * @return the id of the enclosing span. For the root span, the id of the client's span if the
+   *     request carried a traceparent header, null otherwise
+   */
+  public String getParentSpanId() {
+    return parent == null ? trace.getRemoteParentSpanId() : parent.spanId;
+  }
+
+  public long getStartEpochNanos() {
+    return trace.toEpochNanos(startNanos);
+  }
+
+  /** @return when the span ended, or its start if it never ended */
+  public long getEndEpochNanos() {
+    return trace.toEpochNanos(endNanos < 0 ? startNanos : endNanos);
+  }
+
+  public long getDurationNanos() {
+    return endNanos < 0 ? 0 : endNanos - startNanos;
+  }
+
+  boolean isEnded() {
+    return endNanos >= 0;
+  }
+
+  public synchronized Map<String, Object> getAttributes() {
+    return new LinkedHashMap<>(attributes);
+  }
+
+  UploadTrace getTrace() {
+    return trace;
+  }
+}
@@ -0,0 +1,179 @@
+package com.tools.fsserver.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Spans recorded for one upload, from the arrival of its headers on the event loop to the end of
+ * its response. Code further down the request path, e.g. the storage backend, records its phases
+ * through {@link #startPhase} without being handed the trace: the worker thread serving the upload
+ * attaches the trace for the duration of the call, and on any other thread phases are no-ops.
+ *
+ * <p>Recording costs a few System.nanoTime calls and small objects per phase, so every upload is
+ * recorded and the sampling decision only concerns which traces are exported. Trace context is
+ * W3C Trace Context: an incoming traceparent header is continued, including its sampled flag
+ */
+public final class UploadTrace {
+
+  private static final ThreadLocal<TraceSpan> CURRENT_SPAN = new ThreadLocal<>();
+  private static final Pattern TRACE_PARENT =
+      Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+  private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+  private static final String INVALID_SPAN_ID = "0000000000000000";
+
+  private final String traceId;
+  private final String remoteParentSpanId;
+  private final boolean sampled;
+  private final long startEpochNanos;
+  private final long startNanoTime;
+  private final TraceSpan root;
+  private final List<TraceSpan> spans = new ArrayList<>();
+
+  private UploadTrace(
+      String traceId, String remoteParentSpanId, boolean sampled, String rootSpanName) {
+    this.traceId = traceId;
+    this.remoteParentSpanId = remoteParentSpanId;
+    this.sampled = sampled;
+    this.startEpochNanos = System.currentTimeMillis() * 1_000_000L;
+    this.startNanoTime = System.nanoTime();
+    this.root = new TraceSpan(this, rootSpanName, randomHex(8), null, startNanoTime);
+    this.spans.add(root);
+  }
+
+  /**
+   * @param rootSpanName - name of the span covering the whole request
+   * @param traceParent - W3C traceparent header of the request, null if absent. A valid one is
+   *     continued and its sampled flag decides whether the trace is sampled
+   * @param sampleRatio - probability that a trace without valid traceparent is sampled
+   */
+  public static UploadTrace start(String rootSpanName, String traceParent, double sampleRatio) {
+    Matcher matcher = traceParent == null ? null : TRACE_PARENT.matcher(traceParent.trim());
+    if (matcher != null
+        && matcher.matches()
+        && !INVALID_TRACE_ID.equals(matcher.group(1))
+        && !INVALID_SPAN_ID.equals(matcher.group(2))) {
+      boolean sampled = (Integer.parseInt(matcher.group(3), 16) & 1) == 1;
+      return new UploadTrace(matcher.group(1), matcher.group(2), sampled, rootSpanName);
+    }
+    boolean sampled = ThreadLocalRandom.current().nextDouble() < sampleRatio;
+    return new UploadTrace(randomHex(16), null, sampled, rootSpanName);
+  }
+
+  /**
+   * Starts a phase as a child of the current span of this thread and makes it the current span
+   * until closed
+   *
+   * @return the started span, or a no-op span if this thread is not tracing an upload
+   */
+  public static TraceSpan startPhase(String name) {
+    TraceSpan current = CURRENT_SPAN.get();
+    if (current == null || current == TraceSpan.NOOP) {
+      return TraceSpan.NOOP;
+    }
+    UploadTrace trace = current.getTrace();
+    TraceSpan phase = trace.addSpan(name, current, System.nanoTime());
+    CURRENT_SPAN.set(phase);
+    return phase;
+  }
+
+  /** Makes the root span current on this thread, so that phases recorded here join this trace */
+  public void attach() {
+    CURRENT_SPAN.set(root);
+  }
+
+  public void detach() {
+    CURRENT_SPAN.remove();
+  }
+
+  /**
+   * Records a phase that already happened, as a child of the root span, e.g. one only known after
+   * the fact from a file timestamp
+   *
+   * @param startNanoTime - System.nanoTime at the start of the phase
+   * @param endNanoTime - System.nanoTime at its end
+   */
+  public TraceSpan recordPhase(String name, long startNanoTime, long endNanoTime) {
+    TraceSpan phase = addSpan(name, root, startNanoTime);
+    phase.end(endNanoTime);
+    return phase;
+  }
+
+  /** Ends the root span, spans still open are reported as ending with it */
+  public void finish() {
+    long now = System.nanoTime();
+    for (TraceSpan span : getSpans()) {
+      if (!span.isEnded()) {
+        span.end(now);
+      }
+    }
+  }
+
+  /** @return System.nanoTime at which the given wall clock time was, as seen from this trace */
+  public long toNanoTime(long epochMillis) {
+    return startNanoTime + (epochMillis * 1_000_000L - startEpochNanos);
+  }
+
+  long toEpochNanos(long nanoTime) {
+    return startEpochNanos + (nanoTime - startNanoTime);
+  }
+
+  public String getTraceId() {
+    return traceId;
+  }
+
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  public TraceSpan getRoot() {
+    return root;
+  }
+
+  public long getStartNanoTime() {
+    return startNanoTime;
+  }
+
+  /** @return every span of the trace, the root span first */
+  public List<TraceSpan> getSpans() {
+    synchronized (spans) {
+      return new ArrayList<>(spans);
+    }
+  }
+
+  /** @return the traceparent header identifying the root span of this trace to the client */
+  public String toTraceParent() {
+    return "00-" + traceId + "-" + root.getSpanId() + (sampled ? "-01" : "-00");
+  }
+
+  String getRemoteParentSpanId() {
+    return remoteParentSpanId;
+  }
+
+  void restoreCurrent(TraceSpan closed, TraceSpan parent) {
+    if (CURRENT_SPAN.get() == closed) {
+      CURRENT_SPAN.set(parent);
+    }
+  }
+
+  private TraceSpan addSpan(String name, TraceSpan parent, long startNanoTime) {
+    TraceSpan span = new TraceSpan(this, name, randomHex(8), parent, startNanoTime);
+    synchronized (spans) {
+      spans.add(span);
+    }
+    return span;
+  }
+
+  private static String randomHex(int byteCount) {
+    StringBuilder hex = new StringBuilder(byteCount * 2);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < byteCount; i++) {
+      // the first byte is never zero, so ids are never the all-zero invalid id
+      int value = i == 0 ? 1 + random.nextInt(255) : random.nextInt(256);
+      hex.append(Character.forDigit(value >> 4, 16)).append(Character.forDigit(value & 0xF, 16));
+    }
+    return hex.toString();
+  }
+}
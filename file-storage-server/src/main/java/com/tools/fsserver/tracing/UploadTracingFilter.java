@@ -0,0 +1,122 @@
+package com.tools.fsserver.tracing;
+
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vert.x route filter starting a trace for every upload as soon as its headers arrive, ahead of
+ * admission control, and finishing it once the response has been sent. The trace is handed to the
+ * resource through the routing context; the response carries its id in a traceresponse header.
+ *
+ * <p>Every upload is recorded, which only costs a handful of timestamps. A trace is exported if it
+ * is sampled (its traceparent header says so, or failing that with probability
+ * fsserver.tracing.sampleRatio) or if the upload took longer than
+ * fsserver.tracing.slowUploadMillis, so slow uploads are always explained whatever the ratio
+ */
+@ApplicationScoped
+public class UploadTracingFilter {
+
+  public static final String STATUS_CODE = "http.status_code";
+  // uploads to the default storage and to every bucket alike
+  static final String UPLOAD_PATH_REGEX = "/v1/(?:buckets/[^/]+/)?files(/.+|:archive)";
+  private static final String TRACE_KEY = "fsserver.uploadTrace";
+  // ahead of the admission filter, so that rejected uploads are traced as well
+  private static final int FILTER_ORDER = -200;
+  private static final String TRACE_PARENT_HEADER = "traceparent";
+  private static final String TRACE_RESPONSE_HEADER = "traceresponse";
+  private static final int EXPORT_QUEUE_CAPACITY = 1024;
+
+  private final double sampleRatio;
+  private final long slowUploadNanos;
+  private final TraceExporter exporter;
+
+  /**
+   * @param sampleRatio - share of uploads without traceparent header whose trace is exported
+   * @param slowUploadMillis - uploads taking at least this long are exported whether sampled or
+   *     not, 0 disables this
+   * @param exporterTarget - 'log' for a summary line per trace, 'file' for JSON spans appended to
+   *     exportPath, 'none' to export nothing
+   * @param exportPath - file the 'file' exporter appends to
+   * @throws IOException - if the export file cannot be opened
+   */
+  @Inject
+  public UploadTracingFilter(
+      @ConfigProperty(name = "fsserver.tracing.sampleRatio", defaultValue = "0.01")
+          double sampleRatio,
+      @ConfigProperty(name = "fsserver.tracing.slowUploadMillis", defaultValue = "1000")
+          long slowUploadMillis,
+      @ConfigProperty(name = "fsserver.tracing.exporter", defaultValue = "log")
+          String exporterTarget,
+      @ConfigProperty(
+              name = "fsserver.tracing.exportPath",
+              defaultValue = "data-server-traces/spans.jsonl")
+          String exportPath)
+      throws IOException {
+    this.sampleRatio = sampleRatio;
+    this.slowUploadNanos = TimeUnit.MILLISECONDS.toNanos(slowUploadMillis);
+    this.exporter =
+        new TraceExporter(
+            TraceExporter.Target.valueOf(exporterTarget.trim().toUpperCase(Locale.ROOT)),
+            Paths.get(exportPath),
+            EXPORT_QUEUE_CAPACITY);
+  }
+
+  /** @return the trace of the upload being served, null if the request is not traced */
+  public static UploadTrace traceOf(RoutingContext routingContext) {
+    return routingContext == null ? null : routingContext.get(TRACE_KEY);
+  }
+
+  void registerOn(@Observes Router router) {
+    router
+        .routeWithRegex(HttpMethod.POST, UPLOAD_PATH_REGEX)
+        .order(FILTER_ORDER)
+        .handler(this::startTrace);
+  }
+
+  void startTrace(RoutingContext routingContext) {
+    UploadTrace trace =
+        UploadTrace.start(
+            "POST " + routingContext.normalizedPath(),
+            routingContext.request().getHeader(TRACE_PARENT_HEADER),
+            sampleRatio);
+    String contentLength = routingContext.request().getHeader(HttpHeaders.CONTENT_LENGTH);
+    trace.getRoot().setAttribute("http.method", "POST");
+    trace.getRoot().setAttribute("http.target", routingContext.normalizedPath());
+    if (contentLength != null) {
+      trace.getRoot().setAttribute("http.request_content_length", contentLength.trim());
+    }
+    routingContext.put(TRACE_KEY, trace);
+    routingContext.addHeadersEndHandler(
+        ignored ->
+            routingContext.response().putHeader(TRACE_RESPONSE_HEADER, trace.toTraceParent()));
+    routingContext.addEndHandler(
+        ignored -> finish(trace, routingContext.response().getStatusCode()));
+    routingContext.next();
+  }
+
+  void finish(UploadTrace trace, int statusCode) {
+    trace.getRoot().setAttribute(STATUS_CODE, statusCode);
+    trace.finish();
+    if (trace.isSampled()
+        || (slowUploadNanos > 0 && trace.getRoot().getDurationNanos() >= slowUploadNanos)) {
+      exporter.export(trace);
+    }
+  }
+
+  @PreDestroy
+  void close() throws IOException {
+    exporter.close();
+  }
+}
@@ -0,0 +1,84 @@
+package com.tools.fsserver.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing that each admission limit rejects with the right status and Retry-After hint, and that
+ * releasing admitted uploads hands capacity back exactly once
+ */
+public class AdmissionControllerTest {
+
+  private final AtomicLong clock = new AtomicLong();
+
+  @Test
+  public void testConcurrencyLimitRejectsWith503() {
+    AdmissionController controller = new AdmissionController(2, 0, 0, 0, 3, 100, clock::get);
+    AdmissionDecision first = controller.tryAdmit("a", 10);
+    AdmissionDecision second = controller.tryAdmit("b", 10);
+    AdmissionDecision third = controller.tryAdmit("c", 10);
+    assertTrue(first.isAdmitted());
+    assertTrue(second.isAdmitted());
+    assertFalse(third.isAdmitted());
+    assertEquals(503, third.getRejectionStatus());
+    assertEquals(3, third.getRetryAfterSeconds());
+    first.release();
+    assertTrue(controller.tryAdmit("c", 10).isAdmitted());
+  }
+
+  @Test
+  public void testInFlightBytesLimitRejectsWith503() {
+    AdmissionController controller = new AdmissionController(0, 100, 0, 0, 1, 100, clock::get);
+    AdmissionDecision first = controller.tryAdmit("a", 80);
+    assertTrue(first.isAdmitted());
+    assertEquals(503, controller.tryAdmit("b", 30).getRejectionStatus());
+    assertEquals(80, controller.getInFlightBytes());
+    first.release();
+    assertEquals(0, controller.getInFlightBytes());
+  }
+
+  @Test
+  public void testOversizedUploadAdmittedOnIdleNode() {
+    AdmissionController controller = new AdmissionController(0, 100, 0, 0, 1, 100, clock::get);
+    assertTrue(controller.tryAdmit("a", 500).isAdmitted());
+  }
+
+  @Test
+  public void testUnknownLengthIsChargedAsMaximumUploadSize() {
+    AdmissionController controller = new AdmissionController(0, 1000, 0, 0, 1, 100, clock::get);
+    controller.tryAdmit("a", -1);
+    assertEquals(100, controller.getInFlightBytes());
+  }
+
+  @Test
+  public void testClientRateLimitRejectsWith429AndRetryAfter() {
+    AdmissionController controller = new AdmissionController(0, 0, 100, 100, 1, 100, clock::get);
+    assertTrue(controller.tryAdmit("a", 350).isAdmitted());
+    AdmissionDecision limited = controller.tryAdmit("a", 10);
+    assertEquals(429, limited.getRejectionStatus());
+    assertEquals(3, limited.getRetryAfterSeconds());
+    // other clients have their own bucket
+    assertTrue(controller.tryAdmit("b", 10).isAdmitted());
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(3));
+    assertTrue(controller.tryAdmit("a", 10).isAdmitted());
+  }
+
+  @Test
+  public void testRejectedRateLimitedUploadReleasesOtherLimits() {
+    AdmissionController controller = new AdmissionController(5, 1000, 100, 100, 1, 100, clock::get);
+    AdmissionDecision admitted = controller.tryAdmit("a", 200);
+    assertFalse(controller.tryAdmit("a", 10).isAdmitted());
+    assertEquals(1, controller.getConcurrentUploads());
+    assertEquals(200, controller.getInFlightBytes());
+    admitted.release();
+    admitted.release();
+    assertEquals(0, controller.getConcurrentUploads());
+    assertEquals(0, controller.getInFlightBytes());
+  }
+}
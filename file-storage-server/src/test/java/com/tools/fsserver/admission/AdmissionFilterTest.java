@@ -0,0 +1,35 @@
+package com.tools.fsserver.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing that the filter is routed in front of every upload, bucket uploads included, and not in
+ * front of copies and renames, which carry no body
+ */
+public class AdmissionFilterTest {
+
+  private static final Pattern UPLOAD_PATH = Pattern.compile(AdmissionFilter.UPLOAD_PATH_REGEX);
+
+  @Test
+  public void testUploadsAreAdmitted() {
+    assertTrue(UPLOAD_PATH.matcher("/v1/files/report.pdf").matches());
+    assertTrue(UPLOAD_PATH.matcher("/v1/files:archive").matches());
+    assertTrue(UPLOAD_PATH.matcher("/v1/buckets/builds/files/build-123.tar").matches());
+    assertTrue(UPLOAD_PATH.matcher("/v1/buckets/builds/files:archive").matches());
+    // only the suffix makes a copy or a rename
+    assertTrue(UPLOAD_PATH.matcher("/v1/files/a:copy.txt").matches());
+  }
+
+  @Test
+  public void testCopiesAndRenamesAreNotAdmitted() {
+    assertFalse(UPLOAD_PATH.matcher("/v1/files/report.pdf:copy").matches());
+    assertFalse(UPLOAD_PATH.matcher("/v1/files/report.pdf:rename").matches());
+    assertFalse(UPLOAD_PATH.matcher("/v1/buckets/builds/files/build-123.tar:copy").matches());
+    assertFalse(UPLOAD_PATH.matcher("/v1/buckets/builds/files/build-123.tar:rename").matches());
+  }
+}
@@ -0,0 +1,43 @@
+package com.tools.fsserver.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Token bucket arithmetic tested against a manually advanced clock */
+public class TokenBucketTest {
+
+  private final AtomicLong clock = new AtomicLong();
+
+  @Test
+  public void testBurstIsAdmittedThenClientMustWait() {
+    TokenBucket bucket = new TokenBucket(1000, 100, clock::get);
+    assertEquals(0, bucket.tryConsume(600));
+    assertEquals(0, bucket.tryConsume(600));
+    // balance is now -200 bytes, which takes 2 seconds at 100 bytes/s to repay
+    assertEquals(TimeUnit.SECONDS.toNanos(2), bucket.tryConsume(1));
+  }
+
+  @Test
+  public void testRefillOverTimeRestoresAdmission() {
+    TokenBucket bucket = new TokenBucket(1000, 100, clock::get);
+    bucket.tryConsume(1500);
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    assertEquals(0, bucket.tryConsume(10));
+  }
+
+  @Test
+  public void testBucketNeverRefillsAboveCapacity() {
+    TokenBucket bucket = new TokenBucket(1000, 100, clock::get);
+    clock.addAndGet(TimeUnit.HOURS.toNanos(1));
+    assertTrue(bucket.isFull());
+    bucket.tryConsume(1001);
+    assertFalse(bucket.isFull());
+    assertTrue(bucket.tryConsume(1) > 0);
+  }
+}
@@ -0,0 +1,169 @@
+package com.tools.fsserver.archive;
+
+import com.tools.fsserver.exception.MalformedArchiveException;
+import com.tools.fsserver.storage.FileSystemStorageService;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unpacks archives built in memory into a FileSystemStorageService over a temp folder, checking
+ * both what ends up stored and what is reported for each entry
+ */
+public class ArchiveIngesterTest {
+
+  private static final long MAX_ENTRY_SIZE = 1024;
+
+  @TempDir Path storageDir;
+  private ArchiveIngester ingester;
+  private final List<ArchiveEntryResult> results = new ArrayList<>();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    ingester =
+        new ArchiveIngester(new FileSystemStorageService(storageDir.toString()), MAX_ENTRY_SIZE);
+  }
+
+  @Test
+  public void testRegularFilesAreStored() throws Exception {
+    byte[] archive = tar(file("a.txt", "alpha"), file("./b.txt", "beta"), file("empty", ""));
+
+    ingester.ingest(new ByteArrayInputStream(archive), results::add);
+
+    assertEquals(List.of("STORED\ta.txt", "STORED\tb.txt", "STORED\tempty"), reportLines());
+    assertEquals("alpha", Files.readString(storageDir.resolve("a.txt")));
+    assertEquals("beta", Files.readString(storageDir.resolve("b.txt")));
+    assertEquals(0, Files.size(storageDir.resolve("empty")));
+  }
+
+  @Test
+  public void testGzippedArchiveIsDetected() throws Exception {
+    byte[] archive = gzip(tar(file("a.txt", "alpha")));
+
+    ingester.ingest(new ByteArrayInputStream(archive), results::add);
+
+    assertEquals(List.of("STORED\ta.txt"), reportLines());
+    assertEquals("alpha", Files.readString(storageDir.resolve("a.txt")));
+  }
+
+  @Test
+  public void testRejectedEntriesDoNotStopTheArchive() throws Exception {
+    Files.writeString(storageDir.resolve("dup.txt"), "old");
+    byte[] big = new byte[(int) MAX_ENTRY_SIZE + 1];
+    byte[] archive =
+        tar(
+            file("dup.txt", "new"),
+            file("sub/nested.txt", "x"),
+            file("../escape.txt", "x"),
+            new Entry("big.bin", big),
+            directory("folder/"),
+            file("last.txt", "last"));
+
+    ingester.ingest(new ByteArrayInputStream(archive), results::add);
+
+    assertEquals(
+        List.of(
+            "ALREADY_EXISTS\tdup.txt",
+            "INVALID_NAME\tsub/nested.txt",
+            "INVALID_NAME\t../escape.txt",
+            "TOO_LARGE\tbig.bin",
+            "SKIPPED\tfolder/",
+            "STORED\tlast.txt"),
+        reportLines());
+    assertEquals("old", Files.readString(storageDir.resolve("dup.txt")));
+    assertFalse(Files.exists(storageDir.resolve("big.bin")));
+    assertEquals("last", Files.readString(storageDir.resolve("last.txt")));
+  }
+
+  @Test
+  public void testTruncatedArchiveKeepsEntriesBeforeTheCut() throws Exception {
+    byte[] second = new byte[700];
+    Arrays.fill(second, (byte) 'b');
+    byte[] archive = tar(file("first.txt", "first"), new Entry("second.bin", second));
+    // cut in the middle of the second entry's content
+    byte[] truncated = Arrays.copyOf(archive, 512 * 3 + 100);
+
+    assertThrows(
+        MalformedArchiveException.class,
+        () -> ingester.ingest(new ByteArrayInputStream(truncated), results::add));
+
+    assertEquals(List.of("STORED\tfirst.txt"), reportLines());
+    assertFalse(Files.exists(storageDir.resolve("second.bin")));
+  }
+
+  @Test
+  public void testNotAnArchiveIsMalformed() {
+    byte[] garbage = "this is not a tar archive".repeat(100).getBytes(StandardCharsets.UTF_8);
+    assertThrows(
+        MalformedArchiveException.class,
+        () -> ingester.ingest(new ByteArrayInputStream(garbage), results::add));
+  }
+
+  private List<String> reportLines() {
+    List<String> lines = new ArrayList<>();
+    results.forEach(result -> lines.add(result.toReportLine()));
+    return lines;
+  }
+
+  private static Entry file(String name, String content) {
+    return new Entry(name, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Entry directory(String name) {
+    return new Entry(name, null);
+  }
+
+  private static byte[] tar(Entry... entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(bytes)) {
+      for (Entry entry : entries) {
+        TarArchiveEntry tarEntry = new TarArchiveEntry(entry.name);
+        if (entry.content != null) {
+          tarEntry.setSize(entry.content.length);
+        }
+        tar.putArchiveEntry(tarEntry);
+        if (entry.content != null) {
+          tar.write(entry.content);
+        }
+        tar.closeArchiveEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream gzip = new GZIPOutputStream(bytes)) {
+      gzip.write(content);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static final class Entry {
+    private final String name;
+    private final byte[] content;
+
+    private Entry(String name, byte[] content) {
+      this.name = name;
+      this.content = content;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package com.tools.fsserver.archive;
+
+import com.tools.fsserver.storage.FileSystemStorageService;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Streams archives out of a FileSystemStorageService over a temp folder and reads them back with
+ * standard zip/tar readers
+ */
+public class ArchiveStreamerTest {
+
+  @TempDir Path tempDir;
+  private FileSystemStorageService storage;
+  private ArchiveStreamer streamer;
+  private final Map<String, byte[]> stored = new LinkedHashMap<>();
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    storage = new FileSystemStorageService(tempDir.resolve("storage").toString());
+    streamer = new ArchiveStreamer(storage);
+    store("logs-1.txt", 10);
+    store("logs-2.txt", 200_000);
+    store("other.bin", 0);
+  }
+
+  @Test
+  public void testSelectByPrefix() throws IOException {
+    assertEquals(List.of("logs-1.txt", "logs-2.txt"), streamer.selectByPrefix("logs-"));
+    assertEquals(
+        List.of("logs-1.txt", "logs-2.txt", "other.bin"), streamer.selectByPrefix(""));
+    assertEquals(List.of(), streamer.selectByPrefix("nope"));
+  }
+
+  @Test
+  public void testFindMissing() throws IOException {
+    assertEquals(
+        List.of("a.txt", "b.txt"),
+        streamer.findMissing(List.of("a.txt", "logs-1.txt", "b.txt")));
+  }
+
+  @Test
+  public void testZipHoldsSelectedFiles() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    streamer.write(List.of("logs-2.txt", "other.bin"), ArchiveFormat.ZIP, out);
+
+    Map<String, byte[]> unzipped = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        unzipped.put(entry.getName(), zip.readAllBytes());
+      }
+    }
+    assertEquals(List.of("logs-2.txt", "other.bin"), List.copyOf(unzipped.keySet()));
+    assertArrayEquals(stored.get("logs-2.txt"), unzipped.get("logs-2.txt"));
+    assertArrayEquals(stored.get("other.bin"), unzipped.get("other.bin"));
+  }
+
+  @Test
+  public void testTarHoldsSelectedFilesAndSkipsDeletedOnes() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    storage.deleteFile("logs-1.txt");
+    streamer.write(List.of("logs-1.txt", "logs-2.txt", "other.bin"), ArchiveFormat.TAR, out);
+
+    Map<String, byte[]> untarred = new LinkedHashMap<>();
+    try (TarArchiveInputStream tar =
+        new TarArchiveInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      TarArchiveEntry entry;
+      while ((entry = tar.getNextTarEntry()) != null) {
+        untarred.put(entry.getName(), tar.readAllBytes());
+      }
+    }
+    assertEquals(List.of("logs-2.txt", "other.bin"), List.copyOf(untarred.keySet()));
+    assertArrayEquals(stored.get("logs-2.txt"), untarred.get("logs-2.txt"));
+    assertArrayEquals(stored.get("other.bin"), untarred.get("other.bin"));
+  }
+
+  @Test
+  public void testFormatNamesAreCaseInsensitive() {
+    assertEquals(ArchiveFormat.TAR, ArchiveFormat.fromName("Tar"));
+    assertEquals(ArchiveFormat.ZIP, ArchiveFormat.fromName("zip"));
+  }
+
+  private void store(String fileName, int size) throws Exception {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    Path upload = Files.write(tempDir.resolve("upload-" + fileName), content);
+    storage.storeFile(fileName, upload);
+    stored.put(fileName, content);
+  }
+}
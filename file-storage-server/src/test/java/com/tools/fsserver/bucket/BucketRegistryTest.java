@@ -0,0 +1,150 @@
+package com.tools.fsserver.bucket;
+
+import com.tools.fsserver.exception.BucketLimitExceededException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.FileSystemStorageService;
+import com.tools.fsserver.storage.IStorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing buckets against real folders: each must keep its files apart from the others and from
+ * the default storage, enforce its quota and concurrency limit, and come back with both after a
+ * restart
+ */
+public class BucketRegistryTest {
+
+  @TempDir Path tempDir;
+  private FileSystemStorageService defaultStorage;
+  private Path upload;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    defaultStorage = new FileSystemStorageService(tempDir.resolve("default").toString());
+    upload = Files.writeString(tempDir.resolve("upload"), "0123456789");
+  }
+
+  @Test
+  public void testBucketsKeepTheirFilesApart() throws Exception {
+    BucketRegistry registry = newRegistry();
+    registry.createOrUpdate("tenant-a", null, null);
+    registry.createOrUpdate("tenant-b", null, null);
+    registry.storageOf("tenant-a").storeFile("same.txt", upload);
+    registry.storageOf("tenant-b").storeFile("same.txt", upload);
+    registry.storageOf("tenant-b").storeFile("other.txt", upload);
+    assertEquals(Set.of("same.txt"), registry.storageOf("tenant-a").listStoredFiles());
+    assertEquals(Set.of("same.txt", "other.txt"), registry.storageOf("tenant-b").listStoredFiles());
+    assertTrue(defaultStorage.listStoredFiles().isEmpty());
+    assertSame(defaultStorage, registry.storageOf(BucketRegistry.DEFAULT_BUCKET));
+    assertNull(registry.storageOf("tenant-c"));
+    assertEquals(Set.of("default", "tenant-a", "tenant-b"), registry.listBuckets());
+  }
+
+  @Test
+  public void testInvalidOrReservedNamesExpectIllegalArgumentException() throws IOException {
+    BucketRegistry registry = newRegistry();
+    for (String name : new String[] {"default", "ab", "Upper", "../up", "a..b", "-dash", "a/b"}) {
+      assertThrows(
+          IllegalArgumentException.class, () -> registry.createOrUpdate(name, null, null), name);
+    }
+    assertThrows(IllegalArgumentException.class, () -> registry.createOrUpdate("neg", -1L, null));
+  }
+
+  @Test
+  public void testQuotaRefusesUploadsUntilFilesAreDeleted() throws Exception {
+    BucketRegistry registry = newRegistry();
+    Bucket bucket = registry.createOrUpdate("small", 25L, null);
+    bucket.storeFile("first.txt", upload);
+    // a refused duplicate gives its reservation back
+    assertThrows(
+        FileNamePresentOnServerException.class, () -> bucket.storeFile("first.txt", upload));
+    bucket.storeFile("second.txt", upload);
+    BucketLimitExceededException e =
+        assertThrows(BucketLimitExceededException.class, () -> bucket.storeFile("third", upload));
+    assertTrue(e.isQuotaExceeded());
+    assertEquals(20, bucket.getUsedBytes());
+    bucket.deleteFile("first.txt");
+    bucket.storeFile("third.txt", upload);
+    assertEquals(Set.of("second.txt", "third.txt"), bucket.listStoredFiles());
+  }
+
+  @Test
+  public void testConcurrencyLimitCountsOpenDownloads() throws Exception {
+    BucketRegistry registry = newRegistry();
+    Bucket bucket = registry.createOrUpdate("narrow", null, 1);
+    bucket.storeFile("file.txt", upload);
+    try (InputStream download = bucket.retrieveFile("file.txt")) {
+      BucketLimitExceededException e =
+          assertThrows(BucketLimitExceededException.class, bucket::listStoredFiles);
+      assertFalse(e.isQuotaExceeded());
+    }
+    assertEquals(Set.of("file.txt"), bucket.listStoredFiles());
+  }
+
+  @Test
+  public void testBucketsAndLimitsSurviveRestart() throws Exception {
+    BucketRegistry registry = newRegistry();
+    registry.createOrUpdate("kept", 100L, 4).storeFile("file.txt", upload);
+    registry.createOrUpdate("kept", null, 8);
+    registry.close();
+
+    BucketRegistry restarted = newRegistry();
+    Bucket bucket = restarted.getBucket("kept");
+    assertEquals(100, bucket.getQuotaBytes());
+    assertEquals(8, bucket.getMaxConcurrentRequests());
+    assertEquals(10, bucket.getUsedBytes());
+    assertEquals(Set.of("file.txt"), bucket.listStoredFiles());
+  }
+
+  @Test
+  public void testOnlyEmptyBucketsCanBeDeleted() throws Exception {
+    BucketRegistry registry = newRegistry();
+    IStorageService bucket = registry.createOrUpdate("doomed", null, null);
+    bucket.storeFile("file.txt", upload);
+    assertThrows(IllegalStateException.class, () -> registry.delete("doomed"));
+    // still serving after the refused delete
+    bucket.deleteFile("file.txt");
+    assertTrue(registry.delete("doomed"));
+    assertFalse(registry.delete("doomed"));
+    assertFalse(Files.exists(tempDir.resolve("buckets").resolve("doomed")));
+    assertThrows(IllegalArgumentException.class, () -> registry.delete("default"));
+  }
+
+  @Test
+  public void testOtherStorageBackendsHaveNoBuckets() throws Exception {
+    newRegistry().createOrUpdate("local", null, null);
+    BucketRegistry registry =
+        new BucketRegistry(defaultStorage, "s3", tempDir.resolve("buckets"), 0, 0, null, null);
+    // the folder of a bucket made with the filesystem backend is left alone
+    assertEquals(Set.of("default"), registry.listBuckets());
+    assertNull(registry.storageOf("local"));
+    assertThrows(
+        UnsupportedOperationException.class, () -> registry.createOrUpdate("tenant", null, null));
+    assertFalse(Files.exists(tempDir.resolve("buckets").resolve("tenant")));
+  }
+
+  private BucketRegistry newRegistry() throws IOException {
+    return new BucketRegistry(
+        defaultStorage,
+        BucketRegistry.FILESYSTEM_BACKEND,
+        tempDir.resolve("buckets"),
+        0,
+        0,
+        null,
+        null);
+  }
+}
@@ -0,0 +1,158 @@
+package com.tools.fsserver.events;
+
+import com.tools.fsserver.storage.StorageChangeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Answers;
+import org.mockito.InOrder;
+
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Testing the fan-out of storage events to SSE subscribers. The dispatcher runs tasks inline so
+ * every interaction completes before the call under test returns
+ */
+public class StorageEventFeedTest {
+
+  @TempDir Path tempDir;
+  private StorageEventFeed feed;
+  private Sse sse;
+  private OutboundSseEvent.Builder eventBuilder;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    feed =
+        new StorageEventFeed(
+            new StorageEventLog(tempDir.resolve("events.log"), 4), new InlineExecutor());
+    sse = mock(Sse.class);
+    eventBuilder = mock(OutboundSseEvent.Builder.class, Answers.RETURNS_SELF);
+    when(eventBuilder.build()).thenReturn(mock(OutboundSseEvent.class));
+    when(sse.newEventBuilder()).thenReturn(eventBuilder);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    feed.shutdown();
+  }
+
+  @Test
+  public void testSubscriberReceivesBacklogThenLiveEvents() {
+    feed.onStorageChange(StorageChangeType.CREATED, "a.txt");
+    feed.onStorageChange(StorageChangeType.DELETED, "a.txt");
+    SseEventSink sink = openSink();
+
+    feed.subscribe(0, sink, sse);
+    feed.onStorageChange(StorageChangeType.CREATED, "b.txt");
+
+    verify(sink, times(3)).send(any());
+    InOrder order = inOrder(eventBuilder);
+    order.verify(eventBuilder).id("1");
+    order.verify(eventBuilder).name("created");
+    order.verify(eventBuilder).id("2");
+    order.verify(eventBuilder).name("deleted");
+    order.verify(eventBuilder).id("3");
+    assertEquals(3, feed.getLatestSequence());
+  }
+
+  @Test
+  public void testSubscriberResumesAfterCheckpoint() {
+    for (int i = 0; i < 10; i++) {
+      feed.onStorageChange(StorageChangeType.CREATED, "file" + i);
+    }
+    SseEventSink sink = openSink();
+
+    feed.subscribe(7, sink, sse);
+
+    verify(sink, times(3)).send(any());
+    verify(eventBuilder, never()).id("7");
+    verify(eventBuilder).id("10");
+  }
+
+  @Test
+  public void testFailedSendRemovesSubscriber() {
+    SseEventSink sink = mock(SseEventSink.class);
+    doReturn(CompletableFuture.failedFuture(new IOException("gone"))).when(sink).send(any());
+    feed.subscribe(0, sink, sse);
+    assertEquals(1, feed.getSubscriberCount());
+
+    feed.onStorageChange(StorageChangeType.CREATED, "a.txt");
+
+    verify(sink).close();
+    assertEquals(0, feed.getSubscriberCount());
+    feed.onStorageChange(StorageChangeType.CREATED, "b.txt");
+    verify(sink, times(1)).send(any());
+  }
+
+  @Test
+  public void testClosedSinkIsDroppedOnNextEvent() {
+    SseEventSink sink = openSink();
+    feed.subscribe(0, sink, sse);
+    when(sink.isClosed()).thenReturn(true);
+
+    feed.onStorageChange(StorageChangeType.CREATED, "a.txt");
+
+    verify(sink, never()).send(any());
+    assertEquals(0, feed.getSubscriberCount());
+  }
+
+  private static SseEventSink openSink() {
+    SseEventSink sink = mock(SseEventSink.class);
+    doReturn(CompletableFuture.completedFuture(null)).when(sink).send(any());
+    return sink;
+  }
+
+  private static final class InlineExecutor extends AbstractExecutorService {
+    private boolean shutdown;
+
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+
+    @Override
+    public void shutdown() {
+      shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      shutdown = true;
+      return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.tools.fsserver.events;
+
+import com.tools.fsserver.storage.StorageChangeType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing the event log against real temporary files: readers must see every event in order
+ * whether it is still in the ring buffer or only on disk, sequences must survive a restart without
+ * ever being reused, and only the retained segments may stay on disk
+ */
+public class StorageEventLogTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testReadAfterServesRecentEventsFromMemory() throws IOException {
+    try (StorageEventLog log = new StorageEventLog(tempDir.resolve("events.log"), 8)) {
+      log.append(StorageChangeType.CREATED, "a.txt", 1L);
+      log.append(StorageChangeType.DELETED, "a.txt", 2L);
+      List<StorageEvent> events = log.readAfter(0, 10);
+      assertEquals(2, events.size());
+      assertEquals(1, events.get(0).getSequence());
+      assertEquals(StorageChangeType.DELETED, events.get(1).getType());
+      assertEquals(List.of(), log.readAfter(2, 10));
+      assertEquals(1, log.readAfter(1, 10).size());
+    }
+  }
+
+  @Test
+  public void testReadAfterFallsBackToFileOnceRingWrapped() throws IOException {
+    int eventCount = StorageEventLog.INDEX_INTERVAL * 3;
+    try (StorageEventLog log = new StorageEventLog(tempDir.resolve("events.log"), 4)) {
+      for (int i = 1; i <= eventCount; i++) {
+        log.append(StorageChangeType.CREATED, "file" + i, i);
+      }
+      List<StorageEvent> events = log.readAfter(StorageEventLog.INDEX_INTERVAL + 10, 5);
+      assertEquals(5, events.size());
+      for (int i = 0; i < events.size(); i++) {
+        long expectedSequence = StorageEventLog.INDEX_INTERVAL + 11 + i;
+        assertEquals(expectedSequence, events.get(i).getSequence());
+        assertEquals("file" + expectedSequence, events.get(i).getFileName());
+      }
+      assertEquals(eventCount, log.readAfter(0, eventCount + 1).size());
+    }
+  }
+
+  @Test
+  public void testSequencesResumeAfterReopen() throws IOException {
+    Path logPath = tempDir.resolve("nested").resolve("events.log");
+    try (StorageEventLog log = new StorageEventLog(logPath, 2)) {
+      for (int i = 1; i <= 5; i++) {
+        log.append(StorageChangeType.CREATED, "name with\ttab\nand newline " + i, i);
+      }
+    }
+    try (StorageEventLog log = new StorageEventLog(logPath, 2)) {
+      assertEquals(5, log.getLastSequence());
+      assertEquals(6, log.append(StorageChangeType.DELETED, "x", 6L).getSequence());
+      List<StorageEvent> events = log.readAfter(0, 10);
+      assertEquals(6, events.size());
+      assertEquals("name with\ttab\nand newline 1", events.get(0).getFileName());
+    }
+  }
+
+  @Test
+  public void testIncompleteLastLineIsTruncatedOnReopen() throws IOException {
+    Path logPath = tempDir.resolve("events.log");
+    try (StorageEventLog log = new StorageEventLog(logPath, 4)) {
+      log.append(StorageChangeType.CREATED, "a", 1L);
+    }
+    Files.write(
+        tempDir.resolve("events.log.00000000000000000001"),
+        "2\t2\tCREA".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+    try (StorageEventLog log = new StorageEventLog(logPath, 4)) {
+      assertEquals(1, log.getLastSequence());
+      log.append(StorageChangeType.CREATED, "b", 2L);
+    }
+    try (StorageEventLog log = new StorageEventLog(logPath, 4)) {
+      List<StorageEvent> events = log.readAfter(0, 10);
+      assertEquals(2, events.size());
+      assertEquals("b", events.get(1).getFileName());
+    }
+  }
+
+  @Test
+  public void testSequencesAreNotReusedAfterCrash() throws IOException {
+    Path logPath = tempDir.resolve("events.log");
+    try (StorageEventLog log = new StorageEventLog(logPath, 4)) {
+      log.append(StorageChangeType.CREATED, "a", 1L);
+      log.append(StorageChangeType.CREATED, "lost", 2L);
+    }
+    // as a machine crash leaves it: the sequences reserved at startup, the last event not on disk
+    Files.writeString(
+        tempDir.resolve("events.log.sequence"),
+        Long.toString(StorageEventLog.SEQUENCE_RESERVATION));
+    Path segment = tempDir.resolve("events.log.00000000000000000001");
+    String firstLine = Files.readAllLines(segment, StandardCharsets.UTF_8).get(0);
+    Files.writeString(segment, firstLine + "\n");
+
+    try (StorageEventLog log = new StorageEventLog(logPath, 4)) {
+      long resumed = StorageEventLog.SEQUENCE_RESERVATION;
+      assertEquals(resumed, log.getLastSequence());
+      assertEquals(resumed + 1, log.append(StorageChangeType.DELETED, "b", 3L).getSequence());
+      // a consumer that saw the lost event 2 still gets the next one
+      List<StorageEvent> events = log.readAfter(2, 10);
+      assertEquals(1, events.size());
+      assertEquals("b", events.get(0).getFileName());
+    }
+  }
+
+  @Test
+  public void testOnlyRetainedSegmentsAreKept() throws IOException {
+    Path logPath = tempDir.resolve("events.log");
+    try (StorageEventLog log = new StorageEventLog(logPath, 2, 100, 3)) {
+      for (int i = 1; i <= 40; i++) {
+        log.append(StorageChangeType.CREATED, "file" + i, i);
+      }
+      try (Stream<Path> files = Files.list(tempDir)) {
+        assertEquals(
+            3, files.filter(file -> file.toString().matches(".*events\\.log\\.\\d+")).count());
+      }
+      List<StorageEvent> events = log.readAfter(0, 100);
+      assertEquals(40, events.get(events.size() - 1).getSequence());
+      assertTrue(events.size() < 40);
+      // a consumer from before the retention continues with the oldest kept event, in order
+      long first = events.get(0).getSequence();
+      for (int i = 0; i < events.size(); i++) {
+        assertEquals(first + i, events.get(i).getSequence());
+      }
+      List<StorageEvent> firstTwo = log.readAfter(0, 2);
+      assertEquals(2, firstTwo.size());
+      assertEquals(first + 1, firstTwo.get(1).getSequence());
+    }
+    try (StorageEventLog log = new StorageEventLog(logPath, 2, 100, 3)) {
+      assertEquals(40, log.getLastSequence());
+    }
+  }
+
+  @Test
+  public void testSingleFileLogIsTakenOverAsFirstSegment() throws IOException {
+    Path logPath = tempDir.resolve("events.log");
+    Files.write(
+        logPath,
+        (new StorageEvent(1, StorageChangeType.CREATED, "a", 1L).toLogLine() + "\n")
+            .getBytes(StandardCharsets.UTF_8));
+    try (StorageEventLog log = new StorageEventLog(logPath, 4)) {
+      assertEquals(1, log.getLastSequence());
+      assertEquals(2, log.append(StorageChangeType.DELETED, "a", 2L).getSequence());
+    }
+    assertTrue(Files.exists(tempDir.resolve("events.log.00000000000000000001")));
+    assertTrue(Files.notExists(logPath));
+  }
+
+  @Test
+  public void testJsonEscapesFileName() {
+    String json =
+        new StorageEvent(7, StorageChangeType.CREATED, "quote\"back\\slash\n", 9L).toJson();
+    assertEquals(
+        "{\"sequence\":7,\"type\":\"CREATED\",\"fileName\":\"quote\\\"back\\\\slash\\u000a\","
+            + "\"timestamp\":9}",
+        json);
+    assertTrue(json.indexOf('\n') < 0);
+  }
+}
@@ -0,0 +1,176 @@
+package com.tools.fsserver.expiry;
+
+import com.tools.fsserver.storage.FileSystemStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Testing expiry against a real storage folder with a manual clock: files must go once their time
+ * to live has passed, within the delete budget, across restarts, and never if uploaded again
+ */
+public class FileExpiryReaperTest {
+
+  private static final int MAX_DELETES_PER_SECOND = 10;
+
+  @TempDir Path tempDir;
+  private final AtomicLong clock = new AtomicLong(1_600_000_000_000L);
+  private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+  private FileSystemStorageService storage;
+  private Path upload;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    storage = new FileSystemStorageService(tempDir.resolve("storage").toString());
+    upload = Files.writeString(tempDir.resolve("upload"), "hello");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ticker.shutdownNow();
+  }
+
+  @Test
+  public void testFilesAreDeletedOnceTheirTimeToLiveHasPassed() throws Exception {
+    FileExpiryReaper reaper = newReaper();
+    storage.storeFile("short.txt", upload);
+    storage.storeFile("long.txt", upload);
+    storage.storeFile("kept.txt", upload);
+    reaper.expireAfter("short.txt", Duration.ofMinutes(1));
+    reaper.expireAfter("long.txt", Duration.ofDays(3));
+    clock.addAndGet(Duration.ofSeconds(59).toMillis());
+    assertEquals(0, reaper.reapDueFiles());
+    clock.addAndGet(Duration.ofSeconds(1).toMillis());
+    assertEquals(1, reaper.reapDueFiles());
+    assertEquals(Set.of("long.txt", "kept.txt"), storage.listStoredFiles());
+    clock.addAndGet(Duration.ofDays(3).toMillis());
+    assertEquals(1, reaper.reapDueFiles());
+    assertEquals(Set.of("kept.txt"), storage.listStoredFiles());
+    assertEquals(0, reaper.getPendingCount());
+  }
+
+  @Test
+  public void testDeletionsStayWithinTheBudget() throws Exception {
+    FileExpiryReaper reaper = newReaper();
+    for (int i = 0; i < 35; i++) {
+      storage.storeFile("file-" + i, upload);
+      reaper.expireAfter("file-" + i, Duration.ofSeconds(10));
+    }
+    clock.addAndGet(Duration.ofMinutes(1).toMillis());
+    // a full bucket lets one burst through, the rest follows at the configured rate
+    int firstBurst = reaper.reapDueFiles();
+    assertEquals(MAX_DELETES_PER_SECOND + 1, firstBurst);
+    assertEquals(35 - firstBurst, reaper.getBacklogSize());
+    clock.addAndGet(1000);
+    assertEquals(MAX_DELETES_PER_SECOND, reaper.reapDueFiles());
+    clock.addAndGet(1000);
+    assertEquals(MAX_DELETES_PER_SECOND, reaper.reapDueFiles());
+    clock.addAndGet(1000);
+    assertEquals(4, reaper.reapDueFiles());
+    assertEquals(Set.of(), storage.listStoredFiles());
+  }
+
+  @Test
+  public void testExpiriesSurviveARestartAndExpiredOnesGoAtOnce() throws Exception {
+    FileExpiryReaper reaper = newReaper();
+    storage.storeFile("a.txt", upload);
+    storage.storeFile("b.txt", upload);
+    reaper.expireAfter("a.txt", Duration.ofHours(1));
+    reaper.expireAfter("b.txt", Duration.ofDays(1));
+    reaper.shutdown();
+
+    clock.addAndGet(Duration.ofHours(2).toMillis());
+    FileExpiryReaper restarted = newReaper();
+    assertEquals(2, restarted.getPendingCount());
+    assertEquals(1, restarted.reapDueFiles());
+    assertEquals(Set.of("b.txt"), storage.listStoredFiles());
+    restarted.shutdown();
+    assertEquals(1, newReaper().getPendingCount());
+  }
+
+  @Test
+  public void testFileUploadedAgainKeepsItsNewLife() throws Exception {
+    FileExpiryReaper reaper = newReaper();
+    storage.storeFile("a.txt", upload);
+    reaper.expireAfter("a.txt", Duration.ofMinutes(1));
+    storage.deleteFile("a.txt");
+    storage.storeFile("a.txt", Files.writeString(tempDir.resolve("upload2"), "hello again"));
+    clock.addAndGet(Duration.ofMinutes(2).toMillis());
+    assertEquals(0, reaper.reapDueFiles());
+    assertEquals(Set.of("a.txt"), storage.listStoredFiles());
+    assertEquals(0, reaper.getPendingCount());
+  }
+
+  @Test
+  public void testFileUploadedAgainWithTheSameContentKeepsItsNewLife() throws Exception {
+    FileExpiryReaper reaper = newReaper();
+    storage.storeFile("a.txt", upload);
+    // uploaded a while ago, so that the upload below cannot share its modification time
+    Files.setLastModifiedTime(
+        tempDir.resolve("storage").resolve("a.txt"),
+        FileTime.fromMillis(clock.get() - Duration.ofHours(1).toMillis()));
+    reaper.expireAfter("a.txt", Duration.ofMinutes(1));
+    storage.deleteFile("a.txt");
+    storage.storeFile("a.txt", upload);
+    clock.addAndGet(Duration.ofMinutes(2).toMillis());
+    assertEquals(0, reaper.reapDueFiles());
+    assertEquals(Set.of("a.txt"), storage.listStoredFiles());
+    assertEquals(0, reaper.getPendingCount());
+  }
+
+  @Test
+  public void testTimeToLiveBeyondTheMaximumIsRejected() throws Exception {
+    FileExpiryReaper reaper = newReaper();
+    storage.storeFile("a.txt", upload);
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> reaper.expireAfter("a.txt", FileExpiryReaper.MAX_TIME_TO_LIVE.plusDays(1)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> reaper.expireAfter("a.txt", Duration.ofSeconds(Long.MAX_VALUE)));
+    assertEquals(0, reaper.getPendingCount());
+  }
+
+  @Test
+  public void testTimeToLiveParsing() {
+    assertEquals(Duration.ofSeconds(90), FileExpiryReaper.parseTimeToLive("90"));
+    assertEquals(Duration.ofSeconds(90), FileExpiryReaper.parseTimeToLive("90s"));
+    assertEquals(Duration.ofMinutes(15), FileExpiryReaper.parseTimeToLive("15m"));
+    assertEquals(Duration.ofHours(36), FileExpiryReaper.parseTimeToLive("36H"));
+    assertEquals(Duration.ofDays(3), FileExpiryReaper.parseTimeToLive("3d"));
+    assertEquals(
+        FileExpiryReaper.MAX_TIME_TO_LIVE,
+        FileExpiryReaper.parseTimeToLive(FileExpiryReaper.MAX_TIME_TO_LIVE.toDays() + "d"));
+    String[] invalidValues = {
+      "", "0", "-5", "3w", "1.5h", "soon", "3651d", "9223372036854775807d", "99999999999999999999"
+    };
+    for (String invalid : invalidValues) {
+      assertThrows(
+          IllegalArgumentException.class, () -> FileExpiryReaper.parseTimeToLive(invalid));
+    }
+  }
+
+  private FileExpiryReaper newReaper() throws IOException {
+    return new FileExpiryReaper(
+        storage,
+        new ExpiryLog(tempDir.resolve("expiry").resolve("expiry.log")),
+        1000,
+        MAX_DELETES_PER_SECOND,
+        clock::get,
+        ticker);
+  }
+}
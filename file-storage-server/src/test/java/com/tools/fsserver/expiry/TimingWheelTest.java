@@ -0,0 +1,65 @@
+package com.tools.fsserver.expiry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Items must come out of the wheel on the first advance at or after their deadline, never before,
+ * whichever level they were scheduled in and however far the wheel is advanced at once
+ */
+public class TimingWheelTest {
+
+  private static final long TICK = 1000;
+
+  @Test
+  public void testItemsAreDueOnTheirTickWhateverTheirLevel() {
+    long start = 1_600_000_000_000L;
+    TimingWheel<Long> wheel = new TimingWheel<>(TICK, 4, 3, start);
+    Random random = new Random(7);
+    List<Long> deadlines = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      // up to twice the 4^3 ticks reach of the wheel, so some are parked
+      long deadline = start + random.nextInt(128 * (int) TICK);
+      deadlines.add(deadline);
+      wheel.schedule(deadline, deadline);
+    }
+    int seen = 0;
+    for (long now = start; now <= start + 130 * TICK; now += TICK) {
+      for (long deadline : wheel.advanceTo(now)) {
+        assertTrue(deadline <= now, "due early");
+        assertTrue(deadline > now - TICK, "due late");
+        seen++;
+      }
+    }
+    assertEquals(deadlines.size(), seen);
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testAdvancingFarAtOnceReturnsEverythingPassed() {
+    long start = 0;
+    TimingWheel<String> wheel = new TimingWheel<>(TICK, 64, 4, start);
+    wheel.schedule(5 * TICK, "soon");
+    wheel.schedule(100_000 * TICK, "later");
+    wheel.schedule(-3 * TICK, "past");
+    assertEquals(List.of("past"), wheel.advanceTo(start));
+    assertEquals(List.of("soon"), wheel.advanceTo(50_000 * TICK));
+    assertEquals(1, wheel.size());
+    assertEquals(List.of(), wheel.advanceTo(99_999 * TICK));
+    assertEquals(List.of("later"), wheel.advanceTo(100_000 * TICK));
+  }
+
+  @Test
+  public void testDeadlinesAreRoundedUpToTheNextTick() {
+    TimingWheel<String> wheel = new TimingWheel<>(TICK, 64, 2, 0);
+    wheel.schedule(1500, "a");
+    assertEquals(List.of(), wheel.advanceTo(1999));
+    assertEquals(List.of("a"), wheel.advanceTo(2000));
+  }
+}
@@ -0,0 +1,235 @@
+package com.tools.fsserver.grpc;
+
+import com.google.protobuf.ByteString;
+import com.tools.fsgrpc.v1.BatchRequest;
+import com.tools.fsgrpc.v1.BatchResponse;
+import com.tools.fsgrpc.v1.DeleteRequest;
+import com.tools.fsgrpc.v1.DownloadRequest;
+import com.tools.fsgrpc.v1.DownloadResponse;
+import com.tools.fsgrpc.v1.FileTransferGrpc;
+import com.tools.fsgrpc.v1.TransferResult;
+import com.tools.fsgrpc.v1.TransferStatus;
+import com.tools.fsgrpc.v1.UploadEnd;
+import com.tools.fsgrpc.v1.UploadRequest;
+import com.tools.fsgrpc.v1.UploadStart;
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.FileSystemStorageService;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import io.quarkus.grpc.GrpcClient;
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * gRPC test for the upload/download/batch calls. As for the REST API, a mocked
+ * FileSystemStorageService is injected and we verify how each mocked outcome is reported
+ */
+@QuarkusTest
+public class FileTransferGrpcServiceTest {
+
+  private static final int CONTENT_SIZE = 200 * 1024;
+
+  @Inject FileSystemStorageService fileSystemStorageService;
+
+  @GrpcClient("fileTransfer")
+  Channel channel;
+
+  private FileSystemStorageService storageMock;
+  private byte[] content;
+
+  @BeforeEach
+  public void setUp() {
+    storageMock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(storageMock, fileSystemStorageService);
+    content = new byte[CONTENT_SIZE];
+    new Random(7).nextBytes(content);
+  }
+
+  @Test
+  public void testUploadStoresSpooledContent() throws Exception {
+    AtomicReference<byte[]> stored = new AtomicReference<>();
+    doAnswer(
+            invocation -> {
+              stored.set(Files.readAllBytes(invocation.getArgument(1, Path.class)));
+              return null;
+            })
+        .when(storageMock)
+        .storeFile(eq("a.bin"), any());
+
+    TransferResult result = upload("a.bin", (long) content.length, content);
+
+    assertEquals(TransferStatus.OK, result.getStatus());
+    assertArrayEquals(content, stored.get());
+  }
+
+  @Test
+  public void testUploadOfDuplicateExpectAlreadyExists() throws Exception {
+    doThrow(new FileNamePresentOnServerException("duplicate"))
+        .when(storageMock)
+        .storeFile(eq("a.bin"), any());
+    assertEquals(
+        TransferStatus.ALREADY_EXISTS, upload("a.bin", null, content).getStatus());
+  }
+
+  @Test
+  public void testUploadDeclaredTooLargeIsRejectedUpFront() throws Exception {
+    TransferResult result = upload("big.bin", 11L * 1024 * 1024, content);
+    assertEquals(TransferStatus.TOO_LARGE, result.getStatus());
+    verify(storageMock, never()).storeFile(any(), any());
+  }
+
+  @Test
+  public void testUploadWithPathInNameExpectInvalid() throws Exception {
+    assertEquals(TransferStatus.INVALID, upload("../escape", null, content).getStatus());
+    verify(storageMock, never()).storeFile(any(), any());
+  }
+
+  @Test
+  public void testDownloadStreamsWholeFile() throws Exception {
+    when(storageMock.retrieveFile("a.bin")).thenReturn(new ByteArrayInputStream(content));
+    Iterator<DownloadResponse> chunks =
+        FileTransferGrpc.newBlockingStub(channel)
+            .download(DownloadRequest.newBuilder().setFileName("a.bin").build());
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    while (chunks.hasNext()) {
+      chunks.next().getChunk().writeTo(received);
+    }
+    assertArrayEquals(content, received.toByteArray());
+  }
+
+  @Test
+  public void testDownloadOfInexistentFileExpectNotFound() throws Exception {
+    when(storageMock.retrieveFile("missing.bin"))
+        .thenThrow(new FileNameNotPresentOnServerException("missing"));
+    Iterator<DownloadResponse> chunks =
+        FileTransferGrpc.newBlockingStub(channel)
+            .download(DownloadRequest.newBuilder().setFileName("missing.bin").build());
+    StatusRuntimeException e = assertThrows(StatusRuntimeException.class, chunks::hasNext);
+    assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+  }
+
+  @Test
+  public void testBatchMultiplexesTransfers() throws Exception {
+    when(storageMock.retrieveFile("down.bin")).thenReturn(new ByteArrayInputStream(content));
+    doThrow(new FileNameNotPresentOnServerException("missing"))
+        .when(storageMock)
+        .deleteFile("missing.bin");
+    List<BatchResponse> responses = new ArrayList<>();
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    StreamObserver<BatchRequest> requests =
+        FileTransferGrpc.newStub(channel).batch(collectingInto(responses, done));
+
+    requests.onNext(
+        BatchRequest.newBuilder()
+            .setTransferId(1)
+            .setUploadStart(UploadStart.newBuilder().setFileName("up.bin"))
+            .build());
+    requests.onNext(
+        BatchRequest.newBuilder()
+            .setTransferId(2)
+            .setDownload(DownloadRequest.newBuilder().setFileName("down.bin"))
+            .build());
+    requests.onNext(
+        BatchRequest.newBuilder()
+            .setTransferId(1)
+            .setUploadChunk(ByteString.copyFrom(content))
+            .build());
+    requests.onNext(
+        BatchRequest.newBuilder()
+            .setTransferId(3)
+            .setDelete(DeleteRequest.newBuilder().setFileName("missing.bin"))
+            .build());
+    requests.onNext(
+        BatchRequest.newBuilder()
+            .setTransferId(1)
+            .setUploadEnd(UploadEnd.getDefaultInstance())
+            .build());
+    requests.onCompleted();
+    done.get(10, TimeUnit.SECONDS);
+
+    Map<Long, TransferStatus> results = new HashMap<>();
+    ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+    for (BatchResponse response : responses) {
+      if (response.hasResult()) {
+        results.put(response.getTransferId(), response.getResult().getStatus());
+      } else {
+        assertEquals(2, response.getTransferId());
+        response.getDownloadChunk().writeTo(downloaded);
+      }
+    }
+    assertEquals(
+        Map.of(1L, TransferStatus.OK, 2L, TransferStatus.OK, 3L, TransferStatus.NOT_FOUND),
+        results);
+    assertArrayEquals(content, downloaded.toByteArray());
+    verify(storageMock).storeFile(eq("up.bin"), any());
+  }
+
+  private TransferResult upload(String fileName, Long declaredSize, byte[] data)
+      throws Exception {
+    List<TransferResult> results = new ArrayList<>();
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    StreamObserver<UploadRequest> requests =
+        FileTransferGrpc.newStub(channel).upload(collectingInto(results, done));
+    UploadStart.Builder start = UploadStart.newBuilder().setFileName(fileName);
+    if (declaredSize != null) {
+      start.setSize(declaredSize);
+    }
+    requests.onNext(UploadRequest.newBuilder().setStart(start).build());
+    for (int offset = 0; offset < data.length; offset += 64 * 1024) {
+      int length = Math.min(64 * 1024, data.length - offset);
+      requests.onNext(
+          UploadRequest.newBuilder().setChunk(ByteString.copyFrom(data, offset, length)).build());
+    }
+    requests.onCompleted();
+    done.get(10, TimeUnit.SECONDS);
+    assertEquals(1, results.size());
+    return results.get(0);
+  }
+
+  private static <T> StreamObserver<T> collectingInto(
+      List<T> received, CompletableFuture<Void> done) {
+    return new StreamObserver<>() {
+      @Override
+      public void onNext(T value) {
+        received.add(value);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        done.completeExceptionally(throwable);
+      }
+
+      @Override
+      public void onCompleted() {
+        done.complete(null);
+      }
+    };
+  }
+}
@@ -0,0 +1,155 @@
+package com.tools.fsserver.rest.v1;
+
+import com.tools.fsserver.admission.AdmissionController;
+import com.tools.fsserver.admission.AdmissionDecision;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.FileSystemStorageService;
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * REST test for the /buckets API. Buckets are real folders under the test buckets path, each test
+ * uses a bucket of its own and deletes it when done; only the default bucket's storage is mocked
+ */
+@QuarkusTest
+public class BucketResourceTest {
+
+  @Inject FileSystemStorageService fileSystemStorageService;
+  @Inject AdmissionController admissionController;
+
+  @Test
+  public void testFilesRoundTripThroughABucket() {
+    String bucket = newBucketName();
+    given().when().put("/v1/buckets/" + bucket).then().statusCode(200);
+    given().when().get("/v1/buckets").then().statusCode(200).body(containsString(bucket));
+    given()
+        .multiPart("payload", "123")
+        .when()
+        .post("/v1/buckets/" + bucket + "/files/f.txt")
+        .then()
+        .statusCode(200);
+    given()
+        .when()
+        .get("/v1/buckets/" + bucket + "/files")
+        .then()
+        .statusCode(200)
+        .body(equalTo("f.txt"));
+    given()
+        .when()
+        .get("/v1/buckets/" + bucket + "/files/f.txt")
+        .then()
+        .statusCode(200)
+        .body(equalTo("123"));
+    given().when().delete("/v1/buckets/" + bucket).then().statusCode(409);
+    given().when().delete("/v1/buckets/" + bucket + "/files/f.txt").then().statusCode(200);
+    given().when().delete("/v1/buckets/" + bucket).then().statusCode(200);
+    given().when().get("/v1/buckets/" + bucket + "/files").then().statusCode(404);
+  }
+
+  @Test
+  public void testUploadPastQuotaExpect507() {
+    String bucket = newBucketName();
+    given().queryParam("quota", "5").when().put("/v1/buckets/" + bucket).then().statusCode(200);
+    given()
+        .multiPart("payload", "123")
+        .when()
+        .post("/v1/buckets/" + bucket + "/files/first.txt")
+        .then()
+        .statusCode(200);
+    given()
+        .multiPart("payload", "456")
+        .when()
+        .post("/v1/buckets/" + bucket + "/files/second.txt")
+        .then()
+        .statusCode(507);
+    given().when().delete("/v1/buckets/" + bucket + "/files/first.txt").then().statusCode(200);
+    given().when().delete("/v1/buckets/" + bucket).then().statusCode(200);
+  }
+
+  @Test
+  public void testBucketUploadBeyondServerWideConcurrencyExpect503() {
+    String bucket = newBucketName();
+    given().when().put("/v1/buckets/" + bucket).then().statusCode(200);
+    // uploads elsewhere take every slot of the server-wide cap
+    List<AdmissionDecision> inFlight = new ArrayList<>();
+    try {
+      AdmissionDecision decision = admissionController.tryAdmit("elsewhere", 1);
+      while (decision.isAdmitted()) {
+        inFlight.add(decision);
+        decision = admissionController.tryAdmit("elsewhere", 1);
+      }
+      given()
+          .multiPart("payload", "123")
+          .when()
+          .post("/v1/buckets/" + bucket + "/files/f.txt")
+          .then()
+          .statusCode(503)
+          .header("Retry-After", notNullValue());
+    } finally {
+      inFlight.forEach(AdmissionDecision::release);
+    }
+    // nothing was stored, so the bucket is empty
+    given().when().delete("/v1/buckets/" + bucket).then().statusCode(200);
+  }
+
+  @Test
+  public void testInvalidBucketRequestsExpect4xx() {
+    given().when().put("/v1/buckets/default").then().statusCode(400);
+    given().when().put("/v1/buckets/Not_Valid").then().statusCode(400);
+    given().queryParam("quota", "lots").when().put("/v1/buckets/valid-name").then().statusCode(400);
+    given().when().get("/v1/buckets/missing-bucket/files").then().statusCode(404);
+    given().when().delete("/v1/buckets/missing-bucket").then().statusCode(404);
+    String bucket = newBucketName();
+    given().when().put("/v1/buckets/" + bucket).then().statusCode(200);
+    given()
+        .multiPart("payload", "123")
+        .queryParam("ttl", "60")
+        .when()
+        .post("/v1/buckets/" + bucket + "/files/f.txt")
+        .then()
+        .statusCode(400);
+    given()
+        .multiPart("payload", "123")
+        .header("X-TTL", "1h")
+        .when()
+        .post("/v1/buckets/" + bucket + "/files/f.txt")
+        .then()
+        .statusCode(400)
+        .body(containsString("time to live"));
+    // neither upload was stored, so the bucket is empty
+    given().when().get("/v1/buckets/" + bucket + "/files").then().statusCode(404);
+    given().when().delete("/v1/buckets/" + bucket).then().statusCode(200);
+  }
+
+  @Test
+  public void testDefaultBucketIsTheMainStorage() throws IOException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.listStoredFiles()).thenReturn(Set.of("main.txt"));
+    when(mock.getListingVersion()).thenReturn(new ContentVersion("abc-1", 1_600_000_000_000L));
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .when()
+        .get("/v1/buckets/default/files")
+        .then()
+        .statusCode(200)
+        .body(equalTo("main.txt"));
+  }
+
+  private static String newBucketName() {
+    return "test-" + Long.toHexString(System.nanoTime());
+  }
+}
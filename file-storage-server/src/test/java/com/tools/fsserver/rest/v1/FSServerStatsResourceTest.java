@@ -22,4 +22,16 @@ public class FSServerStatsResourceTest {
         .statusCode(200)
         .body(containsString("10M"));
   }
+
+  /** Both scheduling lanes must be reported, each with its latency percentiles */
+  @Test
+  public void testGettingLaneStats() {
+    given()
+        .when()
+        .get("/v1/stats/lanes")
+        .then()
+        .statusCode(200)
+        .body(containsString("fast running="), containsString("bulk running="))
+        .body(containsString("p99="));
+  }
 }
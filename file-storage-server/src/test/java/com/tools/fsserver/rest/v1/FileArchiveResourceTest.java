@@ -0,0 +1,179 @@
+package com.tools.fsserver.rest.v1;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.FileSystemStorageService;
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.ZipInputStream;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * REST test for the archive upload and download endpoints, with a mocked FileSystemStorageService
+ * standing in for storage as in FileStorageResourceTest
+ */
+@QuarkusTest
+public class FileArchiveResourceTest {
+
+  @Inject FileSystemStorageService fileSystemStorageService;
+
+  private FileSystemStorageService storageMock;
+
+  @BeforeEach
+  public void setUp() {
+    storageMock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(storageMock, fileSystemStorageService);
+  }
+
+  @Test
+  public void testArchiveUploadReportsEachEntry() throws Exception {
+    doThrow(new FileNamePresentOnServerException("duplicate"))
+        .when(storageMock)
+        .storeFile(eq("b.txt"), any());
+    given()
+        .contentType("application/x-tar")
+        .body(tar("a.txt", "b.txt"))
+        .when()
+        .post("/v1/files:archive")
+        .then()
+        .statusCode(200)
+        .body(equalTo("STORED\ta.txt\nALREADY_EXISTS\tb.txt\n"));
+    verify(storageMock).storeFile(eq("a.txt"), any());
+  }
+
+  @Test
+  public void testTruncatedArchiveExpect400() throws Exception {
+    byte[] archive = tar("a.txt");
+    given()
+        .contentType("application/x-tar")
+        .body(Arrays.copyOf(archive, 600))
+        .when()
+        .post("/v1/files:archive")
+        .then()
+        .statusCode(400)
+        .body(containsString("truncated"));
+  }
+
+  @Test
+  public void testUnsupportedMediaTypeExpect415() {
+    given()
+        .contentType("text/plain")
+        .body("a.txt")
+        .when()
+        .post("/v1/files:archive")
+        .then()
+        .statusCode(415);
+  }
+
+  @Test
+  public void testDownloadByPrefixStreamsZip() throws Exception {
+    when(storageMock.listStoredFiles()).thenReturn(Set.of("logs-1.txt", "other.bin"));
+    when(storageMock.retrieveFile("logs-1.txt"))
+        .thenReturn(new ByteArrayInputStream("first log".getBytes(StandardCharsets.UTF_8)));
+    byte[] archive =
+        given()
+            .queryParam("prefix", "logs-")
+            .when()
+            .get("/v1/files:archive")
+            .then()
+            .statusCode(200)
+            .contentType("application/zip")
+            .header("Content-Disposition", containsString("files.zip"))
+            .extract()
+            .asByteArray();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+      assertEquals("logs-1.txt", zip.getNextEntry().getName());
+      assertEquals("first log", new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+      assertNull(zip.getNextEntry());
+    }
+    verify(storageMock, never()).retrieveFile("other.bin");
+  }
+
+  @Test
+  public void testDownloadByPrefixWithoutMatchExpect404() throws Exception {
+    when(storageMock.listStoredFiles()).thenReturn(Set.of("other.bin"));
+    given().queryParam("prefix", "logs-").when().get("/v1/files:archive").then().statusCode(404);
+  }
+
+  @Test
+  public void testDownloadWithUnsupportedFormatExpect400() throws Exception {
+    when(storageMock.listStoredFiles()).thenReturn(Set.of("a.txt"));
+    given().queryParam("format", "rar").when().get("/v1/files:archive").then().statusCode(400);
+  }
+
+  @Test
+  public void testDownloadOfSelectionStreamsTar() throws Exception {
+    byte[] content = "selected".getBytes(StandardCharsets.UTF_8);
+    when(storageMock.getFileSize("a.txt")).thenReturn((long) content.length);
+    when(storageMock.retrieveFile("a.txt")).thenReturn(new ByteArrayInputStream(content));
+    byte[] archive =
+        given()
+            .contentType("text/plain")
+            .queryParam("format", "tar")
+            .body("a.txt\n")
+            .when()
+            .post("/v1/files:archive/selection")
+            .then()
+            .statusCode(200)
+            .contentType("application/x-tar")
+            .extract()
+            .asByteArray();
+    try (TarArchiveInputStream tar = new TarArchiveInputStream(new ByteArrayInputStream(archive))) {
+      assertEquals("a.txt", tar.getNextTarEntry().getName());
+      assertArrayEquals(content, tar.readAllBytes());
+      assertNull(tar.getNextTarEntry());
+    }
+  }
+
+  @Test
+  public void testDownloadOfSelectionWithMissingFileExpect404() throws Exception {
+    when(storageMock.getFileSize("missing.txt"))
+        .thenThrow(new FileNameNotPresentOnServerException("missing"));
+    given()
+        .contentType("text/plain")
+        .body("a.txt\nmissing.txt\n")
+        .when()
+        .post("/v1/files:archive/selection")
+        .then()
+        .statusCode(404)
+        .body(containsString("missing.txt"));
+    verify(storageMock, never()).retrieveFile(any());
+  }
+
+  private static byte[] tar(String... fileNames) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(bytes)) {
+      for (String fileName : fileNames) {
+        byte[] content = ("content of " + fileName).repeat(50).getBytes(StandardCharsets.UTF_8);
+        TarArchiveEntry entry = new TarArchiveEntry(fileName);
+        entry.setSize(content.length);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
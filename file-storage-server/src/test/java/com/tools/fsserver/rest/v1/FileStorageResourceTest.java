@@ -2,6 +2,9 @@ package com.tools.fsserver.rest.v1;
 
 import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
 import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.expiry.FileExpiryReaper;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.FileMetadata;
 import com.tools.fsserver.storage.FileSystemStorageService;
 import io.quarkus.test.junit.QuarkusMock;
 import io.quarkus.test.junit.QuarkusTest;
@@ -9,12 +12,17 @@ import org.junit.jupiter.api.Test;
 
 import javax.inject.Inject;
 import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -26,26 +34,74 @@ import static org.mockito.Mockito.*;
 @QuarkusTest
 public class FileStorageResourceTest {
 
+  // 1_600_000_000_000 ms is Sun, 13 Sep 2020 12:26:40 GMT
+  private static final ContentVersion LISTING_VERSION =
+      new ContentVersion("abc-7", 1_600_000_000_000L);
+  private static final ContentVersion FILE_VERSION =
+      new ContentVersion("0a1b2c", 1_600_000_000_000L);
+  private static final FileMetadata FILE_METADATA =
+      new FileMetadata(
+          "f5.txt",
+          5,
+          "0a1b2c",
+          "text/plain",
+          1_600_000_000_000L,
+          1_600_000_000_000L,
+          "10.0.0.7");
+
   @Inject FileSystemStorageService fileSystemStorageService;
+  @Inject FileExpiryReaper fileExpiryReaper;
 
   @Test
   public void testListingFilesWhenUploadedFilesExist() throws IOException {
     Set<String> uploadedFiles = Set.of("a.txt", "b.gif", "c.png");
     FileSystemStorageService mock = mock(FileSystemStorageService.class);
     when(mock.listStoredFiles()).thenReturn(uploadedFiles);
+    when(mock.getListingVersion()).thenReturn(LISTING_VERSION);
     QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
     given()
         .when()
         .get("/v1/files")
         .then()
         .statusCode(200)
+        .header("ETag", equalTo("\"abc-7\""))
         .body(containsString("a.txt"), containsString("b.gif"), containsString("c.png"));
   }
 
+  @Test
+  public void testListingRevalidationWithMatchingETagExpect304() throws IOException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.getListingVersion()).thenReturn(LISTING_VERSION);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .header("If-None-Match", "\"abc-7\"")
+        .when()
+        .get("/v1/files")
+        .then()
+        .statusCode(304);
+    verify(mock, never()).listStoredFiles();
+  }
+
+  @Test
+  public void testListingRevalidationWithStaleETagExpect200() throws IOException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.listStoredFiles()).thenReturn(Set.of("a.txt"));
+    when(mock.getListingVersion()).thenReturn(LISTING_VERSION);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .header("If-None-Match", "\"abc-6\"")
+        .when()
+        .get("/v1/files")
+        .then()
+        .statusCode(200)
+        .body(containsString("a.txt"));
+  }
+
   @Test
   public void testListingFilesWhenNoUploadedFiles() throws IOException {
     FileSystemStorageService mock = mock(FileSystemStorageService.class);
     when(mock.listStoredFiles()).thenReturn(new HashSet<>());
+    when(mock.getListingVersion()).thenReturn(LISTING_VERSION);
     QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
     given().when().get("/v1/files").then().statusCode(404);
   }
@@ -54,6 +110,7 @@ public class FileStorageResourceTest {
   public void testListingFilesWithIOException() throws IOException {
     FileSystemStorageService mock = mock(FileSystemStorageService.class);
     when(mock.listStoredFiles()).thenThrow(new IOException());
+    when(mock.getListingVersion()).thenReturn(LISTING_VERSION);
     QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
     given()
         .when()
@@ -87,11 +144,53 @@ public class FileStorageResourceTest {
         .body(containsString("File uploaded successfully"));
   }
 
+  @Test
+  public void testUploadingFileWithTimeToLive() throws Exception {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    FileExpiryReaper reaperMock = mock(FileExpiryReaper.class);
+    QuarkusMock.installMockForInstance(reaperMock, fileExpiryReaper);
+    given()
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .multiPart("payload", "123")
+        .when()
+        .post("/v1/files/f2.txt?ttl=3d")
+        .then()
+        .statusCode(200);
+    verify(reaperMock).expireAfter("f2.txt", Duration.ofDays(3));
+    given()
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .header("X-TTL", "90")
+        .multiPart("payload", "123")
+        .when()
+        .post("/v1/files/f3.txt")
+        .then()
+        .statusCode(200);
+    verify(reaperMock).expireAfter("f3.txt", Duration.ofSeconds(90));
+  }
+
+  @Test
+  public void testUploadingWithInvalidTimeToLiveExpect400() throws Exception {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .multiPart("payload", "123")
+        .when()
+        .post("/v1/files/f2.txt?ttl=soon")
+        .then()
+        .statusCode(400)
+        .body(containsString("Invalid time to live"));
+    verify(mock, never()).storeFile(any(), any(), any());
+  }
+
   @Test
   public void testUploadingSameFileExpectConflict()
       throws IOException, FileNamePresentOnServerException {
     FileSystemStorageService mock = mock(FileSystemStorageService.class);
-    doThrow(new FileNamePresentOnServerException("file exists")).when(mock).storeFile(any(), any());
+    doThrow(new FileNamePresentOnServerException("file exists"))
+        .when(mock)
+        .storeFile(any(), any(), any());
     QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
     given()
         .contentType(MediaType.MULTIPART_FORM_DATA)
@@ -107,7 +206,7 @@ public class FileStorageResourceTest {
   public void testUploadingFileWithIOException()
       throws IOException, FileNamePresentOnServerException {
     FileSystemStorageService mock = mock(FileSystemStorageService.class);
-    doThrow(new IOException()).when(mock).storeFile(any(), any());
+    doThrow(new IOException()).when(mock).storeFile(any(), any(), any());
     QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
     given()
         .contentType(MediaType.MULTIPART_FORM_DATA)
@@ -119,6 +218,172 @@ public class FileStorageResourceTest {
         .body(containsString("An error occurred during file upload."));
   }
 
+  @Test
+  public void testUploaderIsPassedToStorage() throws IOException, FileNamePresentOnServerException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .multiPart("payload", "123")
+        .when()
+        .post("/v1/files/f4.txt")
+        .then()
+        .statusCode(200);
+    verify(mock).storeFile(eq("f4.txt"), any(), eq("127.0.0.1"));
+  }
+
+  @Test
+  public void testUploadContinuesTheClientTrace() {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .header("traceparent", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01")
+        .contentType(MediaType.MULTIPART_FORM_DATA)
+        .multiPart("payload", "123")
+        .when()
+        .post("/v1/files/f8.txt")
+        .then()
+        .statusCode(200)
+        .header("traceresponse", startsWith("00-4bf92f3577b34da6a3ce929d0e0e4736-"));
+  }
+
+  @Test
+  public void testDescribingFileReturnsMetadataHeaders()
+      throws IOException, FileNameNotPresentOnServerException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.getFileMetadata("f5.txt")).thenReturn(FILE_METADATA);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .when()
+        .head("/v1/files/f5.txt")
+        .then()
+        .statusCode(200)
+        .header("Content-Length", equalTo("5"))
+        .header("Content-Type", containsString("text/plain"))
+        .header("ETag", equalTo("\"0a1b2c\""))
+        .header("X-Content-SHA256", equalTo("0a1b2c"))
+        .header("X-Uploaded-At", containsString("2020"))
+        .header("X-Uploaded-By", equalTo("10.0.0.7"));
+    verify(mock, never()).retrieveFile(any());
+  }
+
+  @Test
+  public void testDescribingInexistentFileExpect404()
+      throws IOException, FileNameNotPresentOnServerException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.getFileMetadata(any())).thenThrow(new FileNameNotPresentOnServerException("gone"));
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given().when().head("/v1/files/f6.txt").then().statusCode(404);
+  }
+
+  @Test
+  public void testDetailedListingHasOneLinePerFile() throws IOException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.listStoredFileMetadata()).thenReturn(List.of(FILE_METADATA));
+    when(mock.getListingVersion()).thenReturn(LISTING_VERSION);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .queryParam("details", true)
+        .when()
+        .get("/v1/files")
+        .then()
+        .statusCode(200)
+        .header("ETag", equalTo("\"abc-7-details\""))
+        .body(equalTo("5\t0a1b2c\t1600000000000\ttext/plain\t10.0.0.7\tf5.txt\n"));
+    verify(mock, never()).listStoredFiles();
+  }
+
+  @Test
+  public void testDownloadingFileSuccessfully()
+      throws IOException, FileNameNotPresentOnServerException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.retrieveFile("f7.txt")).thenReturn(new ByteArrayInputStream("hello".getBytes()));
+    when(mock.getFileVersion("f7.txt")).thenReturn(FILE_VERSION);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .when()
+        .get("/v1/files/f7.txt")
+        .then()
+        .statusCode(200)
+        .header("ETag", equalTo("\"0a1b2c\""))
+        .header("Last-Modified", containsString("2020"))
+        .body(containsString("hello"));
+  }
+
+  @Test
+  public void testDownloadRevalidationWithIfModifiedSinceExpect304()
+      throws IOException, FileNameNotPresentOnServerException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.getFileVersion("f9.txt")).thenReturn(FILE_VERSION);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .header("If-Modified-Since", "Sun, 13 Sep 2020 12:26:40 GMT")
+        .when()
+        .get("/v1/files/f9.txt")
+        .then()
+        .statusCode(304);
+    verify(mock, never()).retrieveFile(any());
+  }
+
+  @Test
+  public void testDownloadingInexistentFile()
+      throws IOException, FileNameNotPresentOnServerException {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    when(mock.getFileVersion(any())).thenThrow(new FileNameNotPresentOnServerException("missing"));
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .when()
+        .get("/v1/files/f8.txt")
+        .then()
+        .statusCode(404)
+        .body(containsString("does not exist on server"));
+  }
+
+  @Test
+  public void testCopyingFileSuccessfully() throws Exception {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .queryParam("to", "release.tar")
+        .when()
+        .post("/v1/files/build-123.tar:copy")
+        .then()
+        .statusCode(200)
+        .body(containsString("File copied successfully"));
+    verify(mock).copyFile("build-123.tar", "release.tar");
+  }
+
+  @Test
+  public void testRenamingOntoExistingFileExpect409() throws Exception {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    doThrow(new FileNamePresentOnServerException("exists"))
+        .when(mock)
+        .renameFile("build-123.tar", "release.tar");
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given()
+        .queryParam("to", "release.tar")
+        .when()
+        .post("/v1/files/build-123.tar:rename")
+        .then()
+        .statusCode(409)
+        .body(containsString("release.tar already exists on server"));
+  }
+
+  @Test
+  public void testCopyingWithoutValidTargetExpect400() throws Exception {
+    FileSystemStorageService mock = mock(FileSystemStorageService.class);
+    QuarkusMock.installMockForInstance(mock, fileSystemStorageService);
+    given().when().post("/v1/files/build-123.tar:copy").then().statusCode(400);
+    given()
+        .queryParam("to", "../outside.tar")
+        .when()
+        .post("/v1/files/build-123.tar:rename")
+        .then()
+        .statusCode(400);
+    verify(mock, never()).copyFile(any(), any());
+    verify(mock, never()).renameFile(any(), any());
+  }
+
   @Test
   public void testDeletingFileSuccessfully() {
     FileSystemStorageService mock = mock(FileSystemStorageService.class);
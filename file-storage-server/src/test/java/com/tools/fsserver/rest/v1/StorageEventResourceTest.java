@@ -0,0 +1,74 @@
+package com.tools.fsserver.rest.v1;
+
+import com.tools.fsserver.events.StorageEventFeed;
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import javax.ws.rs.sse.SseEventSink;
+
+import static io.restassured.RestAssured.given;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * REST test for the /events API. The injected StorageEventFeed is mocked to close the stream
+ * straight away, so each request completes and we can verify the resume point it was opened with
+ */
+@QuarkusTest
+public class StorageEventResourceTest {
+
+  @Inject StorageEventFeed storageEventFeed;
+
+  @Test
+  public void testStreamWithoutResumePointStartsAtLatestEvent() {
+    StorageEventFeed mock = closingFeedMock();
+    when(mock.getLatestSequence()).thenReturn(42L);
+    given().when().get("/v1/events").then().statusCode(200);
+    verify(mock).subscribe(eq(42L), any(), any());
+  }
+
+  @Test
+  public void testStreamResumesFromSinceParameter() {
+    StorageEventFeed mock = closingFeedMock();
+    given().queryParam("since", "5").when().get("/v1/events").then().statusCode(200);
+    verify(mock).subscribe(eq(5L), any(), any());
+  }
+
+  @Test
+  public void testLastEventIdTakesPrecedenceOverSince() {
+    StorageEventFeed mock = closingFeedMock();
+    given()
+        .header("Last-Event-ID", "9")
+        .queryParam("since", "5")
+        .when()
+        .get("/v1/events")
+        .then()
+        .statusCode(200);
+    verify(mock).subscribe(eq(9L), any(), any());
+  }
+
+  @Test
+  public void testMalformedResumePointExpect400() {
+    StorageEventFeed mock = closingFeedMock();
+    given().header("Last-Event-ID", "abc").when().get("/v1/events").then().statusCode(400);
+    given().queryParam("since", "-1").when().get("/v1/events").then().statusCode(400);
+    verify(mock, never()).subscribe(anyLong(), any(), any());
+  }
+
+  private StorageEventFeed closingFeedMock() {
+    StorageEventFeed mock = mock(StorageEventFeed.class);
+    doAnswer(
+            invocation -> {
+              invocation.getArgument(1, SseEventSink.class).close();
+              return null;
+            })
+        .when(mock)
+        .subscribe(anyLong(), any(), any());
+    QuarkusMock.installMockForInstance(mock, storageEventFeed);
+    return mock;
+  }
+}
@@ -0,0 +1,69 @@
+package com.tools.fsserver.scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Testing that requests are sorted into the right lane by their method, path and size, and that a
+ * saturated bulk lane leaves the fast lane untouched
+ */
+public class RequestSchedulerTest {
+
+  private static final long THRESHOLD = 1024;
+
+  private final AtomicLong clock = new AtomicLong();
+  private final RequestScheduler scheduler =
+      new RequestScheduler(THRESHOLD, 2, 10, 1, 1, clock::get);
+
+  @Test
+  public void testUploadsAreClassifiedByContentLength() {
+    assertEquals(RequestClass.FAST, scheduler.classify("POST", null, false, THRESHOLD));
+    assertEquals(RequestClass.BULK, scheduler.classify("POST", null, false, THRESHOLD + 1));
+    // a chunked upload may be of any size
+    assertEquals(RequestClass.BULK, scheduler.classify("POST", null, false, -1));
+  }
+
+  @Test
+  public void testMetadataOperationsAreFast() {
+    assertEquals(RequestClass.FAST, scheduler.classify("GET", null, false, -1));
+    assertEquals(RequestClass.FAST, scheduler.classify("HEAD", "a.bin", false, -1));
+    assertEquals(RequestClass.FAST, scheduler.classify("DELETE", "a.bin", false, -1));
+    assertEquals(RequestClass.FAST, scheduler.classify("POST", "a.bin:copy", false, 40));
+    assertEquals(RequestClass.FAST, scheduler.classify("POST", "a.bin:rename", false, 40));
+  }
+
+  @Test
+  public void testDownloadsAreClassifiedByStoredSize() {
+    assertNull(scheduler.classify("GET", "a.bin", false, -1));
+    assertEquals(RequestClass.BULK, scheduler.classify("GET", null, true, -1));
+    assertEquals(RequestClass.FAST, scheduler.classifyBySize(0));
+    assertEquals(RequestClass.BULK, scheduler.classifyBySize(THRESHOLD + 1));
+    assertEquals(RequestClass.BULK, scheduler.classifyBySize(-1));
+  }
+
+  @Test
+  public void testFullBulkLaneDoesNotDelayFastRequests() {
+    SchedulingLane bulk = scheduler.laneFor(RequestClass.BULK);
+    SchedulingLane fast = scheduler.laneFor(RequestClass.FAST);
+    AtomicInteger fastStarted = new AtomicInteger();
+    assertNotNull(bulk.enter(() -> {}));
+    assertNotNull(bulk.enter(() -> {}));
+    assertNull(bulk.enter(() -> {}));
+
+    SchedulingLane.Ticket first = fast.enter(fastStarted::incrementAndGet);
+    SchedulingLane.Ticket second = fast.enter(fastStarted::incrementAndGet);
+    assertEquals(2, fastStarted.get());
+    fast.complete(first);
+    fast.complete(second);
+    // neither waited beyond the first microsecond bucket
+    assertEquals(0.001, fast.getQueueWait().percentileMillis(0.99));
+    assertEquals(0, fast.getRejected());
+    assertEquals(1, bulk.getRejected());
+  }
+}
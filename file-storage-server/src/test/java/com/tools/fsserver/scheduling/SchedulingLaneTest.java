@@ -0,0 +1,106 @@
+package com.tools.fsserver.scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing that a lane runs at most maxConcurrent requests, starts the waiting ones in arrival
+ * order, rejects once its queue is full and records the latencies of its requests
+ */
+public class SchedulingLaneTest {
+
+  private final AtomicLong clock = new AtomicLong();
+  private final List<String> started = new ArrayList<>();
+
+  @Test
+  public void testWaitingRequestsStartInArrivalOrder() {
+    SchedulingLane lane = new SchedulingLane(RequestClass.BULK, 1, 10, clock::get);
+    SchedulingLane.Ticket first = lane.enter(() -> started.add("first"));
+    SchedulingLane.Ticket second = lane.enter(() -> started.add("second"));
+    SchedulingLane.Ticket third = lane.enter(() -> started.add("third"));
+    assertEquals(List.of("first"), started);
+    assertEquals(1, lane.getRunning());
+    assertEquals(2, lane.getQueued());
+
+    lane.complete(first);
+    assertEquals(List.of("first", "second"), started);
+    lane.complete(second);
+    lane.complete(third);
+    assertEquals(List.of("first", "second", "third"), started);
+    assertEquals(0, lane.getRunning());
+    assertEquals(0, lane.getQueued());
+  }
+
+  @Test
+  public void testFullQueueRejects() {
+    SchedulingLane lane = new SchedulingLane(RequestClass.FAST, 1, 1, clock::get);
+    SchedulingLane.Ticket running = lane.enter(() -> started.add("running"));
+    assertNotNull(lane.enter(() -> started.add("queued")));
+    assertNull(lane.enter(() -> started.add("rejected")));
+    assertEquals(1, lane.getRejected());
+
+    lane.complete(running);
+    assertEquals(List.of("running", "queued"), started);
+    assertNotNull(lane.enter(() -> started.add("admitted")));
+  }
+
+  @Test
+  public void testQueuedTicketCompletedBeforeStartingNeverStarts() {
+    SchedulingLane lane = new SchedulingLane(RequestClass.BULK, 1, 10, clock::get);
+    SchedulingLane.Ticket running = lane.enter(() -> started.add("running"));
+    SchedulingLane.Ticket disconnected = lane.enter(() -> started.add("disconnected"));
+    lane.enter(() -> started.add("next"));
+    lane.complete(disconnected);
+    // completing again, e.g. from both the end and the close handler, changes nothing
+    lane.complete(disconnected);
+    assertEquals(1, lane.getQueued());
+
+    lane.complete(running);
+    assertEquals(List.of("running", "next"), started);
+    assertEquals(1, lane.getRunning());
+  }
+
+  @Test
+  public void testLatenciesAreRecorded() {
+    SchedulingLane lane = new SchedulingLane(RequestClass.BULK, 1, 10, clock::get);
+    SchedulingLane.Ticket first = lane.enter(() -> {});
+    SchedulingLane.Ticket second = lane.enter(() -> {});
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    lane.complete(first);
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+    lane.complete(second);
+
+    assertEquals(2, lane.getLatency().getCount());
+    assertEquals(2, lane.getQueueWait().getCount());
+    // reported as the upper bound of the power-of-two bucket, at most twice the true value
+    assertInRange(200, lane.getLatency().percentileMillis(0.99));
+    assertInRange(100, lane.getLatency().percentileMillis(0.5));
+    assertInRange(100, lane.getQueueWait().percentileMillis(0.99));
+    // the first started at once
+    assertEquals(0.001, lane.getQueueWait().percentileMillis(0.5));
+    assertTrue(lane.describe().startsWith("bulk running=0/1 queued=0/10 rejected=0 completed=2"));
+  }
+
+  @Test
+  public void testLaneNeedsOneSlot() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new SchedulingLane(RequestClass.FAST, 0, 10, clock::get));
+  }
+
+  private static void assertInRange(double expectedMillis, double reportedMillis) {
+    assertTrue(
+        reportedMillis >= expectedMillis && reportedMillis <= 2 * expectedMillis,
+        reportedMillis + "ms reported for " + expectedMillis + "ms");
+  }
+}
@@ -0,0 +1,213 @@
+package com.tools.fsserver.storage;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.encryption.FileEncryption;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing the metadata store against a real storage folder and journal: metadata must survive a
+ * restart, and whatever the journal lost or got wrong must be repaired from the stored files
+ */
+public class FileMetadataStoreTest {
+
+  // SHA-256 of "hello"
+  private static final String HELLO_SHA256 =
+      "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+  @TempDir Path tempDir;
+  private Path storageFolder;
+  private Path journalPath;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    storageFolder = Files.createDirectories(tempDir.resolve("storage"));
+    journalPath = tempDir.resolve("metadata").resolve("metadata.journal");
+  }
+
+  @Test
+  public void testStoredFilesAreDescribedFromMemoryAndAfterRestart()
+      throws IOException, FileNamePresentOnServerException, FileNameNotPresentOnServerException {
+    Path upload = Files.writeString(tempDir.resolve("upload"), "hello");
+    FileSystemStorageService storage = newStorage();
+    storage.storeFile("a.txt", upload, "10.0.0.7");
+    storage.storeFile("b.bin", upload);
+    storage.deleteFile("b.bin");
+    FileMetadata metadata = storage.getFileMetadata("a.txt");
+    assertEquals(5, metadata.getSize());
+    assertEquals(HELLO_SHA256, metadata.getSha256());
+    assertEquals("text/plain", metadata.getContentType());
+    assertEquals("10.0.0.7", metadata.getUploader());
+    assertEquals(HELLO_SHA256, storage.getFileVersion("a.txt").getTag());
+
+    FileSystemStorageService restarted = newStorage();
+    FileMetadata reloaded = restarted.getFileMetadata("a.txt");
+    assertEquals("10.0.0.7", reloaded.getUploader());
+    assertEquals(metadata.getUploadedAtMillis(), reloaded.getUploadedAtMillis());
+    assertEquals(Set.of("a.txt"), restarted.listStoredFiles());
+    assertThrows(FileNameNotPresentOnServerException.class, () -> restarted.getFileSize("b.bin"));
+  }
+
+  @Test
+  public void testReconciliationRepairsJournalDisagreeingWithStoredFiles() throws IOException {
+    Files.writeString(storageFolder.resolve("gone.txt"), "hello");
+    Files.writeString(storageFolder.resolve("changed.txt"), "hello");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      assertEquals(HELLO_SHA256, store.get("gone.txt").getSha256());
+    }
+    // changed and added behind the server's back, as if the journal missed the last writes
+    Files.delete(storageFolder.resolve("gone.txt"));
+    Files.writeString(storageFolder.resolve("changed.txt"), "hello again");
+    Files.setLastModifiedTime(
+        storageFolder.resolve("changed.txt"), FileTime.fromMillis(1_600_000_000_000L));
+    Files.writeString(storageFolder.resolve("new.txt"), "hello");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      assertNull(store.get("gone.txt"));
+      assertEquals(11, store.get("changed.txt").getSize());
+      assertNotEquals(HELLO_SHA256, store.get("changed.txt").getSha256());
+      assertEquals(HELLO_SHA256, store.get("new.txt").getSha256());
+      assertEquals(2, store.getAll().size());
+    }
+  }
+
+  @Test
+  public void testTornLastRecordIsSkipped() throws IOException {
+    Files.writeString(storageFolder.resolve("a.txt"), "hello");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      store.put(FileMetadataStore.describe("a.txt", storageFolder.resolve("a.txt"), 1L, "x"));
+    }
+    Files.write(
+        journalPath, "PUT\t5\t17".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      assertEquals("x", store.get("a.txt").getUploader());
+      assertEquals(1, store.getAll().size());
+    }
+    assertFalse(Files.readString(journalPath).contains("PUT\t5\t17"));
+  }
+
+  @Test
+  public void testRestartSkipsTheScanOfAnUnchangedFolder() throws IOException {
+    Path storedFile = Files.writeString(storageFolder.resolve("a.txt"), "hello");
+    settleStorageFolder();
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      store.put(FileMetadataStore.describe("a.txt", storedFile, 1L, "x"));
+    }
+    // rewriting a file in place leaves the folder time alone, so goes unnoticed
+    Files.writeString(storedFile, "hello again");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      assertEquals(HELLO_SHA256, store.get("a.txt").getSha256());
+      assertEquals("x", store.get("a.txt").getUploader());
+    }
+    // whereas any file created or deleted since does
+    Files.writeString(storageFolder.resolve("b.txt"), "hello");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      assertEquals(11, store.get("a.txt").getSize());
+      assertEquals(HELLO_SHA256, store.get("b.txt").getSha256());
+    }
+  }
+
+  @Test
+  public void testJournalPredatingTheSnapshotIsSkipped() throws IOException {
+    Path storedFile = Files.writeString(storageFolder.resolve("a.txt"), "hello");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      store.put(FileMetadataStore.describe("a.txt", storedFile, 1L, "x"));
+    }
+    // as left by a crash between replacing the snapshot and replacing the journal
+    String base = Files.readAllLines(journalPath).get(0);
+    long generation = Long.parseLong(base.substring(base.indexOf('\t') + 1));
+    Files.writeString(journalPath, "BASE\t" + (generation - 1) + "\nDEL\ta.txt\n");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      assertEquals("x", store.get("a.txt").getUploader());
+    }
+  }
+
+  @Test
+  public void testCorruptSnapshotIsRebuiltFromTheStoredFiles() throws IOException {
+    Path storedFile = Files.writeString(storageFolder.resolve("a.txt"), "hello");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      store.put(FileMetadataStore.describe("a.txt", storedFile, 1L, "x"));
+    }
+    Path snapshot = journalPath.resolveSibling("metadata.journal.snapshot");
+    byte[] bytes = Files.readAllBytes(snapshot);
+    bytes[bytes.length / 2] ^= 1;
+    Files.write(snapshot, bytes);
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      assertEquals(HELLO_SHA256, store.get("a.txt").getSha256());
+      assertEquals(1, store.getAll().size());
+    }
+  }
+
+  @Test
+  public void testJournalIsCompactedOnceMostlyObsolete() throws IOException {
+    Path storedFile = Files.writeString(storageFolder.resolve("a.txt"), "hello");
+    try (FileMetadataStore store = new FileMetadataStore(journalPath, storageFolder)) {
+      FileMetadata metadata = FileMetadataStore.describe("a.txt", storedFile, 1L, null);
+      for (int i = 0; i < 5000; i++) {
+        store.put(metadata);
+      }
+      assertTrue(Files.readAllLines(journalPath).size() < 2000);
+    }
+  }
+
+  @Test
+  public void testEncryptedFilesAreDescribedByTheirContent()
+      throws IOException, FileNamePresentOnServerException, FileNameNotPresentOnServerException {
+    FileEncryption encryption = new FileEncryption(true, new byte[32], 1024);
+    Path upload = Files.writeString(tempDir.resolve("upload"), "hello");
+    newEncryptedStorage(encryption).storeFile("a.txt", upload, "10.0.0.7");
+    assertEquals(encryption.encryptedSize(5), Files.size(storageFolder.resolve("a.txt")));
+
+    FileSystemStorageService restarted = newEncryptedStorage(encryption);
+    FileMetadata metadata = restarted.getFileMetadata("a.txt");
+    assertEquals(5, metadata.getSize());
+    assertEquals(HELLO_SHA256, metadata.getSha256());
+    // the journal record still matched the larger encrypted file
+    assertEquals("10.0.0.7", metadata.getUploader());
+    try (InputStream in = restarted.retrieveFile("a.txt")) {
+      assertEquals("hello", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    Files.delete(journalPath);
+    FileMetadata described = newEncryptedStorage(encryption).getFileMetadata("a.txt");
+    assertEquals(5, described.getSize());
+    assertEquals(HELLO_SHA256, described.getSha256());
+  }
+
+  /** Dates the storage folder back, as if its last change was long ago */
+  private void settleStorageFolder() throws IOException {
+    Files.setLastModifiedTime(storageFolder, FileTime.fromMillis(1_600_000_000_000L));
+  }
+
+  private FileSystemStorageService newEncryptedStorage(FileEncryption encryption)
+      throws IOException {
+    return new FileSystemStorageService(
+        storageFolder.toString(),
+        journalPath.toString(),
+        StorageChangeListener.NONE,
+        null,
+        encryption);
+  }
+
+  private FileSystemStorageService newStorage() throws IOException {
+    return new FileSystemStorageService(
+        storageFolder.toString(), journalPath.toString(), StorageChangeListener.NONE);
+  }
+}
@@ -0,0 +1,211 @@
+package com.tools.fsserver.storage;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress tests hammering a single file name from many threads against a real temporary folder. The
+ * per-name locking in FileSystemStorageService must guarantee that the outcomes reported to callers
+ * match what ends up on disk, and that no partially copied file is ever observed
+ */
+public class FileSystemStorageServiceConcurrencyTest {
+
+  private static final int THREADS = 16;
+  private static final int OPERATIONS_PER_THREAD = 200;
+  private static final int PAYLOAD_SIZE = 256 * 1024;
+  private static final String CONTENDED_NAME = "contended.bin";
+
+  @TempDir Path tempDir;
+  private FileSystemStorageService storage;
+  private List<Path> uploads;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    storage = new FileSystemStorageService(tempDir.resolve("storage").toString());
+    uploads = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      byte[] payload = new byte[PAYLOAD_SIZE];
+      Arrays.fill(payload, (byte) thread);
+      uploads.add(Files.write(tempDir.resolve("upload-" + thread), payload));
+    }
+  }
+
+  @RepeatedTest(5)
+  public void testParallelUploadsOfSameNameYieldExactlyOneSuccess() throws Exception {
+    AtomicInteger successes = new AtomicInteger();
+    AtomicInteger conflicts = new AtomicInteger();
+    runConcurrently(
+        thread -> {
+          try {
+            storage.storeFile(CONTENDED_NAME, uploads.get(thread));
+            successes.incrementAndGet();
+          } catch (FileNamePresentOnServerException e) {
+            conflicts.incrementAndGet();
+          }
+        });
+    assertEquals(1, successes.get());
+    assertEquals(THREADS - 1, conflicts.get());
+    assertStoredFileIsComplete();
+  }
+
+  @Test
+  public void testMixedUploadsAndDeletesKeepOutcomesConsistent() throws Exception {
+    AtomicInteger successfulUploads = new AtomicInteger();
+    AtomicInteger successfulDeletes = new AtomicInteger();
+    runConcurrently(
+        thread -> {
+          for (int operation = 0; operation < OPERATIONS_PER_THREAD; operation++) {
+            if ((operation + thread) % 2 == 0) {
+              try {
+                storage.storeFile(CONTENDED_NAME, uploads.get(thread));
+                successfulUploads.incrementAndGet();
+              } catch (FileNamePresentOnServerException e) {
+                // expected while another thread's upload is stored
+              }
+            } else {
+              try {
+                storage.deleteFile(CONTENDED_NAME);
+                successfulDeletes.incrementAndGet();
+              } catch (FileNameNotPresentOnServerException e) {
+                // expected while nothing is stored
+              }
+            }
+          }
+        });
+    // every successful delete removed exactly one successful upload, so at most one survives
+    int stored = successfulUploads.get() - successfulDeletes.get();
+    assertTrue(stored == 0 || stored == 1, "uploads minus deletes was " + stored);
+    assertEquals(stored == 1, storage.listStoredFiles().contains(CONTENDED_NAME));
+    if (stored == 1) {
+      assertStoredFileIsComplete();
+    }
+  }
+
+  @Test
+  public void testDifferentNamesAreNotBlockedByContendedName() throws Exception {
+    StripedLocks locks = storage.fileNameLocks();
+    int suffix = 0;
+    String otherName = "other-" + suffix + ".bin";
+    while (locks.stripeIndex(otherName) == locks.stripeIndex(CONTENDED_NAME)) {
+      otherName = "other-" + ++suffix + ".bin";
+    }
+    Lock contendedLock = locks.lockFor(CONTENDED_NAME);
+    contendedLock.lock();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      String nameToStore = otherName;
+      executor.submit(() -> storeQuietly(nameToStore)).get(10, TimeUnit.SECONDS);
+    } finally {
+      contendedLock.unlock();
+      executor.shutdownNow();
+    }
+    assertTrue(storage.listStoredFiles().contains(otherName));
+  }
+
+  @Test
+  public void testConditionalDeleteChecksUnderTheNameLock() throws Exception {
+    storage.storeFile(CONTENDED_NAME, uploads.get(0));
+    Lock contendedLock = storage.fileNameLocks().lockFor(CONTENDED_NAME);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      List<Boolean> lockedDuringCheck = new ArrayList<>();
+      assertFalse(
+          storage.deleteFileIf(
+              CONTENDED_NAME,
+              metadata -> {
+                lockedDuringCheck.add(!tryLockElsewhere(executor, contendedLock));
+                return false;
+              }));
+      assertEquals(List.of(true), lockedDuringCheck);
+      assertTrue(storage.listStoredFiles().contains(CONTENDED_NAME));
+
+      assertTrue(storage.deleteFileIf(CONTENDED_NAME, metadata -> true));
+      assertFalse(storage.listStoredFiles().contains(CONTENDED_NAME));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** @return whether another thread could take the lock, which it then releases at once */
+  private static boolean tryLockElsewhere(ExecutorService executor, Lock lock) {
+    try {
+      return executor
+          .submit(
+              () -> {
+                if (!lock.tryLock()) {
+                  return false;
+                }
+                lock.unlock();
+                return true;
+              })
+          .get(10, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Void storeQuietly(String name) throws Exception {
+    storage.storeFile(name, uploads.get(0));
+    return null;
+  }
+
+  private void assertStoredFileIsComplete() throws IOException {
+    byte[] stored = Files.readAllBytes(tempDir.resolve("storage").resolve(CONTENDED_NAME));
+    assertEquals(PAYLOAD_SIZE, stored.length);
+    for (byte value : stored) {
+      assertEquals(stored[0], value, "stored file mixes bytes from different uploads");
+    }
+  }
+
+  private void runConcurrently(ThreadBody body) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch startGate = new CountDownLatch(1);
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      int threadIndex = thread;
+      Callable<Void> task =
+          () -> {
+            startGate.await();
+            body.run(threadIndex);
+            return null;
+          };
+      futures.add(executor.submit(task));
+    }
+    startGate.countDown();
+    try {
+      for (Future<Void> future : futures) {
+        future.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @FunctionalInterface
+  private interface ThreadBody {
+    void run(int threadIndex) throws Exception;
+  }
+}
@@ -0,0 +1,171 @@
+package com.tools.fsserver.storage;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.encryption.FileEncryption;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing server-side copies and renames against a real temporary folder with a metadata store:
+ * content and metadata must follow the file, existing targets must never be replaced, and the
+ * result must survive a restart
+ */
+public class FileSystemStorageServiceCopyTest {
+
+  @TempDir Path tempDir;
+  private FileSystemStorageService storage;
+  private Path upload;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    storage = newStorage(null);
+    upload = Files.writeString(tempDir.resolve("upload"), "release candidate");
+  }
+
+  @Test
+  public void testCopySharesTheDataOfTheSource() throws Exception {
+    storage.storeFile("build-123.tar", upload, "10.0.0.7");
+    ContentVersion listingBefore = storage.getListingVersion();
+    storage.copyFile("build-123.tar", "release.tar");
+    assertEquals(Set.of("build-123.tar", "release.tar"), storage.listStoredFiles());
+    assertEquals("release candidate", read("release.tar"));
+    assertNotEquals(listingBefore, storage.getListingVersion());
+    Path folder = tempDir.resolve("storage");
+    assertTrue(Files.isSameFile(folder.resolve("build-123.tar"), folder.resolve("release.tar")));
+    FileMetadata source = storage.getFileMetadata("build-123.tar");
+    FileMetadata copy = storage.getFileMetadata("release.tar");
+    assertEquals(source.getSha256(), copy.getSha256());
+    assertEquals(source.getSize(), copy.getSize());
+    assertEquals("10.0.0.7", copy.getUploader());
+    // the names are independent from now on
+    storage.deleteFile("build-123.tar");
+    assertEquals("release candidate", read("release.tar"));
+  }
+
+  @Test
+  public void testRenameMovesFileAndKeepsItsMetadata() throws Exception {
+    storage.storeFile("build-123.tar", upload, "10.0.0.7");
+    FileMetadata before = storage.getFileMetadata("build-123.tar");
+    storage.renameFile("build-123.tar", "release.tar");
+    assertEquals(Set.of("release.tar"), storage.listStoredFiles());
+    assertEquals("release candidate", read("release.tar"));
+    FileMetadata after = storage.getFileMetadata("release.tar");
+    assertEquals(before.getSha256(), after.getSha256());
+    assertEquals(before.getUploadedAtMillis(), after.getUploadedAtMillis());
+    assertEquals("10.0.0.7", after.getUploader());
+    assertThrows(
+        FileNameNotPresentOnServerException.class, () -> storage.getFileMetadata("build-123.tar"));
+  }
+
+  @Test
+  public void testExistingTargetsAreNeverReplaced() throws Exception {
+    storage.storeFile("source.txt", upload);
+    storage.storeFile("target.txt", Files.writeString(tempDir.resolve("other"), "other"));
+    assertThrows(
+        FileNamePresentOnServerException.class,
+        () -> storage.copyFile("source.txt", "target.txt"));
+    assertThrows(
+        FileNamePresentOnServerException.class,
+        () -> storage.renameFile("source.txt", "target.txt"));
+    assertThrows(
+        FileNamePresentOnServerException.class,
+        () -> storage.renameFile("source.txt", "source.txt"));
+    assertThrows(
+        FileNameNotPresentOnServerException.class,
+        () -> storage.copyFile("missing.txt", "new.txt"));
+    assertThrows(
+        FileNameNotPresentOnServerException.class,
+        () -> storage.renameFile("missing.txt", "new.txt"));
+    assertEquals(Set.of("source.txt", "target.txt"), storage.listStoredFiles());
+    assertEquals("other", read("target.txt"));
+  }
+
+  @Test
+  public void testCopiesAndRenamesSurviveRestart() throws Exception {
+    storage.storeFile("a.txt", upload);
+    storage.copyFile("a.txt", "b.txt");
+    storage.renameFile("a.txt", "c.txt");
+    storage.close();
+    FileSystemStorageService restarted = newStorage(null);
+    assertEquals(Set.of("b.txt", "c.txt"), restarted.listStoredFiles());
+    assertEquals(
+        restarted.getFileMetadata("b.txt").getSha256(),
+        restarted.getFileMetadata("c.txt").getSha256());
+  }
+
+  @Test
+  public void testEncryptedCopyStaysReadable() throws Exception {
+    storage.close();
+    storage = newStorage(new FileEncryption(true, new byte[32], 4));
+    storage.storeFile("secret.txt", upload);
+    storage.copyFile("secret.txt", "copy.txt");
+    storage.renameFile("copy.txt", "renamed.txt");
+    assertEquals("release candidate", read("renamed.txt"));
+    assertEquals(upload.toFile().length(), storage.getFileSize("renamed.txt"));
+  }
+
+  @Test
+  public void testOpposingRenamesDoNotDeadlock() throws Exception {
+    storage.storeFile("ping", upload);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (String[] names : new String[][] {{"ping", "pong"}, {"pong", "ping"}}) {
+        results.add(
+            pool.submit(
+                () -> {
+                  for (int i = 0; i < 500; i++) {
+                    try {
+                      storage.renameFile(names[0], names[1]);
+                    } catch (FileNameNotPresentOnServerException
+                        | FileNamePresentOnServerException e) {
+                      // the other thread moved it first
+                    }
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(1, storage.listStoredFiles().size());
+  }
+
+  private FileSystemStorageService newStorage(FileEncryption encryption) throws IOException {
+    return new FileSystemStorageService(
+        tempDir.resolve("storage").toString(),
+        tempDir.resolve("metadata").resolve("metadata.journal").toString(),
+        StorageChangeListener.NONE,
+        null,
+        encryption);
+  }
+
+  private String read(String fileName) throws Exception {
+    try (InputStream in = storage.retrieveFile(fileName)) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
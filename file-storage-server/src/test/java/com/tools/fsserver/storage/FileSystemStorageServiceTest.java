@@ -2,20 +2,32 @@ package com.tools.fsserver.storage;
 
 import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
 import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.encryption.FileEncryption;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Set;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atMostOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * Testing the FileSystemStorageService capabilities of storing/removing uploaded files The java NIO
@@ -23,17 +35,26 @@ import static org.mockito.Mockito.mock;
  */
 public class FileSystemStorageServiceTest {
 
+  @TempDir Path tempDir;
+
   @Test
   public void testStoreFile() throws IOException {
     try (MockedStatic<Files> files = Mockito.mockStatic(Files.class);
-        MockedStatic<Paths> paths = Mockito.mockStatic(Paths.class)) {
+        MockedStatic<Paths> paths = Mockito.mockStatic(Paths.class);
+        MockedStatic<FileChannel> channels = Mockito.mockStatic(FileChannel.class)) {
       files.when(() -> Files.deleteIfExists(any())).thenReturn(true);
       String mockPathAsString = "mockPathAsString";
       Path mockPath = mock(Path.class);
+      when(mockPath.resolve(anyString())).thenReturn(mockPath);
       paths.when(() -> Paths.get(eq(mockPathAsString))).thenReturn(mockPath);
       paths.when(() -> Paths.get(any(), any())).thenReturn(mockPath);
       files.when(() -> Files.notExists(eq(mockPath))).thenReturn(false);
+      files.when(() -> Files.list(eq(mockPath))).thenReturn(Stream.empty());
       files.when(() -> Files.copy(any(Path.class), any(Path.class))).thenReturn(mockPath);
+      files.when(() -> Files.move(any(), any(), any())).thenReturn(mockPath);
+      channels
+          .when(() -> FileChannel.open(any(Path.class), any()))
+          .thenReturn(mock(FileChannel.class));
       FileSystemStorageService storage = new FileSystemStorageService(mockPathAsString);
       try {
         storage.storeFile("fileName", mockPath);
@@ -51,8 +72,10 @@ public class FileSystemStorageServiceTest {
       files.when(() -> Files.deleteIfExists(any())).thenReturn(true);
       String mockPathAsString = "mockPathAsString";
       Path mockPath = mock(Path.class);
+      when(mockPath.resolve(anyString())).thenReturn(mockPath);
       paths.when(() -> Paths.get(eq(mockPathAsString))).thenReturn(mockPath);
       files.when(() -> Files.notExists(eq(mockPath))).thenReturn(false);
+      files.when(() -> Files.list(eq(mockPath))).thenReturn(Stream.empty());
       FileSystemStorageService storage = new FileSystemStorageService(mockPathAsString);
       try {
         storage.deleteFile("fileToDelete");
@@ -62,4 +85,55 @@ public class FileSystemStorageServiceTest {
       files.verify(() -> Files.deleteIfExists(any()), atMostOnce());
     }
   }
+
+  @Test
+  public void testStoresAreMovedIntoPlaceWholeAndLeftoversRemoved() throws Exception {
+    Path folder = tempDir.resolve("storage");
+    Path incoming = folder.resolve(FileSystemStorageService.INCOMING_FOLDER);
+    Files.createDirectories(incoming);
+    Path crashed = Files.writeString(incoming.resolve("crashed.part"), "half an upl");
+    Path upload = Files.writeString(tempDir.resolve("upload"), "a whole upload");
+    FileSystemStorageService storage =
+        new FileSystemStorageService(
+            folder.toString(),
+            null,
+            StorageChangeListener.NONE,
+            new LargeFileWriter(0, 4096, false),
+            null);
+    assertFalse(Files.exists(crashed));
+
+    storage.storeFile("whole.txt", upload);
+    assertEquals("a whole upload", Files.readString(folder.resolve("whole.txt")));
+    assertEquals(Set.of("whole.txt"), storage.listStoredFiles());
+    assertEmpty(incoming);
+    // a conflicting store fails before writing anything
+    assertThrows(
+        FileNamePresentOnServerException.class, () -> storage.storeFile("whole.txt", upload));
+    assertEmpty(incoming);
+  }
+
+  @Test
+  public void testEncryptedStoresAreMovedIntoPlaceWhole() throws Exception {
+    Path folder = tempDir.resolve("storage");
+    Path upload = Files.writeString(tempDir.resolve("upload"), "a secret upload");
+    FileSystemStorageService storage =
+        new FileSystemStorageService(
+            folder.toString(),
+            null,
+            StorageChangeListener.NONE,
+            null,
+            new FileEncryption(true, new byte[32], 4));
+    storage.storeFile("secret.txt", upload);
+    assertEquals(Set.of("secret.txt"), storage.listStoredFiles());
+    assertEmpty(folder.resolve(FileSystemStorageService.INCOMING_FOLDER));
+    try (InputStream in = storage.retrieveFile("secret.txt")) {
+      assertEquals("a secret upload", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  private static void assertEmpty(Path folder) throws IOException {
+    try (Stream<Path> entries = Files.list(folder)) {
+      assertEquals(0, entries.count());
+    }
+  }
 }
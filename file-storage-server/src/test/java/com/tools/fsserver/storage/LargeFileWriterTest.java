@@ -0,0 +1,74 @@
+package com.tools.fsserver.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Copies through each write path of LargeFileWriter must be byte-identical to their source,
+ * whatever the file size relative to the buffer and block sizes. Direct writes fall back to
+ * buffered ones where the temp folder refuses O_DIRECT, so both are exercised either way
+ */
+public class LargeFileWriterTest {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testSmallFilesAreCopiedAsIs() throws IOException {
+    LargeFileWriter writer = new LargeFileWriter(1024 * 1024, BUFFER_SIZE, true);
+    Path source = randomFile("small", 1000);
+    writer.copy(source, tempDir.resolve("copy"));
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(tempDir.resolve("copy")));
+  }
+
+  @Test
+  public void testLargeFilesAreCopiedThroughTheBufferedPath() throws IOException {
+    LargeFileWriter writer = new LargeFileWriter(0, BUFFER_SIZE, false);
+    // several buffers plus a partial block
+    assertCopiedExactly(writer, 5 * BUFFER_SIZE + 1234);
+    assertCopiedExactly(writer, BUFFER_SIZE);
+    assertCopiedExactly(writer, 1);
+  }
+
+  @Test
+  public void testLargeFilesAreCopiedThroughTheDirectPath() throws IOException {
+    LargeFileWriter writer = new LargeFileWriter(0, BUFFER_SIZE, true);
+    assertCopiedExactly(writer, 5 * BUFFER_SIZE + 1234);
+    assertCopiedExactly(writer, 3 * BUFFER_SIZE);
+    assertCopiedExactly(writer, 17);
+  }
+
+  @Test
+  public void testExistingDestinationIsNeverOverwritten() throws IOException {
+    LargeFileWriter writer = new LargeFileWriter(0, BUFFER_SIZE, false);
+    Path source = randomFile("source", 2 * BUFFER_SIZE);
+    Path destination = Files.writeString(tempDir.resolve("existing"), "keep me");
+    assertThrows(FileAlreadyExistsException.class, () -> writer.copy(source, destination));
+    assertEquals("keep me", Files.readString(destination));
+  }
+
+  private void assertCopiedExactly(LargeFileWriter writer, int size) throws IOException {
+    Path source = randomFile("source-" + size, size);
+    Path destination = tempDir.resolve("copy-" + size);
+    writer.copy(source, destination);
+    assertEquals(size, Files.size(destination));
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(destination));
+  }
+
+  private Path randomFile(String name, int size) throws IOException {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return Files.write(tempDir.resolve(name), content);
+  }
+}
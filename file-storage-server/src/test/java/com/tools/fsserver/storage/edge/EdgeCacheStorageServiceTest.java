@@ -0,0 +1,215 @@
+package com.tools.fsserver.storage.edge;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.ContentVersion;
+import com.tools.fsserver.storage.StorageChangeListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing the edge cache against FakeUpstreamServer: concurrent misses must share one download,
+ * the least recently used files must go once the cache is full, the listing must be reused for
+ * its TTL only, and changes must reach the upstream
+ */
+public class EdgeCacheStorageServiceTest {
+
+  private static final long LISTING_TTL_MILLIS = 2000;
+
+  @TempDir Path tempDir;
+  private FakeUpstreamServer upstream;
+  private final AtomicLong clock = new AtomicLong(1_000_000);
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    upstream = new FakeUpstreamServer(tempDir.resolve("upstream"));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    upstream.close();
+  }
+
+  @Test
+  public void testConcurrentMissesShareOneDownload() throws Exception {
+    byte[] content = randomContent(256 * 1024);
+    upstream.getStorage().storeFile("build.tar", write("build.tar", content));
+    upstream.setDownloadDelayMillis(300);
+    EdgeCacheStorageService edge = edge(1 << 20);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<byte[]>> downloads = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        downloads.add(
+            pool.submit(
+                () -> {
+                  start.await();
+                  return readFully(edge, "build.tar");
+                }));
+      }
+      start.countDown();
+      for (Future<byte[]> download : downloads) {
+        assertArrayEquals(content, download.get(30, TimeUnit.SECONDS));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(1, upstream.getDownloadRequests());
+    assertEquals(1, edge.getUpstreamDownloads());
+    assertArrayEquals(content, readFully(edge, "build.tar"));
+    assertEquals(1, upstream.getDownloadRequests());
+    assertTrue(edge.getCacheHits() >= 1);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedFilesAreEvicted() throws Exception {
+    for (String fileName : new String[] {"a.bin", "b.bin", "c.bin"}) {
+      upstream.getStorage().storeFile(fileName, write(fileName, randomContent(100)));
+    }
+    DiskLruCache cache = new DiskLruCache(tempDir.resolve("cache"), 250);
+    EdgeCacheStorageService edge = edge(cache);
+    readFully(edge, "a.bin");
+    readFully(edge, "b.bin");
+    assertEquals(200, cache.getTotalBytes());
+    // a becomes the most recently used, so c pushes b out
+    readFully(edge, "a.bin");
+    readFully(edge, "c.bin");
+    assertEquals(3, upstream.getDownloadRequests());
+    assertEquals(2, cache.getFileCount());
+    assertEquals(200, cache.getTotalBytes());
+    readFully(edge, "a.bin");
+    assertEquals(3, upstream.getDownloadRequests());
+    readFully(edge, "b.bin");
+    assertEquals(4, upstream.getDownloadRequests());
+  }
+
+  @Test
+  public void testCachedFilesSurviveRestart() throws Exception {
+    byte[] content = randomContent(100);
+    upstream.getStorage().storeFile("kept.bin", write("kept.bin", content));
+    readFully(edge(1000), "kept.bin");
+    Files.createFile(tempDir.resolve("cache").resolve("interrupted.tmp"));
+    DiskLruCache cache = new DiskLruCache(tempDir.resolve("cache"), 1000);
+    assertEquals(1, cache.getFileCount());
+    assertEquals(100, cache.getTotalBytes());
+    EdgeCacheStorageService restarted = edge(cache);
+    assertArrayEquals(content, readFully(restarted, "kept.bin"));
+    assertEquals(1, upstream.getDownloadRequests());
+    assertTrue(Files.notExists(tempDir.resolve("cache").resolve("interrupted.tmp")));
+  }
+
+  @Test
+  public void testNamesOfEqualContentShareOneCachedFile() throws Exception {
+    byte[] content = randomContent(100);
+    upstream.getStorage().storeFile("first.bin", write("first.bin", content));
+    upstream.getStorage().storeFile("second.bin", write("second.bin", content));
+    EdgeCacheStorageService edge = edge(1000);
+    assertArrayEquals(content, readFully(edge, "first.bin"));
+    assertArrayEquals(content, readFully(edge, "second.bin"));
+    assertEquals(1, upstream.getDownloadRequests());
+  }
+
+  @Test
+  public void testListingIsReusedForItsTtl() throws Exception {
+    upstream.getStorage().storeFile("old.txt", write("old.txt", randomContent(10)));
+    EdgeCacheStorageService edge = edge(1000);
+    assertEquals(Set.of("old.txt"), edge.listStoredFiles());
+    ContentVersion firstVersion = edge.getListingVersion();
+    upstream.getStorage().storeFile("new.txt", write("new.txt", randomContent(10)));
+    assertEquals(Set.of("old.txt"), edge.listStoredFiles());
+    assertEquals(1, upstream.getListRequests());
+
+    clock.addAndGet(LISTING_TTL_MILLIS);
+    assertEquals(Set.of("old.txt", "new.txt"), edge.listStoredFiles());
+    ContentVersion secondVersion = edge.getListingVersion();
+    assertNotEquals(firstVersion.getTag(), secondVersion.getTag());
+    assertEquals(2, upstream.getListRequests());
+
+    // revalidated, but unchanged
+    clock.addAndGet(LISTING_TTL_MILLIS);
+    assertEquals(secondVersion.getTag(), edge.getListingVersion().getTag());
+    assertEquals(3, upstream.getListRequests());
+  }
+
+  @Test
+  public void testChangesArePassedUpstream() throws Exception {
+    EdgeCacheStorageService edge = edge(1000);
+    assertTrue(edge.listStoredFiles().isEmpty());
+    byte[] content = randomContent(100);
+    edge.storeFile("report.pdf", write("report.pdf", content));
+    // visible at once through the edge that made the change
+    assertEquals(Set.of("report.pdf"), edge.listStoredFiles());
+    assertEquals(Set.of("report.pdf"), upstream.getStorage().listStoredFiles());
+    assertThrows(
+        FileNamePresentOnServerException.class,
+        () -> edge.storeFile("report.pdf", write("again", content)));
+
+    edge.copyFile("report.pdf", "copy.pdf");
+    edge.renameFile("copy.pdf", "renamed.pdf");
+    assertEquals(Set.of("report.pdf", "renamed.pdf"), edge.listStoredFiles());
+    assertArrayEquals(content, readFully(edge, "renamed.pdf"));
+    assertEquals(content.length, edge.getFileSize("renamed.pdf"));
+
+    edge.deleteFile("report.pdf");
+    assertEquals(Set.of("renamed.pdf"), upstream.getStorage().listStoredFiles());
+    assertThrows(FileNameNotPresentOnServerException.class, () -> edge.deleteFile("report.pdf"));
+    assertThrows(FileNameNotPresentOnServerException.class, () -> readFully(edge, "report.pdf"));
+    assertThrows(
+        FileNameNotPresentOnServerException.class, () -> edge.copyFile("report.pdf", "x.pdf"));
+  }
+
+  private EdgeCacheStorageService edge(long cacheBytes) throws IOException {
+    return edge(new DiskLruCache(tempDir.resolve("cache"), cacheBytes));
+  }
+
+  private EdgeCacheStorageService edge(DiskLruCache cache) {
+    return new EdgeCacheStorageService(
+        new UpstreamClient(upstream.getFilesApi(), Duration.ofSeconds(10)),
+        cache,
+        LISTING_TTL_MILLIS,
+        clock::get,
+        StorageChangeListener.NONE);
+  }
+
+  private Path write(String fileName, byte[] content) throws IOException {
+    return Files.write(Files.createTempFile(tempDir, fileName, null), content);
+  }
+
+  private static byte[] readFully(EdgeCacheStorageService edge, String fileName)
+      throws Exception {
+    try (InputStream in = edge.retrieveFile(fileName)) {
+      return in.readAllBytes();
+    }
+  }
+
+  private static byte[] randomContent(int length) {
+    byte[] content = new byte[length];
+    new Random(length * 31L + System.nanoTime()).nextBytes(content);
+    return content;
+  }
+}
@@ -0,0 +1,261 @@
+package com.tools.fsserver.storage.edge;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.FileSystemStorageService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the upstream FS server, on the JDK HTTP server: just enough of the
+ * /v1/files API for EdgeCacheStorageService, backed by a real FileSystemStorageService. It counts
+ * listings and downloads, and can hold each download back to let concurrent ones pile up
+ */
+final class FakeUpstreamServer implements AutoCloseable {
+
+  private static final String FILES_PATH = "/v1/files";
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newFixedThreadPool(16);
+  private final FileSystemStorageService storage;
+  private final Path uploadFolder;
+  private final AtomicInteger listRequests = new AtomicInteger();
+  private final AtomicInteger downloadRequests = new AtomicInteger();
+  private volatile long downloadDelayMillis;
+
+  FakeUpstreamServer(Path folder) throws IOException {
+    storage = new FileSystemStorageService(folder.resolve("storage").toString());
+    uploadFolder = Files.createDirectories(folder.resolve("uploads"));
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(FILES_PATH, this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  URI getFilesApi() {
+    return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + FILES_PATH);
+  }
+
+  /** The upstream's own storage, for changes made by its other clients */
+  FileSystemStorageService getStorage() {
+    return storage;
+  }
+
+  void setDownloadDelayMillis(long downloadDelayMillis) {
+    this.downloadDelayMillis = downloadDelayMillis;
+  }
+
+  int getListRequests() {
+    return listRequests.get();
+  }
+
+  int getDownloadRequests() {
+    return downloadRequests.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+    storage.close();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String path = exchange.getRequestURI().getPath();
+      String fileName =
+          path.length() > FILES_PATH.length() + 1 ? path.substring(FILES_PATH.length() + 1) : null;
+      try {
+        route(exchange, exchange.getRequestMethod(), fileName);
+      } catch (FileNameNotPresentOnServerException e) {
+        send(exchange, 404, new byte[0]);
+      } catch (FileNamePresentOnServerException e) {
+        send(exchange, 409, new byte[0]);
+      } catch (RuntimeException e) {
+        send(exchange, 500, new byte[0]);
+      }
+    }
+  }
+
+  private void route(HttpExchange exchange, String method, String fileName)
+      throws FileNameNotPresentOnServerException, FileNamePresentOnServerException, IOException {
+    if (fileName == null) {
+      list(exchange);
+    } else if (method.equals("HEAD")) {
+      describe(exchange, fileName);
+    } else if (method.equals("GET")) {
+      download(exchange, fileName);
+    } else if (method.equals("POST") && fileName.endsWith(":copy")) {
+      storage.copyFile(fileName.substring(0, fileName.length() - 5), targetOf(exchange));
+      send(exchange, 200, new byte[0]);
+    } else if (method.equals("POST") && fileName.endsWith(":rename")) {
+      storage.renameFile(fileName.substring(0, fileName.length() - 7), targetOf(exchange));
+      send(exchange, 200, new byte[0]);
+    } else if (method.equals("POST")) {
+      upload(exchange, fileName);
+    } else if (method.equals("DELETE")) {
+      storage.deleteFile(fileName);
+      send(exchange, 200, new byte[0]);
+    } else {
+      send(exchange, 405, new byte[0]);
+    }
+  }
+
+  private void list(HttpExchange exchange) throws IOException {
+    listRequests.incrementAndGet();
+    String eTag = "\"" + storage.getListingVersion().getTag() + "-details\"";
+    exchange.getResponseHeaders().set("ETag", eTag);
+    if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+    List<FileMetadata> files = storage.listStoredFileMetadata();
+    files.sort(Comparator.comparing(FileMetadata::getFileName));
+    StringBuilder lines = new StringBuilder();
+    for (FileMetadata metadata : files) {
+      lines
+          .append(metadata.getSize())
+          .append('\t')
+          .append(metadata.getSha256())
+          .append('\t')
+          .append(metadata.getUploadedAtMillis())
+          .append('\t')
+          .append(metadata.getContentType())
+          .append('\t')
+          .append(metadata.getUploader() == null ? "-" : metadata.getUploader())
+          .append('\t')
+          .append(metadata.getFileName())
+          .append('\n');
+    }
+    byte[] body = lines.toString().getBytes(StandardCharsets.UTF_8);
+    send(exchange, files.isEmpty() ? 404 : 200, body);
+  }
+
+  private void describe(HttpExchange exchange, String fileName) throws IOException {
+    FileMetadata metadata;
+    try {
+      metadata = storage.getFileMetadata(fileName);
+    } catch (FileNameNotPresentOnServerException e) {
+      sendHeadResponse(exchange, 404);
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Length", Long.toString(metadata.getSize()));
+    exchange.getResponseHeaders().set("Content-Type", metadata.getContentType());
+    exchange.getResponseHeaders().set("X-Content-SHA256", metadata.getSha256());
+    exchange
+        .getResponseHeaders()
+        .set(
+            "X-Uploaded-At",
+            DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(metadata.getUploadedAtMillis()).atZone(ZoneOffset.UTC)));
+    sendHeadResponse(exchange, 200);
+  }
+
+  private void download(HttpExchange exchange, String fileName)
+      throws FileNameNotPresentOnServerException, IOException {
+    downloadRequests.incrementAndGet();
+    try (InputStream content = storage.retrieveFile(fileName)) {
+      try {
+        Thread.sleep(downloadDelayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      long size = storage.getFileSize(fileName);
+      // a length of 0 would make the JDK server send the body chunked
+      exchange.sendResponseHeaders(200, size == 0 ? -1 : size);
+      try (OutputStream out = exchange.getResponseBody()) {
+        content.transferTo(out);
+      }
+    }
+  }
+
+  /** Takes the first part of the multipart body as the file, as the edge only ever sends one */
+  private void upload(HttpExchange exchange, String fileName)
+      throws FileNamePresentOnServerException, IOException {
+    byte[] body = exchange.getRequestBody().readAllBytes();
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    byte[] boundary =
+        ("\r\n--" + contentType.substring(contentType.indexOf("boundary=") + 9))
+            .getBytes(StandardCharsets.UTF_8);
+    int start = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.UTF_8), 0) + 4;
+    int end = indexOf(body, boundary, start);
+    Path upload = Files.createTempFile(uploadFolder, "upload", null);
+    try {
+      Files.write(upload, Arrays.copyOfRange(body, start, end));
+      storage.storeFile(fileName, upload, "edge");
+    } finally {
+      Files.deleteIfExists(upload);
+    }
+    send(exchange, 200, new byte[0]);
+  }
+
+  private static String targetOf(HttpExchange exchange) {
+    String query = exchange.getRequestURI().getQuery();
+    return query.substring(query.indexOf("to=") + 3);
+  }
+
+  private static int indexOf(byte[] data, byte[] pattern, int from) {
+    for (int i = from; i <= data.length - pattern.length; i++) {
+      int j = 0;
+      while (j < pattern.length && data[i + j] == pattern[j]) {
+        j++;
+      }
+      if (j == pattern.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The JDK server frames HEAD responses as chunked, which leaves the connection unusable for the
+   * next request the client sends on it. Closing the connection sidesteps that
+   */
+  private static void sendHeadResponse(HttpExchange exchange, int status) throws IOException {
+    exchange.getResponseHeaders().set("Connection", "close");
+    drainRequest(exchange);
+    exchange.sendResponseHeaders(status, -1);
+  }
+
+  /** An empty body is sent without one, the JDK server refuses even empty writes to it */
+  private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    drainRequest(exchange);
+    if (body.length == 0) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * The JDK server drops the connection of a request whose body was left unread, even an empty
+   * one, failing the next request the client sends on it
+   */
+  private static void drainRequest(HttpExchange exchange) throws IOException {
+    exchange.getRequestBody().readAllBytes();
+  }
+}
@@ -0,0 +1,147 @@
+package com.tools.fsserver.storage.encryption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Encrypted files must decrypt to their content from any offset, reveal none of it on disk, and
+ * fail loudly rather than return altered content when tampered with or read under the wrong key
+ */
+public class FileEncryptionTest {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  @TempDir Path tempDir;
+  private final FileEncryption encryption = new FileEncryption(true, key(1), CHUNK_SIZE);
+
+  @Test
+  public void testFilesRoundTripWhateverTheirSize() throws IOException {
+    for (int size : new int[] {0, 1, CHUNK_SIZE, 3 * CHUNK_SIZE + 5, 1100 * CHUNK_SIZE + 7}) {
+      byte[] content = randomContent(size);
+      Path stored =
+          encryption.encrypt(write("plain-" + size, content), tempDir.resolve("enc-" + size));
+      assertEquals(encryption.encryptedSize(size), Files.size(stored));
+      assertEquals(size, encryption.contentSize(stored));
+      try (InputStream in = encryption.open(stored)) {
+        assertArrayEquals(content, in.readAllBytes());
+      }
+    }
+  }
+
+  @Test
+  public void testContentIsNotStoredInTheClear() throws IOException {
+    byte[] content = new byte[4 * CHUNK_SIZE];
+    Arrays.fill(content, (byte) 'a');
+    Path stored = encryption.encrypt(write("plain", content), tempDir.resolve("enc"));
+    byte[] onDisk = Files.readAllBytes(stored);
+    byte[] run = new byte[32];
+    Arrays.fill(run, (byte) 'a');
+    assertFalse(new String(onDisk, "ISO-8859-1").contains(new String(run, "ISO-8859-1")));
+  }
+
+  @Test
+  public void testReadingFromAnOffsetSkipsWholeChunks() throws IOException {
+    byte[] content = randomContent(10 * CHUNK_SIZE + 123);
+    Path stored = encryption.encrypt(write("plain", content), tempDir.resolve("enc"));
+    for (long offset : new long[] {0, 5, CHUNK_SIZE, 7 * CHUNK_SIZE + 9, content.length - 1}) {
+      try (InputStream in = encryption.open(stored)) {
+        assertEquals(offset, in.skip(offset));
+        byte[] rest = in.readAllBytes();
+        assertArrayEquals(Arrays.copyOfRange(content, (int) offset, content.length), rest);
+      }
+    }
+    // damage chunk 2: reading past it never touches it
+    flipByte(stored, encryption.encryptedSize(2L * CHUNK_SIZE) + 3);
+    try (InputStream in = encryption.open(stored)) {
+      in.skip(3L * CHUNK_SIZE);
+      byte[] rest = in.readAllBytes();
+      assertArrayEquals(Arrays.copyOfRange(content, 3 * CHUNK_SIZE, content.length), rest);
+    }
+  }
+
+  @Test
+  public void testTamperedOrTruncatedFilesFailToDecrypt() throws IOException {
+    byte[] content = randomContent(3 * CHUNK_SIZE + 10);
+    Path stored = encryption.encrypt(write("plain", content), tempDir.resolve("enc"));
+    Path tampered = Files.copy(stored, tempDir.resolve("tampered"));
+    flipByte(tampered, EncryptedFileHeader.LENGTH + CHUNK_SIZE + 40);
+    assertThrows(IOException.class, () -> readAll(tampered));
+    Path truncated = Files.copy(stored, tempDir.resolve("truncated"));
+    try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(stored) - 20);
+    }
+    assertThrows(IOException.class, () -> readAll(truncated));
+    // claiming a shorter length in the header changes the authenticated data of every chunk
+    Path shortened = Files.copy(stored, tempDir.resolve("shortened"));
+    flipByte(shortened, EncryptedFileHeader.MAGIC.length + 4 + 7);
+    assertThrows(IOException.class, () -> readAll(shortened));
+  }
+
+  @Test
+  public void testEncryptedFilesNeedTheirMasterKey() throws IOException {
+    Path stored = encryption.encrypt(write("plain", randomContent(100)), tempDir.resolve("enc"));
+    assertThrows(
+        IOException.class, () -> new FileEncryption(false, key(2), CHUNK_SIZE).open(stored));
+    assertThrows(
+        IOException.class, () -> new FileEncryption(false, null, CHUNK_SIZE).open(stored));
+    assertThrows(
+        IllegalArgumentException.class, () -> new FileEncryption(true, null, CHUNK_SIZE));
+  }
+
+  @Test
+  public void testPlaintextFilesAreServedAsTheyAre() throws IOException {
+    byte[] content = randomContent(2 * CHUNK_SIZE);
+    Path plain = write("plain", content);
+    assertEquals(content.length, encryption.contentSize(plain));
+    assertArrayEquals(content, readAll(plain));
+    Path empty = write("empty", new byte[0]);
+    assertArrayEquals(new byte[0], readAll(empty));
+  }
+
+  private byte[] readAll(Path stored) throws IOException {
+    try (InputStream in = encryption.open(stored)) {
+      return in.readAllBytes();
+    }
+  }
+
+  private Path write(String name, byte[] content) throws IOException {
+    return Files.write(tempDir.resolve(name), content);
+  }
+
+  private static void flipByte(Path file, long position) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer single = ByteBuffer.allocate(1);
+      channel.read(single, position);
+      single.put(0, (byte) (single.get(0) ^ 0x01)).rewind();
+      channel.write(single, position);
+    }
+  }
+
+  private static byte[] key(int seed) {
+    byte[] key = new byte[32];
+    new Random(seed).nextBytes(key);
+    return key;
+  }
+
+  private static byte[] randomContent(int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+}
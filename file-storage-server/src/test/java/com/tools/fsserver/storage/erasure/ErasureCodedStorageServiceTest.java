@@ -0,0 +1,224 @@
+package com.tools.fsserver.storage.erasure;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.ContentVersion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Testing the erasure-coded backend against real temporary folders: files must round trip through
+ * shards, and stay readable when up to m shards are deleted or damaged, reading parity only when
+ * a data block is missing or corrupt
+ */
+public class ErasureCodedStorageServiceTest {
+
+  private static final int BLOCK_SIZE = 64;
+
+  @TempDir Path tempDir;
+  private ErasureCodedStorageService storage;
+  private Path upload;
+  private byte[] content;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    storage =
+        new ErasureCodedStorageService(
+            List.of(tempDir.resolve("root0").toString(), tempDir.resolve("root1").toString()),
+            3,
+            2,
+            BLOCK_SIZE);
+    // deliberately not a multiple of the stripe size so the last stripe is padded
+    content = new byte[BLOCK_SIZE * 3 * 5 + 17];
+    new Random(42).nextBytes(content);
+    upload = Files.write(tempDir.resolve("upload.bin"), content);
+  }
+
+  @Test
+  public void testStoreAndRetrieveRoundTrip() throws Exception {
+    storage.storeFile("a.bin", upload);
+    assertEquals(Set.of("a.bin"), storage.listStoredFiles());
+    assertArrayEquals(content, readFully("a.bin"));
+  }
+
+  @Test
+  public void testRetrieveReconstructsWhenShardsAreLost() throws Exception {
+    storage.storeFile("a.bin", upload);
+    Files.delete(tempDir.resolve("root0").resolve("a.bin.shard0"));
+    // truncated shards are treated as erased too
+    Path damaged = tempDir.resolve("root1").resolve("a.bin.shard3");
+    Files.write(damaged, new byte[] {1, 2, 3});
+    assertArrayEquals(content, readFully("a.bin"));
+  }
+
+  @Test
+  public void testRetrieveFailsWhenTooManyShardsAreLost() throws Exception {
+    storage.storeFile("a.bin", upload);
+    Files.delete(tempDir.resolve("root0").resolve("a.bin.shard0"));
+    Files.delete(tempDir.resolve("root1").resolve("a.bin.shard1"));
+    Files.delete(tempDir.resolve("root0").resolve("a.bin.shard2"));
+    assertThrows(IOException.class, () -> storage.retrieveFile("a.bin"));
+  }
+
+  @Test
+  public void testStoringDuplicateExpectConflict() throws Exception {
+    storage.storeFile("a.bin", upload);
+    assertThrows(FileNamePresentOnServerException.class, () -> storage.storeFile("a.bin", upload));
+  }
+
+  @Test
+  public void testEmptyFileRoundTrip() throws Exception {
+    storage.storeFile("empty.bin", Files.write(tempDir.resolve("empty"), new byte[0]));
+    assertArrayEquals(new byte[0], readFully("empty.bin"));
+  }
+
+  @Test
+  public void testDeletingRemovesAllShards() throws Exception {
+    storage.storeFile("a.bin", upload);
+    storage.deleteFile("a.bin");
+    assertEquals(Set.of(), storage.listStoredFiles());
+    assertThrows(FileNameNotPresentOnServerException.class, () -> storage.deleteFile("a.bin"));
+    assertThrows(FileNameNotPresentOnServerException.class, () -> storage.retrieveFile("a.bin"));
+  }
+
+  @Test
+  public void testVersionsTrackContentChanges() throws Exception {
+    String emptyListingTag = storage.getListingVersion().getTag();
+    storage.storeFile("a.bin", upload);
+    ContentVersion afterStore = storage.getListingVersion();
+    assertNotEquals(emptyListingTag, afterStore.getTag());
+    // SHA-256 of the decoded content, stable across calls
+    String contentHash = storage.getFileVersion("a.bin").getTag();
+    assertEquals(64, contentHash.length());
+    assertEquals(contentHash, storage.getFileVersion("a.bin").getTag());
+    storage.deleteFile("a.bin");
+    assertNotEquals(afterStore.getTag(), storage.getListingVersion().getTag());
+    assertThrows(FileNameNotPresentOnServerException.class, () -> storage.getFileVersion("a.bin"));
+  }
+
+  @Test
+  public void testFileSizeSurvivesLostShards() throws Exception {
+    storage.storeFile("a.bin", upload);
+    Files.delete(tempDir.resolve("root0").resolve("a.bin.shard0"));
+    assertEquals(content.length, storage.getFileSize("a.bin"));
+    assertThrows(FileNameNotPresentOnServerException.class, () -> storage.getFileSize("b.bin"));
+  }
+
+  @Test
+  public void testCorruptBlocksAreRebuiltFromParity() throws Exception {
+    storage.storeFile("a.bin", upload);
+    // bit rot in the first block of one data shard and the third block of another
+    flipByte(tempDir.resolve("root0").resolve("a.bin.shard0"), ShardHeader.SIZE + 10);
+    flipByte(
+        tempDir.resolve("root1").resolve("a.bin.shard1"),
+        ShardHeader.SIZE + 2L * (BLOCK_SIZE + ShardHeader.CHECKSUM_SIZE) + 5);
+    assertArrayEquals(content, readFully("a.bin"));
+  }
+
+  @Test
+  public void testParityIsOnlyReadForStripesMissingData() throws Exception {
+    storage.storeFile("a.bin", upload);
+    long[] bytesRead = new long[5];
+    try (InputStream in = openCountingReads("a.bin", bytesRead)) {
+      assertArrayEquals(content, in.readAllBytes());
+    }
+    assertEquals(0, bytesRead[3] + bytesRead[4]);
+
+    // a missing data shard takes one parity shard to rebuild, the other stays unread
+    Files.delete(tempDir.resolve("root0").resolve("a.bin.shard0"));
+    bytesRead = new long[5];
+    try (InputStream in = openCountingReads("a.bin", bytesRead)) {
+      assertArrayEquals(content, in.readAllBytes());
+    }
+    assertEquals(bytesRead[1], bytesRead[3]);
+    assertEquals(0, bytesRead[4]);
+  }
+
+  @Test
+  public void testShardsWithoutChecksumsStayReadable() throws Exception {
+    ReedSolomon codec = new ReedSolomon(3, 2);
+    long stripeCount = new ShardHeader(3, 2, 0, BLOCK_SIZE, content.length, false).stripeCount();
+    byte[][][] stripes = new byte[(int) stripeCount][5][BLOCK_SIZE];
+    for (int stripe = 0; stripe < stripeCount; stripe++) {
+      for (int shard = 0; shard < 3; shard++) {
+        int start = (stripe * 3 + shard) * BLOCK_SIZE;
+        if (start < content.length) {
+          int length = Math.min(BLOCK_SIZE, content.length - start);
+          System.arraycopy(content, start, stripes[stripe][shard], 0, length);
+        }
+      }
+      codec.encodeParity(stripes[stripe], 0, BLOCK_SIZE);
+    }
+    for (int shard = 0; shard < 5; shard++) {
+      Path shardPath = tempDir.resolve("root" + shard % 2).resolve("old.bin.shard" + shard);
+      try (OutputStream out = Files.newOutputStream(shardPath)) {
+        new ShardHeader(3, 2, shard, BLOCK_SIZE, content.length, false).writeTo(out);
+        for (byte[][] stripe : stripes) {
+          out.write(stripe[shard]);
+        }
+      }
+    }
+    assertArrayEquals(content, readFully("old.bin"));
+    Files.delete(tempDir.resolve("root1").resolve("old.bin.shard1"));
+    assertArrayEquals(content, readFully("old.bin"));
+  }
+
+  /** Opens the shards the way retrieveFile does, counting the bytes read from each */
+  private InputStream openCountingReads(String fileName, long[] bytesRead) throws IOException {
+    InputStream[] shardStreams = new InputStream[5];
+    ShardHeader header = null;
+    for (int shard = 0; shard < 5; shard++) {
+      Path shardPath = tempDir.resolve("root" + shard % 2).resolve(fileName + ".shard" + shard);
+      if (Files.exists(shardPath)) {
+        int counted = shard;
+        shardStreams[shard] =
+            new FilterInputStream(Files.newInputStream(shardPath)) {
+              @Override
+              public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                bytesRead[counted] += Math.max(read, 0);
+                return read;
+              }
+            };
+        header = ShardHeader.readFrom(shardStreams[shard]);
+        bytesRead[shard] = 0;
+      }
+    }
+    return new ErasureDecodingInputStream(new ReedSolomon(3, 2), shardStreams, header);
+  }
+
+  private static void flipByte(Path file, long position) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer single = ByteBuffer.allocate(1);
+      channel.read(single, position);
+      single.put(0, (byte) (single.get(0) ^ 0x5A)).rewind();
+      channel.write(single, position);
+    }
+  }
+
+  private byte[] readFully(String fileName) throws Exception {
+    try (InputStream in = storage.retrieveFile(fileName)) {
+      return in.readAllBytes();
+    }
+  }
+}
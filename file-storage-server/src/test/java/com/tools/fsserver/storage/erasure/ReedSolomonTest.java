@@ -0,0 +1,102 @@
+package com.tools.fsserver.storage.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Verifies the codec round trip: after encoding, any combination of up to m erased shards is
+ * rebuilt byte for byte from the survivors
+ */
+public class ReedSolomonTest {
+
+  private static final int SHARD_LENGTH = 1031;
+
+  @Test
+  public void testDataShardsAreLeftUntouchedByEncoding() {
+    ReedSolomon codec = new ReedSolomon(4, 2);
+    byte[][] shards = randomShards(codec, new Random(7));
+    byte[][] originalData = {
+      shards[0].clone(), shards[1].clone(), shards[2].clone(), shards[3].clone()
+    };
+    codec.encodeParity(shards, 0, SHARD_LENGTH);
+    for (int shard = 0; shard < 4; shard++) {
+      assertArrayEquals(originalData[shard], shards[shard]);
+    }
+  }
+
+  @Test
+  public void testReconstructEveryCombinationOfTwoLostShards() {
+    ReedSolomon codec = new ReedSolomon(4, 2);
+    byte[][] shards = randomShards(codec, new Random(11));
+    codec.encodeParity(shards, 0, SHARD_LENGTH);
+    byte[][] expected = copy(shards);
+    for (int first = 0; first < codec.getTotalShardCount(); first++) {
+      for (int second = first + 1; second < codec.getTotalShardCount(); second++) {
+        byte[][] damaged = copy(expected);
+        boolean[] present = {true, true, true, true, true, true};
+        present[first] = false;
+        present[second] = false;
+        damaged[first] = new byte[SHARD_LENGTH];
+        damaged[second] = new byte[SHARD_LENGTH];
+        codec.reconstruct(damaged, present, 0, SHARD_LENGTH);
+        for (int shard = 0; shard < codec.getTotalShardCount(); shard++) {
+          assertArrayEquals(expected[shard], damaged[shard]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReconstructDataLeavesMissingParityAlone() {
+    ReedSolomon codec = new ReedSolomon(4, 2);
+    byte[][] shards = randomShards(codec, new Random(5));
+    codec.encodeParity(shards, 0, SHARD_LENGTH);
+    byte[][] expected = copy(shards);
+    byte[][] damaged = copy(expected);
+    damaged[1] = new byte[SHARD_LENGTH];
+    damaged[5] = new byte[SHARD_LENGTH];
+    boolean[] present = {true, false, true, true, true, false};
+    codec.reconstructData(damaged, present, 0, SHARD_LENGTH);
+    for (int shard = 0; shard < codec.getDataShardCount(); shard++) {
+      assertArrayEquals(expected[shard], damaged[shard]);
+    }
+    assertArrayEquals(new byte[SHARD_LENGTH], damaged[5]);
+  }
+
+  @Test
+  public void testReconstructWithTooFewShardsFails() {
+    ReedSolomon codec = new ReedSolomon(3, 1);
+    byte[][] shards = randomShards(codec, new Random(3));
+    codec.encodeParity(shards, 0, SHARD_LENGTH);
+    boolean[] present = {false, true, false, true};
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> codec.reconstruct(shards, present, 0, SHARD_LENGTH));
+  }
+
+  @Test
+  public void testInvalidShardCountsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(0, 2));
+    assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(200, 57));
+  }
+
+  private static byte[][] randomShards(ReedSolomon codec, Random random) {
+    byte[][] shards = new byte[codec.getTotalShardCount()][SHARD_LENGTH];
+    for (int shard = 0; shard < codec.getDataShardCount(); shard++) {
+      random.nextBytes(shards[shard]);
+    }
+    return shards;
+  }
+
+  private static byte[][] copy(byte[][] shards) {
+    byte[][] copy = new byte[shards.length][];
+    for (int shard = 0; shard < shards.length; shard++) {
+      copy[shard] = shards[shard].clone();
+    }
+    return copy;
+  }
+}
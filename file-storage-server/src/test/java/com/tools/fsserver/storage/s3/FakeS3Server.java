@@ -0,0 +1,459 @@
+package com.tools.fsserver.storage.s3;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for an S3-compatible store, on the JDK HTTP server: just enough of the
+ * object, multipart and ListObjectsV2 APIs for S3StorageService, with SigV4 signatures checked on
+ * every request. It counts requests and overlapping part uploads, and can fail chosen parts
+ */
+final class FakeS3Server implements AutoCloseable {
+
+  static final String BUCKET = "test-bucket";
+  static final String ACCESS_KEY = "test-access-key";
+  static final String SECRET_KEY = "test-secret-key";
+  static final String REGION = "us-east-1";
+  // long enough for the uploads of concurrent parts to overlap
+  private static final long PART_DELAY_MILLIS = 20;
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newFixedThreadPool(16);
+  private final S3RequestSigner signer = new S3RequestSigner(ACCESS_KEY, SECRET_KEY, REGION, "s3");
+  private final NavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+  private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+  private final Map<Integer, AtomicInteger> partFailures = new ConcurrentHashMap<>();
+  private final AtomicInteger partRequests = new AtomicInteger();
+  private final AtomicInteger partsInFlight = new AtomicInteger();
+  private final AtomicInteger maxPartsInFlight = new AtomicInteger();
+  private final AtomicInteger listRequests = new AtomicInteger();
+  private final AtomicInteger abortedUploads = new AtomicInteger();
+
+  FakeS3Server() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  URI getEndpoint() {
+    return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+  }
+
+  S3Client newClient(String secretKey, int maxConnections) {
+    return new S3Client(
+        getEndpoint(),
+        BUCKET,
+        new S3RequestSigner(ACCESS_KEY, secretKey, REGION, "s3"),
+        maxConnections,
+        Duration.ofSeconds(10),
+        Clock.systemUTC());
+  }
+
+  /** The next uploads of this part number are answered with a 500, as many times as given */
+  void failPart(int partNumber, int times) {
+    partFailures.put(partNumber, new AtomicInteger(times));
+  }
+
+  int getPartRequests() {
+    return partRequests.get();
+  }
+
+  int getMaxPartsInFlight() {
+    return maxPartsInFlight.get();
+  }
+
+  int getListRequests() {
+    return listRequests.get();
+  }
+
+  int getAbortedUploads() {
+    return abortedUploads.get();
+  }
+
+  int getPendingUploads() {
+    return uploads.size();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!isSignatureValid(exchange)) {
+        sendError(exchange, 403, "SignatureDoesNotMatch");
+        return;
+      }
+      String path = exchange.getRequestURI().getPath();
+      String bucketPath = "/" + BUCKET;
+      if (!path.equals(bucketPath) && !path.startsWith(bucketPath + "/")) {
+        sendError(exchange, 404, "NoSuchBucket");
+        return;
+      }
+      String key =
+          path.length() > bucketPath.length() + 1
+              ? path.substring(bucketPath.length() + 1)
+              : null;
+      Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      route(exchange, key, query);
+    } catch (RuntimeException e) {
+      sendError(exchange, 500, "InternalError");
+    }
+  }
+
+  private void route(HttpExchange exchange, String key, Map<String, String> query)
+      throws IOException {
+    String method = exchange.getRequestMethod();
+    if (key == null) {
+      if (method.equals("GET") && "2".equals(query.get("list-type"))) {
+        listObjects(exchange, query);
+      } else {
+        sendError(exchange, 400, "NotImplemented");
+      }
+    } else if (method.equals("HEAD")) {
+      headObject(exchange, key);
+    } else if (method.equals("GET")) {
+      getObject(exchange, key);
+    } else if (method.equals("PUT") && query.containsKey("partNumber")) {
+      uploadPart(exchange, query);
+    } else if (method.equals("PUT")) {
+      putObject(exchange, key);
+    } else if (method.equals("POST") && query.containsKey("uploads")) {
+      createMultipartUpload(exchange, key);
+    } else if (method.equals("POST") && query.containsKey("uploadId")) {
+      completeMultipartUpload(exchange, key, query.get("uploadId"));
+    } else if (method.equals("DELETE") && query.containsKey("uploadId")) {
+      abortedUploads.incrementAndGet();
+      uploads.remove(query.get("uploadId"));
+      exchange.sendResponseHeaders(204, -1);
+    } else if (method.equals("DELETE")) {
+      objects.remove(key);
+      exchange.sendResponseHeaders(204, -1);
+    } else {
+      sendError(exchange, 400, "NotImplemented");
+    }
+  }
+
+  private void listObjects(HttpExchange exchange, Map<String, String> query) throws IOException {
+    listRequests.incrementAndGet();
+    String prefix = query.getOrDefault("prefix", "");
+    int maxKeys = Math.min(1000, Integer.parseInt(query.getOrDefault("max-keys", "1000")));
+    String token = query.get("continuation-token");
+    SortedMap<String, StoredObject> candidates =
+        token == null
+            ? objects
+            : objects.tailMap(
+                new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8) + "\0");
+    List<String> keys = new ArrayList<>();
+    boolean truncated = false;
+    for (String key : candidates.keySet()) {
+      if (!key.startsWith(prefix)) {
+        continue;
+      }
+      if (keys.size() == maxKeys) {
+        truncated = true;
+        break;
+      }
+      keys.add(key);
+    }
+    StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    xml.append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+    xml.append("<Name>").append(BUCKET).append("</Name>");
+    xml.append("<KeyCount>").append(keys.size()).append("</KeyCount>");
+    xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+    for (String key : keys) {
+      xml.append("<Contents><Key>").append(URLEncoder.encode(key, StandardCharsets.UTF_8));
+      xml.append("</Key><Size>").append(objects.get(key).content.length).append("</Size>");
+      xml.append("</Contents>");
+    }
+    if (truncated) {
+      String lastKey = keys.get(keys.size() - 1);
+      xml.append("<NextContinuationToken>");
+      xml.append(Base64.getEncoder().encodeToString(lastKey.getBytes(StandardCharsets.UTF_8)));
+      xml.append("</NextContinuationToken>");
+    }
+    xml.append("</ListBucketResult>");
+    send(exchange, 200, xml.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void headObject(HttpExchange exchange, String key) throws IOException {
+    StoredObject object = objects.get(key);
+    if (object == null) {
+      sendError(exchange, 404, "NoSuchKey");
+      return;
+    }
+    addObjectHeaders(exchange, object);
+    exchange.getResponseHeaders().set("Content-Length", Integer.toString(object.content.length));
+    sendHeadResponse(exchange, 200);
+  }
+
+  private void getObject(HttpExchange exchange, String key) throws IOException {
+    StoredObject object = objects.get(key);
+    if (object == null) {
+      sendError(exchange, 404, "NoSuchKey");
+      return;
+    }
+    addObjectHeaders(exchange, object);
+    send(exchange, 200, object.content);
+  }
+
+  private void putObject(HttpExchange exchange, String key) throws IOException {
+    byte[] content = exchange.getRequestBody().readAllBytes();
+    if (!store(exchange, key, new StoredObject(content, userHeaders(exchange)))) {
+      sendError(exchange, 412, "PreconditionFailed");
+      return;
+    }
+    exchange.getResponseHeaders().set("ETag", objects.get(key).eTag);
+    exchange.sendResponseHeaders(200, -1);
+  }
+
+  private void createMultipartUpload(HttpExchange exchange, String key) throws IOException {
+    String uploadId = UUID.randomUUID().toString();
+    uploads.put(uploadId, new MultipartUpload(userHeaders(exchange)));
+    send(
+        exchange,
+        200,
+        ("<InitiateMultipartUploadResult><Bucket>"
+                + BUCKET
+                + "</Bucket><Key>"
+                + key
+                + "</Key><UploadId>"
+                + uploadId
+                + "</UploadId></InitiateMultipartUploadResult>")
+            .getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void uploadPart(HttpExchange exchange, Map<String, String> query) throws IOException {
+    partRequests.incrementAndGet();
+    int inFlight = partsInFlight.incrementAndGet();
+    maxPartsInFlight.accumulateAndGet(inFlight, Math::max);
+    try {
+      int partNumber = Integer.parseInt(query.get("partNumber"));
+      byte[] content = exchange.getRequestBody().readAllBytes();
+      Thread.sleep(PART_DELAY_MILLIS);
+      AtomicInteger failures = partFailures.get(partNumber);
+      if (failures != null && failures.getAndDecrement() > 0) {
+        sendError(exchange, 500, "InternalError");
+        return;
+      }
+      MultipartUpload upload = uploads.get(query.get("uploadId"));
+      if (upload == null) {
+        sendError(exchange, 404, "NoSuchUpload");
+        return;
+      }
+      String eTag = quotedMd5(content);
+      upload.parts.put(partNumber, new StoredObject(content, Map.of()));
+      exchange.getResponseHeaders().set("ETag", eTag);
+      exchange.sendResponseHeaders(200, -1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      partsInFlight.decrementAndGet();
+    }
+  }
+
+  private void completeMultipartUpload(HttpExchange exchange, String key, String uploadId)
+      throws IOException {
+    MultipartUpload upload = uploads.get(uploadId);
+    if (upload == null) {
+      sendError(exchange, 404, "NoSuchUpload");
+      return;
+    }
+    Map<String, List<String>> requested =
+        S3Client.elementTexts(exchange.getRequestBody().readAllBytes(), "PartNumber", "ETag");
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (int i = 0; i < requested.get("PartNumber").size(); i++) {
+      StoredObject part = upload.parts.get(Integer.parseInt(requested.get("PartNumber").get(i)));
+      if (part == null || !part.eTag.equals(requested.get("ETag").get(i))) {
+        sendError(exchange, 400, "InvalidPart");
+        return;
+      }
+      content.write(part.content);
+    }
+    if (!store(exchange, key, new StoredObject(content.toByteArray(), upload.userHeaders))) {
+      sendError(exchange, 412, "PreconditionFailed");
+      return;
+    }
+    uploads.remove(uploadId);
+    send(
+        exchange,
+        200,
+        ("<CompleteMultipartUploadResult><Key>"
+                + key
+                + "</Key></CompleteMultipartUploadResult>")
+            .getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** @return false if If-None-Match: * was sent and the key exists */
+  private boolean store(HttpExchange exchange, String key, StoredObject object) {
+    if ("*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      return objects.putIfAbsent(key, object) == null;
+    }
+    objects.put(key, object);
+    return true;
+  }
+
+  private boolean isSignatureValid(HttpExchange exchange) {
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (authorization == null || !authorization.contains("SignedHeaders=")) {
+      return false;
+    }
+    String signedHeaderNames =
+        authorization.substring(
+            authorization.indexOf("SignedHeaders=") + "SignedHeaders=".length(),
+            authorization.indexOf(",", authorization.indexOf("SignedHeaders=")));
+    SortedMap<String, String> signedHeaders = new TreeMap<>();
+    for (String name : signedHeaderNames.split(";")) {
+      String value = exchange.getRequestHeaders().getFirst(name);
+      if (value == null) {
+        return false;
+      }
+      signedHeaders.put(name, value);
+    }
+    String expected =
+        signer.authorization(
+            exchange.getRequestMethod(),
+            exchange.getRequestURI().getRawPath(),
+            exchange.getRequestURI().getRawQuery(),
+            signedHeaders,
+            signedHeaders.get("x-amz-content-sha256"));
+    return expected.equals(authorization);
+  }
+
+  private static Map<String, String> userHeaders(HttpExchange exchange) {
+    Map<String, String> headers = new HashMap<>();
+    for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+      String name = header.getKey().toLowerCase(Locale.ROOT);
+      if (name.startsWith(S3Client.METADATA_PREFIX) || name.equals("content-type")) {
+        headers.put(name, header.getValue().get(0));
+      }
+    }
+    return headers;
+  }
+
+  private static void addObjectHeaders(HttpExchange exchange, StoredObject object) {
+    exchange.getResponseHeaders().set("ETag", object.eTag);
+    exchange
+        .getResponseHeaders()
+        .set(
+            "Last-Modified",
+            DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                object.lastModified.atOffset(ZoneOffset.UTC)));
+    for (Map.Entry<String, String> header : object.userHeaders.entrySet()) {
+      exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+    }
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery != null) {
+      for (String parameter : rawQuery.split("&")) {
+        int equals = parameter.indexOf('=');
+        String name = equals == -1 ? parameter : parameter.substring(0, equals);
+        String value = equals == -1 ? "" : parameter.substring(equals + 1);
+        query.put(
+            URLDecoder.decode(name, StandardCharsets.UTF_8),
+            URLDecoder.decode(value, StandardCharsets.UTF_8));
+      }
+    }
+    return query;
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String code)
+      throws IOException {
+    byte[] body =
+        ("<Error><Code>" + code + "</Code><Message>" + code + "</Message></Error>")
+            .getBytes(StandardCharsets.UTF_8);
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      sendHeadResponse(exchange, status);
+    } else {
+      send(exchange, status, body);
+    }
+  }
+
+  /**
+   * The JDK server frames HEAD responses as chunked, which leaves the connection unusable for the
+   * next request the client sends on it. Closing the connection sidesteps that
+   */
+  private static void sendHeadResponse(HttpExchange exchange, int status) throws IOException {
+    exchange.getResponseHeaders().set("Connection", "close");
+    exchange.sendResponseHeaders(status, -1);
+  }
+
+  private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static String quotedMd5(byte[] content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+      StringBuilder hex = new StringBuilder("\"");
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.append('"').toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class StoredObject {
+    private final byte[] content;
+    private final Map<String, String> userHeaders;
+    private final String eTag;
+    private final Instant lastModified = Instant.now();
+
+    private StoredObject(byte[] content, Map<String, String> userHeaders) {
+      this.content = content;
+      this.userHeaders = userHeaders;
+      this.eTag = quotedMd5(content);
+    }
+  }
+
+  private static final class MultipartUpload {
+    private final Map<String, String> userHeaders;
+    private final Map<Integer, StoredObject> parts = new ConcurrentHashMap<>();
+
+    private MultipartUpload(Map<String, String> userHeaders) {
+      this.userHeaders = userHeaders;
+    }
+  }
+}
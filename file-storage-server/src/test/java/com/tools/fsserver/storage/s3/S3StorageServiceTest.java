@@ -0,0 +1,193 @@
+package com.tools.fsserver.storage.s3;
+
+import com.tools.fsserver.exception.FileNameNotPresentOnServerException;
+import com.tools.fsserver.exception.FileNamePresentOnServerException;
+import com.tools.fsserver.storage.FileMetadata;
+import com.tools.fsserver.storage.StorageChangeListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testing the S3 backend offline against FakeS3Server: single and multipart uploads must round
+ * trip, parts go out in parallel within the connection limit, failing parts are retried or abort
+ * the upload, and listings page through every key
+ */
+public class S3StorageServiceTest {
+
+  private static final String PREFIX = "files/";
+  private static final int PART_SIZE = 1024;
+
+  @TempDir Path tempDir;
+  private FakeS3Server fakeS3;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    fakeS3 = new FakeS3Server();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    fakeS3.close();
+  }
+
+  @Test
+  public void testSmallFileRoundTripsWithItsMetadata() throws Exception {
+    S3StorageService storage = storage(64, 1000);
+    byte[] content = randomContent(PART_SIZE / 2);
+    storage.storeFile("a.txt", write("a.txt", content), "10.0.0.7");
+    assertEquals(Set.of("a.txt"), storage.listStoredFiles());
+    assertArrayEquals(content, readFully(storage, "a.txt"));
+    assertEquals(0, fakeS3.getPartRequests());
+    FileMetadata metadata = storage.getFileMetadata("a.txt");
+    assertEquals(content.length, metadata.getSize());
+    assertEquals(content.length, storage.getFileSize("a.txt"));
+    assertEquals("text/plain", metadata.getContentType());
+    assertEquals("10.0.0.7", metadata.getUploader());
+    assertEquals(64, metadata.getSha256().length());
+    assertEquals(metadata.getSha256(), storage.getFileVersion("a.txt").getTag());
+  }
+
+  @Test
+  public void testLargeFilesAreUploadedInParallelParts() throws Exception {
+    S3StorageService storage = storage(64, 1000);
+    byte[] content = randomContent(10 * PART_SIZE + 100);
+    storage.storeFile("large.bin", write("large.bin", content));
+    assertArrayEquals(content, readFully(storage, "large.bin"));
+    assertEquals(11, fakeS3.getPartRequests());
+    assertTrue(fakeS3.getMaxPartsInFlight() > 1, "parts should overlap");
+    assertTrue(fakeS3.getMaxPartsInFlight() <= 4, "at most partConcurrency parts at a time");
+    assertEquals(0, fakeS3.getPendingUploads());
+  }
+
+  @Test
+  public void testConnectionsToTheStoreAreBounded() throws Exception {
+    S3StorageService storage = storage(2, 1000);
+    byte[] content = randomContent(8 * PART_SIZE);
+    storage.storeFile("large.bin", write("large.bin", content));
+    assertArrayEquals(content, readFully(storage, "large.bin"));
+    assertTrue(fakeS3.getMaxPartsInFlight() <= 2);
+  }
+
+  @Test
+  public void testFailedPartIsRetried() throws Exception {
+    S3StorageService storage = storage(64, 1000);
+    byte[] content = randomContent(4 * PART_SIZE);
+    fakeS3.failPart(3, 1);
+    storage.storeFile("large.bin", write("large.bin", content));
+    assertArrayEquals(content, readFully(storage, "large.bin"));
+    assertEquals(5, fakeS3.getPartRequests());
+  }
+
+  @Test
+  public void testUploadIsAbortedWhenAPartKeepsFailing() throws Exception {
+    S3StorageService storage = storage(64, 1000);
+    fakeS3.failPart(3, Integer.MAX_VALUE);
+    Path upload = write("large.bin", randomContent(6 * PART_SIZE));
+    assertThrows(IOException.class, () -> storage.storeFile("large.bin", upload));
+    assertEquals(Set.of(), storage.listStoredFiles());
+    assertEquals(1, fakeS3.getAbortedUploads());
+    assertEquals(0, fakeS3.getPendingUploads());
+  }
+
+  @Test
+  public void testListingPagesThroughEveryKeyUnderThePrefix() throws Exception {
+    S3StorageService storage = storage(64, 2);
+    for (int i = 0; i < 5; i++) {
+      storage.storeFile("file " + i + ".txt", write("upload" + i, randomContent(10)));
+    }
+    // stored by someone else, outside the files of this server
+    fakeS3
+        .newClient(FakeS3Server.SECRET_KEY, 1)
+        .putObject("other/x.txt", write("other", randomContent(10)), Map.of(), false);
+    assertEquals(
+        Set.of("file 0.txt", "file 1.txt", "file 2.txt", "file 3.txt", "file 4.txt"),
+        storage.listStoredFiles());
+    assertEquals(3, fakeS3.getListRequests());
+  }
+
+  @Test
+  public void testExistingFilesAreNeverOverwritten() throws Exception {
+    S3StorageService storage = storage(64, 1000);
+    Path upload = write("a.bin", randomContent(100));
+    storage.storeFile("a.bin", upload);
+    assertThrows(FileNamePresentOnServerException.class, () -> storage.storeFile("a.bin", upload));
+    // another server racing past the HEAD check is stopped by If-None-Match
+    S3Exception conflict =
+        assertThrows(
+            S3Exception.class,
+            () ->
+                fakeS3
+                    .newClient(FakeS3Server.SECRET_KEY, 1)
+                    .putObject(PREFIX + "a.bin", upload, Map.of(), true));
+    assertEquals(S3Client.PRECONDITION_FAILED, conflict.getStatusCode());
+  }
+
+  @Test
+  public void testMissingFilesAreReportedAsSuch() throws Exception {
+    S3StorageService storage = storage(64, 1000);
+    storage.storeFile("a.bin", write("a.bin", randomContent(100)));
+    storage.deleteFile("a.bin");
+    assertEquals(Set.of(), storage.listStoredFiles());
+    assertThrows(FileNameNotPresentOnServerException.class, () -> storage.retrieveFile("a.bin"));
+    assertThrows(FileNameNotPresentOnServerException.class, () -> storage.deleteFile("a.bin"));
+    assertThrows(FileNameNotPresentOnServerException.class, () -> storage.getFileSize("a.bin"));
+  }
+
+  @Test
+  public void testRequestsWithWrongCredentialsAreRejected() {
+    S3StorageService storage =
+        new S3StorageService(
+            fakeS3.newClient("wrong-secret", 4),
+            PREFIX,
+            PART_SIZE,
+            PART_SIZE,
+            4,
+            1000,
+            StorageChangeListener.NONE);
+    S3Exception rejected = assertThrows(S3Exception.class, storage::listStoredFiles);
+    assertEquals(403, rejected.getStatusCode());
+    assertEquals("SignatureDoesNotMatch", rejected.getErrorCode());
+  }
+
+  private S3StorageService storage(int maxConnections, int listPageSize) {
+    return new S3StorageService(
+        fakeS3.newClient(FakeS3Server.SECRET_KEY, maxConnections),
+        PREFIX,
+        PART_SIZE,
+        PART_SIZE,
+        4,
+        listPageSize,
+        StorageChangeListener.NONE);
+  }
+
+  private Path write(String name, byte[] content) throws IOException {
+    return Files.write(tempDir.resolve(name), content);
+  }
+
+  private static byte[] randomContent(int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+
+  private static byte[] readFully(S3StorageService storage, String fileName) throws Exception {
+    try (InputStream in = storage.retrieveFile(fileName)) {
+      return in.readAllBytes();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.tools.fsserver.tracing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Span bookkeeping of upload traces: nesting through the current thread, W3C trace context
+ * propagation and sampling, and both export formats
+ */
+public class UploadTraceTest {
+
+  private static final String TRACE_PARENT =
+      "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testPhasesNestUnderTheCurrentSpan() {
+    UploadTrace trace = UploadTrace.start("POST /v1/files/a.bin", null, 0);
+    trace.attach();
+    try (TraceSpan store = UploadTrace.startPhase("upload.store")) {
+      try (TraceSpan copy = UploadTrace.startPhase("storage.copy")) {
+        copy.setAttribute(TraceSpan.BYTES, 42L);
+      }
+      UploadTrace.startPhase("storage.metadata").close();
+    } finally {
+      trace.detach();
+    }
+    trace.finish();
+    List<TraceSpan> spans = trace.getSpans();
+    assertEquals(4, spans.size());
+    assertSame(trace.getRoot(), spans.get(0));
+    assertNull(spans.get(0).getParentSpanId());
+    assertEquals(spans.get(0).getSpanId(), spans.get(1).getParentSpanId());
+    assertEquals(spans.get(1).getSpanId(), spans.get(2).getParentSpanId());
+    assertEquals(spans.get(1).getSpanId(), spans.get(3).getParentSpanId());
+    assertEquals(42L, spans.get(2).getAttributes().get(TraceSpan.BYTES));
+    assertTrue(spans.get(0).getDurationNanos() >= spans.get(1).getDurationNanos());
+  }
+
+  @Test
+  public void testPhasesOutsideATracedThreadAreIgnored() throws Exception {
+    UploadTrace trace = UploadTrace.start("POST /v1/files/a.bin", null, 0);
+    trace.attach();
+    try {
+      TraceSpan elsewhere =
+          CompletableFuture.supplyAsync(() -> UploadTrace.startPhase("storage.copy")).get();
+      assertFalse(elsewhere.isRecording());
+      elsewhere.setAttribute(TraceSpan.BYTES, 1L).close();
+    } finally {
+      trace.detach();
+    }
+    assertFalse(UploadTrace.startPhase("storage.copy").isRecording());
+    assertEquals(1, trace.getSpans().size());
+  }
+
+  @Test
+  public void testIncomingTraceContextIsContinued() {
+    UploadTrace trace = UploadTrace.start("POST /v1/files/a.bin", TRACE_PARENT, 0);
+    assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", trace.getTraceId());
+    assertEquals("00f067aa0ba902b7", trace.getRoot().getParentSpanId());
+    assertTrue(trace.isSampled());
+    assertTrue(trace.toTraceParent().startsWith("00-4bf92f3577b34da6a3ce929d0e0e4736-"));
+    assertTrue(trace.toTraceParent().endsWith("-01"));
+    assertFalse(
+        UploadTrace.start("root", TRACE_PARENT.replace("-01", "-00"), 1).isSampled(),
+        "an unsampled parent wins over the ratio");
+  }
+
+  @Test
+  public void testTracesWithoutValidContextAreSampledByRatio() {
+    UploadTrace fresh = UploadTrace.start("root", "00-garbage", 1);
+    assertTrue(fresh.isSampled());
+    assertEquals(32, fresh.getTraceId().length());
+    assertNull(fresh.getRoot().getParentSpanId());
+    assertFalse(UploadTrace.start("root", null, 0).isSampled());
+  }
+
+  @Test
+  public void testRecordedPhasesUseTheGivenTimes() {
+    UploadTrace trace = UploadTrace.start("root", null, 0);
+    long start = trace.getStartNanoTime();
+    TraceSpan receive = trace.recordPhase("upload.receive", start, start + 5_000_000);
+    assertEquals(5_000_000, receive.getDurationNanos());
+    assertEquals(5_000_000, receive.getEndEpochNanos() - receive.getStartEpochNanos());
+    // e.g. a file timestamp taken when the trace started
+    assertEquals(start, trace.toNanoTime(trace.getRoot().getStartEpochNanos() / 1_000_000));
+  }
+
+  @Test
+  public void testFileExportWritesOneJsonObjectPerSpan() throws IOException {
+    UploadTrace trace = UploadTrace.start("POST /v1/files/a\"b.bin", TRACE_PARENT, 0);
+    trace.recordPhase("upload.receive", trace.getStartNanoTime(), trace.getStartNanoTime() + 1)
+        .setAttribute(TraceSpan.BYTES, 7L);
+    trace.getRoot().setAttribute(UploadTracingFilter.STATUS_CODE, 200);
+    trace.finish();
+    Path exportPath = tempDir.resolve("traces").resolve("spans.jsonl");
+    try (TraceExporter exporter =
+        new TraceExporter(TraceExporter.Target.FILE, exportPath, 16)) {
+      exporter.export(trace);
+    }
+    List<String> lines = Files.readAllLines(exportPath);
+    assertEquals(2, lines.size());
+    assertTrue(lines.get(0).startsWith("{\"traceId\":\"4bf92f3577b34da6a3ce929d0e0e4736\""));
+    assertTrue(lines.get(0).contains("\"parentSpanId\":\"00f067aa0ba902b7\""));
+    assertTrue(lines.get(0).contains("\"name\":\"POST /v1/files/a\\\"b.bin\""));
+    assertTrue(lines.get(0).contains("\"http.status_code\":200"));
+    assertTrue(lines.get(1).contains("\"fsserver.bytes\":7"));
+  }
+
+  @Test
+  public void testSummaryListsPhasesInOrder() {
+    UploadTrace trace = UploadTrace.start("POST /v1/files/a.bin", null, 0);
+    long start = trace.getStartNanoTime();
+    trace.recordPhase("upload.dispatch", start + 2_000_000, start + 3_000_000);
+    trace.recordPhase("upload.receive", start, start + 2_000_000)
+        .setAttribute(TraceSpan.BYTES, 10L);
+    trace.getRoot().setAttribute(UploadTracingFilter.STATUS_CODE, 200);
+    trace.finish();
+    String summary = TraceExporter.toSummary(trace);
+    assertTrue(
+        summary.endsWith(
+            "POST /v1/files/a.bin 200 in "
+                + String.format(
+                    Locale.ROOT,
+                    "%.1f",
+                    trace.getRoot().getDurationNanos() / 1_000_000.0)
+                + " ms: upload.receive 2.0 ms (10 bytes), upload.dispatch 1.0 ms"),
+        summary);
+  }
+}